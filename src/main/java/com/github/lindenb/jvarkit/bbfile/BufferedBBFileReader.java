@@ -0,0 +1,267 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.bbfile;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.broad.igv.bbfile.BBFileReader;
+import org.broad.igv.bbfile.BBZoomLevelHeader;
+import org.broad.igv.bbfile.BedFeature;
+import org.broad.igv.bbfile.WigItem;
+import org.broad.igv.bbfile.ZoomDataRecord;
+import org.broad.igv.bbfile.ZoomLevelIterator;
+
+/**
+ * A buffered reader for BigWig and BigBed files that stores the items of the last queried window in memory.
+ * When the queries move forward on a chromosome, the window slides: the items still overlapping
+ * the new window are kept and only the new bases are read from the delegate.
+ * The decompressed data blocks are also kept in a small LRU cache so a block shared by two windows is only inflated once.
+ * A query returns the same items, in the same order, as a query of the delegate.
+ */
+public class BufferedBBFileReader implements Closeable {
+	public static final String OPT_BUFFER_DESC = "When we're looking for values in a large bigwig/bigbed file, load the values in an interval of 'N' bases instead of doing a random access for each variant.";
+	/** default number of decompressed data blocks kept in memory */
+	public static final int DEFAULT_CACHED_BLOCKS = 16;
+	private final BBFileReader delegate;
+	private final int buffSizeInBp;
+	private final Window<WigItem> wigWindow = new Window<WigItem>() {
+		@Override
+		Iterator<WigItem> fetch(final String contig, int start0, int end0) {
+			return delegate.getBigWigIterator(contig, start0, contig, end0, false);
+			}
+		@Override
+		int getStart(final WigItem item) { return item.getStartBase(); }
+		@Override
+		int getEnd(final WigItem item) { return item.getEndBase(); }
+		};
+	private final Window<BedFeature> bedWindow = new Window<BedFeature>() {
+		@Override
+		Iterator<BedFeature> fetch(final String contig, int start0, int end0) {
+			return delegate.getBigBedIterator(contig, start0, contig, end0, false);
+			}
+		@Override
+		int getStart(final BedFeature item) { return item.getStartBase(); }
+		@Override
+		int getEnd(final BedFeature item) { return item.getEndBase(); }
+		};
+
+	/** items of the last queried window. Coordinates are 0-based, end excluded, like in the bbfile library */
+	private abstract class Window<T> {
+		private String contig = null;
+		private int start0 = 0;
+		private int end0 = 0;
+		/** items overlapping the window, in the order of the file */
+		private List<T> buffer = Collections.emptyList();
+		/** max(end-start) in buffer, used to find the items starting before a query */
+		private int maxItemLength = 0;
+		/** true if the items in buffer are sorted on start */
+		private boolean sorted = true;
+
+		abstract Iterator<T> fetch(String contig,int start0,int end0);
+		abstract int getStart(T item);
+		abstract int getEnd(T item);
+
+		/** same test as org.broad.igv.bbfile.RPChromosomeRegion.compareRegions */
+		private boolean accept(final T item,final int start0,final int end0,boolean contained) {
+			final int s = getStart(item);
+			final int e = getEnd(item);
+			if(s>=start0 && e<=end0) return true;
+			if(contained) return false;
+			return e > start0 && s < end0;
+			}
+
+		/** append the items overlapping [start0,end0). If skipPrevious, the items already loaded by the previous window ending at start0 are ignored */
+		private void append(final String contig,int start0,int end0,final boolean skipPrevious) {
+			final Iterator<T> iter = fetch(contig, start0, end0);
+			while(iter!=null && iter.hasNext()) {
+				final T item = iter.next();
+				if(item==null) continue;
+				final int s = getStart(item);
+				/* already in the buffer */
+				if(skipPrevious && (s < start0 || (s==start0 && getEnd(item)==start0))) continue;
+				if(!this.buffer.isEmpty() && s < getStart(this.buffer.get(this.buffer.size()-1))) this.sorted = false;
+				this.maxItemLength = Math.max(this.maxItemLength, getEnd(item) - s);
+				this.buffer.add(item);
+				}
+			}
+
+		List<T> query(final String contig,final int start0,final int end0,boolean contained) {
+			if(this.contig==null || !this.contig.equals(contig) || start0 < this.start0 || end0 > this.end0) {
+				final int newEnd = Math.max(end0, start0 + buffSizeInBp);
+				if(this.contig!=null && this.contig.equals(contig) && start0 >= this.start0 && start0 <= this.end0) {
+					/* slide the window: keep the items overlapping the new window */
+					final List<T> L = new ArrayList<>(this.buffer.size());
+					for(final T item:this.buffer) {
+						if(getEnd(item) >= start0) L.add(item);
+						}
+					this.buffer = L;
+					final int prevEnd = this.end0;
+					this.start0 = start0;
+					this.end0 = newEnd;
+					append(contig, prevEnd, newEnd, true);
+					}
+				else
+					{
+					this.contig = contig;
+					this.start0 = start0;
+					this.end0 = newEnd;
+					this.buffer = new ArrayList<>();
+					this.maxItemLength = 0;
+					this.sorted = true;
+					append(contig, start0, newEnd, false);
+					}
+				}
+			final List<T> L = new ArrayList<>();
+			for(int i= (this.sorted ? lowerBound(start0 - this.maxItemLength) : 0);i< this.buffer.size();i++) {
+				final T item = this.buffer.get(i);
+				if(this.sorted && getStart(item) > end0) break;
+				if(accept(item, start0, end0, contained)) L.add(item);
+				}
+			return L;
+			}
+
+		/** @return the index of the first item in the buffer with start >= pos */
+		private int lowerBound(final int pos) {
+			int lo = 0;
+			int hi = this.buffer.size();
+			while(lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				if(getStart(this.buffer.get(mid)) < pos) {
+					lo = mid + 1;
+					}
+				else
+					{
+					hi = mid;
+					}
+				}
+			return lo;
+			}
+
+		void clear() {
+			this.contig = null;
+			this.buffer = Collections.emptyList();
+			}
+		}
+
+	/**
+	 * @param delegate the delegate {@link BBFileReader}, closed with this reader
+	 * @param buffSizeInBp buffer size in bp
+	 */
+	public BufferedBBFileReader(final BBFileReader delegate,int buffSizeInBp) {
+		this.delegate = delegate;
+		this.buffSizeInBp = buffSizeInBp;
+		if(buffSizeInBp<1) throw new IllegalArgumentException("bad buffer size "+buffSizeInBp);
+		this.delegate.setDataBlockCacheSize(DEFAULT_CACHED_BLOCKS);
+		}
+
+	public BBFileReader getDelegate() {
+		return this.delegate;
+		}
+
+	/**
+	 * get the bigwig items in an interval
+	 * @param contig the contig, as named in the bigwig file
+	 * @param start 1-based start
+	 * @param end 1-based end, inclusive
+	 * @param contained if true, the items must be contained in the interval, else they must overlap the interval
+	 * @return the items, same as {@link BBFileReader#getBigWigIterator(String, int, String, int, boolean)}
+	 */
+	public List<WigItem> queryWig(final String contig,int start,int end,boolean contained) {
+		if(!this.delegate.isBigWigFile()) throw new IllegalStateException("not a bigwig file");
+		return this.wigWindow.query(contig, start-1, end, contained);
+		}
+
+	/**
+	 * get the bigbed features in an interval
+	 * @param contig the contig, as named in the bigbed file
+	 * @param start 1-based start
+	 * @param end 1-based end, inclusive
+	 * @param contained if true, the features must be contained in the interval, else they must overlap the interval
+	 * @return the features, same as {@link BBFileReader#getBigBedIterator(String, int, String, int, boolean)}
+	 */
+	public List<BedFeature> queryBed(final String contig,int start,int end,boolean contained) {
+		if(!this.delegate.isBigBedFile()) throw new IllegalStateException("not a bigbed file");
+		return this.bedWindow.query(contig, start-1, end, contained);
+		}
+
+	/** @return the number of zoom levels in the file */
+	public int getZoomLevelCount() {
+		return this.delegate.getZoomLevels()==null?0:this.delegate.getZoomLevels().getZoomHeaderCount();
+		}
+
+	/**
+	 * @param basesPerItem the resolution needed by the caller
+	 * @return the zoom level (1-based) with the largest reduction level not greater than 'basesPerItem', or 0 if there is no such level
+	 */
+	public int getBestZoomLevel(int basesPerItem) {
+		int best = 0;
+		int bestReduction = 0;
+		for(int level=1;level<=getZoomLevelCount();++level) {
+			final BBZoomLevelHeader header = this.delegate.getZoomLevels().getZoomLevelHeader(level);
+			if(header==null) continue;
+			final int reduction = header.getReductionLevel();
+			if(reduction > basesPerItem || reduction <= bestReduction) continue;
+			best = level;
+			bestReduction = reduction;
+			}
+		return best;
+		}
+
+	/**
+	 * get the summary records of a zoom level in an interval. Much faster than reading all the values of a large interval.
+	 * @param zoomLevel zoom level, 1-based
+	 * @param contig the contig, as named in the file
+	 * @param start 1-based start
+	 * @param end 1-based end, inclusive
+	 * @param contained if true, the records must be contained in the interval, else they must overlap the interval
+	 */
+	public List<ZoomDataRecord> queryZoom(int zoomLevel,final String contig,int start,int end,boolean contained) {
+		final List<ZoomDataRecord> L = new ArrayList<>();
+		final ZoomLevelIterator iter = this.delegate.getZoomLevelIterator(zoomLevel, contig, start-1, contig, end, contained);
+		while(iter.hasNext()) {
+			final ZoomDataRecord rec = iter.next();
+			if(rec==null) break;
+			L.add(rec);
+			}
+		return L;
+		}
+
+	/** close this and the delegate */
+	@Override
+	public void close() {
+		this.wigWindow.clear();
+		this.bedWindow.clear();
+		this.delegate.close();
+		}
+
+	@Override
+	public String toString() {
+		return "BufferedBBFileReader("+this.delegate.getBBFileHeader().getPath()+")";
+		}
+	}
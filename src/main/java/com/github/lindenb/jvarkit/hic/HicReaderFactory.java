@@ -38,6 +38,7 @@ import htsjdk.samtools.seekablestream.SeekableStreamFactory;
  */
 public class HicReaderFactory {
 	private ISeekableStreamFactory seekableStreamFactory= SeekableStreamFactory.getInstance();
+	private int blockCacheSize = 500;
 	
 	public HicReaderFactory setSeekableStreamFactory(final ISeekableStreamFactory seekableStreamFactory) {
 		this.seekableStreamFactory = seekableStreamFactory;
@@ -48,9 +49,19 @@ public class HicReaderFactory {
 		return seekableStreamFactory;
 		}
 	
+	/** set the max number of decoded blocks kept in memory by each reader */
+	public HicReaderFactory setBlockCacheSize(final int blockCacheSize) {
+		this.blockCacheSize = blockCacheSize;
+		return this;
+		}
+	
+	public int getBlockCacheSize() {
+		return blockCacheSize;
+		}
+	
 	public HicReader open(final String pathOrUrl) throws IOException {
 		final SeekableStream sr = getSeekableStreamFactory().getStreamFor(pathOrUrl);
-		return new HicReaderImpl(pathOrUrl, sr);
+		return new HicReaderImpl(pathOrUrl, sr).setBlockCacheSize(getBlockCacheSize());
 		}
 	
 	}
@@ -55,6 +55,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -116,6 +117,67 @@ public class HicReaderImpl implements HicReader {
 	private final Set<Integer> basePairResolutions;
 	/** fragment resolutions */
 	private final Set<Integer> fragmentResolutions;
+	/** parsed footer, read once */
+	private Footer footer = null;
+	/** decoded blocks, key is the file position of the block */
+	private final LRUCache<Long, List<ContactRecord>> blockCache = new LRUCache<>(500);
+	/** normalization vectors, key is the file position of the vector */
+	private final LRUCache<Long, double[]> normVectorCache = new LRUCache<>(50);
+	/** zoom data of the matrices, key is 'file-position unit binsize' */
+	private final LRUCache<String, ZoomData> zoomCache = new LRUCache<>(50);
+	
+	/** a bounded map, the least recently used entries are removed. Counts the hits and the misses */
+	@SuppressWarnings("serial")
+	private static class LRUCache<K,V> extends LinkedHashMap<K,V> {
+		private int capacity;
+		private long hits = 0L;
+		private long misses = 0L;
+		LRUCache(final int capacity) {
+			super(16,0.75f,true);
+			this.capacity = capacity;
+			}
+		void setCapacity(final int capacity) {
+			this.capacity = Math.max(0, capacity);
+			while(size() > this.capacity) {
+				remove(keySet().iterator().next());
+				}
+			}
+		/** get a value, update the counters */
+		V lookup(final K key) {
+			final V value = get(key);
+			if(value==null) {
+				this.misses++;
+				}
+			else
+				{
+				this.hits++;
+				}
+			return value;
+			}
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+			return size() > this.capacity;
+			}
+		@Override
+		public String toString() {
+			return "size:"+size()+"/"+this.capacity+" hits:"+this.hits+" misses:"+this.misses;
+			}
+		}
+	
+	/** master index and index of the normalization vectors */
+	private static class Footer {
+		/** key is 'tid1_tid2' */
+		final Map<String,Long> masterIndex = new HashMap<>();
+		/** key is 'normtype chrIdx unit resolution', null if not read yet */
+		Map<String,IndexEntry> normIndex = null;
+		}
+	
+	/** zoom data for a given resolution of a matrix */
+	private static class ZoomData {
+		int blockBinCount;
+		int blockColumnCount;
+		final Map<Integer, IndexEntry> blockMap = new TreeMap<>();
+		}
 	
 	private static class ContactRecord
 		{
@@ -246,8 +308,41 @@ public class HicReaderImpl implements HicReader {
 		return this.fragmentResolutions;
 		}
 	
+	/** set the max number of decoded blocks kept in memory */
+	public HicReaderImpl setBlockCacheSize(final int n) {
+		this.blockCache.setCapacity(n);
+		return this;
+		}
+	
+	/** set the max number of normalization vectors kept in memory */
+	public HicReaderImpl setNormalizationVectorCacheSize(final int n) {
+		this.normVectorCache.setCapacity(n);
+		return this;
+		}
+	
+	public long getBlockCacheHits() {
+		return this.blockCache.hits;
+		}
+	
+	public long getBlockCacheMisses() {
+		return this.blockCache.misses;
+		}
+	
+	public long getNormalizationVectorCacheHits() {
+		return this.normVectorCache.hits;
+		}
+	
+	public long getNormalizationVectorCacheMisses() {
+		return this.normVectorCache.misses;
+		}
+	
 	@Override
 	public void close() {
+		debug("block cache: "+this.blockCache+" normalization cache: "+this.normVectorCache+" zoom cache: "+this.zoomCache);
+		this.blockCache.clear();
+		this.normVectorCache.clear();
+		this.zoomCache.clear();
+		this.footer = null;
 		CloserUtil.close(this.seekableStream);
 		}
 	
@@ -357,8 +452,8 @@ public class HicReaderImpl implements HicReader {
 			final double c2Norm[];
 			
 			if (!q.normalization.equals(Normalization.NONE)) {
-			    c1Norm = readNormalizationVector(q.normEntry1);
-			    c2Norm = readNormalizationVector(q.normEntry2);
+			    c1Norm = getNormalizationVector(q.normEntry1);
+			    c2Norm = getNormalizationVector(q.normEntry2);
 			    }
 			else
 				{
@@ -500,6 +595,16 @@ public class HicReaderImpl implements HicReader {
 		  }
 		}
 	
+	/** get the normalization vector from the cache or from the file */
+	private double[] getNormalizationVector(final IndexEntry entry) throws IOException {
+		double values[] = this.normVectorCache.lookup(entry.position);
+		if(values==null) {
+			values = readNormalizationVector(entry);
+			this.normVectorCache.put(entry.position, values);
+			}
+		return values;
+		}
+	
 	// reads the normalization vector from the file at the specified location
 	private double[] readNormalizationVector(final IndexEntry entry) throws IOException {
 		  debug("read normalisation " + entry); 
@@ -520,6 +625,19 @@ public class HicReaderImpl implements HicReader {
 	
 	
 	
+	/** get a decoded block from the cache or from the file */
+	private List<ContactRecord> getBlock(final IndexEntry indexEntry) throws IOException {
+		if (indexEntry==null || indexEntry.size == 0) {
+			 return Collections.emptyList();
+		 	}
+		List<ContactRecord> contactRecords = this.blockCache.lookup(indexEntry.position);
+		if(contactRecords==null) {
+			contactRecords = Collections.unmodifiableList(readBlock(indexEntry));
+			this.blockCache.put(indexEntry.position, contactRecords);
+			}
+		return contactRecords;
+		}
+	
 	/**
 	https://github.com/igvteam/juicebox.js/blob/55bd6c7815f9abee74368c14a9d9403d2998313f/js/hicDataset.js#L95 	 
 	https://github.com/igvteam/hic-straw/blob/d428ee7e6df5488dd1295b33a81eeb06adbf7a51/src/hicFile.js#L307 */
@@ -705,6 +823,129 @@ public class HicReaderImpl implements HicReader {
 	}
 
 	
+	private static String normKey(final Normalization normtype,final int chrIdx,final Unit unit,final int resolution) {
+		return normtype.name()+" "+chrIdx+" "+unit.name()+" "+resolution;
+		}
+	
+	/** get the footer. It is parsed once. The index of the normalization vectors is only read when needed */
+	private Footer getFooter(final boolean needNormIndex) throws IOException {
+		if(this.footer!=null && (!needNormIndex || this.footer.normIndex!=null)) return this.footer;
+		
+		final Footer footer = new Footer();
+		debug("seek to "+ masterIndexPosition);
+		this.seekableStream.seek(this.masterIndexPosition);
+		final LittleEndianInputStream fin = this.streamToEndian();
+		final int nBytes = fin.readInt();//nBytes Total size, master index + expected values
+		paranoid.assertGe(nBytes,0);
+		
+		// loop over the entries to find the chr-chr data
+		final int nEntries1 = fin.readInt();
+		paranoid.assertGe(nEntries1, 0);
+		
+		// loop over master index
+		for (int i=0; i<nEntries1; i++) {
+		    final String str = fin.readString();
+		    final long fpos = fin.readLong();
+		    paranoid.assertGe(fpos, 0L);
+		    if(SKIP) {
+		    	fullySkip(fin,Integer.BYTES);//sizeinbytes
+		    	}
+		    else
+		    	{
+		    	fin.readInt();
+		    	}
+		    
+		    final int u  = str.indexOf('_');
+		    if(u==-1) throw new IllegalStateException("Cannot find underscore in "+u);
+		    final int tid1 = Integer.parseInt(str.substring(0,u));
+		    final int tid2 = Integer.parseInt(str.substring(u+1));
+		    paranoid.assertLe(tid1, tid2);
+		    paranoid.assertNull(footer.masterIndex.put(String.valueOf(tid1)+"_"+tid2, fpos));
+		    }
+		
+		if(needNormIndex) {
+			skipExpectedValuesMaps(fin);
+			
+			// Index of normalization vectors
+			final int nEntries2 = fin.readInt();
+			paranoid.assertGe(nEntries2, 0);
+			footer.normIndex = new HashMap<>(nEntries2);
+			for (int i = 0; i < nEntries2; i++) {
+				final Normalization normtype = Normalization.valueOf(fin.readString());
+				final int chrIdx = fin.readInt();
+				final Unit unit1 = Unit.valueOf(fin.readString());
+				final int resolution1 = fin.readInt();
+				final long filePosition = fin.readLong();
+				final int sizeInBytes= fin.readInt();
+				footer.normIndex.putIfAbsent(normKey(normtype, chrIdx, unit1, resolution1), new IndexEntry(sizeInBytes, filePosition));
+				}
+			}
+		this.footer = footer;
+		return footer;
+		}
+	
+	/** reads the raw binned contact matrix at specified resolution
+	 * https://github.com/igvteam/hic-straw/blob/d428ee7e6df5488dd1295b33a81eeb06adbf7a51/src/hicFile.js#L226 */
+	private ZoomData readZoomData(final long offset,final Unit unit,final int binsize) throws IOException {
+		debug("seek matrix at "+offset);
+		seekableStream.seek(offset);  
+		final LittleEndianInputStream in = streamToEndian();
+		if(SKIP)
+			{
+			fullySkip(in,Integer.BYTES * 2);//ignore c1 + c2
+			}
+		else
+			{
+			in.readInt();//c1
+			in.readInt();//c2
+			}
+		
+		//  # of resolution levels (bp and frags)
+		final int nResolutions = in.readInt();
+		paranoid.assertGe(nResolutions, 0);
+		
+		for(int i=0; i<nResolutions;i++) {
+			final ZoomData zoomData = this.readMatrixZoomData(in, unit, binsize);
+			if(zoomData!=null) return zoomData;
+			}
+		throw new IOException("Error finding block data");
+		}
+	
+	/** returns the ZoomData if unit and binsize match, or null */
+	private ZoomData readMatrixZoomData(final LittleEndianInputStream fin,final Unit userUnit,final int userBinSize) throws IOException 
+	  {
+	  debug("read zoom data");
+	  final Unit unit = Unit.valueOf(fin.readString());
+	  fin.readInt(); // Old "zoom" index -- not used
+	  fin.readFloat(); // sumCounts
+	  fin.readFloat(); // occupiedCellCount
+	  fin.readFloat(); // stdDev
+	  fin.readFloat(); // percent95
+	  final int binSize = fin.readInt();
+	  final int blockBinCount = fin.readInt();
+	  final int blockColumnCount = fin.readInt();
+	  
+	  ZoomData zoomData = null;
+	  if (userUnit.equals(unit) && userBinSize == binSize) {
+		zoomData = new ZoomData();
+		zoomData.blockBinCount = blockBinCount;
+		zoomData.blockColumnCount = blockColumnCount;
+	    }
+	  
+	  final int nBlocks  = fin.readInt();
+	  paranoid.assertGe(nBlocks, 0);
+	  
+	  for (int i = 0; i < nBlocks; i++) {
+	    final int blockNumber = fin.readInt();
+	    final long filePosition = fin.readLong();
+	    final int blockSizeInBytes = fin.readInt();
+	    if (zoomData!=null) {
+	    	zoomData.blockMap.put(blockNumber, new IndexEntry(blockSizeInBytes,filePosition));
+	    	}
+	  	}
+	 return zoomData;
+	}
+	
 	private abstract class AbstractQuery
 		{
 		/** user query */
@@ -749,7 +990,7 @@ public class HicReaderImpl implements HicReader {
 		/** zoom data */
 		int blockBinCount;
 		int blockColumnCount;
-		final Map<Integer, IndexEntry> blockMap = new TreeMap<>();
+		Map<Integer, IndexEntry> blockMap = Collections.emptyMap();
 
 		
 		
@@ -799,48 +1040,11 @@ public class HicReaderImpl implements HicReader {
 			}
 		
 		void scanFooter() throws IOException {
-		
-		
-		debug("seek to "+ masterIndexPosition);
-		HicReaderImpl.this.seekableStream.seek(HicReaderImpl.this.masterIndexPosition);
-		final LittleEndianInputStream fin = HicReaderImpl.this.streamToEndian();
-		final int nBytes = fin.readInt();//nBytes Total size, master index + expected values
-		paranoid.assertGe(nBytes,0);
-		
-		// loop over the entries to find the chr-chr data
-		final int nEntries1 = fin.readInt();
-		paranoid.assertGe(nEntries1, 0);
-		
-		// loop over master index
-		for (int i=0; i<nEntries1; i++) {
-		    final String str = fin.readString();
-		    final long fpos = fin.readLong();
-		    paranoid.assertGe(fpos, 0L);
-		    if(SKIP) {
-		    	fullySkip(fin,Integer.BYTES);//sizeinbytes
-		    	}
-		    else
-		    	{
-		    	fin.readInt();
-		    	}
-		    
-		    final int u  = str.indexOf('_');
-		    if(u==-1) throw new IllegalStateException("Cannot find underscore in "+u);
-		    final int tid1 = Integer.parseInt(str.substring(0,u));
-		    final int tid2 = Integer.parseInt(str.substring(u+1));
-		    paranoid.assertLe(tid1, tid2);
-		    
-		    if (tid1==this.qInterval1.referenceIndex && tid2==this.qInterval2.referenceIndex )
-		    	{
-		    	paranoid.assertLt(this.chr_chri_fpos,0);
-		    	this.chr_chri_fpos = fpos;
-		    	// no 'continue', must read whole header
-		    	}
-		    //no 'break', must read whole header
-		    }
+		final Footer footer = getFooter(!Normalization.NONE.equals(this.normalization));
+		final Long fpos = footer.masterIndex.get(String.valueOf(this.qInterval1.referenceIndex)+"_"+this.qInterval2.referenceIndex);
 		
 		 // not found 
-		 if ( this.chr_chri_fpos < 0L ) {
+		 if ( fpos == null ) {
 			this.callback.warning( "File "+getSource()+
 					" doesn't have the given key "+
 					this.qInterval1.referenceIndex + "_" +
@@ -848,31 +1052,12 @@ public class HicReaderImpl implements HicReader {
 					);
 		    return;
 		  	}
+		  this.chr_chri_fpos = fpos;
 		  
 		  if (Normalization.NONE.equals(this.normalization)) return; // no need to read norm vector index
 		  
-		  skipExpectedValuesMaps(fin);
-		  
-		  // Index of normalization vectors
-		  final int nEntries2 = fin.readInt();
-		  paranoid.assertGe(nEntries2, 0);
-		  
-		  for (int i = 0; i < nEntries2 && (this.normEntry1==null || this.normEntry2==null); i++) {
-		    final Normalization normtype = Normalization.valueOf(fin.readString());
-		    final int chrIdx = fin.readInt();
-		    final Unit unit1 = Unit.valueOf(fin.readString());
-		    final int resolution1 = fin.readInt();
-		    
-		    
-		    final long filePosition = fin.readLong();
-		    final int sizeInBytes= fin.readInt();
-		    if (chrIdx == this.qInterval1.referenceIndex && normtype.equals(this.normalization) && unit1.equals(this.unit) && resolution1 == this.binsize) {
-		      this.normEntry1 = new IndexEntry(sizeInBytes, filePosition);
-		    }
-		    if (chrIdx == this.qInterval2.referenceIndex && normtype.equals(this.normalization) && unit1.equals(this.unit) && resolution1 == this.binsize) {
-		      this.normEntry2 = new IndexEntry(sizeInBytes, filePosition);
-		    }
-		  }
+		  this.normEntry1 = footer.normIndex.get(normKey(this.normalization, this.qInterval1.referenceIndex, this.unit, this.binsize));
+		  this.normEntry2 = footer.normIndex.get(normKey(this.normalization, this.qInterval2.referenceIndex, this.unit, this.binsize));
 		  if (this.normEntry1==null || this.normEntry2==null) {
 		   this.callback.warning( "Normalization vectors not found for one or both chromosomes at " + this.binsize + " " + this.unit+" available ");
 		  	}
@@ -881,71 +1066,22 @@ public class HicReaderImpl implements HicReader {
 
 		/** https://github.com/igvteam/hic-straw/blob/d428ee7e6df5488dd1295b33a81eeb06adbf7a51/src/hicFile.js#L226 */
 		protected void readMatrix(final long offset) throws IOException {
-			debug("seek matrix at "+offset);
-			seekableStream.seek(offset);  
-			final LittleEndianInputStream in = streamToEndian();
-			if(SKIP)
-				{
-				fullySkip(in,Integer.BYTES * 2);//ignore c1 + c2
-				}
-			else
-				{
-				in.readInt();//c1
-				in.readInt();//c2
-				}
-			
-			//  # of resolution levels (bp and frags)
-			final int nResolutions = in.readInt();
-			paranoid.assertGe(nResolutions, 0);
-			
-			for(int i=0; i<nResolutions;i++) {
-				if(this.readMatrixZoomData(in)) return;
+			final String key = String.valueOf(offset)+" "+this.unit+" "+this.binsize;
+			ZoomData zoomData = HicReaderImpl.this.zoomCache.lookup(key);
+			if(zoomData==null) {
+				zoomData = readZoomData(offset, this.unit, this.binsize);
+				HicReaderImpl.this.zoomCache.put(key, zoomData);
 				}
-			throw new IOException("Error finding block data");
+			this.blockBinCount = zoomData.blockBinCount;
+			this.blockColumnCount = zoomData.blockColumnCount;
+			this.blockMap = zoomData.blockMap;
 			}
 		
-		private boolean readMatrixZoomData(final LittleEndianInputStream fin) throws IOException 
-		  {
-		  debug("read zoom data");
-		  final Unit unit = Unit.valueOf(fin.readString());
-		  fin.readInt(); // Old "zoom" index -- not used
-		  fin.readFloat(); // sumCounts
-		  fin.readFloat(); // occupiedCellCount
-		  fin.readFloat(); // stdDev
-		  fin.readFloat(); // percent95
-		  final int binSize = fin.readInt();
-		  final int blockBinCount = fin.readInt();
-		  final int blockColumnCount = fin.readInt();
-		  //debug("readMatrixZoomData "+unit +" "+binSize+" "+blockBinCount+" "+blockColumnCount);
-		  
-		  boolean storeData=false;
-		  if (this.unit.equals(unit) && this.binsize == binSize) {
-			this.blockBinCount = blockBinCount;
-			this.blockColumnCount = blockColumnCount;
-			storeData = true;
-		    }
-		  
-		  
-		  final int nBlocks  = fin.readInt();
-		  paranoid.assertGe(nBlocks, 0);
-		  
-		  for (int i = 0; i < nBlocks; i++) {
-		    final int blockNumber = fin.readInt();
-		    final long filePosition = fin.readLong();
-		    final int blockSizeInBytes = fin.readInt();
-		    final IndexEntry entry = new IndexEntry(blockSizeInBytes,filePosition);
-		    if (storeData) {
-		    	this.blockMap.put(blockNumber, entry);
-		    	}
-		  	}
-		 return storeData;
-		}	
-		
 		/**
 		https://github.com/igvteam/juicebox.js/blob/55bd6c7815f9abee74368c14a9d9403d2998313f/js/hicDataset.js#L95 	 
 		https://github.com/igvteam/hic-straw/blob/d428ee7e6df5488dd1295b33a81eeb06adbf7a51/src/hicFile.js#L307 */
 		private List<ContactRecord> readBlockId(final int blockNumber) throws IOException {
-			return readBlock(this.blockMap.get(blockNumber));
+			return getBlock(this.blockMap.get(blockNumber));
 			
 		 	}
 		}
@@ -0,0 +1,360 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * A SeekableStream for http, reading the remote file by fixed-size aligned blocks.
+ * The blocks are kept in a LRU cache in memory and, if a directory was defined and the server
+ * sent an ETag, in a persistent cache on disk keyed by URL+ETag.
+ * When the blocks are read sequentially, the next blocks are fetched ahead by parallel range requests.
+ */
+class CachingSeekableHTTPStream extends SeekableStream {
+	private static final Logger LOG = Logger.build(CachingSeekableHTTPStream.class).make();
+	private final URL url;
+	private final long contentLength;
+	private final String etag;
+	private final CloseableHttpClient httpClient;
+	/** one context per thread, HttpClientContext is not thread safe */
+	private final ThreadLocal<HttpClientContext> clientContexts;
+	private final int blockSize;
+	private final int prefetch;
+	/** directory for this URL+ETag in the disk cache, or null */
+	private final Path blockDirectory;
+	/** LRU cache of blocks in memory */
+	private final Map<Long, byte[]> memoryCache;
+	/** blocks being fetched ahead */
+	private final Map<Long, Future<byte[]>> inFlight = new HashMap<>();
+	private final ExecutorService executor;
+	private long position = 0L;
+	/** current block */
+	private byte[] block = null;
+	private long blockIndex = -1L;
+	private long lastFetchedIndex = -2L;
+	private boolean closed = false;
+
+	CachingSeekableHTTPStream(
+		final URL url,
+		final long contentLength,
+		final String etagOrNull,
+		final CloseableHttpClient httpClient,
+		final HttpClientContext clientContextOrNull,
+		final int blockSize,
+		final int memoryBlocks,
+		final Path cacheDirectoryOrNull,
+		final int prefetch
+		) {
+		if(blockSize<=0) throw new IllegalArgumentException("bad block size "+blockSize);
+		if(memoryBlocks<=0) throw new IllegalArgumentException("bad number of blocks in memory "+memoryBlocks);
+		if(prefetch<0) throw new IllegalArgumentException("bad number of prefetched blocks "+prefetch);
+		this.url = url;
+		this.contentLength = contentLength;
+		this.etag = StringUtils.isBlank(etagOrNull)?null:etagOrNull;
+		this.httpClient = httpClient;
+		final RequestConfig requestConfig = clientContextOrNull==null?null:clientContextOrNull.getRequestConfig();
+		this.clientContexts = ThreadLocal.withInitial(()->{
+			final HttpClientContext ctx = HttpClientContext.create();
+			if(requestConfig!=null) ctx.setRequestConfig(requestConfig);
+			return ctx;
+			});
+		this.blockSize = blockSize;
+		this.prefetch = prefetch;
+		this.memoryCache = new LinkedHashMap<Long, byte[]>(memoryBlocks, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+				return size() > memoryBlocks;
+				}
+			};
+		/* without an ETag, we cannot know if the file on disk is outdated */
+		if(cacheDirectoryOrNull!=null && this.etag!=null) {
+			this.blockDirectory = cacheDirectoryOrNull.resolve(StringUtils.md5(url.toExternalForm()+"\t"+this.etag)+"."+blockSize);
+			}
+		else
+			{
+			this.blockDirectory = null;
+			}
+		if(prefetch>0) {
+			this.executor = Executors.newFixedThreadPool(prefetch, R->{
+				final Thread t = new Thread(R, "http-prefetch");
+				t.setDaemon(true);
+				return t;
+				});
+			}
+		else
+			{
+			this.executor = null;
+			}
+		}
+
+	@Override
+	public long position() {
+		return this.position;
+		}
+
+	@Override
+	public long length() {
+		return this.contentLength;
+		}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long bytesToSkip = Math.max(0L,Math.min(n, this.contentLength - this.position));
+		this.position += bytesToSkip;
+		return bytesToSkip;
+		}
+
+	@Override
+	public boolean eof() throws IOException {
+		return this.position >= this.contentLength;
+		}
+
+	@Override
+	public void seek(final long position) throws IOException {
+		if(position<0L) throw new IOException("negative position "+position);
+		this.position = position;
+		}
+
+	/** number of bytes in block 'index' */
+	private int getBlockLength(final long index) {
+		return (int)Math.min(this.blockSize, this.contentLength - index * this.blockSize);
+		}
+
+	private Path getBlockPath(final long index) {
+		return this.blockDirectory.resolve(String.valueOf(index));
+		}
+
+	/** fetch a block from the disk cache or from the server. May be called by the prefetching threads. */
+	private byte[] fetchBlock(final long index) throws IOException {
+		final int len = getBlockLength(index);
+		if(this.blockDirectory!=null) {
+			final Path path = getBlockPath(index);
+			if(Files.exists(path)) {
+				try {
+					final byte[] array = Files.readAllBytes(path);
+					if(array.length==len) return array;
+					}
+				catch(final IOException err) {
+					LOG.warn(err);
+					}
+				}
+			}
+		final byte[] array = download(index * this.blockSize, len);
+		if(this.blockDirectory!=null) {
+			saveBlock(index, array);
+			}
+		return array;
+		}
+
+	/** download 'len' bytes at offset 'start' */
+	private byte[] download(final long start, final int len) throws IOException {
+		final HttpGet httpGet = new HttpGet(this.url.toExternalForm());
+		final String byteRange = "bytes=" + start + "-" + (start + len - 1);
+		httpGet.addHeader("Range", byteRange);
+		try(CloseableHttpResponse httpResponse = this.httpClient.execute(httpGet, this.clientContexts.get())) {
+			if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT ) {
+				throw new IOException("Unexpected Http status code "
+						+ httpResponse.getStatusLine()+" for "+ this.url +" in range "+byteRange);
+				}
+			if(this.etag!=null) {
+				final Header h = httpResponse.getFirstHeader("ETag");
+				if(h!=null && !this.etag.equals(h.getValue())) {
+					throw new IOException("ETag of "+this.url+" has changed from "+this.etag+" to "+h.getValue());
+					}
+				}
+			final byte[] array = new byte[len];
+			try(InputStream is = httpResponse.getEntity().getContent()) {
+				IOUtils.readFully(is, array, 0, len);
+				}
+			return array;
+			}
+		}
+
+	/** save a block in the disk cache. Errors are only logged. */
+	private void saveBlock(final long index, final byte[] array) {
+		Path tmp = null;
+		try {
+			Files.createDirectories(this.blockDirectory);
+			final Path path = getBlockPath(index);
+			tmp = this.blockDirectory.resolve(index+".tmp."+Long.toHexString(System.nanoTime())+"."+Thread.currentThread().getId());
+			try(OutputStream out = Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				out.write(array);
+				}
+			try {
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+			catch(final AtomicMoveNotSupportedException err) {
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+				}
+			tmp = null;
+			}
+		catch(final IOException err) {
+			LOG.warn(err);
+			}
+		finally
+			{
+			if(tmp!=null) {
+				try { Files.deleteIfExists(tmp);} catch(final IOException err2) {}
+				}
+			}
+		}
+
+	/** move the blocks fetched ahead to the memory cache */
+	private void collectPrefetched() throws IOException {
+		final Iterator<Map.Entry<Long, Future<byte[]>>> iter = this.inFlight.entrySet().iterator();
+		while(iter.hasNext()) {
+			final Map.Entry<Long, Future<byte[]>> entry = iter.next();
+			if(!entry.getValue().isDone()) continue;
+			iter.remove();
+			try {
+				this.memoryCache.put(entry.getKey(), entry.getValue().get());
+				}
+			catch(final InterruptedException|ExecutionException err) {
+				/* ignore, the block will be fetched again if needed */
+				}
+			}
+		}
+
+	private byte[] waitFor(final Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof IOException) throw (IOException)err.getCause();
+			throw new IOException(err.getCause());
+			}
+		}
+
+	/** fetch the next blocks if the file is read sequentially */
+	private void schedulePrefetch(final long index) {
+		final boolean sequential = (index == this.lastFetchedIndex + 1L);
+		this.lastFetchedIndex = index;
+		if(this.executor==null || !sequential) return;
+		for(long i = index + 1; i <= index + this.prefetch && i * this.blockSize < this.contentLength; i++) {
+			final Long key = i;
+			if(this.memoryCache.containsKey(key) || this.inFlight.containsKey(key)) continue;
+			this.inFlight.put(key, this.executor.submit(()->fetchBlock(key)));
+			}
+		}
+
+	/** load the block containing the current position */
+	private void loadBlock() throws IOException {
+		if(this.closed) throw new IOException("stream was closed");
+		final long index = this.position / this.blockSize;
+		if(index == this.blockIndex) return;
+		collectPrefetched();
+		final Long key = index;
+		byte[] array = this.memoryCache.get(key);
+		if(array==null) {
+			final Future<byte[]> future = this.inFlight.remove(key);
+			array = (future!=null ? waitFor(future) : fetchBlock(index));
+			this.memoryCache.put(key, array);
+			}
+		schedulePrefetch(index);
+		this.block = array;
+		this.blockIndex = index;
+		}
+
+	@Override
+	public int read() throws IOException {
+		if(eof()) return -1;
+		loadBlock();
+		final int c = this.block[(int)(this.position - this.blockIndex * this.blockSize)] & 0xFF;
+		this.position++;
+		return c;
+		}
+
+	@Override
+	public int read(final byte[] array, final int offset, final int len) throws IOException {
+		if(len==0) return 0;
+		if(eof()) return -1;
+		int n = 0;
+		while(n < len && !eof()) {
+			loadBlock();
+			final int blockOffset = (int)(this.position - this.blockIndex * this.blockSize);
+			final int count = Math.min(len - n, this.block.length - blockOffset);
+			System.arraycopy(this.block, blockOffset, array, offset + n, count);
+			n += count;
+			this.position += count;
+			}
+		return n;
+		}
+
+	@Override
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		if(this.executor!=null) this.executor.shutdownNow();
+		this.inFlight.clear();
+		this.memoryCache.clear();
+		this.block = null;
+		CloserUtil.close(this.httpClient);
+		}
+
+	@Override
+	public String getSource() {
+		return this.url.toString();
+		}
+
+	@Override
+	public String toString() {
+		return "CachingSeekableHTTPStream("+this.url+")";
+		}
+	}
@@ -28,6 +28,8 @@ package com.github.lindenb.jvarkit.io;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 
@@ -56,6 +58,10 @@ import htsjdk.samtools.util.CloserUtil;
  * 
  * Custom ISeekableStreamFactory, handle user/password for URLs.
  * Used for BBFile constructor for remote data or HicFileReader,
+ * 
+ * If the block cache is enabled ( <code>setUsingBlockCache(true)</code> or <code>-Djvarkit.http.cache=true</code> ),
+ * the remote files are read by fixed-size aligned blocks kept in a LRU cache in memory
+ * and, optionally, in a persistent directory ( <code>-Djvarkit.http.cache.dir=/path/to/dir</code> ).
  *
  */
 public class CustomSeekableStreamFactory 
@@ -69,6 +75,16 @@ public class CustomSeekableStreamFactory
 	private String userAgent = null;
 	// use httpGet instead of httpHead to get the content-length
 	private boolean usingHttpHead = true;
+	// use a block cache
+	private boolean usingBlockCache = Boolean.getBoolean("jvarkit.http.cache");
+	// size of a block in the cache
+	private int cacheBlockSize = Integer.getInteger("jvarkit.http.cache.block.size", 64 * 1024);
+	// number of blocks kept in memory
+	private int cacheMemoryBlocks = Integer.getInteger("jvarkit.http.cache.memory.blocks", 256);
+	// persistent block cache, or null
+	private Path cacheDirectory = StringUtils.isBlank(System.getProperty("jvarkit.http.cache.dir"))?null:Paths.get(System.getProperty("jvarkit.http.cache.dir"));
+	// number of blocks fetched ahead when the file is read sequentially
+	private int cachePrefetchBlocks = Integer.getInteger("jvarkit.http.cache.prefetch", 2);
 	
 	
 	
@@ -139,6 +155,59 @@ public class CustomSeekableStreamFactory
 		return userAgent;
 		}
 	
+	/** read the remote files by blocks kept in a cache. Default is the system property <code>jvarkit.http.cache</code> */
+	public CustomSeekableStreamFactory setUsingBlockCache(boolean usingBlockCache) {
+		this.usingBlockCache = usingBlockCache;
+		return this;
+		}
+	
+	public boolean isUsingBlockCache() {
+		return usingBlockCache;
+		}
+	
+	/** size of a block in the cache */
+	public CustomSeekableStreamFactory setCacheBlockSize(int cacheBlockSize) {
+		if(cacheBlockSize<=0) throw new IllegalArgumentException("bad block size "+cacheBlockSize);
+		this.cacheBlockSize = cacheBlockSize;
+		return this;
+		}
+	
+	public int getCacheBlockSize() {
+		return cacheBlockSize;
+		}
+	
+	/** max number of blocks kept in memory for each stream */
+	public CustomSeekableStreamFactory setCacheMemoryBlocks(int cacheMemoryBlocks) {
+		if(cacheMemoryBlocks<=0) throw new IllegalArgumentException("bad number of blocks "+cacheMemoryBlocks);
+		this.cacheMemoryBlocks = cacheMemoryBlocks;
+		return this;
+		}
+	
+	public int getCacheMemoryBlocks() {
+		return cacheMemoryBlocks;
+		}
+	
+	/** directory for the persistent block cache, or null. Only used if the server sends an ETag */
+	public CustomSeekableStreamFactory setCacheDirectory(final Path cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+		return this;
+		}
+	
+	public Path getCacheDirectory() {
+		return cacheDirectory;
+		}
+	
+	/** number of blocks fetched ahead, by parallel requests, when the file is read sequentially. 0 to disable */
+	public CustomSeekableStreamFactory setCachePrefetchBlocks(int cachePrefetchBlocks) {
+		if(cachePrefetchBlocks<0) throw new IllegalArgumentException("bad number of blocks "+cachePrefetchBlocks);
+		this.cachePrefetchBlocks = cachePrefetchBlocks;
+		return this;
+		}
+	
+	public int getCachePrefetchBlocks() {
+		return cachePrefetchBlocks;
+		}
+	
 	private ISeekableStreamFactory getDelegate() {
 		return this.defaultInstance;
 	}
@@ -210,6 +279,12 @@ public class CustomSeekableStreamFactory
 			provider.setCredentials( AuthScope.ANY, new UsernamePasswordCredentials(p_user,p_password));
 			hb.setDefaultCredentialsProvider(provider);
 			}
+		
+		if(this.isUsingBlockCache()) {
+			// one connection for the reader, one for each prefetching thread
+			hb.setMaxConnPerRoute(1 + this.getCachePrefetchBlocks());
+			hb.setMaxConnTotal(1 + this.getCachePrefetchBlocks());
+			}
 			
 		
 		final CloseableHttpClient httpClient = hb.build();
@@ -269,7 +344,21 @@ public class CustomSeekableStreamFactory
 				httpClient.close();
  		        throw new IOException(msg,err);
 				}
+			final Header etagHeader = response.getFirstHeader("ETag");
 			response.close();
+			if(this.isUsingBlockCache()) {
+				return new CachingSeekableHTTPStream(
+					url,
+					contentLength,
+					etagHeader==null?null:etagHeader.getValue(),
+					httpClient,
+					clientContext,
+					this.getCacheBlockSize(),
+					this.getCacheMemoryBlocks(),
+					this.getCacheDirectory(),
+					this.getCachePrefetchBlocks()
+					);
+				}
 			final ApacheSeekableHTTPStream stream = new ApacheSeekableHTTPStream(
 				url,
 				contentLength,
@@ -79,6 +79,17 @@ import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
 
 public class IOUtils {
+	/** number of threads used to (de)compress BGZF streams. 1: use the htsjdk streams */
+	private static int bgzfThreads = Math.max(1, Integer.getInteger("jvarkit.bgzf.threads", 1));
+	
+	/** set the number of threads used to (de)compress the BGZF streams opened by this class. Default is 1 (htsjdk streams) or the value of the java property <code>jvarkit.bgzf.threads</code> */
+	public static void setBgzfThreads(final int n) {
+		bgzfThreads = Math.max(1, n);
+		}
+	/** get the number of threads used to (de)compress the BGZF streams opened by this class */
+	public static int getBgzfThreads() {
+		return bgzfThreads;
+		}
 	/*
 	private static abstract class AbstractErrorChecker implements BooleanSupplier
 		{
@@ -288,6 +299,7 @@ public class IOUtils {
 				buffer[8]==BlockCompressedStreamConstants.GZIP_XFL
 				)
 				{
+				if(getBgzfThreads()>1) return new ParallelBgzfInputStream(push_back, getBgzfThreads());
 				return new BlockCompressedInputStream(push_back);
 				}
 			}
@@ -410,6 +422,13 @@ public class IOUtils {
 	    	final String base = file.getFileName().toString();
 		    if (base.endsWith(".vcf.gz") || base.endsWith(".bgz"))
 		    	{
+		    	if(getBgzfThreads()>1) {
+		    		return new ParallelBgzfOutputStream(
+		    			Files.newOutputStream(file),
+		    			BlockCompressedOutputStream.getDefaultCompressionLevel(),
+		    			getBgzfThreads()
+		    			);
+		    		}
 		        return new BlockCompressedOutputStream(
 		        		file,
 		        		BlockCompressedOutputStream.getDefaultCompressionLevel(),
@@ -745,12 +764,13 @@ public class IOUtils {
 		 if(input==null) throw new NullPointerException("input is null");
 		 if(input instanceof GZIPInputStream) return input;
 		 if(input instanceof BlockCompressedInputStream) return input;
+		 if(input instanceof ParallelBgzfInputStream) return input;
 		 final PushbackInputStream pb = new PushbackInputStream( input, 2 ); //we need a pushbackstream to look ahead
 	     final byte [] signature = new byte[2];
 	     pb.read( signature ); //read the signature
 	     pb.unread( signature ); //push back the signature to the stream
 	     if(isGZipCompressed(signature)) //check if matches standard gzip magic number
-	       return new GZIPInputStream( pb );
+	       return getBgzfThreads()>1 ? tryBGZIP(pb) : new GZIPInputStream( pb );
 	     else 
 	       return pb;
 	}
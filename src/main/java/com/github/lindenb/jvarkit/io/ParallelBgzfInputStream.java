@@ -0,0 +1,225 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * A BGZF input stream reading the compressed blocks ahead and inflating them using a pool of threads.
+ * The compressed blocks are read by the calling thread.
+ */
+public class ParallelBgzfInputStream extends InputStream {
+	private static final byte[] NO_DATA = new byte[0];
+	private final InputStream in;
+	private final ExecutorService executor;
+	/** max number of blocks read ahead */
+	private final int maxBlocksInFlight;
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	/** all the inflaters created by the threads, released in close() */
+	private final List<Inflater> allInflaters = Collections.synchronizedList(new ArrayList<>());
+	private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(()->{
+		final Inflater inflater = new Inflater(true);
+		this.allInflaters.add(inflater);
+		return inflater;
+		});
+	private byte[] block = NO_DATA;
+	private int blockPos = 0;
+	private boolean eof = false;
+	private boolean closed = false;
+
+	/**
+	 * @param in the BGZF stream, closed at the end
+	 * @param nThreads number of inflating threads
+	 */
+	public ParallelBgzfInputStream(final InputStream in, final int nThreads) {
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1 :"+nThreads);
+		this.in = in;
+		this.maxBlocksInFlight = nThreads * 4;
+		this.executor = Executors.newFixedThreadPool(nThreads, R->{
+			final Thread t = new Thread(R, "bgzf-inflater");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+
+	/** read one compressed block, or null at the end of the stream */
+	private byte[] readCompressedBlock() throws IOException {
+		final byte[] header = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+		int n = 0;
+		while(n < header.length) {
+			final int count = this.in.read(header, n, header.length - n);
+			if(count==-1) break;
+			n += count;
+			}
+		if(n==0) return null;
+		if(n!=header.length ||
+			header[0]!=BlockCompressedStreamConstants.GZIP_ID1 ||
+			header[1]!=(byte)BlockCompressedStreamConstants.GZIP_ID2 ||
+			header[3]!=BlockCompressedStreamConstants.GZIP_FLG ||
+			header[12]!=BlockCompressedStreamConstants.BGZF_ID1 ||
+			header[13]!=BlockCompressedStreamConstants.BGZF_ID2) {
+			throw new IOException("Not a valid BGZF block");
+			}
+		final int blockSize = ((header[BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET] & 0xFF) |
+				((header[BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET+1] & 0xFF) << 8)) + 1;
+		final byte[] compressed = new byte[blockSize];
+		System.arraycopy(header, 0, compressed, 0, header.length);
+		IOUtils.readFully(this.in, compressed, header.length, blockSize - header.length);
+		return compressed;
+		}
+
+	/** inflate a compressed block. Called by the pool of threads. */
+	private byte[] inflateBlock(final byte[] compressed) throws IOException {
+		final int footer = compressed.length - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final int isize = (compressed[footer+4] & 0xFF) |
+				((compressed[footer+5] & 0xFF) << 8) |
+				((compressed[footer+6] & 0xFF) << 16) |
+				((compressed[footer+7] & 0xFF) << 24);
+		if(isize==0) return NO_DATA;
+		final byte[] data = new byte[isize];
+		final Inflater inflater = this.inflaters.get();
+		inflater.reset();
+		inflater.setInput(compressed, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, footer - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+		try {
+			int n = 0;
+			while(n < isize) {
+				final int count = inflater.inflate(data, n, isize - n);
+				if(count==0 && (inflater.finished() || inflater.needsInput())) break;
+				n += count;
+				}
+			if(n!=isize) throw new IOException("Did not inflate the expected number of bytes: "+n+"/"+isize);
+			}
+		catch(final DataFormatException err) {
+			throw new IOException(err);
+			}
+		return data;
+		}
+
+	/** read the compressed blocks ahead */
+	private void fill() throws IOException {
+		while(!this.eof && this.pending.size() < this.maxBlocksInFlight) {
+			final byte[] compressed = readCompressedBlock();
+			if(compressed==null) {
+				this.eof = true;
+				break;
+				}
+			this.pending.add(this.executor.submit(()->inflateBlock(compressed)));
+			}
+		}
+
+	/** @return false if there is no more data */
+	private boolean nextBlock() throws IOException {
+		if(this.closed) throw new IOException("stream was closed");
+		while(this.blockPos >= this.block.length) {
+			fill();
+			if(this.pending.isEmpty()) return false;
+			try {
+				this.block = this.pending.removeFirst().get();
+				this.blockPos = 0;
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				throw new IOException(err);
+				}
+			catch(final ExecutionException err) {
+				if(err.getCause() instanceof IOException) throw (IOException)err.getCause();
+				throw new IOException(err.getCause());
+				}
+			}
+		return true;
+		}
+
+	@Override
+	public int read() throws IOException {
+		if(!nextBlock()) return -1;
+		return this.block[this.blockPos++] & 0xFF;
+		}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if(len==0) return 0;
+		if(!nextBlock()) return -1;
+		final int n = Math.min(len, this.block.length - this.blockPos);
+		System.arraycopy(this.block, this.blockPos, b, off, n);
+		this.blockPos += n;
+		return n;
+		}
+
+	@Override
+	public int available() throws IOException {
+		return this.closed ? 0 : this.block.length - this.blockPos;
+		}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		long skipped = 0L;
+		while(skipped < n && nextBlock()) {
+			final int count = (int)Math.min(n - skipped, this.block.length - this.blockPos);
+			this.blockPos += count;
+			skipped += count;
+			}
+		return skipped;
+		}
+
+	@Override
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		this.pending.clear();
+		this.executor.shutdownNow();
+		try {
+			this.executor.awaitTermination(1L, TimeUnit.MINUTES);
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			}
+		/* release the native memory of the zlib streams */
+		synchronized(this.allInflaters) {
+			for(final Inflater inflater: this.allInflaters) inflater.end();
+			this.allInflaters.clear();
+			}
+		this.in.close();
+		}
+
+	@Override
+	public String toString() {
+		return "ParallelBgzfInputStream";
+		}
+	}
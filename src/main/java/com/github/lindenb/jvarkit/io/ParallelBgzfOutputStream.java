@@ -0,0 +1,228 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * A BGZF output stream deflating the blocks using a pool of threads.
+ * The blocks are written in order, the output is the same as the output of
+ * htsjdk BlockCompressedOutputStream and can be indexed with tabix.
+ */
+public class ParallelBgzfOutputStream extends OutputStream {
+	private final OutputStream out;
+	private final int compressionLevel;
+	private final ExecutorService executor;
+	/** max number of blocks being compressed */
+	private final int maxBlocksInFlight;
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	/** all the deflaters created by the threads, released in close() */
+	private final List<Deflater> allDeflaters = Collections.synchronizedList(new ArrayList<>());
+	private final ThreadLocal<Deflater> deflaters;
+	private final ThreadLocal<Deflater> noCompressionDeflaters = ThreadLocal.withInitial(()->newDeflater(Deflater.NO_COMPRESSION));
+	private byte[] buffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+	private int bufferSize = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param out the delegate output stream, closed at the end
+	 * @param compressionLevel deflate level
+	 * @param nThreads number of compressing threads
+	 */
+	public ParallelBgzfOutputStream(final OutputStream out, final int compressionLevel, final int nThreads) {
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1 :"+nThreads);
+		if(compressionLevel<0 || compressionLevel>9) throw new IllegalArgumentException("bad compression level "+compressionLevel);
+		this.out = out;
+		this.compressionLevel = compressionLevel;
+		this.maxBlocksInFlight = nThreads * 4;
+		this.deflaters = ThreadLocal.withInitial(()->newDeflater(this.compressionLevel));
+		this.executor = Executors.newFixedThreadPool(nThreads, R->{
+			final Thread t = new Thread(R, "bgzf-deflater");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+
+	private Deflater newDeflater(final int level) {
+		final Deflater deflater = new Deflater(level, true);
+		this.allDeflaters.add(deflater);
+		return deflater;
+		}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if(this.bufferSize == this.buffer.length) submitBlock();
+		this.buffer[this.bufferSize++] = (byte)b;
+		}
+
+	@Override
+	public void write(final byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(this.bufferSize == this.buffer.length) submitBlock();
+			final int n = Math.min(len, this.buffer.length - this.bufferSize);
+			System.arraycopy(b, off, this.buffer, this.bufferSize, n);
+			this.bufferSize += n;
+			off += n;
+			len -= n;
+			}
+		}
+
+	/** send the current buffer to the pool of threads */
+	private void submitBlock() throws IOException {
+		if(this.closed) throw new IOException("stream was closed");
+		if(this.bufferSize==0) return;
+		final byte[] data = this.buffer;
+		final int len = this.bufferSize;
+		this.buffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+		this.bufferSize = 0;
+		this.pending.add(this.executor.submit(()->deflateBlock(data, len)));
+		while(this.pending.size() > this.maxBlocksInFlight) {
+			writePending();
+			}
+		}
+
+	/** wait for the oldest block and write it */
+	private void writePending() throws IOException {
+		try {
+			this.out.write(this.pending.removeFirst().get());
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			throw new IOException(err.getCause());
+			}
+		}
+
+	/** create a BGZF block from 'len' bytes of 'data'. Called by the pool of threads. */
+	private byte[] deflateBlock(final byte[] data, final int len) {
+		final byte[] compressed = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+		final int maxDeflated = compressed.length - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		Deflater deflater = this.deflaters.get();
+		deflater.reset();
+		deflater.setInput(data, 0, len);
+		deflater.finish();
+		int deflatedSize = deflater.deflate(compressed, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, maxDeflated);
+		if(!deflater.finished()) {
+			/* data cannot be compressed: store it */
+			deflater = this.noCompressionDeflaters.get();
+			deflater.reset();
+			deflater.setInput(data, 0, len);
+			deflater.finish();
+			deflatedSize = deflater.deflate(compressed, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, maxDeflated);
+			if(!deflater.finished()) throw new IllegalStateException("cannot store the block");
+			}
+		final int blockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + deflatedSize + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		/* header */
+		compressed[0] = BlockCompressedStreamConstants.GZIP_ID1;
+		compressed[1] = (byte)BlockCompressedStreamConstants.GZIP_ID2;
+		compressed[2] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+		compressed[3] = (byte)BlockCompressedStreamConstants.GZIP_FLG;
+		/* MTIME=0, XFL=0 */
+		compressed[9] = (byte)BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+		writeShort(compressed, 10, BlockCompressedStreamConstants.GZIP_XLEN);
+		compressed[12] = BlockCompressedStreamConstants.BGZF_ID1;
+		compressed[13] = BlockCompressedStreamConstants.BGZF_ID2;
+		writeShort(compressed, 14, BlockCompressedStreamConstants.BGZF_LEN);
+		writeShort(compressed, BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET, blockSize - 1);
+		/* footer */
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+		final int footer = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + deflatedSize;
+		writeInt(compressed, footer, (int)crc.getValue());
+		writeInt(compressed, footer + 4, len);
+		return Arrays.copyOf(compressed, blockSize);
+		}
+
+	private static void writeShort(final byte[] array, final int off, final int v) {
+		array[off] = (byte)(v & 0xFF);
+		array[off+1] = (byte)((v >> 8) & 0xFF);
+		}
+
+	private static void writeInt(final byte[] array, final int off, final int v) {
+		writeShort(array, off, v & 0xFFFF);
+		writeShort(array, off+2, (v >>> 16) & 0xFFFF);
+		}
+
+	/** writes the current block and all the pending blocks */
+	@Override
+	public void flush() throws IOException {
+		submitBlock();
+		while(!this.pending.isEmpty()) {
+			writePending();
+			}
+		this.out.flush();
+		}
+
+	/** writes the remaining blocks and the BGZF end-of-file marker */
+	@Override
+	public void close() throws IOException {
+		if(this.closed) return;
+		try {
+			flush();
+			this.out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			this.out.close();
+			}
+		finally
+			{
+			this.closed = true;
+			this.pending.clear();
+			this.executor.shutdownNow();
+			try {
+				this.executor.awaitTermination(1L, TimeUnit.MINUTES);
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				}
+			/* release the native memory of the zlib streams */
+			synchronized(this.allDeflaters) {
+				for(final Deflater deflater: this.allDeflaters) deflater.end();
+				this.allDeflaters.clear();
+				}
+			}
+		}
+
+	@Override
+	public String toString() {
+		return "ParallelBgzfOutputStream(level:"+this.compressionLevel+")";
+		}
+	}
@@ -35,6 +35,8 @@ import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
+import com.github.lindenb.jvarkit.variant.variantcontext.VariantPipeline;
+import com.github.lindenb.jvarkit.variant.variantcontext.VariantPipelineExecutor;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
 import com.github.lindenb.jvarkit.variant.vcf.BcfIteratorBuilder;
 
@@ -107,6 +109,30 @@ protected int beforeVcf() {
 protected void afterVcf() {
 	}
 
+/** Tools supporting the multi-threaded pipeline override this method instead of doVcfToVcf.
+ * It is called with the header of the input VCF. The default implementation returns null:
+ * the variants are processed by doVcfToVcf.
+ */
+protected VariantPipeline createVariantPipeline(final VCFHeader header) throws Exception {
+	return null;
+	}
+
+/** number of threads used to run the pipeline returned by createVariantPipeline.
+ * A value lower than 1 means use all procs available. Tools supporting the pipeline
+ * override this method, usually with their own '--threads' option.
+ */
+protected int getPipelineThreads() {
+	return 1;
+	}
+
+/** run the pipeline returned by createVariantPipeline */
+private int runVariantPipeline(final VariantPipeline pipeline,final VCFIterator in,final VariantContextWriter vcw) throws IOException {
+	final VariantPipelineExecutor executor = new VariantPipelineExecutor().setThreads(getPipelineThreads());
+	vcw.writeHeader(pipeline.getOutputHeader());
+	executor.execute(in, pipeline, V->vcw.add(V));
+	return 0;
+	}
+
 @Override
 public int doWork(final List<String> args) {
 	VCFIterator in = null;
@@ -142,7 +168,10 @@ public int doWork(final List<String> args) {
 			in = new VCFIter(in, getLogger());
 			}
 		vcw = this.writingVariantsDelegate.dictionary(in.getHeader()).open(this.outputFile); 
-		final int err = doVcfToVcf(input==null?"<stdin>":input, in,vcw);
+		final VariantPipeline pipeline = createVariantPipeline(in.getHeader());
+		final int err = pipeline!=null ?
+				runVariantPipeline(pipeline, in, vcw) :
+				doVcfToVcf(input==null?"<stdin>":input, in,vcw);
 		vcw.close();
 		vcw=null;
 		in.close();
@@ -0,0 +1,369 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.liftover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntToDoubleFunction;
+import java.util.regex.Pattern;
+
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.lang.StringUtils;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.Interval;
+
+/**
+ * A liftOver engine: the chains are compiled into sorted arrays of int, one set of arrays per source contig.
+ * The result of {@link #liftOver(Interval, double)} is the same as the result of htsjdk LiftOver.
+ * The index is immutable and can be shared between threads.
+ * Instances are created with {@link LiftOverLoader#loadIndex(String)}.
+ */
+public class LiftOverIndex {
+	/** number of intervals lifted by one thread in {@link #liftOver(List, IntToDoubleFunction, ExecutorService)} */
+	public static final int DEFAULT_SHARD_SIZE = 2_000;
+	private final String sourceName;
+	private final Map<String,SourceContig> contigs;
+	/** names of the target contigs, a chain refers to its target contig by index */
+	private final String[] targetNames;
+	private final int chainCount;
+
+	/** the chains of one source contig, sorted on their start */
+	private static class SourceContig {
+		/** chain boundaries on the source contig, 0-based, half open */
+		int[] chainFromStart;
+		int[] chainFromEnd;
+		/** max(chainFromEnd[0..i]) used to stop the backward scan of the chains */
+		int[] chainMaxEnd;
+		/** index in targetNames */
+		int[] chainTarget;
+		int[] chainToSize;
+		boolean[] chainToOpposite;
+		/** the blocks of chain 'i' are [chainFirstBlock[i],chainFirstBlock[i+1]) */
+		int[] chainFirstBlock;
+		/** blocks, 0-based, sorted on the source contig within a chain */
+		int[] blockFromStart;
+		int[] blockToStart;
+		int[] blockLength;
+		}
+
+	/** a chain while it is parsed */
+	private static class ChainBuilder {
+		int fromStart;
+		int fromEnd;
+		int target;
+		int toSize;
+		boolean toOpposite;
+		int[] blocks = new int[30];
+		int nBlocks = 0;
+		void addBlock(final int fromStart,final int toStart,final int length) {
+			if(this.nBlocks*3 == this.blocks.length) this.blocks = Arrays.copyOf(this.blocks, this.blocks.length*2);
+			this.blocks[this.nBlocks*3  ] = fromStart;
+			this.blocks[this.nBlocks*3+1] = toStart;
+			this.blocks[this.nBlocks*3+2] = length;
+			this.nBlocks++;
+			}
+		}
+
+	/** 
+	 * parse the lines of a chain file
+	 * @param lines the lines returned by {@link LiftOverLoader#iterator(java.io.BufferedReader)}
+	 * @param sourceName name of the chain file
+	 */
+	static LiftOverIndex parse(final CloseableIterator<String> lines,final String sourceName) {
+		final Pattern splitter = Pattern.compile("\\s+");
+		final Map<String,List<ChainBuilder>> contig2chains = new HashMap<>();
+		final Map<String,Integer> target2index = new HashMap<>();
+		final List<String> targetNames = new ArrayList<>();
+		ChainBuilder chain = null;
+		int fromPos = 0;
+		int toPos = 0;
+		boolean lastBlockSeen = true;
+		int nChains = 0;
+		while(lines.hasNext()) {
+			final String line = lines.next();
+			if(StringUtils.isBlank(line)) continue;
+			final String[] tokens = splitter.split(line.trim());
+			if(tokens[0].equals("chain")) {
+				if(!lastBlockSeen) throw new JvarkitException.FileFormatError("In "+sourceName+": missing last block before "+line);
+				if(tokens.length!=13) throw new JvarkitException.TokenErrors(13, tokens);
+				if(!tokens[4].equals("+")) throw new JvarkitException.FileFormatError("In "+sourceName+": can only lift-over from the + strand: "+line);
+				chain = new ChainBuilder();
+				chain.fromStart = Integer.parseInt(tokens[5]);
+				chain.fromEnd = Integer.parseInt(tokens[6]);
+				Integer target = target2index.get(tokens[7]);
+				if(target==null) {
+					target = targetNames.size();
+					targetNames.add(tokens[7]);
+					target2index.put(tokens[7], target);
+					}
+				chain.target = target;
+				chain.toSize = Integer.parseInt(tokens[8]);
+				chain.toOpposite = tokens[9].equals("-");
+				fromPos = chain.fromStart;
+				toPos = Integer.parseInt(tokens[10]);
+				lastBlockSeen = false;
+				contig2chains.computeIfAbsent(tokens[2], K->new ArrayList<>()).add(chain);
+				nChains++;
+				}
+			else if(chain==null || lastBlockSeen) {
+				throw new JvarkitException.FileFormatError("In "+sourceName+": block outside a chain: "+line);
+				}
+			else if(tokens.length==3 || tokens.length==1) {
+				final int length = Integer.parseInt(tokens[0]);
+				/* empty blocks cannot intersect an interval */
+				if(length>0) chain.addBlock(fromPos, toPos, length);
+				fromPos += length;
+				toPos += length;
+				if(tokens.length==3) {
+					fromPos += Integer.parseInt(tokens[1]);
+					toPos += Integer.parseInt(tokens[2]);
+					}
+				else
+					{
+					if(fromPos!=chain.fromEnd) throw new JvarkitException.FileFormatError("In "+sourceName+": last block from end != chain from end ("+fromPos+"/"+chain.fromEnd+")");
+					lastBlockSeen = true;
+					}
+				}
+			else
+				{
+				throw new JvarkitException.FileFormatError("In "+sourceName+": expected 1 or 3 columns in "+line);
+				}
+			}
+		if(!lastBlockSeen) throw new JvarkitException.FileFormatError("In "+sourceName+": missing last block of the last chain");
+		final Map<String,SourceContig> contigs = new HashMap<>(contig2chains.size());
+		for(final String contig: contig2chains.keySet()) {
+			contigs.put(contig, compile(contig2chains.get(contig)));
+			}
+		return new LiftOverIndex(sourceName, contigs, targetNames.toArray(new String[targetNames.size()]), nChains);
+		}
+
+	/** convert the chains of one contig to arrays */
+	private static SourceContig compile(final List<ChainBuilder> chains) {
+		Collections.sort(chains,Comparator.comparingInt(C->C.fromStart));
+		final int n = chains.size();
+		final SourceContig sc = new SourceContig();
+		sc.chainFromStart = new int[n];
+		sc.chainFromEnd = new int[n];
+		sc.chainMaxEnd = new int[n];
+		sc.chainTarget = new int[n];
+		sc.chainToSize = new int[n];
+		sc.chainToOpposite = new boolean[n];
+		sc.chainFirstBlock = new int[n+1];
+		final int nBlocks = chains.stream().mapToInt(C->C.nBlocks).sum();
+		sc.blockFromStart = new int[nBlocks];
+		sc.blockToStart = new int[nBlocks];
+		sc.blockLength = new int[nBlocks];
+		int b = 0;
+		for(int i=0;i< n;i++) {
+			final ChainBuilder chain = chains.get(i);
+			sc.chainFromStart[i] = chain.fromStart;
+			sc.chainFromEnd[i] = chain.fromEnd;
+			sc.chainMaxEnd[i] = (i==0?chain.fromEnd:Math.max(sc.chainMaxEnd[i-1], chain.fromEnd));
+			sc.chainTarget[i] = chain.target;
+			sc.chainToSize[i] = chain.toSize;
+			sc.chainToOpposite[i] = chain.toOpposite;
+			sc.chainFirstBlock[i] = b;
+			for(int j=0;j< chain.nBlocks;j++) {
+				sc.blockFromStart[b] = chain.blocks[j*3];
+				sc.blockToStart[b] = chain.blocks[j*3+1];
+				sc.blockLength[b] = chain.blocks[j*3+2];
+				b++;
+				}
+			}
+		sc.chainFirstBlock[n] = b;
+		return sc;
+		}
+
+	private LiftOverIndex(final String sourceName,final Map<String,SourceContig> contigs,final String[] targetNames,final int chainCount) {
+		this.sourceName = sourceName;
+		this.contigs = contigs;
+		this.targetNames = targetNames;
+		this.chainCount = chainCount;
+		}
+
+	/** @return the number of chains */
+	public int getChainCount() {
+		return this.chainCount;
+		}
+
+	/** check that the target contigs and their lengths are the same in the chains and in the dictionary, like htsjdk LiftOver.validateToSequences */
+	public void validateToSequences(final SAMSequenceDictionary dict) {
+		for(final SourceContig sc: this.contigs.values()) {
+			for(int i=0;i< sc.chainTarget.length;i++) {
+				final String contig = this.targetNames[sc.chainTarget[i]];
+				final SAMSequenceRecord ssr = dict.getSequence(contig);
+				if(ssr==null) throw new JvarkitException.ContigNotFoundInDictionary(contig, dict);
+				if(ssr.getSequenceLength()!=sc.chainToSize[i]) {
+					throw new JvarkitException.FileFormatError("Sequence "+contig+" from chain file "+this.sourceName+" has size "+sc.chainToSize[i]+" in chain file and size "+ssr.getSequenceLength()+" in sequence dictionary.");
+					}
+				}
+			}
+		}
+
+	/** 
+	 * lift over one interval
+	 * @param interval the interval, its strand and its name are used for the result
+	 * @param minMatch minimum ratio of bases that must remap
+	 * @return the lifted interval or null if the interval cannot be lifted over or if it maps to more than one chain
+	 */
+	public Interval liftOver(final Interval interval,final double minMatch) {
+		if(interval.length()==0) throw new IllegalArgumentException("Zero-length interval cannot be lifted over. Interval: "+interval.getName());
+		final SourceContig sc = this.contigs.get(interval.getContig());
+		if(sc==null) return null;
+		/* 0-based, half open */
+		final int start = interval.getStart()-1;
+		final int end = interval.getEnd();
+		final double minMatchSize = minMatch * interval.length();
+		int hitChain = -1;
+		int hitFirstBlock = -1;
+		int hitLastBlock = -1;
+		int hitStartOffset = -1;
+		int hitOffsetFromEnd = -1;
+		/* first chain starting at or after 'end' */
+		int lo = 0;
+		int hi = sc.chainFromStart.length;
+		while(lo < hi) {
+			final int mid = (lo+hi) >>> 1;
+			if(sc.chainFromStart[mid] < end) lo = mid + 1;
+			else hi = mid;
+			}
+		for(int i=lo-1;i>=0 && sc.chainMaxEnd[i] > start;--i) {
+			if(sc.chainFromEnd[i] <= start) continue;
+			/* first block ending after 'start' */
+			int b = sc.chainFirstBlock[i];
+			hi = sc.chainFirstBlock[i+1];
+			while(b < hi) {
+				final int mid = (b+hi) >>> 1;
+				if(sc.blockFromStart[mid] + sc.blockLength[mid] <= start) b = mid + 1;
+				else hi = mid;
+				}
+			int intersectionLength = 0;
+			int firstBlock = -1;
+			int lastBlock = -1;
+			int startOffset = -1;
+			int offsetFromEnd = -1;
+			for(;b < sc.chainFirstBlock[i+1] && sc.blockFromStart[b] < end;++b) {
+				final int blockEnd = sc.blockFromStart[b] + sc.blockLength[b];
+				if(firstBlock==-1) {
+					firstBlock = b;
+					startOffset = Math.max(0, start - sc.blockFromStart[b]);
+					}
+				lastBlock = b;
+				offsetFromEnd = Math.max(0, blockEnd - end);
+				intersectionLength += Math.min(end, blockEnd) - Math.max(start, sc.blockFromStart[b]);
+				}
+			if(intersectionLength==0 || intersectionLength < minMatchSize) continue;
+			/* multiple hits are not allowed */
+			if(hitChain!=-1) return null;
+			hitChain = i;
+			hitFirstBlock = firstBlock;
+			hitLastBlock = lastBlock;
+			hitStartOffset = startOffset;
+			hitOffsetFromEnd = offsetFromEnd;
+			}
+		if(hitChain==-1) return null;
+		int toStart = sc.blockToStart[hitFirstBlock] + hitStartOffset;
+		int toEnd = sc.blockToStart[hitLastBlock] + sc.blockLength[hitLastBlock] - hitOffsetFromEnd;
+		final boolean negativeStrand;
+		if(sc.chainToOpposite[hitChain]) {
+			final int negativeStart = sc.chainToSize[hitChain] - toEnd;
+			toEnd = sc.chainToSize[hitChain] - toStart;
+			toStart = negativeStart;
+			negativeStrand = !interval.isNegativeStrand();
+			}
+		else
+			{
+			negativeStrand = interval.isNegativeStrand();
+			}
+		return new Interval(this.targetNames[sc.chainTarget[hitChain]], toStart+1, toEnd, negativeStrand, interval.getName());
+		}
+
+	/** 
+	 * lift over a batch of intervals 
+	 * @return a list of the same size as 'intervals', with null for the intervals that cannot be lifted over
+	 */
+	public List<Interval> liftOver(final List<? extends Interval> intervals,final double minMatch) {
+		return liftOver(intervals, IDX->minMatch, null);
+		}
+
+	/** 
+	 * lift over a batch of intervals
+	 * @param intervals the intervals
+	 * @param minMatch gives the min-match of the i-th interval
+	 * @param executor if not null, the intervals are split into shards of {@link #DEFAULT_SHARD_SIZE} lifted over in parallel
+	 * @return a list of the same size as 'intervals', with null for the intervals that cannot be lifted over
+	 */
+	public List<Interval> liftOver(final List<? extends Interval> intervals,final IntToDoubleFunction minMatch,final ExecutorService executor) {
+		final Interval[] lifted = new Interval[intervals.size()];
+		if(executor==null || lifted.length <= DEFAULT_SHARD_SIZE) {
+			liftOver(intervals, minMatch, lifted, 0, lifted.length);
+			}
+		else
+			{
+			final List<Future<?>> shards = new ArrayList<>(1 + lifted.length/DEFAULT_SHARD_SIZE);
+			for(int i=0;i< lifted.length;i+=DEFAULT_SHARD_SIZE) {
+				final int shardStart = i;
+				final int shardEnd = Math.min(lifted.length, i + DEFAULT_SHARD_SIZE);
+				shards.add(executor.submit(()->liftOver(intervals, minMatch, lifted, shardStart, shardEnd)));
+				}
+			try {
+				for(final Future<?> shard: shards) {
+					shard.get();
+					}
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(err);
+				}
+			catch(final ExecutionException err) {
+				if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+				throw new IllegalStateException(err.getCause());
+				}
+			}
+		return Arrays.asList(lifted);
+		}
+
+	private void liftOver(final List<? extends Interval> intervals,final IntToDoubleFunction minMatch,final Interval[] lifted,final int start,final int end) {
+		for(int i=start;i< end;i++) {
+			lifted[i] = liftOver(intervals.get(i), minMatch.applyAsDouble(i));
+			}
+		}
+
+	@Override
+	public String toString() {
+		return "LiftOverIndex("+this.sourceName+" chains:"+this.chainCount+")";
+		}
+	}
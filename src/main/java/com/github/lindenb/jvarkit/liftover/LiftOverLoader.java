@@ -25,6 +25,7 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.liftover;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
@@ -104,7 +105,7 @@ public class LiftOverLoader {
 				sb.append(iter.next()).append('\n');
 				}			
 			}
-		try(InputStream in= new ArrayInputStream(sb.toString().getBytes())) {
+		try(InputStream in= new ByteArrayInputStream(sb.toString().getBytes())) {
 			return new LiftOver(in,sourceName);
 			}
 		catch(final IOException err) {
@@ -112,6 +113,39 @@ public class LiftOverLoader {
 			}
 		}
 
+	/** load the chains into a {@link LiftOverIndex} */
+	public LiftOverIndex loadIndex(final String urlOrFile) {
+		if(IOUtil.isUrl(urlOrFile)) {
+			try(BufferedReader in= IOUtils.openURIForBufferedReading(urlOrFile)) {
+				return loadIndex(in,urlOrFile);
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		else
+			{
+			return loadIndex(Paths.get(urlOrFile));
+			}
+		}
+
+	/** load the chains into a {@link LiftOverIndex} */
+	public LiftOverIndex loadIndex(final Path path) {
+		try(BufferedReader br = IOUtil.openFileForBufferedReading(path)) {
+			return loadIndex(br,path.toString());
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	/** load the chains into a {@link LiftOverIndex} */
+	public LiftOverIndex loadIndex(final BufferedReader br,final String sourceName) {
+		try(CloseableIterator<String> iter = iterator(br)) {
+			return LiftOverIndex.parse(iter, sourceName);
+			}
+		}
+
 	public CloseableIterator<String> iterator(final BufferedReader in) {
 		return new MyIterator(Objects.requireNonNull(in));
 		}
@@ -119,7 +119,8 @@ public class DiscreteMedian<T extends Number>
 	    return first;
 		}
 	
-	private void add(final T value,long incr) {
+	/** add 'incr' times the same value */
+	public DiscreteMedian<T> add(final T value,long incr) {
 		final int idx = lower_bound(value);
 		final Entry entry;
 		if(idx>=this.counter.size() || !counter.get(idx).key.equals(value)) {
@@ -131,6 +132,7 @@ public class DiscreteMedian<T extends Number>
 			entry = this.counter.get(idx);
 			}
 		entry.count+=incr;
+		return this;
 		}
 	
 	public DiscreteMedian<T> add(final T value) {
@@ -0,0 +1,143 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.math;
+
+import java.util.Arrays;
+
+/**
+ * Exact histogram of long values : count of each distinct value.
+ * Values are stored in primitive arrays, the memory depends on the number of distinct values, not on the number of observations.
+ * Two histograms can be merged.
+ */
+public class LongHistogram {
+	private static final int INITIAL_CAPACITY = 16;
+	/** open addressing table. A slot is empty if its count is 0 */
+	private long[] keys = new long[INITIAL_CAPACITY];
+	private long[] counts = new long[INITIAL_CAPACITY];
+	private int distinct = 0;
+	private long total = 0L;
+
+	public LongHistogram() {
+		}
+
+	private static int hash(final long v) {
+		long h = v * 0x9E3779B97F4A7C15L;
+		h ^= (h >>> 32);
+		return (int)h;
+		}
+
+	/** @return the index of 'value' or of the empty slot where 'value' should be inserted */
+	private int slot(final long[] keys,final long[] counts,final long value) {
+		final int mask = keys.length - 1;
+		int i = hash(value) & mask;
+		while(counts[i]!=0L && keys[i]!=value) {
+			i = (i + 1) & mask;
+			}
+		return i;
+		}
+
+	private void grow() {
+		final long[] oldKeys = this.keys;
+		final long[] oldCounts = this.counts;
+		this.keys = new long[oldKeys.length*2];
+		this.counts = new long[oldCounts.length*2];
+		for(int i=0;i< oldKeys.length;i++) {
+			if(oldCounts[i]==0L) continue;
+			final int j = slot(this.keys, this.counts, oldKeys[i]);
+			this.keys[j] = oldKeys[i];
+			this.counts[j] = oldCounts[i];
+			}
+		}
+
+	/** add 'n' observations of 'value' */
+	public LongHistogram add(final long value,final long n) {
+		if(n<0L) throw new IllegalArgumentException("n<0 :"+n);
+		if(n==0L) return this;
+		int i = slot(this.keys, this.counts, value);
+		if(this.counts[i]==0L) {
+			if((this.distinct+1)*4L > this.keys.length*3L) {
+				grow();
+				i = slot(this.keys, this.counts, value);
+				}
+			this.keys[i] = value;
+			this.distinct++;
+			}
+		this.counts[i] += n;
+		this.total += n;
+		return this;
+		}
+
+	/** add one observation of 'value' */
+	public LongHistogram add(final long value) {
+		return add(value,1L);
+		}
+
+	/** merge another histogram into this one */
+	public LongHistogram add(final LongHistogram other) {
+		if(other==this) throw new IllegalArgumentException("cannot add to self");
+		for(int i=0;i< other.keys.length;i++) {
+			if(other.counts[i]==0L) continue;
+			add(other.keys[i], other.counts[i]);
+			}
+		return this;
+		}
+
+	/** @return the number of observations of 'value' */
+	public long count(final long value) {
+		final int i = slot(this.keys, this.counts, value);
+		return this.counts[i];
+		}
+
+	/** @return the number of observations */
+	public long getTotal() {
+		return this.total;
+		}
+
+	/** @return the number of distinct values */
+	public int getCountDistinct() {
+		return this.distinct;
+		}
+
+	public boolean isEmpty() {
+		return this.total==0L;
+		}
+
+	/** @return the distinct values, sorted */
+	public long[] getValues() {
+		final long[] array = new long[this.distinct];
+		int n = 0;
+		for(int i=0;i< this.keys.length;i++) {
+			if(this.counts[i]==0L) continue;
+			array[n++] = this.keys[i];
+			}
+		Arrays.sort(array);
+		return array;
+		}
+
+	@Override
+	public String toString() {
+		return "LongHistogram(distinct:"+this.distinct+" total:"+this.total+")";
+		}
+	}
@@ -0,0 +1,212 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.samtools;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * Accumulates the depth of coverage over a region using a bounded amount of memory.
+ *
+ * Reads must be added in coordinate order: once a read starting at position 'p' has been
+ * added, the depth of the positions before 'p' cannot change anymore. Those positions are
+ * flushed to a consumer and their memory is re-used (ring buffer). The size of the buffer
+ * only depends on the longest alignment, not on the length of the contig.
+ *
+ * The whole region is sent to the consumer, including the positions without any read,
+ * as runs of identical depth (run-length encoding) or position by position.
+ */
+public class CoverageAccumulator implements Locatable {
+	/** consumer of runs of identical depth */
+	@FunctionalInterface
+	public static interface RunConsumer {
+		/** called for each run of identical depth. start1 and end1 are 1-based, inclusive */
+		public void accept(int start1,int end1,int depth);
+		}
+	/** consumer of the depth at each position */
+	@FunctionalInterface
+	public static interface DepthConsumer {
+		/** called for each position. pos1 is 1-based */
+		public void accept(int pos1,int depth);
+		}
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	private final String contig;
+	private final int regionStart;
+	private final int regionEnd;
+	private final RunConsumer consumer;
+	/** ring buffer, length is a power of two */
+	private int ring[] = new int[DEFAULT_CAPACITY];
+	/** first position that was not flushed */
+	private int flushed1;
+	/** max position that was incremented in the ring buffer */
+	private int max_touched1;
+	/** run waiting to be merged with the next one */
+	private int pending_start1 = -1;
+	private int pending_end1 = -1;
+	private int pending_depth = 0;
+	private boolean finished = false;
+
+	/**
+	 * @param region region of interest
+	 * @param consumer called for each run of identical depth
+	 */
+	public CoverageAccumulator(final Locatable region,final RunConsumer consumer) {
+		this.contig = region.getContig();
+		this.regionStart = region.getStart();
+		this.regionEnd = region.getEnd();
+		this.consumer = consumer;
+		this.flushed1 = this.regionStart;
+		this.max_touched1 = this.regionStart - 1;
+		}
+
+	/**
+	 * @param region region of interest
+	 * @param consumer called for each position of the region
+	 */
+	public CoverageAccumulator(final Locatable region,final DepthConsumer consumer) {
+		this(region,(S,E,D)->{
+			for(int i=S;i<=E;i++) consumer.accept(i, D);
+			});
+		}
+
+	@Override
+	public String getContig() {
+		return this.contig;
+		}
+	@Override
+	public int getStart() {
+		return this.regionStart;
+		}
+	@Override
+	public int getEnd() {
+		return this.regionEnd;
+		}
+
+	private int index(final int pos1) {
+		return pos1 & (this.ring.length - 1);
+		}
+
+	/** make sure the ring buffer can store all the positions from 'flushed1' to 'end1' */
+	private void ensureCapacity(final int end1) {
+		final int required = end1 - this.flushed1 + 1;
+		if(required <= this.ring.length) return;
+		int capacity = this.ring.length;
+		while(capacity < required) capacity <<= 1;
+		final int newring[] = new int[capacity];
+		for(int p=this.flushed1;p<=this.max_touched1;++p) {
+			newring[p & (capacity-1)] = this.ring[index(p)];
+			}
+		this.ring = newring;
+		}
+
+	/** increment the depth of the positions start1 to end1 (1-based, inclusive).
+	 * Positions outside the region are ignored. */
+	public void add(int start1,int end1) {
+		if(this.finished) throw new IllegalStateException("finish() was already called");
+		start1 = Math.max(start1, this.regionStart);
+		end1 = Math.min(end1, this.regionEnd);
+		if(start1 > end1) return;
+		if(start1 < this.flushed1) {
+			throw new IllegalArgumentException("position "+this.contig+":"+start1+" was already flushed. Is the input sorted on coordinate ?");
+			}
+		ensureCapacity(end1);
+		for(int p=start1;p<=end1;++p) {
+			this.ring[index(p)]++;
+			}
+		this.max_touched1 = Math.max(this.max_touched1, end1);
+		}
+
+	/** add the aligned blocks of a read. All the positions before its alignment start are flushed */
+	public void add(final SAMRecord rec) {
+		add(rec,Integer.MAX_VALUE);
+		}
+
+	/** add the aligned blocks of a read, ignoring the bases after maxEnd1.
+	 * All the positions before its alignment start are flushed */
+	public void add(final SAMRecord rec,final int maxEnd1) {
+		if(rec.getReadUnmappedFlag()) return;
+		if(!this.contig.equals(rec.getContig())) {
+			throw new IllegalArgumentException("read "+rec.getReadName()+" is not on "+this.contig);
+			}
+		flush(rec.getAlignmentStart());
+		for(final AlignmentBlock block:rec.getAlignmentBlocks()) {
+			final int start1 = block.getReferenceStart();
+			add(start1,Math.min(maxEnd1,start1 + block.getLength() - 1));
+			}
+		}
+
+	/** send the depth of all the positions before 'pos1' to the consumer */
+	public void flush(final int pos1) {
+		final int end1 = Math.min(pos1 - 1, this.regionEnd);
+		int p = this.flushed1;
+		while(p <= end1) {
+			if(p > this.max_touched1) {
+				emit(p,end1,0);
+				break;
+				}
+			final int depth = this.ring[index(p)];
+			int q = p;
+			this.ring[index(p)] = 0;
+			while(q + 1 <= end1 && q + 1 <= this.max_touched1 && this.ring[index(q+1)]==depth) {
+				q++;
+				this.ring[index(q)] = 0;
+				}
+			emit(p,q,depth);
+			p = q + 1;
+			}
+		this.flushed1 = Math.max(this.flushed1,end1 + 1);
+		}
+
+	private void emit(final int start1,final int end1,final int depth) {
+		if(this.pending_start1!=-1) {
+			if(this.pending_depth==depth && this.pending_end1+1==start1) {
+				this.pending_end1 = end1;
+				return;
+				}
+			this.consumer.accept(this.pending_start1, this.pending_end1, this.pending_depth);
+			}
+		this.pending_start1 = start1;
+		this.pending_end1 = end1;
+		this.pending_depth = depth;
+		}
+
+	/** flush all the remaining positions of the region. No read can be added after this call. */
+	public void finish() {
+		if(this.finished) return;
+		flush(this.regionEnd + 1);
+		if(this.pending_start1!=-1) {
+			this.consumer.accept(this.pending_start1, this.pending_end1, this.pending_depth);
+			this.pending_start1 = -1;
+			}
+		this.finished = true;
+		}
+
+	@Override
+	public String toString() {
+		return "CoverageAccumulator("+this.contig+":"+this.regionStart+"-"+this.regionEnd+")";
+		}
+	}
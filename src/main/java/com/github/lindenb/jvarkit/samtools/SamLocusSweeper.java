@@ -0,0 +1,313 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.samtools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
+import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
+import htsjdk.samtools.util.PeekableIterator;
+
+/**
+ * Sweeps a sorted stream of loci over a set of indexed BAM/CRAM.
+ * Instead of one random query per locus and per BAM, each BAM is read with one forward iterator per contig,
+ * only the reads overlapping the current locus are kept in memory.
+ * The BAMs are read in parallel, one task per BAM, by batches of loci.
+ * The loci must be sorted: all the loci of a contig must be consecutive and sorted on start.
+ * The consumer is called in the calling thread, in the order of the loci.
+ */
+public class SamLocusSweeper {
+	/** if the next locus is further than this distance from the reads of the current iterator, the BAM is queried again */
+	public static final int DEFAULT_JUMP_DISTANCE = 100_000;
+
+	/** receives the reads overlapping a locus */
+	@FunctionalInterface
+	public static interface LocusConsumer<L extends Locatable> {
+		/**
+		 * @param locus the current locus
+		 * @param reads for each SamReader, in the order of the readers, the reads overlapping the locus, sorted on start.
+		 */
+		public void accept(L locus,List<List<SAMRecord>> reads) throws Exception;
+		}
+
+	private final List<SamReader> readers;
+	private int nThreads = 1;
+	private int batchSize = 1_000;
+	private int jumpDistance = DEFAULT_JUMP_DISTANCE;
+	private Predicate<SAMRecord> recordFilter = R->true;
+
+	/** @param readers the indexed readers. They're not closed by this object and they cannot be used by the consumer during the sweep */
+	public SamLocusSweeper(final List<SamReader> readers) {
+		this.readers = Collections.unmodifiableList(new ArrayList<>(Objects.requireNonNull(readers)));
+		}
+
+	/** set the number of threads. A value lower than 1 means use all procs available */
+	public SamLocusSweeper setThreads(final int nThreads) {
+		this.nThreads = nThreads < 1 ? Runtime.getRuntime().availableProcessors() : nThreads;
+		return this;
+		}
+
+	public int getThreads() {
+		return nThreads;
+		}
+
+	/** set the number of loci sent to each BAM task */
+	public SamLocusSweeper setBatchSize(final int batchSize) {
+		if(batchSize<1) throw new IllegalArgumentException("batch size < 1 :"+batchSize);
+		this.batchSize = batchSize;
+		return this;
+		}
+
+	public int getBatchSize() {
+		return batchSize;
+		}
+
+	/** set the distance above which the BAM is queried again instead of being scanned */
+	public SamLocusSweeper setJumpDistance(final int jumpDistance) {
+		this.jumpDistance = Math.max(0, jumpDistance);
+		return this;
+		}
+
+	public int getJumpDistance() {
+		return jumpDistance;
+		}
+
+	/** set the filter for the reads. Unmapped reads are always discarded. Called by the reading threads */
+	public SamLocusSweeper setRecordFilter(final Predicate<SAMRecord> recordFilter) {
+		this.recordFilter = Objects.requireNonNull(recordFilter);
+		return this;
+		}
+
+	public Predicate<SAMRecord> getRecordFilter() {
+		return recordFilter;
+		}
+
+	/** forward reader for one BAM. Only used by one thread at a time */
+	private class Cursor {
+		private final SamReader samReader;
+		private final SAMSequenceDictionary dict;
+		private final ContigNameConverter converter;
+		/** contig of the current iterator, in the BAM dictionary */
+		private String contig = null;
+		private PeekableIterator<SAMRecord> iter = null;
+		/** reads overlapping the last locus, sorted on start */
+		private final List<SAMRecord> buffer = new ArrayList<>();
+
+		Cursor(final SamReader samReader) {
+			this.samReader = samReader;
+			this.dict = SequenceDictionaryUtils.extractRequired(samReader.getFileHeader());
+			this.converter = ContigNameConverter.fromOneDictionary(this.dict);
+			}
+
+		private void query(final String bamContig,final int start) {
+			close();
+			this.contig = bamContig;
+			/* end=0 : until the end of the contig */
+			this.iter = new PeekableIterator<>(this.samReader.query(bamContig, start, 0, false));
+			}
+
+		private List<SAMRecord> fetch(final Locatable locus) {
+			final String bamContig = this.converter.apply(locus.getContig());
+			if(StringUtils.isBlank(bamContig) || this.dict.getSequence(bamContig)==null) {
+				close();
+				return Collections.emptyList();
+				}
+			if(this.iter==null || !bamContig.equals(this.contig)) {
+				query(bamContig, locus.getStart());
+				}
+			else if(this.iter.hasNext() && this.iter.peek().getStart() + (long)jumpDistance < locus.getStart()) {
+				/* far away: faster to use the index */
+				query(bamContig, locus.getStart());
+				}
+			this.buffer.removeIf(R->R.getEnd() < locus.getStart());
+			while(this.iter.hasNext() && this.iter.peek().getStart() <= locus.getEnd()) {
+				final SAMRecord rec = this.iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				if(rec.getEnd() < locus.getStart()) continue;
+				if(!recordFilter.test(rec)) continue;
+				this.buffer.add(rec);
+				}
+			final List<SAMRecord> L = new ArrayList<>(this.buffer.size());
+			for(final SAMRecord rec: this.buffer) {
+				if(rec.getStart() <= locus.getEnd()) L.add(rec);
+				}
+			return L;
+			}
+
+		/** @return for each locus, the reads overlapping the locus */
+		List<List<SAMRecord>> fetchAll(final List<? extends Locatable> loci) {
+			final List<List<SAMRecord>> L = new ArrayList<>(loci.size());
+			for(final Locatable locus: loci) {
+				L.add(fetch(locus));
+				}
+			return L;
+			}
+
+		void close() {
+			CloserUtil.close(this.iter);
+			this.iter = null;
+			this.contig = null;
+			this.buffer.clear();
+			}
+		}
+
+	/** check the loci are sorted */
+	private static class SortChecker {
+		private final Set<String> seenContigs = new HashSet<>();
+		private Locatable prev = null;
+		void check(final Locatable locus) {
+			if(this.prev!=null && this.prev.getContig().equals(locus.getContig())) {
+				if(locus.getStart() < this.prev.getStart()) {
+					throw new IllegalArgumentException("loci are not sorted: got "+locus.getContig()+":"+locus.getStart()+" after "+this.prev.getContig()+":"+this.prev.getStart());
+					}
+				}
+			else if(!this.seenContigs.add(locus.getContig())) {
+				throw new IllegalArgumentException("loci are not sorted: contig "+locus.getContig()+" was already seen.");
+				}
+			this.prev = locus;
+			}
+		}
+
+	/**
+	 * sweep the loci over the BAMs
+	 * @param loci the sorted loci
+	 * @param consumer receives each locus and its reads in the calling thread
+	 */
+	public <L extends Locatable> void sweep(final Iterator<L> loci,final LocusConsumer<L> consumer) throws IOException {
+		final List<Cursor> cursors = new ArrayList<>(this.readers.size());
+		final SortChecker sortChecker = new SortChecker();
+		final int nThreads = Math.min(this.nThreads, this.readers.size());
+		final ExecutorService executorService = nThreads>1?Executors.newFixedThreadPool(nThreads):null;
+		try {
+			for(final SamReader sr: this.readers) {
+				if(!sr.hasIndex()) throw new IOException("Bam "+sr.getResourceDescription()+" is not indexed.");
+				cursors.add(new Cursor(sr));
+				}
+			List<L> batch = nextBatch(loci, sortChecker);
+			List<Future<List<List<SAMRecord>>>> futures = submit(executorService, cursors, batch);
+			while(!batch.isEmpty()) {
+				/* the results of the current batch */
+				final List<List<List<SAMRecord>>> results = new ArrayList<>(cursors.size());
+				for(final Future<List<List<SAMRecord>>> future: futures) {
+					results.add(future.get());
+					}
+				/* the cursors are free: read the next batch while the consumer is running */
+				final List<L> currentBatch = batch;
+				batch = nextBatch(loci, sortChecker);
+				futures = submit(executorService, cursors, batch);
+
+				for(int i=0;i< currentBatch.size();i++) {
+					final List<List<SAMRecord>> reads = new ArrayList<>(cursors.size());
+					for(int j=0;j< cursors.size();j++) {
+						reads.add(results.get(j).get(i));
+						}
+					consumer.accept(currentBatch.get(i), reads);
+					}
+				}
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+			}
+		catch(final IOException|RuntimeException err) {
+			throw err;
+			}
+		catch(final Exception err) {
+			throw new IOException(err);
+			}
+		finally {
+			if(executorService!=null) {
+				executorService.shutdownNow();
+				try {
+					executorService.awaitTermination(1L, TimeUnit.MINUTES);
+					}
+				catch(final InterruptedException err) {
+					Thread.currentThread().interrupt();
+					}
+				}
+			for(final Cursor cursor: cursors) cursor.close();
+			}
+		}
+
+	private <L extends Locatable> List<L> nextBatch(final Iterator<L> loci,final SortChecker sortChecker) {
+		final List<L> batch = new ArrayList<>(this.batchSize);
+		while(batch.size() < this.batchSize && loci.hasNext()) {
+			final L locus = loci.next();
+			sortChecker.check(locus);
+			batch.add(locus);
+			}
+		return batch;
+		}
+
+	/** one task per BAM. Without executor, the loci are fetched in the calling thread */
+	private List<Future<List<List<SAMRecord>>>> submit(final ExecutorService executorService,final List<Cursor> cursors,final List<? extends Locatable> batch) {
+		final List<Future<List<List<SAMRecord>>>> futures = new ArrayList<>(cursors.size());
+		if(batch.isEmpty()) return futures;
+		for(final Cursor cursor: cursors) {
+			if(executorService==null) {
+				final CompletableFuture<List<List<SAMRecord>>> future = new CompletableFuture<>();
+				future.complete(cursor.fetchAll(batch));
+				futures.add(future);
+				}
+			else
+				{
+				futures.add(executorService.submit(()->cursor.fetchAll(batch)));
+				}
+			}
+		return futures;
+		}
+
+	@Override
+	public String toString() {
+		return "SamLocusSweeper(bams:"+this.readers.size()+",threads:"+getThreads()+")";
+		}
+	}
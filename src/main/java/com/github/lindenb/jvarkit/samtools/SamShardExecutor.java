@@ -0,0 +1,258 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.samtools;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * Runs a task over an indexed BAM/CRAM, one shard (a whole contig or a fixed-size region of a contig) at a time,
+ * using a pool of threads. Each thread opens its own SamReader.
+ * The results of the shards are sent to the consumer in the calling thread, in the order of the dictionary,
+ * so the output doesn't depend on the number of threads.
+ */
+public class SamShardExecutor {
+	/** size of a BAI linear-index window. Shards boundaries are aligned on this value */
+	public static final int LINEAR_INDEX_WINDOW = 16_384;
+
+	/** a region of a contig */
+	public static class Shard implements Locatable {
+		private final int index;
+		private final SAMSequenceRecord ssr;
+		private final int start;
+		private final int end;
+		Shard(final int index,final SAMSequenceRecord ssr,final int start,final int end) {
+			this.index = index;
+			this.ssr = ssr;
+			this.start = start;
+			this.end = end;
+			}
+		/** index of this shard in the list of shards */
+		public int getIndex() {
+			return index;
+			}
+		public SAMSequenceRecord getSequenceRecord() {
+			return ssr;
+			}
+		public int getTid() {
+			return this.ssr.getSequenceIndex();
+			}
+		@Override
+		public String getContig() {
+			return this.ssr.getSequenceName();
+			}
+		@Override
+		public int getStart() {
+			return start;
+			}
+		@Override
+		public int getEnd() {
+			return end;
+			}
+		/** @return true if the shard covers the whole contig */
+		public boolean isWholeContig() {
+			return getStart()==1 && getEnd()==this.ssr.getSequenceLength();
+			}
+		public QueryInterval toQueryInterval() {
+			return new QueryInterval(getTid(), getStart(), getEnd());
+			}
+		@Override
+		public String toString() {
+			return getContig()+":"+getStart()+"-"+getEnd();
+			}
+		}
+
+	/** the task applied to each shard */
+	@FunctionalInterface
+	public static interface ShardProcessor<T> {
+		/** process the shard using the reader owned by the current thread */
+		public T apply(SamReader sr,Shard shard) throws Exception;
+		}
+
+	private final SamReaderFactory samReaderFactory;
+	private int nThreads = 1;
+	private int shardSize = -1;
+
+	public SamShardExecutor(final SamReaderFactory samReaderFactory) {
+		this.samReaderFactory = Objects.requireNonNull(samReaderFactory);
+		}
+
+	/** set the number of threads. A value lower than 1 means use all procs available */
+	public SamShardExecutor setThreads(final int nThreads) {
+		this.nThreads = nThreads < 1 ? Runtime.getRuntime().availableProcessors() : nThreads;
+		return this;
+		}
+
+	public int getThreads() {
+		return nThreads;
+		}
+
+	/** set the length of the shards. It is rounded up to a multiple of LINEAR_INDEX_WINDOW.
+	 * A value lower than 1 means one shard per contig */
+	public SamShardExecutor setShardSize(final int shardSize) {
+		if(shardSize < 1) {
+			this.shardSize = -1;
+			}
+		else
+			{
+			this.shardSize = (int)Math.min(Integer.MAX_VALUE - LINEAR_INDEX_WINDOW,
+				((shardSize + (long)LINEAR_INDEX_WINDOW - 1L)/LINEAR_INDEX_WINDOW)*LINEAR_INDEX_WINDOW);
+			}
+		return this;
+		}
+
+	public int getShardSize() {
+		return shardSize;
+		}
+
+	/** split the accepted contigs of the dictionary into shards */
+	public List<Shard> split(final SAMSequenceDictionary dict,final Predicate<SAMSequenceRecord> acceptContig) {
+		final List<Shard> shards = new ArrayList<>();
+		for(final SAMSequenceRecord ssr : dict.getSequences()) {
+			if(!acceptContig.test(ssr)) continue;
+			final int len = ssr.getSequenceLength();
+			if(this.shardSize < 1 || len <= this.shardSize) {
+				shards.add(new Shard(shards.size(),ssr,1,len));
+				continue;
+				}
+			for(int start1=1;start1<=len;start1+=this.shardSize) {
+				shards.add(new Shard(shards.size(),ssr,start1,Math.min(len,start1 + this.shardSize - 1)));
+				}
+			}
+		return shards;
+		}
+
+	/**
+	 * apply the processor on each shard of 'path'. The results are sent to the consumer in the order of 'shards'.
+	 * @param path the indexed BAM/CRAM
+	 * @param shards the shards, usually returned by {@link #split(SAMSequenceDictionary, Predicate)}
+	 * @param processor the task applied to each shard
+	 * @param consumer receives the results in the calling thread
+	 */
+	public <T> void execute(
+			final Path path,
+			final List<Shard> shards,
+			final ShardProcessor<T> processor,
+			final Consumer<T> consumer
+			) throws IOException {
+		if(this.nThreads<=1 || shards.size()<=1) {
+			try(SamReader sr = openReader(path)) {
+				for(final Shard shard: shards) {
+					consumer.accept(processor.apply(sr, shard));
+					}
+				}
+			catch(final IOException|RuntimeException err) {
+				throw err;
+				}
+			catch(final Exception err) {
+				throw new IOException(err);
+				}
+			return;
+			}
+
+		/* one reader per thread, closed at the end */
+		final List<SamReader> readers = Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<SamReader> threadReader = new ThreadLocal<>();
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		try {
+			/* don't keep too many results in memory: the number of pending shards is bounded */
+			final int maxPending = this.nThreads * 2;
+			final Deque<Future<T>> pending = new ArrayDeque<>(maxPending);
+			int shard_idx = 0;
+			while(shard_idx < shards.size() || !pending.isEmpty()) {
+				while(shard_idx < shards.size() && pending.size() < maxPending) {
+					final Shard shard = shards.get(shard_idx++);
+					pending.add(executorService.submit(()->{
+						SamReader sr = threadReader.get();
+						if(sr==null) {
+							sr = openReader(path);
+							readers.add(sr);
+							threadReader.set(sr);
+							}
+						return processor.apply(sr, shard);
+						}));
+					}
+				consumer.accept(pending.removeFirst().get());
+				}
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+			}
+		finally {
+			executorService.shutdownNow();
+			try {
+				executorService.awaitTermination(1L, TimeUnit.MINUTES);
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				}
+			synchronized(readers) {
+				for(final SamReader sr: readers) CloserUtil.close(sr);
+				}
+			}
+		}
+
+	private SamReader openReader(final Path path) throws IOException {
+		final SamReader sr = this.samReaderFactory.open(path);
+		if(!sr.hasIndex()) {
+			sr.close();
+			throw new IOException("File "+path+" is not indexed.");
+			}
+		return sr;
+		}
+
+	@Override
+	public String toString() {
+		return "SamShardExecutor(threads:"+getThreads()+",shard-size:"+getShardSize()+")";
+		}
+	}
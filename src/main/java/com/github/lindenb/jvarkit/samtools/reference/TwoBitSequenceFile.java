@@ -27,7 +27,10 @@ package com.github.lindenb.jvarkit.samtools.reference;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -36,6 +39,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
+import com.github.lindenb.jvarkit.util.bio.ChromosomeSequence;
+
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
@@ -84,6 +90,12 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
     /** read stream */
     private final SeekableStream seekableStream;
 
+    /** memory mapped file, or null if data are read from a stream */
+    private final MappedSeekableStream mappedStream;
+
+    /** in memory-mapped mode: cache of all the sequence headers (N-blocks and mask-blocks) */
+    private final Map<String, TwoBit> mappedHeaders = new HashMap<>();
+
     /** endianness detected where reading the header */
     private final ByteOrder byteOrder;
 
@@ -143,7 +155,17 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
     /** TwoBitSequenceFile from a Path */
     public TwoBitSequenceFile(final Path path, final boolean truncateNamesAtWhitespace)
             throws IOException {
-        this(path.toString(), truncateNamesAtWhitespace);
+        this(path, truncateNamesAtWhitespace, false);
+    }
+    
+    /** TwoBitSequenceFile from a Path. If memoryMapped is true, the local file is memory-mapped
+     * and the bases are decoded straight from the mapped buffer */
+    public TwoBitSequenceFile(final Path path, final boolean truncateNamesAtWhitespace, final boolean memoryMapped)
+            throws IOException {
+        this(memoryMapped ?
+        		new MappedSeekableStream(path) :
+        		SeekableStreamFactory.getInstance().getStreamFor(path.toString()),
+        		truncateNamesAtWhitespace);
     }
     /** TwoBitSequenceFile from a Path or a URL */
     public TwoBitSequenceFile(final String pathOrUrl, final boolean truncateNamesAtWhitespace)
@@ -153,9 +175,15 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
 
     /** TwoBitSequenceFile from a seekableStream */
    public TwoBitSequenceFile(final SeekableStream seekableStream, final boolean truncateNamesAtWhitespace) throws IOException {
-        this.seekableStream = seekableStream instanceof SeekableBufferedStream ?
+        if(seekableStream instanceof MappedSeekableStream) {
+            this.mappedStream = MappedSeekableStream.class.cast(seekableStream);
+            this.seekableStream = seekableStream;
+        } else {
+            this.mappedStream = null;
+            this.seekableStream = seekableStream instanceof SeekableBufferedStream ?
                 seekableStream:
                 new SeekableBufferedStream(seekableStream, DEFAULT_BUFFER_SIZE);
+        }
 
         // read the first integer to determine the endianness
         final byte array[] = new byte[Integer.BYTES];
@@ -208,7 +236,6 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
     }
 
     private byte[] query(final Locatable loc, boolean doMask) throws IOException {
-        int remainder, midStart, midEnd;
         final TwoBitIndex tbi = this.seq2index.get(loc.getContig());
         if (tbi == null) {
             throw new IllegalArgumentException("cannot find sequence " + loc.getContig());
@@ -228,13 +255,28 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
                     + " start (" + fragStart + ") >= end (" + fragEnd + ")");
         }
 
+        final byte dna[] = new byte[outSize];
+        if (this.mappedStream != null) {
+            /* decode straight from the mapped buffer */
+            for (int i = fragStart; i < fragEnd; ++i) {
+                dna[i - fragStart] = decodeMappedBase(twoBit, i);
+            }
+        } else {
+            decodePacked(fragStart, fragEnd, dna);
+        }
+        applyBlocks(twoBit, fragStart, fragEnd, dna, doMask);
+        return dna;
+    }
+
+    /** decode the 2bit packed bases from the stream. The stream must be positioned at the start of the data. */
+    private void decodePacked(final int fragStart, final int fragEnd, final byte dna[]) throws IOException {
+        int remainder, midStart, midEnd;
         int packedStart = (fragStart >> 2);
         int packedEnd = ((fragEnd + 3) >> 2);
         int packByteCount = packedEnd - packedStart;
         this.seekableStream.seek(this.seekableStream.position() + packedStart);
         final byte packed[] = new byte[packByteCount];
         this.seekableStream.readFully(packed);
-        final byte dna[] = new byte[outSize];
         int dna_idx = 0;
         int packed_idx = 0;
 
@@ -289,7 +331,10 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
                 }
             }
         }
+    }
 
+    /** apply the N-blocks and, if doMask, the mask-blocks to the decoded bases */
+    private void applyBlocks(final TwoBit twoBit, final int fragStart, final int fragEnd, final byte dna[], final boolean doMask) {
         /* loop = 0; read the 'N' block, loop ==1 read the mask block */
         for (int side = 0; side < 2; ++side) {
             final Block block = (side == 0 ? twoBit.nBlock : twoBit.maskBlock);
@@ -326,7 +371,20 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
                 }
             }
         }
-        return dna;
+    }
+
+    /** decode a base at 0-based position 'pos0' from the memory-mapped buffer, ignoring the N-blocks */
+    private byte decodeMappedBase(final TwoBit twoBit, final int pos0) {
+        final int packed = Byte.toUnsignedInt(this.mappedStream.get(twoBit.dataOffsetCache + (pos0 >> 2)));
+        return valToNt((packed >> (6 - ((pos0 & 3) << 1))) & 3);
+    }
+
+    /** return true if the 0-based position 'pos0' is in one of the blocks */
+    private boolean isInBlock(final Block block, final int pos0) {
+        if (block.count == 0) return false;
+        final int i = findGreatestLowerBound(block.count, block.starts, pos0);
+        final int s = block.starts[i];
+        return s <= pos0 && pos0 < s + block.sizes[i];
     }
 
     @Override
@@ -383,6 +441,28 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
         return getSubsequenceAt(contig, 1, tbi.size);
     }
 
+    /** return true if the file is memory-mapped */
+    public boolean isMemoryMapped() {
+        return this.mappedStream != null;
+    }
+
+    /**
+     * return a view of a contig as a CharSequence. Requires a memory-mapped file. The sequence
+     * is not copied in memory: each call to charAt decodes the 2bit packed base from the mapped
+     * buffer, the N-blocks are binary-searched. Bases are returned like in {@link #getSubsequenceAt}.
+     * @param contig the contig name
+     * @return the sequence or null if the contig doesn't exist
+     */
+    public synchronized ChromosomeSequence getContigSequence(final String contig) {
+        if (this.mappedStream == null) throw new IllegalStateException("getContigSequence requires a memory-mapped file");
+        if (!this.seq2index.containsKey(contig)) return null;
+        try {
+            return new MappedContigSequence(getTwoBitSeqHeader(contig));
+        } catch (final IOException err) {
+            throw new RuntimeIOException(err);
+        }
+    }
+
     @Override
     public boolean isIndexed() {
         return true;
@@ -445,6 +525,17 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
      * get the sequence header information using the cache. Position file right at data.
      */
     private TwoBit getTwoBitSeqHeader(final String name) throws IOException {
+        if (this.mappedStream != null) {
+            /* headers are small: keep all of them */
+            TwoBit twoBit = this.mappedHeaders.get(name);
+            if (twoBit == null) {
+                twoBit = readTwoBitSeqHeader(name);
+                this.mappedHeaders.put(name, twoBit);
+            } else {
+                this.seekableStream.seek(twoBit.dataOffsetCache);
+            }
+            return twoBit;
+        }
         if (this.seqCache != null && this.seqCache.name.equals(name)) {
             this.seekableStream.seek(this.seqCache.dataOffsetCache);
         } else {
@@ -557,4 +648,109 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
     public String toString() {
         return "TwoBitSequenceFile(" + this.seekableStream.getSource() + ")";
     }
+
+    /** CharSequence view of a contig in a memory-mapped file */
+    private class MappedContigSequence extends AbstractCharSequence implements ChromosomeSequence {
+        private final TwoBit twoBit;
+
+        MappedContigSequence(final TwoBit twoBit) {
+            this.twoBit = twoBit;
+        }
+
+        @Override
+        public String getChrom() {
+            return this.twoBit.name;
+        }
+
+        @Override
+        public int length() {
+            return this.twoBit.size;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= this.twoBit.size) {
+                throw new IndexOutOfBoundsException("index:" + index + " length:" + this.twoBit.size);
+            }
+            if (isInBlock(this.twoBit.nBlock, index)) return 'n';
+            return (char) decodeMappedBase(this.twoBit, index);
+        }
+    }
+
+    /** SeekableStream over a memory-mapped local file. Files larger than 2Gb are mapped as several segments. */
+    private static class MappedSeekableStream extends SeekableStream {
+        private static final int SEGMENT_SHIFT = 30;
+        private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1L;
+        private final String source;
+        private final long length;
+        private MappedByteBuffer segments[];
+        private long position = 0L;
+
+        MappedSeekableStream(final Path path) throws IOException {
+            this.source = path.toString();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                this.length = channel.size();
+                final int n = (int) ((this.length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+                this.segments = new MappedByteBuffer[n];
+                for (int i = 0; i < n; i++) {
+                    final long start = ((long) i) << SEGMENT_SHIFT;
+                    this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(this.length - start, SEGMENT_MASK + 1L));
+                }
+            }
+        }
+
+        /** get byte at absolute offset, doesn't change the position of the stream */
+        byte get(final long offset) {
+            return this.segments[(int) (offset >>> SEGMENT_SHIFT)].get((int) (offset & SEGMENT_MASK));
+        }
+
+        @Override
+        public long length() {
+            return this.length;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.position;
+        }
+
+        @Override
+        public void seek(final long position) throws IOException {
+            if (position < 0L || position > this.length) throw new IOException("cannot seek to " + position + " in " + this.source);
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (eof()) return -1;
+            return Byte.toUnsignedInt(get(this.position++));
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int len) throws IOException {
+            if (len == 0) return 0;
+            if (eof()) return -1;
+            final int n = (int) Math.min(len, this.length - this.position);
+            for (int i = 0; i < n; i++) {
+                buffer[offset + i] = get(this.position++);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.segments = null;
+        }
+
+        @Override
+        public boolean eof() throws IOException {
+            return this.position >= this.length;
+        }
+
+        @Override
+        public String getSource() {
+            return this.source;
+        }
+    }
 }
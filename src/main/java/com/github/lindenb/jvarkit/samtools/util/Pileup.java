@@ -26,27 +26,57 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.samtools.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.BiPredicate;
+import java.util.function.ToDoubleFunction;
 
 import htsjdk.samtools.util.Locatable;
 
-/** pileup locatable for graphical visualizations */
+/** pileup locatable for graphical visualizations.
+ * 
+ * An item is put in the first row where it doesn't collide with any other item.
+ * When the pileup is created with a 'left' and a 'right' function, each row only remembers
+ * the maximum 'right' of its items and the first available row is found in O(log(rows))
+ * using a segment tree over the rows. Otherwise, the BiPredicate is tested against all the items of each row.
+ */
 	public class Pileup<T extends Locatable> implements Iterable<List<T>> {
 	private final List<List<T>> rows = new ArrayList<>();
 	private String prevContig=null;
 	private int prev_start=0;
 	private final BiPredicate<T, T> noCollisionTest;
+	/** for the indexed mode: left side of an item */
+	private final ToDoubleFunction<T> leftFun;
+	/** for the indexed mode: right side of an item */
+	private final ToDoubleFunction<T> rightFun;
+	/** for the indexed mode: max getEnd() of each row */
+	private int rowEnds[] = new int[0];
+	/** for the indexed mode: segment tree, the leaves are the max 'right' of each row, the nodes are the min of their children */
+	private double tree[] = new double[0];
+	/** number of leaves in tree */
+	private int treeCapacity = 0;
 	
 	/** BiPredicate returns true if the two item DO NOT collidate */
 	public Pileup(final BiPredicate<T, T> noCollisionTest) {
 		this.noCollisionTest = noCollisionTest;
+		this.leftFun = null;
+		this.rightFun = null;
+		}
+	
+	/** indexed pileup: the items A and B DO NOT collidate if rightFun(A) &lt; leftFun(B) and A doesn't overlap B.
+	 * The items must be added sorted on start. leftFun and rightFun can return any increasing transformation
+	 * of the coordinates (e.g. unclipped positions, pixels...)
+	 */
+	public Pileup(final ToDoubleFunction<T> leftFun,final ToDoubleFunction<T> rightFun) {
+		this.leftFun = leftFun;
+		this.rightFun = rightFun;
+		this.noCollisionTest = (left,right)->rightFun.applyAsDouble(left) < leftFun.applyAsDouble(right);
 		}
 	
 	public Pileup() {
-		this((left,right)->left.getEnd()+1 < right.getStart());
+		this(L->L.getStart(),L->L.getEnd()+1);
 		}
 	
 	public Pileup<T> addAll(final Collection<T> collection) {
@@ -74,6 +104,10 @@ import htsjdk.samtools.util.Locatable;
 				throw new IllegalArgumentException("Cannot pileup with unordered element: "+this.prev_start+" > "+item.getStart());
 				}
 			}
+		if(this.leftFun!=null) {
+			addIndexed(item);
+			return item;
+			}
 		int y = 0;
 		for(y=0; y < this.rows.size();++y) {
 			final List<T> row = this.rows.get(y);
@@ -97,6 +131,64 @@ import htsjdk.samtools.util.Locatable;
 		return item;
 		}
 	
+	/** add an item using the segment tree */
+	private void addIndexed(final T item) {
+		final double left = this.leftFun.applyAsDouble(item);
+		int y = -1;
+		int from = 0;
+		for(;;) {
+			y = findFirstRow(1, 0, this.treeCapacity, from, left);
+			/* also check the item doesn't overlap the previous items of the row */
+			if(y==-1 || this.rowEnds[y] < item.getStart()) break;
+			from = y + 1;
+			}
+		final double right = this.rightFun.applyAsDouble(item);
+		final int leaf;
+		if(y==-1) {
+			y = this.rows.size();
+			this.rows.add(new ArrayList<>());
+			if(y >= this.treeCapacity) growTree();
+			leaf = this.treeCapacity + y;
+			this.rowEnds[y] = item.getEnd();
+			this.tree[leaf] = right;
+			}
+		else
+			{
+			leaf = this.treeCapacity + y;
+			this.rowEnds[y] = Math.max(this.rowEnds[y], item.getEnd());
+			this.tree[leaf] = Math.max(this.tree[leaf], right);
+			}
+		this.rows.get(y).add(item);
+		for(int node = leaf/2; node>=1; node/=2) {
+			this.tree[node] = Math.min(this.tree[2*node], this.tree[2*node+1]);
+			}
+		}
+	
+	/** find the first row with index &gt;= 'from' where the max 'right' is lower than 'left'. Returns -1 if there is no such row */
+	private int findFirstRow(final int node,final int nodeStart,final int nodeEnd,final int from,final double left) {
+		if(nodeEnd <= from || this.tree[node] >= left) return -1;
+		if(nodeEnd - nodeStart == 1) return nodeStart;
+		final int mid = (nodeStart + nodeEnd)/2;
+		final int y = findFirstRow(2*node, nodeStart, mid, from, left);
+		if(y!=-1) return y;
+		return findFirstRow(2*node+1, mid, nodeEnd, from, left);
+		}
+	
+	/** double the number of leaves of the segment tree */
+	private void growTree() {
+		final int newCapacity = Math.max(16, this.treeCapacity*2);
+		final double newTree[] = new double[newCapacity*2];
+		/* leaves without a row are never available */
+		Arrays.fill(newTree, Double.POSITIVE_INFINITY);
+		System.arraycopy(this.tree, this.treeCapacity, newTree, newCapacity, this.treeCapacity);
+		for(int node=newCapacity-1;node>=1;--node) {
+			newTree[node] = Math.min(newTree[2*node], newTree[2*node+1]);
+			}
+		this.tree = newTree;
+		this.rowEnds = Arrays.copyOf(this.rowEnds, newCapacity);
+		this.treeCapacity = newCapacity;
+		}
+	
 	/** test wether two items can be added to the same row */
 	protected boolean overlap(final T left,final T right) {
 		if(left.overlaps(right)) return true;
@@ -122,6 +214,9 @@ import htsjdk.samtools.util.Locatable;
 		this.prevContig = null;
 		this.prev_start = 0;
 		this.rows.clear();
+		this.rowEnds = new int[0];
+		this.tree = new double[0];
+		this.treeCapacity = 0;
 		}
 	
 	@Override
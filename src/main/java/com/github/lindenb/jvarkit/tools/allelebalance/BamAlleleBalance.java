@@ -39,9 +39,8 @@ import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.math.RangeOfDoubles;
 import com.github.lindenb.jvarkit.samtools.SAMRecordDefaultFilter;
+import com.github.lindenb.jvarkit.samtools.SamLocusSweeper;
 import com.github.lindenb.jvarkit.util.Counter;
-import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
-import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -53,10 +52,11 @@ import htsjdk.samtools.Cigar;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFReader;
 /*
@@ -97,7 +97,7 @@ END_DOC
 @Program(name="bamallelebalance",
 	description="Compute statistics about allele balance from a set of Bams",
 	keywords= {"vcf","allele-balance","depth","bam"},
-	modificationDate="20200805",
+	modificationDate="20261018",
 	creationDate="20200805"
 	)
 public class BamAlleleBalance extends Launcher {
@@ -117,13 +117,15 @@ public class BamAlleleBalance extends Launcher {
 	private int mapq = 1;
 	@Parameter(names={"--min-depth"},description="Ignore sites having a depth lower than 'x'")
 	private int min_depth = 10;
+	@Parameter(names={"--threads"},description="Number of threads. The BAMs are read in parallel.")
+	private int nThreads = 1;
 
 	private static class SiteInfo {
 		int countRef = 0;
 		int countAlt = 0;
 	}
 
-	private static class Snp {
+	private static class Snp implements Locatable {
 		final String contigSrc;
 		final int pos1;
 		final char ref;
@@ -135,6 +137,28 @@ public class BamAlleleBalance extends Launcher {
 			this.ref = ctx.getAlleles().get(0).getDisplayString().toUpperCase().charAt(0);
 			this.alt = ctx.getAlleles().get(1).getDisplayString().toUpperCase().charAt(0);
 		}
+		@Override
+		public String getContig() {
+			return this.contigSrc;
+			}
+		@Override
+		public int getStart() {
+			return this.pos1;
+			}
+		@Override
+		public int getEnd() {
+			return this.pos1;
+			}
+	}
+	
+	/** a BAM and its samples */
+	private static class BamInfo {
+		final String defaultPartition;
+		final Set<String> samples;
+		BamInfo(final String defaultPartition,final Set<String> samples) {
+			this.defaultPartition = defaultPartition;
+			this.samples = samples;
+			}
 		
 	}
 	
@@ -162,11 +186,24 @@ public class BamAlleleBalance extends Launcher {
 				return -1;
 				}
 			LOG.info(String.valueOf(snps.size())+" snp(s)");
+			/* the sweeper needs the snps sorted: group the contigs, keep the order of their first occurrence */
+			final Map<String,Integer> contig2index = new HashMap<>();
+			for(final Snp snp: snps) contig2index.putIfAbsent(snp.contigSrc, contig2index.size());
+			snps.sort((A,B)->{
+				final int i = Integer.compare(contig2index.get(A.contigSrc), contig2index.get(B.contigSrc));
+				if(i!=0) return i;
+				return Integer.compare(A.pos1, B.pos1);
+				});
+			
 			final Map<String, Counter<RangeOfDoubles.Range>> sample2count = new HashMap<>(bamPaths.size());
 			final SamReaderFactory srf = super.createSamReaderFactory();
 			if(this.faidx!=null) srf.referenceSequence(this.faidx);
-			for(final Path bamPath:bamPaths) {
-				try(SamReader samReader = srf.open(bamPath)) {
+			final List<SamReader> samReaders = new ArrayList<>(bamPaths.size());
+			try {
+				final List<BamInfo> bamInfos = new ArrayList<>(bamPaths.size());
+				for(final Path bamPath:bamPaths) {
+					final SamReader samReader = srf.open(bamPath);
+					samReaders.add(samReader);
 					final String defaultPartition= IOUtils.getFilenameWithoutCommonSuffixes(bamPath);
 					final SAMFileHeader header = samReader.getFileHeader();
 					final Set<String> samples = header.getReadGroups().
@@ -175,50 +212,47 @@ public class BamAlleleBalance extends Launcher {
 						collect(Collectors.toSet())
 						;
 					samples.stream().forEach(SN-> sample2count.putIfAbsent(SN, new Counter<>()));
-					
-					final SAMSequenceDictionary dict = SequenceDictionaryUtils.extractRequired(header);
-					final ContigNameConverter converter = ContigNameConverter.fromOneDictionary(dict);
-					for(final Snp snp:snps) {
-						final String bamContig = converter.apply(snp.contigSrc);
-						
-						if(StringUtils.isBlank(bamContig)) continue;
-						
-						final Map<String,SiteInfo> sample2siteinfo = new HashMap<>(samples.size());
-						for(final String sn :samples) {
+					bamInfos.add(new BamInfo(defaultPartition, samples));
+					}
+				
+				final SamLocusSweeper sweeper = new SamLocusSweeper(samReaders).
+						setThreads(this.nThreads).
+						setRecordFilter(R->SAMRecordDefaultFilter.accept(R, this.mapq));
+				sweeper.sweep(snps.iterator(), (snp,readsPerBam)->{
+					for(int bam_idx=0;bam_idx< bamInfos.size();++bam_idx) {
+						final BamInfo bamInfo = bamInfos.get(bam_idx);
+						final Map<String,SiteInfo> sample2siteinfo = new HashMap<>(bamInfo.samples.size());
+						for(final String sn :bamInfo.samples) {
 							sample2siteinfo.put(sn, new SiteInfo());
 							}
 						
-						try(CloseableIterator<SAMRecord> iter = samReader.queryOverlapping(bamContig,snp.pos1,snp.pos1)) {
-							while(iter.hasNext()) {
-								final SAMRecord rec = iter.next();
-								if(!SAMRecordDefaultFilter.accept(rec, this.mapq)) continue;
-								final SAMReadGroupRecord rg = rec.getReadGroup();
-								if(rg==null) continue;
-								String sample = this.groupBy.apply(rg, defaultPartition);
-								if(StringUtils.isBlank(sample) || !sample2siteinfo.containsKey(sample)) continue;
+						for(final SAMRecord rec : readsPerBam.get(bam_idx)) {
+							final SAMReadGroupRecord rg = rec.getReadGroup();
+							if(rg==null) continue;
+							String sample = this.groupBy.apply(rg, bamInfo.defaultPartition);
+							if(StringUtils.isBlank(sample) || !sample2siteinfo.containsKey(sample)) continue;
 
-								final Cigar cigar = rec.getCigar();
-								if(cigar==null || cigar.isEmpty()) continue;
-								byte bases[] = rec.getReadBases();
-								
-								if(bases==null || bases==SAMRecord.NULL_SEQUENCE) continue;
-								
-								final int readpos1 = rec.getReadPositionAtReferencePosition(snp.pos1);
-								if(readpos1<1) continue;
-								final int readpos0 = readpos1-1;
-								if(readpos0<0 || readpos0>=bases.length) continue;
-								final char base = (char)Character.toUpperCase(bases[readpos0]);
-								final SiteInfo si = sample2siteinfo.get(sample);
-								if(si==null) continue;
-								if(base==snp.ref) {
-									si.countRef++;
-									}
-								else if(base==snp.alt) {
-									si.countAlt++;
-									}
-									
-								}
+							final Cigar cigar = rec.getCigar();
+							if(cigar==null || cigar.isEmpty()) continue;
+							byte bases[] = rec.getReadBases();
+							
+							if(bases==null || bases==SAMRecord.NULL_SEQUENCE) continue;
 							
+							final int readpos1 = rec.getReadPositionAtReferencePosition(snp.pos1);
+							if(readpos1<1) continue;
+							final int readpos0 = readpos1-1;
+							if(readpos0<0 || readpos0>=bases.length) continue;
+							final char base = (char)Character.toUpperCase(bases[readpos0]);
+							final SiteInfo si = sample2siteinfo.get(sample);
+							if(si==null) continue;
+							if(base==snp.ref) {
+								si.countRef++;
+								}
+							else if(base==snp.alt) {
+								si.countAlt++;
+								}
+							}
+						
 						for(final String sample: sample2siteinfo.keySet()) {
 							final SiteInfo si = sample2siteinfo.get(sample);
 							final int depth = si.countAlt + si.countRef;
@@ -228,11 +262,13 @@ public class BamAlleleBalance extends Launcher {
 							final RangeOfDoubles.Range range = this.ratios.getRange(ratio);
 							sample2count.get(sample).incr(range);
 							}
-							
-						}//end of iter
-					}//end of loop over snps
+						}//end of loop over bams
+					});
+				}
+			finally
+				{
+				for(final SamReader samReader: samReaders) CloserUtil.close(samReader);
 				}
-			}// end of loop over each bams
 		
 			
 			// print report
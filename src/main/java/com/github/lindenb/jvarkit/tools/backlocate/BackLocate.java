@@ -129,7 +129,7 @@ backlocate was cited in:
 	keywords={"vcf","annotation","prediction","protein"},
 	biostars={15992,116366,425422},
 	creationDate="20140619",
-	modificationDate="20190820"
+	modificationDate="20261018"
 	)
 public class BackLocate
 	extends Launcher
@@ -151,6 +151,9 @@ public class BackLocate
 
 	private ReferenceSequenceFile referenceGenome = null;
 	private GenomicSequence genomicContig = null;
+	private final RNASequenceFactory rnaSequenceFactory = new RNASequenceFactory().
+			setContigToGenomicSequence(C->this.genomicContig).
+			setCacheSize(1_000);
 	private final Map<String,List<Transcript>>  name2transcripts = new HashMap<>(100_000);
 	/** get a genetic code from a chromosome name (either std or mitochondrial */
 	private static GeneticCode getGeneticCodeByChromosome(final String chr)
@@ -172,7 +175,6 @@ public class BackLocate
 		{
 		final Set<String> messages = new LinkedHashSet<>();
 		final GeneticCode geneticCode = getGeneticCodeByChromosome(transcript.getContig());
-		final RNASequenceFactory rnaSequenceFactory=new RNASequenceFactory();
 		
 	        		
 	        		
@@ -188,9 +190,7 @@ public class BackLocate
 	        		}
 	        	this.genomicContig= new GenomicSequence(this.referenceGenome,transcript.getContig());
 	        	}
-    	rnaSequenceFactory.setContigToGenomicSequence(C->this.genomicContig);
-        
-		 final RNASequence wildRNA = rnaSequenceFactory.getCodingRNA(transcript);
+		 final RNASequence wildRNA = this.rnaSequenceFactory.getCodingRNA(transcript);
 		 final PeptideSequence<RNASequence> wildProt = PeptideSequence.of(wildRNA,geneticCode);
 		 
 	       		
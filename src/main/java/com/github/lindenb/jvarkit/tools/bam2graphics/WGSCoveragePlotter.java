@@ -59,7 +59,9 @@ import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.jcommander.converter.DimensionConverter;
 import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.math.DiscreteMedian;
+import com.github.lindenb.jvarkit.samtools.CoverageAccumulator;
 import com.github.lindenb.jvarkit.samtools.SAMRecordDefaultFilter;
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.util.bio.DistanceParser;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
@@ -71,7 +73,6 @@ import com.github.lindenb.jvarkit.util.ns.RDF;
 import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
 import com.github.lindenb.jvarkit.util.svg.SVG;
 
-import htsjdk.samtools.AlignmentBlock;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
@@ -116,7 +117,7 @@ END_DOC
 	description="Whole genome coverage plotter",
 	keywords={"svg","bam","depth","coverage"},
 	creationDate="20201125",
-	modificationDate="20210812",
+	modificationDate="20261018",
 	biostars={104063,475162,9536274}
 	)
 public class WGSCoveragePlotter extends Launcher {
@@ -188,21 +189,15 @@ private Element element(final String tag,final Object content) {
 	E.appendChild(text(content));
 	return E;
 	}
-/** get coverage in given chromosome for all bases of the chromosome */
-private int[] getContigCoverage(final SamReader sr, final SAMSequenceRecord ssr,final SamRecordFilter samReadFilter) throws IOException {
-	final int[] coverage;
-	try {
-		coverage = new int[ssr.getSequenceLength()];
-	} catch(final Throwable err) {
-		throw new OutOfMemoryError("Error: cannot alloc memory for sizeof(int)*"+ssr.getSequenceLength()+" (chrom "+ssr.getSequenceName()+")");
-		}
-	Arrays.fill(coverage, 0);
+/** scan the coverage of all the bases of the chromosome, runs of depth are sent to the consumer */
+private void scanContigCoverage(final SamReader sr, final SAMSequenceRecord ssr,final SamRecordFilter samReadFilter,final CoverageAccumulator.RunConsumer consumer) throws IOException {
+	final CoverageAccumulator accumulator = new CoverageAccumulator(new SimpleInterval(ssr.getSequenceName(),1,ssr.getSequenceLength()), consumer);
 	try(SAMRecordIterator iter= sr.queryOverlapping(ssr.getSequenceName(), 1, ssr.getSequenceLength())) {
 			while(iter.hasNext()) {
 			final SAMRecord rec= iter.next();
 			if(samReadFilter.filterOut(rec)) continue;
 			
-			int max_end1 = coverage.length;
+			int max_end1 = Integer.MAX_VALUE;
 			
 			if(!this.disable_paired_overlap_flag && 
 				rec.getReadPairedFlag() && 
@@ -213,18 +208,10 @@ private int[] getContigCoverage(final SamReader sr, final SAMSequenceRecord ssr,
 				) {
 				max_end1 = rec.getMateAlignmentStart() - 1;
 				}
-			for(final AlignmentBlock block:rec.getAlignmentBlocks()) {
-				final int pos1=block.getReferenceStart();
-				final int len = block.getLength();
-				for(int i=0;i< len;i++) {
-					if(pos1+i-1>=0 && pos1 +i <= max_end1) {
-						coverage[pos1 + i -1]++;
-						}
-					}
-				}
+			accumulator.add(rec, max_end1);
 			}
 		}
-	return coverage;
+	accumulator.finish();
 	}
 
 @Override
@@ -430,12 +417,7 @@ public int doWork(final List<String> args) {
 				final ProgressFactory.Watcher<SAMSequenceRecord> progress= ProgressFactory.newInstance().dictionary(dict).logger(LOG).build();
 				final DiscreteMedian<Integer> median = new DiscreteMedian<>();
 				for(final ChromInfo ci: chromInfos) {
-					int coverage[]  = getContigCoverage(sr, progress.apply(ci.ssr), samReadFilter);
-					for(int i=0;i<coverage.length;i++) {
-						median.add(coverage[i]);
-						}
-					coverage=null;
-					System.gc();
+					scanContigCoverage(sr, progress.apply(ci.ssr), samReadFilter,(START,END,DEPTH)->median.add(DEPTH, 1L + END - START));
 					}
 				progress.close();
 				final DiscreteMedian.Tendency t;
@@ -460,7 +442,6 @@ public int doWork(final List<String> args) {
 			final ProgressFactory.Watcher<SAMSequenceRecord> progress= ProgressFactory.newInstance().dictionary(dict).logger(LOG).build();
 			for(final ChromInfo ci: chromInfos) {
 				progress.apply(ci.ssr);
-				int coverage[]  = getContigCoverage(sr, ci.ssr, samReadFilter);
 
 				final Element g = element("g");
 				g.setAttribute("transform", "translate("+ci.x+",0)");
@@ -475,20 +456,35 @@ public int doWork(final List<String> args) {
 				polyline.setAttribute("class", "cov"+(ci.idx%2));
 				if(!plot_using_points) points.add(new Point2D.Double(0,drawingHeight));
 				
-				for(int i=0;i< coverage.length;++i) {
-					ctg_median.add(coverage[i]);
-					}
+				/* bin the coverage under each pixel */
+				final int npixels = (int)Math.ceil(ci.width);
+				final List<DiscreteMedian<Integer>> pixelMedians = new ArrayList<>(npixels);
+				for(int i=0;i< npixels;i++) pixelMedians.add(new DiscreteMedian<>());
+				final int pixel_cursor[] = new int[] {0};
+				scanContigCoverage(sr, ci.ssr, samReadFilter, (START,END,DEPTH)->{
+					ctg_median.add(DEPTH, 1L + END - START);
+					int pos0 = START - 1;
+					while(pos0 < END) {
+						final int px = pixel_cursor[0];
+						if(px >= npixels) break;
+						final int x1 = (int)(px*(1.0/pixelsPerBase));
+						final int x2 = (int)Math.min(ci.ssr.getSequenceLength(),(px+1)*(1.0/pixelsPerBase));
+						if(pos0 >= x2) {
+							pixel_cursor[0]++;
+							continue;
+							}
+						if(pos0 < x1) {
+							pos0 = x1;
+							continue;
+							}
+						final int n = Math.min(END, x2) - pos0;
+						pixelMedians.get(px).add(DEPTH, n);
+						pos0 += n;
+						}
+					});
 				
 				for(x=0;x< ci.width;x++) {
-					int x1 = (int)((x+0)*(1.0/pixelsPerBase));
-					final int x2 = (int)Math.min(ci.ssr.getSequenceLength(),(x+1)*(1.0/pixelsPerBase));
-					final DiscreteMedian<Integer> median = new DiscreteMedian<>();
-					
-					while(x1<x2 && x1 < coverage.length) {
-						median.add(coverage[x1]);
-						
-						++x1;
-					    }
+					final DiscreteMedian<Integer> median = pixelMedians.get((int)x);
 					final OptionalDouble dbl = median.getTendency(this.percentile);
 					if(dbl.isPresent()) {
 						double dbl2 = dbl.getAsDouble();
@@ -562,9 +558,6 @@ public int doWork(final List<String> args) {
 				rect.setAttribute("height", format(drawingHeight));
 				rect.setAttribute("class", "frame");
 				g.appendChild(rect);
-				
-				coverage=null;
-				System.gc();
 				}
 			progress.close();
 			
@@ -92,7 +92,6 @@ import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.CoordMath;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.tribble.readers.TabixReader;
@@ -1038,7 +1037,7 @@ public class BamToSVG extends Launcher {
 				// read SamRecord
 				try(CloseableIterator<SAMRecord> iter= samReader.query(this.interval.getContig(),
 						Math.max(1, this.interval.getStart() - extend_for_clip),this.interval.getEnd() + extend_for_clip,false)) {
-					final Pileup<SAMRecord> pileup = new Pileup<>((A,B)->!CoordMath.overlaps(left(A)-1,right(A)+1,left(B),right(B)));
+					final Pileup<SAMRecord> pileup = new Pileup<>(B->left(B),A->right(A)+1);
 					while(iter.hasNext())
 						{
 						final SAMRecord rec = iter.next();
@@ -59,6 +59,7 @@ import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.stream.HtsCollectors;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
+import com.github.lindenb.jvarkit.util.bio.fasta.GCIndex;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -149,7 +150,7 @@ END_DOC
 @Program(name="wescnvsvg",
 description="SVG visualization of bam DEPTH for multiple regions",
 keywords={"bam","alignment","graphics","visualization","svg","wes","bed","capture","exome"},
-modificationDate="20210726",
+modificationDate="20261018",
 creationDate="20180726"
 )
 public class WesCnvSvg  extends Launcher {
@@ -222,6 +223,7 @@ public class WesCnvSvg  extends Launcher {
 	//private final List<CaptureInterval> intervals = new ArrayList<>();
 	private final List<BamInput> bamInputs = new ArrayList<>();
 	private ReferenceSequenceFile indexedFastaSequenceFile;
+	private GCIndex gcIndex = null;
 	private DecimalFormat decimalFormater = new DecimalFormat("##.##");
 	//private double globalMaxDepth = 0.0;
 	private int countBasesToBeDisplayed = 0;
@@ -262,6 +264,7 @@ public class WesCnvSvg  extends Launcher {
 			{
 			
 			this.indexedFastaSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faidx);
+			this.gcIndex = GCIndex.openIfExists(this.faidx);
 			final SAMSequenceDictionary refDict = SequenceDictionaryUtils.extractRequired(this.indexedFastaSequenceFile);			
 			final IntervalExtender extender = IntervalExtender.of(refDict,this.extendWhat);
 			if(extender.isShriking()) {
@@ -466,7 +469,7 @@ public class WesCnvSvg  extends Launcher {
 			// gc percent
 			for(final CaptureInterval ci: userIntervals)
 				{
-				final GenomicSequence genomicSequence = new GenomicSequence(this.indexedFastaSequenceFile,ci.getContig());
+				final GenomicSequence genomicSequence = new GenomicSequence(this.indexedFastaSequenceFile,ci.getContig(),this.gcIndex);
 				final int gc_percent_width= (int)ci.getPixelWidth();
 				final List<Point2D.Double> points= new ArrayList<>(gc_percent_width);
 				for(int x=0;x< gc_percent_width;++x)
@@ -63,6 +63,7 @@ import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
+import com.github.lindenb.jvarkit.samtools.CoverageAccumulator;
 import com.github.lindenb.jvarkit.samtools.util.IntervalParserFactory;
 import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.util.Counter;
@@ -89,7 +90,9 @@ About BedGraph: [https://genome.ucsc.edu/goldenpath/help/bedgraph.html](https://
 
 ## Memory
 
-warning: the program is memory consuming, it allocates on array of integer of the size of your longest contig.
+With `--display COVERAGE`, the depth is computed using a sliding buffer and the memory doesn't depend on the size of the contigs.
+
+warning: for the other kinds of display, the program is memory consuming, it allocates on array of integer of the size of your longest contig.
 
 ## History:
 
@@ -144,9 +147,9 @@ fixedStep chrom=ref2 start=1 step=3 span=1
 END_DOC
  */
 @Program(name="bam2wig",
-description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth. Memory intensive: must alloc sizeof(int)*size(chrom)",
+description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth. Memory intensive (but for COVERAGE): must alloc sizeof(int)*size(chrom)",
 keywords={"bam","wig","wiggle","bed"},
-modificationDate="20200304"
+modificationDate="20261018"
 )
 public class Bam2Wig extends Launcher
 	{
@@ -204,37 +207,6 @@ public class Bam2Wig extends Launcher
 			}
 		}
 	
-	private static class CoverageAggregator extends Aggregator
-		{
-		private final Predicate<SAMRecord> internalFilter;
-		CoverageAggregator() {
-			this(R->true);
-			}
-		protected CoverageAggregator(final Predicate<SAMRecord> predicate) {
-			this.internalFilter = predicate;
-			}
-		@Override
-		void visit(final int array[],final SAMRecord rec)
-			{
-			if(!this.internalFilter.test(rec)) return ;
-			final Cigar cigar=rec.getCigar();
-			if(cigar==null) return;
-    		int refpos1=rec.getAlignmentStart();
-    		for(final CigarElement ce:cigar)
-    			{
-    			final CigarOperator op = ce.getOperator();
-    			if(op.consumesReferenceBases())
-    				{
-    				if(op.consumesReadBases())
-    					{
-    					incr(array,refpos1,ce.getLength());
-    					}
-    				refpos1+=ce.getLength();
-    				}    				
-    			}
-			}
-		}
-	
 	private static class DeletionAggregator extends Aggregator
 		{
 		@Override
@@ -493,6 +465,99 @@ public class Bam2Wig extends Launcher
 
 	
 	
+	/** receives the depth of each position of a contig, in order, and prints the sliding windows */
+	private class WindowPrinter implements CoverageAccumulator.DepthConsumer
+		{
+		private final PrintWriter pw;
+		private final SAMSequenceRecord ssr;
+		private final SimpleInterval interval;
+		private final Percentile percentile;
+		/** last 'window_span' values */
+		private final int ring[];
+		private final int tmp[];
+		/** 0-based start of the next window */
+		private int start0;
+		private boolean header_printed = false;
+		private boolean done = false;
+		
+		WindowPrinter(final PrintWriter pw,final SAMSequenceRecord ssr,final SimpleInterval interval,final Percentile percentile) {
+			this.pw = pw;
+			this.ssr = ssr;
+			this.interval = interval;
+			this.percentile = percentile;
+			this.ring = new int[Bam2Wig.this.window_span];
+			this.tmp = new int[Bam2Wig.this.window_span];
+			this.start0 = (interval==null?0:interval.getStart());
+			}
+		
+		@Override
+		public void accept(final int pos1,final int depth) {
+			final int pos0 = pos1 - 1;
+			this.ring[pos0 % this.ring.length] = depth;
+			while(!this.done && this.start0 + this.ring.length - 1 == pos0) {
+				printWindow(this.ring.length);
+				}
+			}
+		
+		/** print the remaining windows at the end of the contig */
+		void finish() {
+			while(!this.done && this.start0 < this.ssr.getSequenceLength()) {
+				printWindow(Math.min(this.ring.length, this.ssr.getSequenceLength() - this.start0));
+				}
+			}
+		
+		private void printWindow(final int length) {
+			if(this.interval!=null)
+				{
+				if(!this.interval.getContig().equals(this.ssr.getSequenceName()) ||
+					this.start0 > this.interval.getEnd()) {
+					this.done = true;
+					return;
+					}
+				if(this.start0+window_span < this.interval.getStart())
+					{
+					this.start0+=win_shift;
+					return;
+					}
+				}
+			
+			if(!bedGraph && !this.header_printed)
+				{
+				this.pw.println(
+ 						"fixedStep chrom="+this.ssr.getSequenceName()+
+ 						" start="+(this.start0+1)+
+ 						" step="+win_shift +" span="+ window_span
+ 						);
+				this.header_printed=true;
+				}
+			/* 
+			 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
+			   Wiggle track data values can be integer or real, positive or negative values.
+			   Chromosome positions are specified as 1-relative.
+			   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
+			 */
+			for(int i=0;i< length;i++) {
+				this.tmp[i] = this.ring[(this.start0 + i) % this.ring.length];
+				}
+			final double percentile_value = this.percentile.evaluate(this.tmp,0,length).getAsDouble();
+			if(bedGraph)
+				{
+				this.pw.print(this.ssr.getSequenceName());
+				this.pw.print('\t');
+				this.pw.print(this.start0);
+				this.pw.print('\t');
+				this.pw.print(this.start0+window_span);
+				this.pw.print('\t');
+				}
+			
+			this.pw.printf(printfFormat,percentile_value);
+			this.pw.print('\n');
+			
+			if(this.pw.checkError()) this.done = true;
+			this.start0 += win_shift;
+			}
+		}
+	
 	private void run(
 			final PrintWriter pw,
 			final CloseableIterator<SAMRecord> iter,
@@ -503,7 +568,7 @@ public class Bam2Wig extends Launcher
 		final Aggregator aggregator;
 		switch(this.whatDisplay)
 			{
-			case COVERAGE: aggregator = new CoverageAggregator();break;
+			case COVERAGE: aggregator = null;break;/* uses a CoverageAccumulator */
 			case CLIPPING : aggregator = new ClipAggregator(); break;
 			case INSERTION : aggregator = new InsertionAggregator();break;
 			case DELETION : aggregator = new DeletionAggregator();break;
@@ -519,6 +584,8 @@ public class Bam2Wig extends Launcher
 		final Percentile percentile = Percentile.of(this.percentilType);
 		SAMSequenceRecord ssr = null;
 		int array[]=null;
+		CoverageAccumulator accumulator = null;
+		WindowPrinter windowPrinter = null;
 		final SAMSequenceDictionaryProgress progess=new SAMSequenceDictionaryProgress(dict);
 		if(this.custom_track)
 			{
@@ -548,66 +615,23 @@ public class Bam2Wig extends Launcher
 				{
 				if(ssr!=null)
 					{
-					aggregator.finish(array);
 					// dump data
-					int start0=(interval==null?0:interval.getStart());
-					boolean header_printed=false;
-					
-					
-					while(start0 < array.length)
+					if(accumulator!=null)
 						{
-						if(interval!=null)
-							{
-							if(!interval.getContig().equals(ssr.getSequenceName())) break;//
-							if(start0> interval.getEnd()) break;
-							
-							if(start0+window_span < interval.getStart())
-								{
-								start0+=win_shift;
-								continue;
-								}
-							}
-						
-						if(!this.bedGraph && !header_printed)
-							{
-							pw.println(
-			 						"fixedStep chrom="+ssr.getSequenceName()+
-			 						" start="+(start0+1)+
-			 						" step="+this.win_shift +" span="+ this.window_span
-			 						);
-							header_printed=true;
-							}
-						/* 
-						 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
-						   Wiggle track data values can be integer or real, positive or negative values.
-						   Chromosome positions are specified as 1-relative.
-						   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
-						 */
-		 				
-						final double percentile_value = 
-							percentile.evaluate(
-									array,
-									start0,
-									Math.min(this.window_span,array.length-start0)
-									).getAsDouble();
-						if(this.bedGraph)
+						accumulator.finish();
+						}
+					else
+						{
+						aggregator.finish(array);
+						for(int i=0;i< array.length;i++)
 							{
-							pw.print(ssr.getSequenceName());
-							pw.print('\t');
-							pw.print(start0);
-							pw.print('\t');
-							pw.print(start0+this.window_span);
-							pw.print('\t');
+							windowPrinter.accept(i+1, array[i]);
 							}
-						
-						pw.printf(this.printfFormat,percentile_value);
-	 					pw.print('\n');
-		 				
-		 				if(pw.checkError()) break;
-		 				start0 += this.win_shift;
 						}
+					windowPrinter.finish();
 					array = null;
-					System.gc();
+					accumulator = null;
+					windowPrinter = null;
 					ssr = null;
 					}
 				if(rec==null) break;
@@ -615,16 +639,30 @@ public class Bam2Wig extends Launcher
 				}
 			if(ssr==null)
 				{
-				System.gc();
 				ssr=dict.getSequence(rec.getReferenceIndex());
 				Objects.requireNonNull(ssr);
-				LOG.info("Allocating int["+ssr.getSequenceLength()+"]");
-				array=new int[ssr.getSequenceLength()];
-				LOG.info("Allocating : Done.");
-				Arrays.fill(array, 0);
+				windowPrinter = new WindowPrinter(pw, ssr, interval, percentile);
+				if(aggregator==null)
+					{
+					accumulator = new CoverageAccumulator(new SimpleInterval(ssr.getSequenceName(),1,ssr.getSequenceLength()),windowPrinter);
+					}
+				else
+					{
+					System.gc();
+					LOG.info("Allocating int["+ssr.getSequenceLength()+"]");
+					array=new int[ssr.getSequenceLength()];
+					LOG.info("Allocating : Done.");
+					Arrays.fill(array, 0);
+					}
+				}
+			if(accumulator!=null)
+				{
+				accumulator.add(rec);
+				}
+			else
+				{
+				aggregator.visit(array, rec);
 				}
-			aggregator.visit(array, rec);
-			
 			}
 		progess.finish();
 		iter.close();
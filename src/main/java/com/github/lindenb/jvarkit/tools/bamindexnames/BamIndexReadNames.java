@@ -27,17 +27,17 @@ package com.github.lindenb.jvarkit.tools.bamindexnames;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Comparator;
 import java.util.List;
 
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.SAMFileHeader.SortOrder;
@@ -47,7 +47,6 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.SortingCollection;
 
 /**
 BEGIN_DOC
@@ -58,12 +57,17 @@ BEGIN_DOC
 $  java -jar dist/bamindexreadnames.jar file.bam
 ```
 
+The index `file.bam.names.idx` contains the sorted read names, grouped in prefix-compressed blocks.
+It is memory-mapped by BamQueryReadNames.
+
 
 END_DOC
  */
 @Program(name="bamindexreadnames",
 	description="Build a dictionary of read names to be searched with BamQueryReadNames",
-	keywords={"sam","bam"})
+	keywords={"sam","bam"},
+	modificationDate="20261018"
+	)
 public class BamIndexReadNames
 	extends BaseBamIndexReadNames
 	{
@@ -117,7 +121,10 @@ public class BamIndexReadNames
 			}
 		}
 
-		private int maxRecordsInRAM=50000;
+		@ParametersDelegate
+		private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
+		@Parameter(names={"--block-size"},description="Number of read names per block of the index. Names are prefix-compressed in a block. A larger value gives a smaller index but a longer scan per query.")
+		private int blockSize=ReadNameIndex.DEFAULT_BLOCK_SIZE;
 
 		
 		private void indexBamFile(Path bamFile) throws IOException
@@ -125,19 +132,16 @@ public class BamIndexReadNames
 			
 			NameIndexDef indexDef=new NameIndexDef();
 
-			SortingCollection<NameAndPos> sorting=null;
+			ParallelSortingCollection<NameAndPos> sorting=null;
 			LOG.info("Opening "+bamFile);
 			SamReader sfr=SamReaderFactory.makeDefault().
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
-			sorting=SortingCollection.newInstance(
+			sorting=this.writingSortingCollection.newInstance(
 					NameAndPos.class,
 					new NameAndPosCodec() ,
-					new NameAndPosComparator(),
-					maxRecordsInRAM,
-					bamFile.getParent()
+					new NameAndPosComparator()
 					);
-			sorting.setDestructiveIteration(true);
 			if(sfr.getFileHeader().getSortOrder()!=SortOrder.coordinate)
 				{
 				throw new IOException("not SortOrder.coordinate "+sfr.getFileHeader().getSortOrder());
@@ -166,34 +170,16 @@ public class BamIndexReadNames
 			Path indexFile= bamFile.getParent().resolve(bamFile.getFileName().toString()+NAME_IDX_EXTENSION);
 			
 			LOG.info("Writing index "+indexFile);
-			OutputStream raf= Files.newOutputStream(indexFile);
-			
-			ByteBuffer byteBuff= ByteBuffer.allocate(8+4);
-			byteBuff.putLong(indexDef.countReads);
-			byteBuff.putInt(indexDef.maxNameLengt);
-			raf.write(byteBuff.array());
-			
-			byteBuff= ByteBuffer.allocate( indexDef.maxNameLengt+4+4);
-			CloseableIterator<NameAndPos> iter2=sorting.iterator();
-			while(iter2.hasNext())
+			try(ReadNameIndex.Writer w=new ReadNameIndex.Writer(indexFile,this.blockSize))
 				{
-				byteBuff.rewind();
-				NameAndPos nap=iter2.next();
-				for(int i=0;i< nap.name.length();++i)
-					{
-					byteBuff.put((byte)nap.name.charAt(i));
-					}
-				for(int i=nap.name.length();i< indexDef.maxNameLengt;++i)
+				CloseableIterator<NameAndPos> iter2=sorting.iterator();
+				while(iter2.hasNext())
 					{
-					byteBuff.put((byte)'\0');
+					NameAndPos nap=iter2.next();
+					w.add(nap.name,nap.tid,nap.pos);
 					}
-				byteBuff.putInt(nap.tid);
-				byteBuff.putInt(nap.pos);
-				raf.write(byteBuff.array());
-				
+				iter2.close();
 				}
-			raf.flush();
-			raf.close();
 			sorting.cleanup();
 			}
 		
@@ -42,8 +42,8 @@ import htsjdk.tribble.readers.LineIterator;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -89,18 +89,22 @@ $ cat list.notfound
 ZZZZ:X
 ```
 
+Unless option `-s` is used, the names are sorted before the index is queried: the reads are written in the order of the sorted names.
+
 
  
  END_DOC
  */
-@Program(description="Query a Bam file indexed with BamIndexReadNames")
+@Program(description="Query a Bam file indexed with BamIndexReadNames",
+	modificationDate="20261018"
+	)
 public class BamQueryReadNames extends BaseBamIndexReadNames
 	{
 	private static final Logger LOG=Logger.build(BamQueryReadNames.class).make();
 	@Parameter(names={"-o","--out"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile=null;
 
-	@Parameter(names={"-s"},description="user list of read names is sorted")
+	@Parameter(names={"-s"},description="user list of read names is sorted. Otherwise, the names are loaded in memory and sorted, so the index is read only once.")
 	private boolean query_reads_is_sorted=false;
 	
 	@Parameter(names={"-N"},description=" save unmatched names here")
@@ -109,73 +113,26 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
-	private RandomAccessFile raf;
-	private NameIndexDef indexDef;
-
 	private BamQueryReadNames()
 		{
 		}
 	
-	
-	
-	private NameAndPos getNameAndPosAt(long index)
-		throws IOException
+	/** remove the '/1' or '/2' suffix */
+	private static String searchName(final String line)
 		{
-		long fileoffset=FILE_PREFIX_SIZE//header
-					+ index*(this.indexDef.sizeOfNameAndPos());
-		
-		ByteBuffer byteBuff= ByteBuffer.allocate( indexDef.sizeOfNameAndPos());
-		this.raf.seek(fileoffset);
-		this.raf.readFully(byteBuff.array());
-		
-		NameAndPos nap=new NameAndPos();
-		
-		StringBuilder b=new StringBuilder(indexDef.maxNameLengt);
-		for(int i=0;i< indexDef.maxNameLengt && byteBuff.get(i)!=0;++i)
+		if(line.endsWith("/1") || line.endsWith("/2"))
 			{
-			b.append((char)byteBuff.get(i));
+			return line.substring(0, line.length()-2);
 			}
-		nap.name=b.toString();
-		byteBuff.position( indexDef.maxNameLengt);
-		nap.tid=byteBuff.getInt();
-		nap.pos=byteBuff.getInt();
-		return nap;
-		
-		}
-	
-	private long lower_bound(long first, long last, final String readName) throws IOException
-		{
-			long len = last-first;
-			while (len > 0)
-			{
-				long half = len /2;
-				long middle = first + half;
-				String middle_s = getNameAndPosAt(middle).name;
-				
-				if (middle_s.compareTo(readName)<0)
-					{
-					first = middle;
-					++first;
-					len = len - half - 1;
-					}
-				else
-					{
-					len = half;
-					}
-				
-
-				}
-			return first;
+		return line;
 		}
 
-
-
-	
 	@Override
 	public int doWork(final List<String> args) {
 		PrintWriter notFoundStream=new PrintWriter(new NullOuputStream());
 		SamReader sfr=null;
 		SAMFileWriter bamw=null;
+		ReadNameIndex nameIndex=null;
 		try
 			{
 			if(!(2==args.size() ||1==args.size()))
@@ -184,7 +141,7 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				return -1;
 				}
 			
-			if(this.notFoundFile==null)
+			if(this.notFoundFile!=null)
 				{
 				notFoundStream.close();
 				notFoundStream=openFileOrStdoutAsPrintWriter(notFoundFile);
@@ -195,10 +152,7 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
 			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
-			this.indexDef=new NameIndexDef();
-			this.raf=new RandomAccessFile(nameIdxFile, "r");
-			indexDef.countReads=raf.readLong();
-			indexDef.maxNameLengt=raf.readInt();
+			nameIndex=ReadNameIndex.open(nameIdxFile.toPath());
 			
 			
 			LineIterator r=null;
@@ -211,15 +165,30 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				r=IOUtils.openStdinForLineIterator();
 				}
 			SAMFileHeader header=sfr.getFileHeader().clone();
+			/* reads are written in the order of the names, not on coordinate */
+			header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
 			
 			bamw=writingBamArgs.openSAMFileWriter(this.outputFile, header, true);
 			
 			
-			long iter_start = 0L;
+			/* the queries are sorted, so the index is read forward only once */
+			final Iterator<String> lines;
+			if(query_reads_is_sorted)
+				{
+				lines=r;
+				}
+			else
+				{
+				final List<String> L=new ArrayList<>();
+				while(r.hasNext()) L.add(r.next());
+				L.sort((A,B)->searchName(A).compareTo(searchName(B)));
+				lines=L.iterator();
+				}
 			
-			while(r.hasNext())
+			final List<NameAndPos> hits=new ArrayList<>();
+			while(lines.hasNext())
 				{
-				String line=r.next();
+				String line=lines.next();
 				String searchRead=null;
 				int side=-1;
 				if(line.isEmpty() || line.startsWith("#")) continue;
@@ -228,46 +197,22 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				if(line.endsWith("/1"))
 					{
 					side=1;
-					searchRead=line.substring(0, line.length()-2);
 					}
 				else if(line.endsWith("/2"))
 					{
 					side=2;
-					searchRead=line.substring(0, line.length()-2);
 					}
 				else
 					{
 					side=-1;
-					searchRead=line;
-					}	
-				long index=lower_bound(
-						iter_start,
-						this.indexDef.countReads,
-						searchRead
-						);
-				if(index>=this.indexDef.countReads)
-					{
-					notFoundStream.println(line);
-					continue;
-					}
-				if(query_reads_is_sorted)
-					{
-					iter_start=index;
 					}
+				searchRead=searchName(line);
+				hits.clear();
+				nameIndex.query(searchRead, true, hits::add);
 				
 				Set<SAMRecord> found=new LinkedHashSet<SAMRecord>();
-				while(index <this.indexDef.countReads )
+				for(final NameAndPos nap:hits)
 					{
-					NameAndPos nap=getNameAndPosAt(index);
-					if(nap.name.compareTo(searchRead)<0)
-						{
-						++index;
-						continue;
-						}
-					else if(nap.name.compareTo(searchRead)>0)
-						{
-						break;
-						}
 					SAMRecordIterator iter;
 					if(nap.tid<0)
 						{
@@ -313,8 +258,6 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 						
 						}
 					iter.close();
-					
-					++index;
 					}
 				if(found.isEmpty())
 					{
@@ -343,7 +286,7 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 		finally
 			{
 			CloserUtil.close(notFoundStream);
-			CloserUtil.close(raf);
+			CloserUtil.close(nameIndex);
 			CloserUtil.close(sfr);
 			CloserUtil.close(bamw);
 			}
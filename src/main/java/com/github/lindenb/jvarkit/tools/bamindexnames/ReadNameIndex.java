@@ -0,0 +1,487 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.github.lindenb.jvarkit.tools.bamindexnames.BaseBamIndexReadNames.NameAndPos;
+
+/**
+ * Reader/Writer for the '.names.idx' files.
+ *
+ * Version 2 of the format:
+ * <pre>
+ * MAGIC(8)
+ * blocks: 'blockSize' sorted records. The name of a record is prefix-compressed against the previous
+ *     name of the same block: varint(shared) varint(suffix-length) suffix varint(tid+1) varint(pos)
+ * offsets of the blocks: nBlocks * long
+ * trailer: countReads(8) maxNameLength(4) blockSize(4) maxBlockBytes(4) nBlocks(8) offsetsTable(8) MAGIC(8)
+ * </pre>
+ * The file is memory-mapped. The first name of every TOP_STEP blocks is kept in memory.
+ * Version 1 (fixed-width records, no magic) is still readable.
+ */
+abstract class ReadNameIndex implements Closeable
+	{
+	/** "JVKRNID2" */
+	static final long MAGIC = 0x4A564B524E494432L;
+	static final int DEFAULT_BLOCK_SIZE = 64;
+	private static final int TRAILER_SIZE = 8+4+4+4+8+8+8;
+
+	/** number of records in the index */
+	abstract long size();
+
+	/** find the records named 'readName'. If 'sorted' the readName must be greater or equal than the previous one */
+	abstract void query(final String readName, boolean sorted, final Consumer<NameAndPos> consumer) throws IOException;
+
+	static ReadNameIndex open(final Path path) throws IOException
+		{
+		final long magic;
+		try(RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r"))
+			{
+			magic = raf.length()>=8L?raf.readLong():-1L;
+			}
+		return magic==MAGIC ? new CompactIndex(path) : new LegacyIndex(path);
+		}
+
+	private static byte[] toBytes(final String s)
+		{
+		return s.getBytes(StandardCharsets.ISO_8859_1);
+		}
+
+	/** writes a version 2 index. Records must be added sorted on name */
+	static class Writer implements Closeable
+		{
+		private final DataOutputStream out;
+		private final int blockSize;
+		private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+		private long offsets[] = new long[1024];
+		private int nBlocks = 0;
+		private long filePos = 0L;
+		private long countReads = 0L;
+		private int maxNameLength = 0;
+		private int maxBlockBytes = 0;
+		private int inBlock = 0;
+		private byte prevName[] = new byte[0];
+
+		Writer(final Path path,final int blockSize) throws IOException
+			{
+			if(blockSize<1) throw new IllegalArgumentException("bad block size "+blockSize);
+			this.blockSize = blockSize;
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+			this.out.writeLong(MAGIC);
+			this.filePos = 8L;
+			}
+
+		void add(final String readName,final int tid,final int pos) throws IOException
+			{
+			final byte name[] = toBytes(readName);
+			int shared = 0;
+			if(this.inBlock>0)
+				{
+				final int n = Math.min(name.length, this.prevName.length);
+				while(shared < n && name[shared]==this.prevName[shared]) shared++;
+				}
+			if(this.countReads>0L && compare(this.prevName,name)>0)
+				{
+				throw new IllegalArgumentException("read names are not sorted: "+readName+" after "+new String(this.prevName,StandardCharsets.ISO_8859_1));
+				}
+			writeVarInt(this.block, shared);
+			writeVarInt(this.block, name.length - shared);
+			this.block.write(name, shared, name.length - shared);
+			writeVarInt(this.block, tid + 1);
+			writeVarInt(this.block, Math.max(0, pos));
+			this.prevName = name;
+			this.maxNameLength = Math.max(this.maxNameLength, name.length);
+			this.countReads++;
+			this.inBlock++;
+			if(this.inBlock==this.blockSize) flushBlock();
+			}
+
+		private void flushBlock() throws IOException
+			{
+			if(this.inBlock==0) return;
+			if(this.nBlocks==this.offsets.length)
+				{
+				this.offsets = Arrays.copyOf(this.offsets, this.offsets.length*2);
+				}
+			this.offsets[this.nBlocks++] = this.filePos;
+			this.maxBlockBytes = Math.max(this.maxBlockBytes, this.block.size());
+			this.filePos += this.block.size();
+			this.block.writeTo(this.out);
+			this.block.reset();
+			this.inBlock = 0;
+			}
+
+		@Override
+		public void close() throws IOException
+			{
+			flushBlock();
+			final long tableOffset = this.filePos;
+			for(int i=0;i< this.nBlocks;i++)
+				{
+				this.out.writeLong(this.offsets[i]);
+				}
+			this.out.writeLong(this.countReads);
+			this.out.writeInt(this.maxNameLength);
+			this.out.writeInt(this.blockSize);
+			this.out.writeInt(this.maxBlockBytes);
+			this.out.writeLong(this.nBlocks);
+			this.out.writeLong(tableOffset);
+			this.out.writeLong(MAGIC);
+			this.out.flush();
+			this.out.close();
+			}
+		}
+
+	private static void writeVarInt(final ByteArrayOutputStream out,int v)
+		{
+		while((v & ~0x7F)!=0)
+			{
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+			}
+		out.write(v);
+		}
+
+	/** unsigned comparison of two names */
+	private static int compare(final byte a[],final byte b[])
+		{
+		final int n = Math.min(a.length, b.length);
+		for(int i=0;i< n;i++)
+			{
+			final int d = Byte.toUnsignedInt(a[i]) - Byte.toUnsignedInt(b[i]);
+			if(d!=0) return d;
+			}
+		return a.length - b.length;
+		}
+
+	/** version 2: memory-mapped prefix-compressed blocks */
+	private static class CompactIndex extends ReadNameIndex
+		{
+		private static final int SEGMENT_SHIFT = 30;
+		private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1L;
+		/** one name in memory every TOP_STEP blocks */
+		private static final int TOP_STEP = 256;
+		private final MappedByteBuffer segments[];
+		private final long countReads;
+		private final int blockSize;
+		private final long nBlocks;
+		private final long tableOffset;
+		private final byte topNames[][];
+		/** decoded name of the current record and its length */
+		private final byte nameBuffer[];
+		private int nameLength = 0;
+		/** position of the next byte to decode, in the current segment */
+		private ByteBuffer segment;
+		private int cursor;
+		/** in 'sorted' mode, the block where the search starts */
+		private long firstBlock = 0L;
+
+		CompactIndex(final Path path) throws IOException
+			{
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+				{
+				final long length = channel.size();
+				if(length < 8 + TRAILER_SIZE) throw new IOException("index is too short "+path);
+				final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+				while(trailer.hasRemaining())
+					{
+					if(channel.read(trailer, length - TRAILER_SIZE + trailer.position())<0) throw new IOException("cannot read trailer of "+path);
+					}
+				trailer.flip();
+				this.countReads = trailer.getLong();
+				final int maxNameLength = trailer.getInt();
+				this.blockSize = trailer.getInt();
+				final int maxBlockBytes = trailer.getInt();
+				this.nBlocks = trailer.getLong();
+				this.tableOffset = trailer.getLong();
+				if(trailer.getLong()!=MAGIC) throw new IOException("bad trailer in "+path);
+				this.nameBuffer = new byte[maxNameLength];
+				/* segments overlap, so a block or an offset never spans two segments */
+				final long overlap = maxBlockBytes + 8L;
+				final int n = (int)((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+				this.segments = new MappedByteBuffer[n];
+				for(int i=0;i< n;i++)
+					{
+					final long start = ((long)i) << SEGMENT_SHIFT;
+					this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+							Math.min(length - start, SEGMENT_MASK + 1L + overlap));
+					}
+				}
+			final int nTop = (int)((this.nBlocks + TOP_STEP - 1)/TOP_STEP);
+			this.topNames = new byte[nTop][];
+			for(int i=0;i< nTop;i++)
+				{
+				seekBlock(((long)i)*TOP_STEP);
+				nextName();
+				this.topNames[i] = Arrays.copyOf(this.nameBuffer, this.nameLength);
+				}
+			}
+
+		@Override
+		long size()
+			{
+			return this.countReads;
+			}
+
+		private ByteBuffer segmentAt(final long offset)
+			{
+			return this.segments[(int)(offset >>> SEGMENT_SHIFT)];
+			}
+
+		private long blockOffset(final long block)
+			{
+			final long offset = this.tableOffset + block * 8L;
+			return segmentAt(offset).getLong((int)(offset & SEGMENT_MASK));
+			}
+
+		private long recordsInBlock(final long block)
+			{
+			return Math.min(this.blockSize, this.countReads - block * this.blockSize);
+			}
+
+		private void seekBlock(final long block)
+			{
+			final long offset = blockOffset(block);
+			this.segment = segmentAt(offset);
+			this.cursor = (int)(offset & SEGMENT_MASK);
+			this.nameLength = 0;
+			}
+
+		private int readVarInt()
+			{
+			int v = 0;
+			int shift = 0;
+			for(;;)
+				{
+				final int b = this.segment.get(this.cursor++);
+				v |= (b & 0x7F) << shift;
+				if((b & 0x80)==0) return v;
+				shift += 7;
+				}
+			}
+
+		/** decode the name of the next record into nameBuffer, the cursor is then on tid */
+		private void nextName()
+			{
+			final int shared = readVarInt();
+			final int suffix = readVarInt();
+			for(int i=0;i< suffix;i++)
+				{
+				this.nameBuffer[shared + i] = this.segment.get(this.cursor++);
+				}
+			this.nameLength = shared + suffix;
+			}
+
+		/** compare the name in nameBuffer with the query */
+		private int compareName(final byte query[])
+			{
+			final int n = Math.min(this.nameLength, query.length);
+			for(int i=0;i< n;i++)
+				{
+				final int d = Byte.toUnsignedInt(this.nameBuffer[i]) - Byte.toUnsignedInt(query[i]);
+				if(d!=0) return d;
+				}
+			return this.nameLength - query.length;
+			}
+
+		/** @return the last block in [from,to) whose first name is lower than the query, or 'from' */
+		private long searchBlock(long from,final long to,final byte query[])
+			{
+			long best = from;
+			long lo = from;
+			long hi = to - 1L;
+			while(lo<=hi)
+				{
+				final long mid = (lo + hi) >>> 1;
+				seekBlock(mid);
+				nextName();
+				if(compareName(query) < 0)
+					{
+					best = mid;
+					lo = mid + 1L;
+					}
+				else
+					{
+					hi = mid - 1L;
+					}
+				}
+			return best;
+			}
+
+		@Override
+		void query(final String readName, boolean sorted, final Consumer<NameAndPos> consumer) throws IOException
+			{
+			if(this.nBlocks==0L) return;
+			final byte query[] = toBytes(readName);
+			final long from = sorted ? this.firstBlock : 0L;
+			/* last top-level entry lower than the query */
+			int lo = 0;
+			int hi = this.topNames.length - 1;
+			int top = -1;
+			while(lo<=hi)
+				{
+				final int mid = (lo + hi) >>> 1;
+				if(ReadNameIndex.compare(this.topNames[mid], query) < 0)
+					{
+					top = mid;
+					lo = mid + 1;
+					}
+				else
+					{
+					hi = mid - 1;
+					}
+				}
+			long block = from;
+			if(top>=0)
+				{
+				final long start = Math.max(from, ((long)top) * TOP_STEP);
+				final long end = Math.min(this.nBlocks, ((long)top + 1L) * TOP_STEP);
+				if(start < end) block = searchBlock(start, end, query);
+				}
+			if(sorted) this.firstBlock = block;
+
+			/* scan the records, a name can be found in several consecutive blocks */
+			for(;block < this.nBlocks;++block)
+				{
+				seekBlock(block);
+				final long n = recordsInBlock(block);
+				for(long i=0;i< n;i++)
+					{
+					nextName();
+					final int cmp = compareName(query);
+					final int tid = readVarInt() - 1;
+					final int pos = readVarInt();
+					if(cmp < 0) continue;
+					if(cmp > 0) return;
+					final NameAndPos nap = new NameAndPos();
+					nap.name = readName;
+					nap.tid = tid;
+					nap.pos = pos;
+					consumer.accept(nap);
+					}
+				}
+			}
+
+		@Override
+		public void close() throws IOException
+			{
+			this.segment = null;
+			Arrays.fill(this.segments, null);
+			}
+		}
+
+	/** version 1: fixed-width records */
+	private static class LegacyIndex extends ReadNameIndex
+		{
+		private final RandomAccessFile raf;
+		private final long countReads;
+		private final int maxNameLength;
+		private final byte record[];
+		private long firstIndex = 0L;
+
+		LegacyIndex(final Path path) throws IOException
+			{
+			this.raf = new RandomAccessFile(path.toFile(), "r");
+			this.countReads = this.raf.readLong();
+			this.maxNameLength = this.raf.readInt();
+			this.record = new byte[this.maxNameLength + 4 + 4];
+			}
+
+		@Override
+		long size()
+			{
+			return this.countReads;
+			}
+
+		private String getNameAt(final long index) throws IOException
+			{
+			this.raf.seek(BaseBamIndexReadNames.FILE_PREFIX_SIZE + index * this.record.length);
+			this.raf.readFully(this.record);
+			int len = 0;
+			while(len < this.maxNameLength && this.record[len]!=0) len++;
+			return new String(this.record, 0, len, StandardCharsets.ISO_8859_1);
+			}
+
+		private long lowerBound(long first,final long last,final String readName) throws IOException
+			{
+			long len = last - first;
+			while(len > 0)
+				{
+				final long half = len / 2;
+				final long middle = first + half;
+				if(getNameAt(middle).compareTo(readName) < 0)
+					{
+					first = middle + 1;
+					len = len - half - 1;
+					}
+				else
+					{
+					len = half;
+					}
+				}
+			return first;
+			}
+
+		@Override
+		void query(final String readName, boolean sorted, final Consumer<NameAndPos> consumer) throws IOException
+			{
+			long index = lowerBound(sorted ? this.firstIndex : 0L, this.countReads, readName);
+			if(sorted) this.firstIndex = index;
+			while(index < this.countReads)
+				{
+				final String name = getNameAt(index);
+				if(!name.equals(readName)) break;
+				final ByteBuffer byteBuff = ByteBuffer.wrap(this.record, this.maxNameLength, 8);
+				final NameAndPos nap = new NameAndPos();
+				nap.name = name;
+				nap.tid = byteBuff.getInt();
+				nap.pos = byteBuff.getInt();
+				consumer.accept(nap);
+				++index;
+				}
+			}
+
+		@Override
+		public void close() throws IOException
+			{
+			this.raf.close();
+			}
+		}
+	}
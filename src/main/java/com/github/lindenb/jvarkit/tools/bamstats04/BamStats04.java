@@ -45,6 +45,7 @@ import com.github.lindenb.jvarkit.math.stats.Percentile;
 import com.github.lindenb.jvarkit.samtools.util.IntervalListProvider;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
+import com.github.lindenb.jvarkit.util.bio.fasta.GCIndex;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -108,7 +109,7 @@ END_DOC
 	description="Coverage statistics for a BED file.",
 	keywords={"sam","bam","coverage","depth","statistics","bed"},
 	biostars= {309673,348251},
-	modificationDate="20191003"
+	modificationDate="20261018"
 	)
 public class BamStats04 extends Launcher
 	{
@@ -182,6 +183,7 @@ public class BamStats04 extends Launcher
 			PrintWriter pw = null;
 			ReferenceSequenceFile indexedFastaSequenceFile=null;
 			GenomicSequence genomicSequence = null;
+			GCIndex gcIndex = null;
 			SAMSequenceDictionary fastaDict = null;
 			try
 				{
@@ -241,6 +243,7 @@ public class BamStats04 extends Launcher
 				
 				if(this.faidxUri!=null) {
 					indexedFastaSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faidxUri);
+					gcIndex = GCIndex.openIfExists(this.faidxUri);
 					fastaDict = SequenceDictionaryUtils.extractRequired(indexedFastaSequenceFile);
 					if(!SequenceUtil.areSequenceDictionariesEqual(fastaDict, samDict)) {
 						LOG.error(JvarkitException.DictionariesAreNotTheSame.getMessage(fastaDict, samDict));
@@ -288,7 +291,7 @@ public class BamStats04 extends Launcher
 						}
 					if(indexedFastaSequenceFile!=null && (genomicSequence==null || !genomicSequence.getChrom().equals(ctg2))) {
 						if(fastaDict.getSequence(ctg2)!=null) {
-							genomicSequence = new GenomicSequence(indexedFastaSequenceFile,bedLine.getContig());
+							genomicSequence = new GenomicSequence(indexedFastaSequenceFile,bedLine.getContig(),gcIndex);
 							}
 						else
 							{
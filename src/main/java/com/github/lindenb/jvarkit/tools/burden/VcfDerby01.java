@@ -43,7 +43,9 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
@@ -437,6 +439,16 @@ $ java -jar dist/vcfderby01.jar -a read -d database.db input.vcf input.vcf input
 4	input2.vcf.gz
 ```
 
+### Bulk load
+
+With `--bulk`, the action 'read' keeps the MD5 -> ID of the rows in memory instead of querying the database for each line,
+and the rows are inserted by batches of `--batch-size` rows, one transaction per batch.
+When the database is created by this command, the UNIQUE and FOREIGN KEY constraints (and their indexes) are only created at the end of the load.
+
+```
+$ java -jar dist/vcfderby01.jar -a read --bulk -d database.db *.vcf.gz
+```
+
 
 The program also accepts **concatenated** VCF files:
 
@@ -676,7 +688,9 @@ END_DOC
  */
 @Program(name="vcfderby01",
 	description="Insert similar VCFs into an Apache Derby Database",
-	keywords={"vcf","sql","derby","burden"})
+	keywords={"vcf","sql","derby","burden"},
+	modificationDate="20261018"
+	)
 public class VcfDerby01
 	extends Launcher
 	{
@@ -696,10 +710,17 @@ public class VcfDerby01
 	@Parameter(names={"-t","--title"},description="Try to find ##(TITLE)=abcdefghijk in the VCF header and use it as the name of the inserted VCF file")
 	private String titleHeaderStr = "";
 
+	@Parameter(names={"--bulk"},description="action 'read': bulk load. Keep the MD5 of the rows in memory, insert the rows by batches. The constraints of a new database are created at the end.")
+	private boolean bulkLoad = false;
+
+	@Parameter(names={"--batch-size"},description="action 'read' with --bulk: number of rows per batch/transaction.")
+	private int batchSize = 10_000;
 	
 	private static int MAX_REF_BASE_LENGTH=50;
 	private long ID_GENERATOR = System.currentTimeMillis();
 	private Connection conn=null;
+	/** true if the constraints of a new database must be created after the bulk load */
+	private boolean deferredConstraints = false;
 	private static final String VCF_HEADER_FILE_ID="##VcfDerby01VcfId=";
 	private static final String VCF_HEADER_FILE_NAME="##VcfDerby01VcfName=";
 	public VcfDerby01()
@@ -751,10 +772,13 @@ public class VcfDerby01
 			if(create) {
 				final String tableId = "ID INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1) PRIMARY KEY";
 				final Statement stmt= this.conn.createStatement();
+				this.deferredConstraints = this.bulkLoad && this.actionStr.equals("read");
 				final String sqls[]={
-						"CREATE TABLE ROWCONTENT("+tableId+",MD5SUM CHAR(32) UNIQUE,CONTENT CLOB,CONTIG VARCHAR(20),FILTERED SMALLINT NOT NULL,START INT,STOP INT,ALLELE_REF VARCHAR("+MAX_REF_BASE_LENGTH+"))",
+						"CREATE TABLE ROWCONTENT("+tableId+",MD5SUM CHAR(32)"+(this.deferredConstraints?"":" UNIQUE")+",CONTENT CLOB,CONTIG VARCHAR(20),FILTERED SMALLINT NOT NULL,START INT,STOP INT,ALLELE_REF VARCHAR("+MAX_REF_BASE_LENGTH+"))",
 						"CREATE TABLE VCF("+tableId+",NAME VARCHAR(255))",
-						"CREATE TABLE VCFROW("+tableId+",VCF_ID INTEGER CONSTRAINT row2vcf REFERENCES VCF,ROW_ID INTEGER CONSTRAINT row2content REFERENCES ROWCONTENT)"
+						this.deferredConstraints?
+							"CREATE TABLE VCFROW("+tableId+",VCF_ID INTEGER,ROW_ID INTEGER)":
+							"CREATE TABLE VCFROW("+tableId+",VCF_ID INTEGER CONSTRAINT row2vcf REFERENCES VCF,ROW_ID INTEGER CONSTRAINT row2content REFERENCES ROWCONTENT)"
 						};
 				for(final String sql:sqls) {
 					LOG.warn(sql);
@@ -1111,6 +1135,194 @@ public class VcfDerby01
 	}
 
 	
+	/** fill the parameters of 'INSERT INTO ROWCONTENT'. ctx is null for the header lines.
+	 * @return true if the REF allele was truncated */
+	private static boolean setRowContent(final PreparedStatement pstmt,final String md5,final String line,final VariantContext ctx) throws SQLException {
+		pstmt.setString(1, md5);
+		pstmt.setString(2,line);
+		if(ctx==null) {
+			pstmt.setNull(3,Types.VARCHAR);
+			pstmt.setNull(4,Types.INTEGER);
+			pstmt.setNull(5,Types.INTEGER);
+			pstmt.setNull(6,Types.VARCHAR);
+			pstmt.setShort(7, (short)1);
+			return false;
+			}
+		boolean truncated = false;
+		pstmt.setString(3, ctx.getContig());
+		pstmt.setInt(4, ctx.getStart());
+		pstmt.setInt(5, ctx.getEnd());
+		String refBase =ctx.getReference().getBaseString();
+		/* sql table for Ref_allele is a varchar(MAX_REF_BASE_LENGTH) */
+		if(refBase.length()>MAX_REF_BASE_LENGTH) {
+			LOG.warn("Warning: TRUNCATING LARGE REF BASE TO FIT IN DATABASE : VARCHAR("+MAX_REF_BASE_LENGTH+") characters:"+refBase);
+			refBase = refBase.substring(0,MAX_REF_BASE_LENGTH);
+			truncated = true;
+		}
+		pstmt.setString(6,refBase );
+		pstmt.setShort(7, (short)(ctx.isFiltered()?1:0));
+		return truncated;
+		}
+
+	/** bulk insertion of the rows (option --bulk): the MD5 of the rows are kept in memory, the rows are inserted by batches, one transaction per batch */
+	private class BulkLoader implements AutoCloseable {
+		private final Map<String,Long> md5ToId = new HashMap<>();
+		private final PreparedStatement insertContent;
+		private final PreparedStatement selectNewContents;
+		private final PreparedStatement insertRow;
+		/** MD5 of the VCFROWs to be inserted */
+		private final List<String> pendingRows = new ArrayList<>();
+		private int pendingContents = 0;
+		private long vcfId = -1L;
+		private long maxContentId = 0L;
+		private long countRows = 0L;
+		private long countContents = 0L;
+		private final long startMillis = System.currentTimeMillis();
+		private long lastLogMillis = System.currentTimeMillis();
+		private boolean closed = false;
+
+		BulkLoader() throws SQLException {
+			conn.setAutoCommit(false);
+			try(Statement stmt = conn.createStatement()) {
+				try(ResultSet row = stmt.executeQuery("SELECT ID,MD5SUM FROM ROWCONTENT")) {
+					while(row.next()) {
+						register(row.getLong(1), row.getString(2));
+						}
+					}
+				}
+			LOG.info("loaded "+this.md5ToId.size()+" MD5 from the database");
+			this.insertContent = conn.prepareStatement("INSERT INTO ROWCONTENT(MD5SUM,CONTENT,CONTIG,START,STOP,ALLELE_REF,FILTERED) VALUES (?,?,?,?,?,?,?)");
+			this.selectNewContents = conn.prepareStatement("SELECT ID,MD5SUM FROM ROWCONTENT WHERE ID>?");
+			this.insertRow = conn.prepareStatement("INSERT INTO VCFROW(VCF_ID,ROW_ID) VALUES (?,?)");
+			}
+
+		private void register(final long id,final String md5) {
+			this.md5ToId.put(md5, id);
+			this.maxContentId = Math.max(this.maxContentId, id);
+			}
+
+		/** @return true if the content was already inserted or scheduled for insertion */
+		boolean contains(final String md5) {
+			return this.md5ToId.containsKey(md5);
+			}
+
+		/** schedule the insertion of a new ROWCONTENT. @return true if the REF allele was truncated */
+		boolean addContent(final String md5,final String line,final VariantContext ctx) throws SQLException {
+			final boolean truncated = setRowContent(this.insertContent, md5, line, ctx);
+			this.insertContent.addBatch();
+			/* id is not known until the batch is executed */
+			this.md5ToId.put(md5, -1L);
+			this.pendingContents++;
+			return truncated;
+			}
+
+		/** schedule the insertion of a new VCFROW */
+		void addRow(final long vcf_id,final String md5) throws SQLException {
+			if(this.vcfId!=vcf_id) {
+				flush();
+				this.vcfId = vcf_id;
+				}
+			this.pendingRows.add(md5);
+			if(this.pendingRows.size() >= batchSize) flush();
+			}
+
+		void flush() throws SQLException {
+			if(this.pendingContents>0) {
+				this.insertContent.executeBatch();
+				this.countContents += this.pendingContents;
+				this.pendingContents = 0;
+				/* get the IDs of the new contents */
+				this.selectNewContents.setLong(1, this.maxContentId);
+				try(ResultSet row = this.selectNewContents.executeQuery()) {
+					while(row.next()) {
+						register(row.getLong(1), row.getString(2));
+						}
+					}
+				}
+			if(!this.pendingRows.isEmpty()) {
+				this.insertRow.setLong(1, this.vcfId);
+				for(final String md5: this.pendingRows) {
+					final long content_id = this.md5ToId.get(md5);
+					if(content_id<0L) throw new IllegalStateException("no ID for "+md5);
+					this.insertRow.setLong(2, content_id);
+					this.insertRow.addBatch();
+					}
+				this.insertRow.executeBatch();
+				this.countRows += this.pendingRows.size();
+				this.pendingRows.clear();
+				}
+			conn.commit();
+			final long now = System.currentTimeMillis();
+			if(now - this.lastLogMillis > 10_000L) {
+				this.lastLogMillis = now;
+				LOG.info(getRate());
+				}
+			}
+
+		private String getRate() {
+			final double seconds = Math.max(1L, System.currentTimeMillis() - this.startMillis)/1000.0;
+			return "inserted "+this.countRows+" rows ("+this.countContents+" new contents) in "+ (long)seconds+" seconds: "+(long)(this.countRows/seconds)+" rows/second";
+			}
+
+		/** insert the remaining rows. If the insertion fails, the pending rows are rolled back */
+		@Override
+		public void close() throws SQLException {
+			if(this.closed) return;
+			this.closed = true;
+			boolean ok = false;
+			try {
+				flush();
+				ok = true;
+				LOG.info(getRate());
+				}
+			finally
+				{
+				release(ok);
+				}
+			}
+
+		/** discard the rows that were not flushed, called on error */
+		void abort() {
+			if(this.closed) return;
+			this.closed = true;
+			try {
+				release(false);
+				}
+			catch(final SQLException err) {
+				LOG.error(err);
+				}
+			}
+
+		/** rollback the current transaction if !ok, then restore the autocommit mode */
+		private void release(final boolean ok) throws SQLException {
+			CloserUtil.close(this.insertContent);
+			CloserUtil.close(this.selectNewContents);
+			CloserUtil.close(this.insertRow);
+			try {
+				if(!ok) conn.rollback();
+				}
+			finally
+				{
+				conn.setAutoCommit(true);
+				}
+			}
+		}
+
+	/** create the constraints that were not created with the tables, see option --bulk */
+	private void createDeferredConstraints() throws SQLException {
+		try(Statement stmt= this.conn.createStatement()) {
+			for(final String sql: new String[] {
+					"ALTER TABLE ROWCONTENT ADD CONSTRAINT rowcontentmd5 UNIQUE (MD5SUM)",
+					"ALTER TABLE VCFROW ADD CONSTRAINT row2vcf FOREIGN KEY (VCF_ID) REFERENCES VCF",
+					"ALTER TABLE VCFROW ADD CONSTRAINT row2content FOREIGN KEY (ROW_ID) REFERENCES ROWCONTENT"
+					}) {
+				LOG.info(sql);
+				stmt.execute(sql);
+				}
+			}
+		this.deferredConstraints = false;
+		}
+
 	private int doReadConcatenatedVcf(List<String> args){
 		int number_of_ref_allele_truncated=0;
 		PreparedStatement pstmt = null;
@@ -1118,6 +1330,7 @@ public class VcfDerby01
 		PreparedStatement pstmt3 = null;
 		ResultSet row = null;
 		PrintWriter pw = null;
+		BulkLoader bulk = null;
 		args = new ArrayList<>(IOUtils.unrollFiles(args));
 		LOG.info(args.toString());
 		LineIterator lineIter=null;
@@ -1131,6 +1344,9 @@ public class VcfDerby01
 			
 			pw = openFileOrStdoutAsPrintWriter(this.outputFile);
 			pw.println("#ID\tNAME");
+			if(this.bulkLoad) {
+				bulk = new BulkLoader();
+				}
 
 			do
 			{
@@ -1188,6 +1404,11 @@ public class VcfDerby01
 					/* insert VCF header lines */
 					for(final String line:headerLines) {
 						final String md5=this.toMd5.apply(line);
+						if(bulk!=null) {
+							if(!bulk.contains(md5)) bulk.addContent(md5, line, null);
+							bulk.addRow(vcf_id, md5);
+							continue;
+							}
 						long content_id = -1L;
 						pstmt.setString(1, md5);
 						row = pstmt.executeQuery();
@@ -1198,14 +1419,7 @@ public class VcfDerby01
 						
 						/* vcf content was not found, create it */
 						if(content_id==-1L) {
-							pstmt2.setString(1, md5);
-							
-							pstmt2.setString(2,line);
-							pstmt2.setNull(3,Types.VARCHAR);
-							pstmt2.setNull(4,Types.INTEGER);
-							pstmt2.setNull(5,Types.INTEGER);
-							pstmt2.setNull(6,Types.VARCHAR);
-							pstmt2.setShort(7, (short)1);
+							setRowContent(pstmt2, md5, line, null);
 							if(pstmt2.executeUpdate()!=1) {
 								LOG.error("Cannot insert ROWCONTENT ?");
 								return -1;
@@ -1225,7 +1439,15 @@ public class VcfDerby01
 					while(lineIter.hasNext() && !lineIter.peek().startsWith("#")) {
 						final String line = lineIter.next();
 						final String md5 = this.toMd5.apply(line);
-						
+						if(bulk!=null) {
+							if(!bulk.contains(md5)) {
+								/* decode to get chrom/start/end/ref */
+								final VariantContext ctx = progress.watch(cah.codec.decode(line));
+								if(bulk.addContent(md5, line, ctx)) ++number_of_ref_allele_truncated;
+								}
+							bulk.addRow(vcf_id, md5);
+							continue;
+							}
 						long content_id = -1L;
 						pstmt.setString(1, md5);
 						row = pstmt.executeQuery();
@@ -1237,22 +1459,7 @@ public class VcfDerby01
 						if(content_id==-1L) {
 							/* decode to get chrom/start/end/ref */
 							final VariantContext ctx = progress.watch(cah.codec.decode(line));
-							
-							pstmt2.setString(1, md5);
-							
-							pstmt2.setString(2,line);
-							pstmt2.setString(3, ctx.getContig());
-							pstmt2.setInt(4, ctx.getStart());
-							pstmt2.setInt(5, ctx.getEnd());
-							String refBase =ctx.getReference().getBaseString();
-							/* sql table for Ref_allele is a varchar(MAX_REF_BASE_LENGTH) */
-							if(refBase.length()>50) {
-								LOG.warn("Warning: TRUNCATING LARGE REF BASE TO FIT IN DATABASE : VARCHAR("+MAX_REF_BASE_LENGTH+") characters:"+refBase);
-								refBase = refBase.substring(0,MAX_REF_BASE_LENGTH);
-								++number_of_ref_allele_truncated;
-							}
-							pstmt2.setString(6,refBase );
-							pstmt2.setShort(7, (short)(ctx.isFiltered()?1:0));
+							if(setRowContent(pstmt2, md5, line, ctx)) ++number_of_ref_allele_truncated;
 							if(pstmt2.executeUpdate()!=1) {
 								LOG.error("Cannot insert ROWCONTENT ?");
 								return -1;
@@ -1278,6 +1485,13 @@ public class VcfDerby01
 				fileidx++;
 			} while(fileidx < args.size());
 			
+			if(bulk!=null) {
+				bulk.close();
+				bulk = null;
+				}
+			if(this.deferredConstraints) {
+				createDeferredConstraints();
+				}
 			pw.flush();
 			pw.close();
 			
@@ -1286,6 +1500,10 @@ public class VcfDerby01
 			return RETURN_OK;
 		} catch (final Exception e) {
 			LOG.error(e);
+			if(bulk!=null) {
+				bulk.abort();
+				bulk = null;
+				}
 			return -1;
 		} finally {
 			CloserUtil.close(pw);
@@ -1294,6 +1512,16 @@ public class VcfDerby01
 			CloserUtil.close(pstmt2);
 			CloserUtil.close(pstmt3);
 			CloserUtil.close(lineIter);
+			if(bulk!=null) bulk.abort();
+			/* the load has failed: the new database must not be left without its constraints */
+			if(this.deferredConstraints) {
+				try {
+					createDeferredConstraints();
+					}
+				catch(final SQLException err) {
+					LOG.error("Cannot create the constraints of the database "+getDerbyDirectory(), err);
+					}
+				}
 		}
 	}
 
@@ -1408,7 +1636,7 @@ public class VcfDerby01
 				return -1;
 				}
 			try {
-				Class.forName("org.apache.derby.jdbc.ClientDriver").newInstance();
+				Class.forName("org.apache.derby.jdbc.EmbeddedDriver").newInstance();
 			} catch(final Exception err ){
 				LOG.error("Cannot get derby driver",err);
 				return -1;
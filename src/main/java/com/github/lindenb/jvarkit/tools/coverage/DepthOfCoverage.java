@@ -24,16 +24,18 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.coverage;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.OptionalDouble;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -44,10 +46,13 @@ import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.math.DiscreteMedian;
 import com.github.lindenb.jvarkit.math.RangeOfIntegers;
+import com.github.lindenb.jvarkit.samtools.CoverageAccumulator;
 import com.github.lindenb.jvarkit.samtools.SAMRecordDefaultFilter;
+import com.github.lindenb.jvarkit.samtools.SamShardExecutor;
 import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
+import com.github.lindenb.jvarkit.util.bio.DistanceParser;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
@@ -55,10 +60,8 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.log.ProgressFactory;
 import com.github.lindenb.jvarkit.util.vcf.ContigPos;
 
-import htsjdk.samtools.AlignmentBlock;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
@@ -70,6 +73,8 @@ import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
 
 /**
@@ -109,7 +114,7 @@ END_DOC
 	description="A custom 'Depth of Coverage'.",
 	keywords={"depth","bam","sam","coverage"},
 	creationDate="20190927",
-	modificationDate="20210124"
+	modificationDate="20261018"
 	)
 public class DepthOfCoverage extends Launcher
 	{
@@ -143,6 +148,301 @@ public class DepthOfCoverage extends Launcher
 	private int max_depth = 10_000_000;
 	@Parameter(names={"-ct","--ct"},description="summary Coverage Threshold. "+RangeOfIntegers.OPT_DESC,converter=RangeOfIntegers.StringConverter.class,splitter=NoSplitter.class)
 	private RangeOfIntegers summaryCov = new RangeOfIntegers(0,5,10,20,30,40,50,100,200,300,400,500,1000,2000,3000,4000,5000);
+	@Parameter(names={"-j","--jobs"},description="Number of parallel jobs. Each job opens its own reader and processes one shard of the BAM. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
+	@Parameter(names={"--shard-size"},description="When using parallel jobs, split the contigs into shards of this size (rounded to 16kb, the size of a BAM linear-index window). A value lower than 1 means one shard per contig. "+DistanceParser.OPT_DESCRIPTION,converter=DistanceParser.StringConverter.class,splitter=NoSplitter.class)
+	private int shardSize = -1;
+	
+	/** coverage statistics for one contig or for the whole genome. Receives the runs of depth from a CoverageAccumulator */
+	private class CoverageStats implements CoverageAccumulator.RunConsumer {
+		final String contig;
+		/** true if at least one read was found */
+		boolean has_reads = false;
+		/** sorted, non-overlapping, masked intervals */
+		private final List<Locatable> masked;
+		private int mask_idx = 0;
+		long count_raw_bases = 0L;
+		long count_bases = 0L;
+		long sum_coverage = 0L;
+		Integer minV = null;
+		Integer maxV = null;
+		ContigPos maxPos = null;
+		final DiscreteMedian<Integer> discreteMedian = new DiscreteMedian<>();
+		final Counter<RangeOfIntegers.Range> countMap = new Counter<>();
+		
+		CoverageStats(final String contig,final List<Locatable> masked) {
+			this.contig = contig;
+			this.masked = masked;
+			}
+		
+		@Override
+		public void accept(final int start1, final int end1, final int depth) {
+			int p1 = start1;
+			while(p1 <= end1) {
+				while(this.mask_idx < this.masked.size() && this.masked.get(this.mask_idx).getEnd() < p1) {
+					this.mask_idx++;
+					}
+				if(this.mask_idx < this.masked.size() && this.masked.get(this.mask_idx).getStart() <= p1) {
+					p1 = this.masked.get(this.mask_idx).getEnd() + 1;
+					continue;
+					}
+				final int p2 = this.mask_idx < this.masked.size() ?
+						Math.min(end1, this.masked.get(this.mask_idx).getStart() - 1) :
+						end1;
+				visit(p1, p2, depth);
+				p1 = p2 + 1;
+				}
+			}
+		
+		/** visit a run of unmasked positions */
+		private void visit(final int start1, final int end1, final int covi) {
+			if(covi > DepthOfCoverage.this.max_depth) return;
+			final long n = 1L + end1 - start1;
+			if(this.minV==null || this.minV.intValue() > covi) this.minV = covi;
+			if(this.maxV==null || this.maxV.intValue() < covi) {
+				this.maxV = covi;
+				this.maxPos = new ContigPos(this.contig,start1);
+				}
+			this.countMap.incr(DepthOfCoverage.this.summaryCov.getRange(covi), n);
+			this.count_bases += n;
+			this.sum_coverage += covi * n;
+			this.discreteMedian.add(covi, n);
+			}
+		
+		/** merge the statistics of a contig */
+		void add(final CoverageStats other) {
+			this.has_reads |= other.has_reads;
+			if(this.minV==null || (other.minV!=null && other.minV.compareTo(this.minV)<0)) this.minV = other.minV;
+			if(this.maxV==null || (other.maxV!=null && other.maxV.compareTo(this.maxV)>0)) {
+				this.maxV = other.maxV;
+				this.maxPos = other.maxPos;
+				}
+			this.count_bases += other.count_bases;
+			this.sum_coverage += other.sum_coverage;
+			this.count_raw_bases += other.count_raw_bases;
+			this.discreteMedian.add(other.discreteMedian);
+			this.countMap.putAll(other.countMap);
+			}
+		
+		void print(final PrintWriter out,final Path path,final String sample) {
+			out.print(path);
+			out.print("\t");
+			out.print(sample);
+			out.print("\t");
+			out.print(this.contig);
+			out.print("\t");
+			out.print(this.count_raw_bases);
+			out.print("\t");
+			out.print(this.count_bases);
+			out.print("\t");
+			out.print(this.sum_coverage);
+			out.print("\t");
+			if(this.count_bases>0) {
+				out.printf("%.2f",this.sum_coverage/(double)this.count_bases);
+				}
+			else
+				{
+				out.print("N/A");
+				}
+			out.print("\t");
+			final OptionalDouble median = this.discreteMedian.getMedian();
+			if(median.isPresent()) {
+				out.print(median.getAsDouble());
+				}
+			else
+				{
+				out.print("N/A");
+				}
+			out.print("\t");
+			if(this.minV!=null)  {
+				out.print(this.minV);
+				}
+			else
+				{
+				out.print("N/A");
+				}
+			out.print("\t");
+			if(this.maxV!=null)  {
+				out.print(this.maxV);
+				out.print("\t");
+				out.print(this.maxPos);
+				}
+			else
+				{
+				out.print("N/A\tN/A");
+				}
+			for(final RangeOfIntegers.Range r: DepthOfCoverage.this.summaryCov.getRanges()) {
+				if(r.getMinInclusive()==null) continue;
+				out.print("\t");
+				out.print(this.countMap.count(r));
+				if(!this.countMap.isEmpty()) {
+					out.print(" ");
+					out.printf("(%.2f%%)",(this.countMap.count(r)/(this.countMap.getTotal()*1.0))*100.0);
+					}
+				}
+			out.println();
+			}
+		}
+	
+	/** read the intervals of --mask or --bed once, before the shards are processed. Returns null if there is no bed */
+	private IntervalTreeMap<Interval> loadBedIntervals(final SAMSequenceDictionary dict) throws IOException {
+		final Path bedPath = this.maskBed!=null?this.maskBed:this.includeBed;
+		if(bedPath==null) return null;
+		final IntervalTreeMap<Interval> treeMap = new IntervalTreeMap<>();
+		final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(dict);
+		try(BedLineReader br= new BedLineReader(bedPath)) {
+			while(br.hasNext()) {
+				final BedLine bed = br.next();
+				if(bed==null) continue;
+				final String ctg = contigNameConverter.apply(bed.getContig());
+				if(StringUtils.isBlank(ctg)) continue;
+				/* empty intervals don't mask or include anything */
+				if(bed.getStart() > bed.getEnd()) continue;
+				final Interval interval = new Interval(ctg,bed.getStart(),bed.getEnd());
+				treeMap.put(interval, interval);
+				}
+			}
+		return treeMap;
+		}
+	
+	/** returns the sorted, merged intervals that should be masked in this region of a contig.
+	 * @param bedIntervals the intervals of --mask or --bed, shared by the jobs, only queried
+	 */
+	private List<Locatable> getMaskedIntervals(
+			final IntervalTreeMap<Interval> bedIntervals,
+			final Locatable region,
+			final ReferenceSequenceFile referenceSequenceFile
+			) throws IOException {
+		final String contig = region.getContig();
+		final int regionStart = region.getStart();
+		final int length = region.getEnd();
+		final List<Locatable> list = new ArrayList<>();
+		if(this.auto_mask && referenceSequenceFile!=null) {
+			/* scan the reference by chunks, don't load the whole contig */
+			final int chunk_size = 1_000_000;
+			int run_start1 = -1;
+			for(int start1=regionStart;start1<=length;start1+=chunk_size) {
+				final int end1 = Math.min(length, start1 + chunk_size - 1);
+				final byte refSeq[];
+				/* the reference is shared by the jobs */
+				synchronized(referenceSequenceFile) {
+					refSeq = Objects.requireNonNull(referenceSequenceFile.getSubsequenceAt(contig, start1, end1)).getBases();
+					}
+				for(int i=0;i< refSeq.length;i++) {
+					if(AcidNucleics.isATGC(refSeq[i])) {
+						if(run_start1!=-1) {
+							list.add(new SimpleInterval(contig,run_start1,start1+i-1));
+							run_start1 = -1;
+							}
+						}
+					else if(run_start1==-1) {
+						run_start1 = start1+i;
+						}
+					}
+				}
+			if(run_start1!=-1) list.add(new SimpleInterval(contig,run_start1,length));
+			}
+		
+		/* read mask */
+		if(this.maskBed!=null ) {
+			for(final Interval bed: bedIntervals.getOverlapping(new Interval(contig,regionStart,length))) {
+				final int start1 = Math.max(regionStart, bed.getStart());
+				final int end1 = Math.min(length, bed.getEnd());
+				if(start1 > end1) continue;
+				list.add(new SimpleInterval(contig,start1,end1));
+				}
+			}
+		else if(this.includeBed!=null) {
+			/* the included intervals outside the region don't change the complement in the region */
+			final List<Locatable> included = new ArrayList<>(bedIntervals.getOverlapping(new Interval(contig,regionStart,length)));
+			//sort on starts
+			Collections.sort(included,(A,B)->Integer.compare(A.getStart(),B.getStart()));
+			/* mask the complement of the included regions */
+			int p1 = regionStart;
+			for(final Locatable loc : included) {
+				if(loc.getStart() > p1) {
+					list.add(new SimpleInterval(contig,p1,Math.min(length,loc.getStart()-1)));
+					}
+				p1 = Math.max(p1, loc.getEnd()+1);
+				if(p1 > length) break;
+				}
+			if(p1 <= length) list.add(new SimpleInterval(contig,p1,length));
+			}
+		
+		/* sort and merge */
+		Collections.sort(list,(A,B)->Integer.compare(A.getStart(),B.getStart()));
+		final List<Locatable> merged = new ArrayList<>(list.size());
+		for(final Locatable loc: list) {
+			if(loc.getStart() > length) continue;
+			if(loc.getEnd() < regionStart) continue;
+			if(!merged.isEmpty() && merged.get(merged.size()-1).getEnd() + 1 >= loc.getStart()) {
+				final Locatable last = merged.get(merged.size()-1);
+				merged.set(merged.size()-1, new SimpleInterval(contig,last.getStart(),Math.max(last.getEnd(), loc.getEnd())));
+				}
+			else
+				{
+				merged.add(loc);
+				}
+			}
+		return merged;
+		}
+	
+	/** compute the coverage statistics of one shard of the BAM */
+	private CoverageStats scanShard(
+			final SamReader sr,
+			final SamShardExecutor.Shard shard,
+			final IntervalTreeMap<Interval> bedIntervals,
+			final QueryInterval intervals[],
+			final ReferenceSequenceFile referenceSequenceFile
+			) throws IOException {
+		final QueryInterval query[];
+		if(intervals==null) {
+			query = new QueryInterval[] {shard.toQueryInterval()};
+			}
+		else
+			{
+			/* intersection of the user's intervals with the shard */
+			query = Arrays.stream(intervals).
+				filter(Q->Q.referenceIndex==shard.getTid() && Q.start <= shard.getEnd() && (Q.end<=0 || Q.end >= shard.getStart())).
+				map(Q->new QueryInterval(Q.referenceIndex, Math.max(Q.start, shard.getStart()), Q.end<=0?shard.getEnd():Math.min(Q.end, shard.getEnd()))).
+				toArray(N->new QueryInterval[N]);
+			}
+		CoverageStats stats = null;
+		CoverageAccumulator accumulator = null;
+		if(query.length>0) {
+			try(CloseableIterator<SAMRecord> iter= sr.queryOverlapping(query)) {
+				while(iter.hasNext()) {
+					final SAMRecord rec = iter.next();
+					if(!SAMRecordDefaultFilter.accept(rec,this.mapping_quality)) continue;
+					if(accumulator==null) {
+						stats = new CoverageStats(shard.getContig(),getMaskedIntervals(bedIntervals, shard, referenceSequenceFile));
+						stats.has_reads = true;
+						accumulator = new CoverageAccumulator(shard, stats);
+						}
+					int max_end1 = Integer.MAX_VALUE;
+					
+					if(!this.disable_paired_overlap_flag && 
+						rec.getReadPairedFlag() && 
+						!rec.getMateUnmappedFlag() &&
+						rec.getReferenceIndex().equals(rec.getMateReferenceIndex()) &&
+						rec.getAlignmentStart() < rec.getMateAlignmentStart() &&
+						rec.getAlignmentEnd() > rec.getMateAlignmentStart()
+						) {
+						max_end1 = rec.getMateAlignmentStart() - 1;
+						}
+					accumulator.add(rec, max_end1);
+					}
+				}
+			}
+		if(accumulator==null) {
+			/* no read: the contig won't be printed unless another shard of this contig contains a read */
+			if(shard.isWholeContig()) return new CoverageStats(shard.getContig(),Collections.emptyList());
+			stats = new CoverageStats(shard.getContig(),getMaskedIntervals(bedIntervals, shard, referenceSequenceFile));
+			accumulator = new CoverageAccumulator(shard, stats);
+			}
+		accumulator.finish();
+		return stats;
+		}
 	
 	@Override
 	public int doWork(final List<String> args)
@@ -239,15 +539,7 @@ public class DepthOfCoverage extends Launcher
 						intervals = null;
 						}
 					
-					Integer minCov = null;
-					Integer maxCov = null;
-					ContigPos maxCovPosition = null;
-					long count_raw_bases = 0L;
-					long count_bases = 0L;
-					long sum_coverage = 0L;
-					final DiscreteMedian<Integer> discreteMedian_wg = new DiscreteMedian<>();
-					final Counter<RangeOfIntegers.Range> countMap_wg = new Counter<>();
-
+					final CoverageStats stats_wg = new CoverageStats(SAMRecord.NO_ALIGNMENT_REFERENCE_NAME,Collections.emptyList());
 					
 					final String sample = header.getReadGroups().
 							stream().
@@ -255,267 +547,39 @@ public class DepthOfCoverage extends Launcher
 							filter(S->!StringUtils.isBlank(S)).
 							findFirst().orElse(path.toString())
 							;
-					int coverage[] = null;
-					String prevContig = null;
 					
-					BitSet mask=null;
-					final ProgressFactory.Watcher<SAMRecord> progress = ProgressFactory.newInstance().dictionary(dict).logger(LOG).build();
-					try(CloseableIterator<SAMRecord> iter= intervals==null?sr.iterator():sr.queryOverlapping(intervals)) {
-						for(;;)
-							{
-							final SAMRecord rec = iter.hasNext()?progress.apply(iter.next()):null;
-							
-							if(rec!=null) {
-								if(!SAMRecordDefaultFilter.accept(rec,this.mapping_quality)) continue;
-								if(rejectContigSet.contains(rec.getContig())) continue;
-								}
-							
-							if(rec==null || !rec.getContig().equals(prevContig)) {
-								if(coverage!=null) {//DUMP
-									long count_bases_ctg = 0L;
-									long sum_coverage_ctg = 0L;
-									Integer minV_ctg=null;
-									Integer maxV_ctg=null;
-									ContigPos maxPos_ctg = null;
-									final DiscreteMedian<Integer> discreteMedian_ctg = new DiscreteMedian<>();
-									final Counter<RangeOfIntegers.Range> countMap_ctg = new Counter<>();
-									
-									for(int i=0;i< coverage.length;i++) {
-										if(mask.get(i)) continue;
-										final int covi = coverage[i];
-										
-										if(covi> this.max_depth) continue;
-										if(minV_ctg==null || minV_ctg.intValue() > covi) minV_ctg=covi;
-										if(maxV_ctg==null || maxV_ctg.intValue() < covi) {
-											maxV_ctg=covi;
-											maxPos_ctg = new ContigPos(prevContig,i+1);
-											}
-										countMap_ctg.incr(this.summaryCov.getRange(covi));
-										count_bases_ctg++;
-										sum_coverage_ctg += covi;
-										discreteMedian_ctg.add(covi);
-										}
-									out.print(path);
-									out.print("\t");
-									out.print(sample);
-									out.print("\t");
-									out.print(prevContig);
-									out.print("\t");
-									out.print(coverage.length);
-									out.print("\t");
-									out.print(count_bases_ctg);
-									out.print("\t");
-									out.print(sum_coverage_ctg);
-									out.print("\t");
-									if(count_bases_ctg>0) {
-										out.printf("%.2f",sum_coverage_ctg/(double)count_bases_ctg);
-										}
-									else
-										{
-										out.print("N/A");
-										}
-									out.print("\t");
-									final OptionalDouble median = discreteMedian_ctg.getMedian();
-									if(median.isPresent()) {
-										out.print(median.getAsDouble());
-										}
-									else
-										{
-										out.print("N/A");
-										}
-									out.print("\t");
-									if(minV_ctg!=null)  {
-										out.print(minV_ctg);
-										}
-									else
-										{
-										out.print("N/A");
-										}
-									out.print("\t");
-									if(maxV_ctg!=null)  {
-										out.print(maxV_ctg);
-										out.print("\t");
-										out.print(maxPos_ctg);
-										}
-									else
-										{
-										out.print("N/A\tN/A");
-										}
-									
-									for(final RangeOfIntegers.Range r: this.summaryCov.getRanges()) {
-										if(r.getMinInclusive()==null) continue;
-										out.print("\t");
-										out.print(countMap_ctg.count(r));
-										if(!countMap_ctg.isEmpty()) {
-											out.print(" ");
-											out.printf("(%.2f%%)",(countMap_ctg.count(r)/(countMap_ctg.getTotal()*1.0))*100.0);
-											}
-									}
-									
-									out.println();
-
-									
-									if(minCov==null || (minV_ctg!=null && minV_ctg.compareTo(minCov)<0)) minCov=minV_ctg;
-									if(maxCov==null || (maxV_ctg!=null && maxV_ctg.compareTo(maxCov)>0)) {
-										maxCov=maxV_ctg;
-										maxCovPosition=maxPos_ctg;
-										}
-
-									count_bases += count_bases_ctg;
-									sum_coverage += sum_coverage_ctg;
-									count_raw_bases += coverage.length;
-									discreteMedian_wg.add(discreteMedian_ctg);
-									countMap_wg.putAll(countMap_ctg);
-									}
-								coverage=null;
-								mask=null;
-								///
-								System.gc();
-								if(rec==null) break;
-								
-								final SAMSequenceRecord ssr = Objects.requireNonNull(dict.getSequence(rec.getContig()));
-								coverage = new int[ssr.getSequenceLength()];
-								mask = new BitSet(ssr.getSequenceLength());
-								if(this.auto_mask && referenceSequenceFile!=null) {
-									final byte refSeq[] = Objects.requireNonNull(referenceSequenceFile.getSequence(ssr.getSequenceName())).getBases();
-									for(int i=0;i< refSeq.length;i++) {
-										if(AcidNucleics.isATGC(refSeq[i])) continue;
-										mask.set(i);
-									}
-								}
-								
-								/* read mask */
-								if(this.maskBed!=null ) {
-									final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(dict);
-									try(BedLineReader br= new BedLineReader(this.maskBed)) {
-										while(br.hasNext()) {
-											final BedLine bed = br.next();
-											if(bed==null) continue;
-											String ctg = contigNameConverter.apply(bed.getContig());
-											if(StringUtils.isBlank(ctg)) continue;
-											if(!rec.getContig().equals(ctg)) continue;
-											for(int p1=bed.getStart();p1<=bed.getEnd() && p1 <= coverage.length;++p1) {
-												mask.set(p1-1);
-												}
-											}
-										}
+					final SamShardExecutor executor = new SamShardExecutor(srf).
+							setThreads(this.nJobs).
+							setShardSize(this.shardSize);
+					final List<SamShardExecutor.Shard> shards = executor.split(dict,SSR->!rejectContigSet.contains(SSR.getSequenceName()));
+					final ReferenceSequenceFile theReference = referenceSequenceFile;
+					final IntervalTreeMap<Interval> bedIntervals = loadBedIntervals(dict);
+					final PrintWriter theOut = out;
+					/* merge the shards of the same contig */
+					final Consumer<CoverageStats> mergeShards = new Consumer<CoverageStats>() {
+						CoverageStats stats_ctg = null;
+						@Override
+						public void accept(final CoverageStats stats_shard) {
+							if(stats_shard==null || stats_ctg==null || !stats_ctg.contig.equals(stats_shard.contig)) {
+								if(stats_ctg!=null && stats_ctg.has_reads) {//DUMP
+									stats_ctg.print(theOut, path, sample);
+									stats_wg.add(stats_ctg);
 									}
-								else if(this.includeBed!=null) {
-									final List<Locatable> list = new ArrayList<>();
-									final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(dict);
-									try(BedLineReader br= new BedLineReader(this.includeBed)) {
-										while(br.hasNext()) {
-											final BedLine bed = br.next();
-											if(bed==null) continue;
-											final String ctg = contigNameConverter.apply(bed.getContig());
-											if(StringUtils.isBlank(ctg)) continue;
-											if(!rec.getContig().equals(ctg)) continue;
-											list.add(new SimpleInterval(ctg,bed.getStart(),bed.getEnd()));
-											}
-										}
-									//sort on starts
-									Collections.sort(list,(A,B)->Integer.compare(A.getStart(),B.getStart()));
-									int p1=1;
-									while(p1 <= coverage.length) {
-										while(!list.isEmpty() && list.get(0).getEnd()<p1) {
-											list.remove(0);
-											}
-										if(!list.isEmpty() && list.get(0).getStart()<=p1 && p1<=list.get(0).getEnd()) {
-											++p1;
-											continue;
-											}
-										mask.set(p1-1);
-										p1++;
-									}
-									
-								}
-								prevContig=rec.getContig();
+								stats_ctg = null;
+								if(stats_shard==null) return;
+								stats_ctg = new CoverageStats(stats_shard.contig, Collections.emptyList());
+								stats_ctg.count_raw_bases = dict.getSequence(stats_shard.contig).getSequenceLength();
 								}
-							
-							int max_end1 = coverage.length;
-							
-							if(!this.disable_paired_overlap_flag && 
-								rec.getReadPairedFlag() && 
-								!rec.getMateUnmappedFlag() &&
-								rec.getReferenceIndex().equals(rec.getMateReferenceIndex()) &&
-								rec.getAlignmentStart() < rec.getMateAlignmentStart() &&
-								rec.getAlignmentEnd() > rec.getMateAlignmentStart()
-								) {
-								max_end1 = rec.getMateAlignmentStart() - 1;
-								}
-							
-							for(final AlignmentBlock block:rec.getAlignmentBlocks()) {
-								final int pos1=block.getReferenceStart();
-								final int len = block.getLength();
-								for(int i=0;i< len;i++) {
-									if(pos1+i-1>=0 && pos1 +i <= max_end1) {
-										coverage[pos1 + i -1]++;
-										}
-									}
-								}
-							
-							}/* end rec */
-					
-					
-						} /* end iter */
-					progress.close();
-					
-					out.print(path);
-					out.print("\t");
-					out.print(sample);
-					out.print("\t");
-					out.print(SAMRecord.NO_ALIGNMENT_REFERENCE_NAME);
-					out.print("\t");
-					out.print(count_raw_bases);
-					out.print("\t");
-					out.print(count_bases);
-					out.print("\t");
-					out.print(sum_coverage);
-					out.print("\t");
-					if(count_bases>0) {
-						out.printf("%.2f",sum_coverage/(double)count_bases);
-						}
-					else
-						{
-						out.print("N/A");
-						}
-					out.print("\t");
-					final OptionalDouble median = discreteMedian_wg.getMedian();
-					if(median.isPresent()) {
-						out.print(median.getAsDouble());
-						}
-					else
-						{
-						out.print("N/A");
-						}
-					out.print("\t");
-					if(minCov!=null)  {
-						out.print(minCov);
-						}
-					else
-						{
-						out.print("N/A");
-						}
-					out.print("\t");
-					if(maxCov!=null)  {
-						out.print(maxCov+"\t"+maxCovPosition);
-						}
-					else
-						{
-						out.print("N/A\tN/A");
-						}
-					for(final RangeOfIntegers.Range r: this.summaryCov.getRanges()) {
-						if(r.getMinInclusive()==null) continue;
-						out.print("\t");
-						out.print(countMap_wg.count(r));
-						if(!countMap_wg.isEmpty()) {
-							out.print(" ");
-							out.printf("(%.2f%%)",(countMap_wg.count(r)/(countMap_wg.getTotal()*1.0))*100.0);
+							stats_ctg.add(stats_shard);
 							}
-						}
-
+						};
+					LOG.info("processing "+path+" using "+shards.size()+" shard(s) and "+executor.getThreads()+" job(s)");
+					executor.execute(path, shards,
+						(SR,SHARD)->scanShard(SR, SHARD, bedIntervals, intervals, theReference),
+						mergeShards);
+					mergeShards.accept(null);
 					
-					out.println();
+					stats_wg.print(out, path, sample);
 					}
 				}
 			out.flush();
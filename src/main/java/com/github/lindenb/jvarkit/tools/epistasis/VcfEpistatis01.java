@@ -28,17 +28,13 @@ package com.github.lindenb.jvarkit.tools.epistasis;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.tools.vcflist.VcfList;
@@ -74,7 +70,7 @@ public class VcfEpistatis01 extends Launcher {
 	private File pedigreeFile = null;
 	@Parameter(names={"--memory"},description="Load all variants in memory")
 	private  boolean load_variants_in_memory=false;
-	@Parameter(names={"-j","--jobs"},description="Number of parallel jobs.")
+	@Parameter(names={"-j","--jobs"},description="Ignored. Kept for compatibility: the scan of the pairs is linear and uses one thread.",hidden=true)
 	private  int number_of_jobs =1;
 	@Parameter(names={"-start","--start"},description="Specify start index in variant list. (for parallelisation)")
 	private  int start_index_at=0;
@@ -84,21 +80,10 @@ public class VcfEpistatis01 extends Launcher {
 	private boolean output_score = false;
 	
 	
-	private static final Function<Long,Integer> CTRLS_nAlt2score=(N)->{switch(N.intValue()){
-		case 0: return 0;
-		case 1 : return -10;
-		case 2: //cont
-		default: return -30;
-		}};
-	private static final Function<Long,Integer> CASES_nAlt2score=(N)->{switch(N.intValue()){
-		case 0: return 0;
-		case 1 : return 10;
-		case 2: //cont
-		default: return 30;
-		}};
+	/** score of a genotype carrying one or two (or more) copies of an ALT allele */
+	private static final int SCORE_ONE_ALT = 10;
+	private static final int SCORE_TWO_ALT = 30;
 	
-		
-		
 	private static class Result
 		{
 		final VariantContext ctx1;
@@ -130,87 +115,160 @@ public class VcfEpistatis01 extends Launcher {
 			}
 		}
 	
+	/** best pair of variants/ALT alleles, as indexes */
+	private static class Hit
+		{
+		final int idx1;
+		final int alt1;
+		final int idx2;
+		final int alt2;
+		final double score;
+		Hit(final int idx1,final int alt1,final int idx2,final int alt2,final double score)
+			{
+			this.idx1 = idx1;
+			this.alt1 = alt1;
+			this.idx2 = idx2;
+			this.alt2 = alt2;
+			this.score = score;
+			}
+		}
 	
-	private static  class Runner implements Callable<Result>
+	/** a set of samples, one bit per sample */
+	private static long[] toBitSet(final int sampleIndexes[],final int nSamples)
 		{
-		private final List<VariantContext> variants;
-		private final int caseIndexes[];
-		private final int ctrlIndexes[];
-		private final int startIndex;
-		private Result result = null;
-		private long duration=0L;
-		Runner(
-				final List<VariantContext> variants,
-				final int startIndex,
-				final int[] caseIndexes,
-				final int[] ctrlIndexes
-				)
+		final long bits[] = new long[(nSamples+63)/64];
+		for(final int idx : sampleIndexes) bits[idx>>>6] |= 1L << idx;
+		return bits;
+		}
+	
+	/** 
+	 * ALT allele dosages of the cases/controls for one variant: 2 bits per sample in two bit-planes.
+	 * 'one': the sample carries one copy of the ALT allele. 'two': the sample carries two copies or more.
+	 */
+	private static class AlleleDosage
+		{
+		final long one[];
+		final long two[];
+		AlleleDosage(final int nWords)
 			{
-			this.variants = variants;
-			this.startIndex = startIndex;
-			this.caseIndexes = caseIndexes;
-			this.ctrlIndexes = ctrlIndexes;
+			this.one = new long[nWords];
+			this.two = new long[nWords];
 			}
-		
-		private double score(
-				final VariantContext ctx,
-				final Allele alt,
-				final int samples_indexes[],
-				final Function<Long,Integer> nAlt2score
-				) 
+		/** controls give negative scores, cases positive scores */
+		int score(final long cases[],final long ctrls[])
 			{
-			double score_a1 = 0;
-			
-			for(final int  idx : samples_indexes) {
-				final Genotype g = ctx.getGenotype(idx);
-				if(g==null || g.isFiltered()) continue;
-				score_a1 +=nAlt2score.apply( g.getAlleles().stream().filter(A->A.equals(alt)).count());
+			int n = 0;
+			for(int i=0;i< this.one.length;i++)
+				{
+				n += SCORE_ONE_ALT * (Long.bitCount(this.one[i] & cases[i]) - Long.bitCount(this.one[i] & ctrls[i]));
+				n += SCORE_TWO_ALT * (Long.bitCount(this.two[i] & cases[i]) - Long.bitCount(this.two[i] & ctrls[i]));
 				}
-			return score_a1;
+			return n;
 			}
-		@Override
-		public Result call() throws Exception {
-			final VariantContext ctx1 = this.variants.get(this.startIndex);
-			final long startup = System.currentTimeMillis();
-
-			int i = this.startIndex + 1;
-			
-			while(i< this.variants.size())
+		}
+	
+	/**
+	 * score of each ALT allele of a variant (in the order of ctx.getAlleles()) .
+	 * The variant is decoded only once: the genotypes are converted to bit-packed dosages.
+	 */
+	private static double[] scoreAlleles(
+			final VariantContext ctx,
+			final int samples_indexes[],
+			final long cases[],
+			final long ctrls[]
+			)
+		{
+		final List<Allele> alts = new ArrayList<>(ctx.getNAlleles());
+		for(final Allele a : ctx.getAlleles())//faster then getAlternateAlleles
+			{
+			if(a.isReference()) continue;
+			alts.add(a);
+			}
+		final AlleleDosage dosages[] = new AlleleDosage[alts.size()];
+		for(int k=0;k< dosages.length;k++) dosages[k] = new AlleleDosage(cases.length);
+		final int count[] = new int[alts.size()];
+		for(final int idx : samples_indexes)
+			{
+			final Genotype g = ctx.getGenotype(idx);
+			if(g==null || g.isFiltered()) continue;
+			Arrays.fill(count, 0);
+			for(final Allele a : g.getAlleles())
+				{
+				final int k = alts.indexOf(a);
+				if(k>=0) count[k]++;
+				}
+			for(int k=0;k< count.length;k++)
+				{
+				if(count[k]==1) dosages[k].one[idx>>>6] |= 1L << idx;
+				else if(count[k]>1) dosages[k].two[idx>>>6] |= 1L << idx;
+				}
+			}
+		final double scores[] = new double[dosages.length];
+		for(int k=0;k< dosages.length;k++) scores[k] = dosages[k].score(cases, ctrls);
+		return scores;
+		}
+	
+	/** @return the k-th ALT allele of ctx, in the order of ctx.getAlleles() */
+	private static Allele getAltAllele(final VariantContext ctx,int k)
+		{
+		for(final Allele a : ctx.getAlleles())
+			{
+			if(a.isReference()) continue;
+			if(k==0) return a;
+			k--;
+			}
+		throw new IllegalArgumentException("no ALT allele["+k+"] in "+ctx);
+		}
+	
+	/** 
+	 * find the best pair (x,y) with x>=startIndex and y>x.
+	 * The score of a pair is the sum of the scores of the two ALT alleles, so the best pair for 'x' is the best
+	 * allele of 'x' plus the best allele of the variants after 'x'. Ties are broken like a scan of all the pairs in
+	 * (x,y,allele1,allele2) order keeping the first best pair.
+	 * @return the best pair or null
+	 */
+	static Hit findBestPair(final double alleleScores[][],final int startIndex)
+		{
+		final int n = alleleScores.length;
+		/* best score and first best ALT allele of each variant */
+		final double bestScore[] = new double[n];
+		final int bestAllele[] = new int[n];
+		for(int i=0;i< n;++i)
+			{
+			bestScore[i] = Double.NEGATIVE_INFINITY;
+			bestAllele[i] = -1;
+			for(int a=0;a< alleleScores[i].length;++a)
 				{
-				final VariantContext ctx2 = this.variants.get(i);
-				for(final Allele a1 : ctx1.getAlleles())//faster then getAlternateAlleles
+				if(bestAllele[i]==-1 || bestScore[i] < alleleScores[i][a])
 					{
-					if(a1.isReference()) continue;
-					double score_a1 = 0;
-					score_a1 += score(ctx1,a1,this.ctrlIndexes,CTRLS_nAlt2score);
-					score_a1 += score(ctx1,a1,this.caseIndexes,CASES_nAlt2score);
-					
-					for(final Allele a2 : ctx2.getAlleles())//faster then getAlternateAlleles
-						{
-						if(a2.isReference()) continue;
-						double score_a2 = score_a1;
-						score_a2 += score(ctx2,a2,this.ctrlIndexes,CTRLS_nAlt2score);
-						score_a2 += score(ctx2,a2,this.caseIndexes,CASES_nAlt2score);
-						if(this.result == null || this.result.score< score_a2)
-							{
-							final Result nr = new Result(ctx1,a1,this.startIndex,ctx2,a2,i,score_a2);
-							
-							
-							this.result = nr;
-							}
-						
-						}
+					bestScore[i] = alleleScores[i][a];
+					bestAllele[i] = a;
 					}
-				i++;
 				}
-			if(this.variants instanceof VcfList)
+			}
+		/* suffixBest[i]: first index j>=i having the best score in [i,n) or -1 */
+		final int suffixBest[] = new int[n+1];
+		suffixBest[n] = -1;
+		for(int i=n-1;i>=0;--i)
+			{
+			final int next = suffixBest[i+1];
+			if(bestAllele[i]==-1) suffixBest[i] = next;
+			else if(next==-1 || bestScore[i] >= bestScore[next]) suffixBest[i] = i;
+			else suffixBest[i] = next;
+			}
+		Hit result = null;
+		for(int x = Math.max(0,startIndex); x+1 < n; ++x)
+			{
+			if(bestAllele[x]==-1) continue;
+			final int y = suffixBest[x+1];
+			if(y==-1) break;
+			final double score = bestScore[x] + bestScore[y];
+			if(result == null || result.score < score)
 				{
-				CloserUtil.close(VcfList.class.cast(this.variants));
+				result = new Hit(x,bestAllele[x],y,bestAllele[y],score);
 				}
-			this.duration = System.currentTimeMillis() - startup;
-			LOG.info("index ["+startIndex+"] That took "+(duration/1000f)+" seconds.");
-			return this.result;
 			}
+		return result;
 		}
 	
 	public VcfEpistatis01()
@@ -220,14 +278,8 @@ public class VcfEpistatis01 extends Launcher {
 	
 	@Override
 	public int doWork(final List<String> args) {
-		if(this.number_of_jobs<1) {
-			LOG.error("bad number of jobs");
-			return -1;
-			}
 		try
 			{
-			final int variantsCount;
-			final List<VariantContext> inMemoryVariants;
 			final File vcfFile = new File(oneAndOnlyOneFile(args));
 			final File tmpIndexFile;
 			
@@ -277,16 +329,16 @@ public class VcfEpistatis01 extends Launcher {
 					}
 
 			
+			final List<VariantContext> variants;
 			if(this.load_variants_in_memory) {
 				LOG.info("loading variants in memory");
 				tmpIndexFile = null;
 				final CloseableIterator<VariantContext> iter2=vcfFileReader.iterator();
-				inMemoryVariants =  Collections.unmodifiableList(iter2.stream().
+				variants =  Collections.unmodifiableList(iter2.stream().
 						filter(this.variantFilter).
 						filter(V->V.getGenotypes().stream().filter(G->G.isCalled()).count()>0).//should fix https://github.com/samtools/htsjdk/issues/1026 ?
 						collect(Collectors.toList())
 						);
-				variantsCount = inMemoryVariants.size();
 				iter2.close();
 				}
 			else
@@ -297,94 +349,60 @@ public class VcfEpistatis01 extends Launcher {
 					setLogger(LOG).
 					setPredicate(variantFilter).
 					indexVcfFile(vcfFile,tmpIndexFile);
-				final VcfList tmpList = VcfList.fromFile(vcfFile, tmpIndexFile);
-				variantsCount = tmpList.size();
-				tmpList.close();
-				inMemoryVariants = null;
+				variants = VcfList.fromFile(vcfFile, tmpIndexFile);
 				}
 			
 
 			
 			vcfFileReader.close();
+			final int variantsCount = variants.size();
 			LOG.info("Number of variants: "+variantsCount);
 			
+			/* each variant is decoded only once, the score of the pairs only uses the score of the ALT alleles */
+			final long caseBits[] = toBitSet(caseIndexes, header.getNGenotypeSamples());
+			final long ctrlBits[] = toBitSet(ctrlIndexes, header.getNGenotypeSamples());
+			final int samplesIndexes[] = IntStream.concat(Arrays.stream(caseIndexes), Arrays.stream(ctrlIndexes)).sorted().toArray();
+			final double alleleScores[][] = new double[variantsCount][];
+			for(int i=0;i< variantsCount;++i)
+				{
+				alleleScores[i] = scoreAlleles(variants.get(i), samplesIndexes, caseBits, ctrlBits);
+				}
+			
+			final long startup = System.currentTimeMillis();
+			final Hit best = findBestPair(alleleScores, this.start_index_at);
+			LOG.info("That took "+ ((System.currentTimeMillis()-startup)/1000f)+" seconds.");
 			
-			Result bestResult =null;
-			int x= this.start_index_at;
-			while(x+1 < variantsCount)
+			if(best!=null)
 				{
-				final List<Runner> runners = new Vector<>(this.number_of_jobs);
-				while(x+1 < variantsCount && runners.size() < this.number_of_jobs)
-					{
-					LOG.info("starting "+x+"/"+variantsCount);
-					runners.add(new Runner(
-							inMemoryVariants == null? 
-									VcfList.fromFile(vcfFile,tmpIndexFile):
-									new Vector<>(inMemoryVariants)
-							,x,
-							caseIndexes,
-							ctrlIndexes
-							)
-							);
-					++x;
-					}
-				final ExecutorService execSvc;
-				if(this.number_of_jobs==1)
-					{
-					execSvc = null;
-					}
-				else
-					{
-					execSvc = Executors.newFixedThreadPool(this.number_of_jobs);;
-					}
-
-				if(this.number_of_jobs==1)
-					{
-					runners.get(0).call();
+				final VariantContext ctx1 = variants.get(best.idx1);
+				final VariantContext ctx2 = variants.get(best.idx2);
+				final Result bestResult = new Result(
+						ctx1, getAltAllele(ctx1, best.alt1), best.idx1,
+						ctx2, getAltAllele(ctx2, best.alt2), best.idx2,
+						best.score
+						);
+				if(this.output_score) {
+					final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+					pw.println(bestResult.score+ "\t"+bestResult.toString());
+					pw.flush();
+					pw.close();
 					}
 				else
 					{
-					execSvc.invokeAll(runners);
-					}
-					
-				if(execSvc!=null) {
-					execSvc.shutdown();
-					execSvc.awaitTermination(10000L, TimeUnit.DAYS);
-					execSvc.shutdownNow();
-				}
-				runners.stream().mapToLong(R->R.duration).min().ifPresent(D->{
-					LOG.info("That took "+ (D/1000f)+" seconds.");
-					});
-				
-				
-				for(final Runner r: runners)
-					{
-					final Result rez=r.result;
-					if(rez==null) continue;
-					if(bestResult==null || bestResult.score<rez.score)
-						{
-						bestResult =rez;
-						
-						if(this.output_score) {
-							final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
-							pw.println(bestResult.score+ "\t"+bestResult.toString());
-							pw.flush();
-							pw.close();
-							}
-						else
-							{
-							final VariantContextWriter w = openVariantContextWriter(this.outputFile);
-							final VCFHeader header2= new VCFHeader(header);
-							header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
-							w.writeHeader(header2);
-							w.add(bestResult.ctx1);
-							w.add(bestResult.ctx2);
-							w.close();
-							}
-						}
+					final VariantContextWriter w = openVariantContextWriter(this.outputFile);
+					final VCFHeader header2= new VCFHeader(header);
+					header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
+					w.writeHeader(header2);
+					w.add(bestResult.ctx1);
+					w.add(bestResult.ctx2);
+					w.close();
 					}
 				LOG.info("best: "+bestResult);
 				}
+			if(variants instanceof VcfList)
+				{
+				CloserUtil.close(VcfList.class.cast(variants));
+				}
 			if(tmpIndexFile!=null) tmpIndexFile.delete();
 			
 			return 0;
@@ -37,7 +37,6 @@ import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.fastq.FastqWriter;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -47,6 +46,7 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
 import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 
 /**
 
@@ -113,7 +113,7 @@ END_DOC
 @Program(name="fastqshuffle",
 	description="Shuffle Fastq files",
 	keywords="fastq",
-	modificationDate="20191209",
+	modificationDate="20261018",
 	creationDate="20140901"
 	)
 public class FastqShuffle extends Launcher
@@ -238,18 +238,15 @@ public class FastqShuffle extends Launcher
 	private void runPaired(final FastqReader r1, final FastqReader r2,final FastqWriter w1) throws IOException
 		{
 		long nReads=0;
-		final SortingCollection<TwoReads> sorting= SortingCollection.newInstance(
+		final ParallelSortingCollection<TwoReads> sorting= this.writingSortingCollection.newInstance(
 				TwoReads.class,
 				new TwoReadsCodec(),
 				(A,B)->{
 					final int i  = Long.compare(A.random, B.random);
 					if(i!=0) return i;
 					return Long.compare(A.index, B.random);
-				},
-				this.writingSortingCollection.getMaxRecordsInRam(),
-				this.writingSortingCollection.getTmpPaths()
+				}
 				);
-		sorting.setDestructiveIteration(true);
 		while(r1.hasNext())
 			{
 			final TwoReads p=new TwoReads();
@@ -296,18 +293,15 @@ public class FastqShuffle extends Launcher
 	private void runSingle(final FastqReader r1,final FastqWriter w1) throws IOException
 		{
 		long nReads=0;
-		final  SortingCollection<OneRead> sorting= SortingCollection.newInstance(
+		final  ParallelSortingCollection<OneRead> sorting= this.writingSortingCollection.newInstance(
 				OneRead.class,
 				new OneReadCodec(),
 				(A,B)->{
 					final int i  = Long.compare(A.random, B.random);
 					if(i!=0) return i;
 					return Long.compare(A.index, B.random);
-					},
-				this.writingSortingCollection.getMaxRecordsInRam(),
-				this.writingSortingCollection.getTmpPaths()
+					}
 				);
-		sorting.setDestructiveIteration(true);
 		while(r1.hasNext())
 			{
 			final OneRead r=new OneRead();
@@ -83,7 +83,7 @@ END_DOC
 @Program(name="vcfgnomad",
 	description="Peek annotations from gnomad",
 	keywords={"vcf","annotation","gnomad"},
-	modificationDate="20200702",
+	modificationDate="20261018",
 	creationDate="20170407"
 )
 public class VcfGnomad extends OnePassVcfLauncher {
@@ -127,7 +127,7 @@ public class VcfGnomad extends OnePassVcfLauncher {
 	protected int beforeVcf() {
 		try {
 			final VCFReader r = VCFReaderFactory.makeDefault().open(this.gnomadPath,true);
-			this.gnomadReader = new BufferedVCFReader(r, this.gnomadBufferSize);
+			this.gnomadReader = new BufferedVCFReader(r, this.gnomadBufferSize).setPrefetch(true);
 			this.ctgNameConverter = ContigNameConverter.fromOneDictionary(SequenceDictionaryUtils.extractRequired(r.getHeader()));
 			}
 		catch(final Throwable err)
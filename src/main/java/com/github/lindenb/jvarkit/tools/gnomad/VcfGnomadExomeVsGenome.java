@@ -60,7 +60,7 @@ import htsjdk.variant.vcf.VCFReader;
 @Program(name="vcfgnomadexomevsgenome",
 description="filter out variant in exome but not in genome",
 keywords={"vcf","annotation","gnomad"},
-modificationDate="20210707",
+modificationDate="20261018",
 creationDate="20210707"
 )
 public class VcfGnomadExomeVsGenome extends OnePassVcfLauncher {
@@ -85,7 +85,7 @@ public class VcfGnomadExomeVsGenome extends OnePassVcfLauncher {
 		SAMSequenceDictionary dict1=null;
 		try {
 			final VCFReader r = VCFReaderFactory.makeDefault().open(this.exomePath,true);
-			this.exomeReader = new BufferedVCFReader(r, this.gnomadBufferSize);
+			this.exomeReader = new BufferedVCFReader(r, this.gnomadBufferSize).setPrefetch(true);
 			this.exomeReader.setSimplifier(simplifier);
 			this.ctgNameConverter = ContigNameConverter.fromOneDictionary(SequenceDictionaryUtils.extractRequired(r.getHeader()));
 			dict1 = SequenceDictionaryUtils.extractRequired(r.getHeader());
@@ -99,7 +99,7 @@ public class VcfGnomadExomeVsGenome extends OnePassVcfLauncher {
 
 		try {
 			final VCFReader r = VCFReaderFactory.makeDefault().open(this.genomePath,true);
-			this.genomeReader = new BufferedVCFReader(r, this.gnomadBufferSize);
+			this.genomeReader = new BufferedVCFReader(r, this.gnomadBufferSize).setPrefetch(true);
 			this.genomeReader.setSimplifier(simplifier);
 			final SAMSequenceDictionary dict2 = SequenceDictionaryUtils.extractRequired(r.getHeader());
 			SequenceUtil.assertSequenceDictionariesEqual(dict1, dict2);
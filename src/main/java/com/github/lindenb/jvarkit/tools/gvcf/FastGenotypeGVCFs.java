@@ -24,17 +24,31 @@ package com.github.lindenb.jvarkit.tools.gvcf;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.iterator.AbstractCloseableIterator;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.SmartComparator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
@@ -46,13 +60,16 @@ import com.github.lindenb.jvarkit.util.vcf.VariantAttributesRecalculator;
 import com.github.lindenb.jvarkit.variant.vcf.VCFReaderFactory;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -65,15 +82,114 @@ import htsjdk.variant.vcf.VCFStandardHeaderLines;
 
 @Program(name="fastgenotypegvcfs",
 	description="Fast Genotype Gvcfs",
-	generate_doc=false
+	generate_doc=false,
+	modificationDate="20261018"
 	)
 public class FastGenotypeGVCFs extends Launcher {
 	
 	private static final Logger LOG = Logger.build(FastGenotypeGVCFs.class).make();
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
+	@Parameter(names={"--async"},description="Decode each gvcf in its own background thread, so the parsing of the VCFs overlaps the merge. Ignored when --threads > 1. Memory: one thread per gvcf, and all the threads keep at most about "+ASYNC_MAX_BUFFERED_VARIANTS+" decoded variants in memory: the more gvcfs, the smaller the batches of each thread.")
+	private boolean asyncDecoding = false;
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, the gvcfs must be indexed. The genome is split into regions (see --shard-size), each region is merged by one thread with its own set of readers, and the regions are written in order.")
+	private int nThreads = 1;
+	@Parameter(names={"--shard-size"},description="With --threads > 1: size of the regions. Rounded up to a multiple of the tabix linear-index window (16kb).")
+	private int shardSize = 1_000_000;
 
+	/** size of a tabix linear-index window */
+	private static final int LINEAR_INDEX_WINDOW = 16_384;
+	/** max number of variants in a batch of the background decoder */
+	private static final int ASYNC_MAX_BATCH_SIZE = 1_000;
+	/** number of batches waiting in the queue of a background decoder */
+	private static final int ASYNC_QUEUE_CAPACITY = 4;
+	/** max number of variants kept in memory by all the background decoders */
+	private static final int ASYNC_MAX_BUFFERED_VARIANTS = 500_000;
 	
+	private static boolean isVariant(final VariantContext ctx) {
+		if(ctx.getNAlleles()==2 && ctx.getAlleles().get(1).equals(Allele.NON_REF_ALLELE)) return false;
+		return true;
+		}
+	
+	/** reads the variants of a gvcf in a background thread, by batches */
+	private static class AsyncDecoder extends AbstractCloseableIterator<VariantContext> {
+		private final CloseableIterator<VariantContext> delegate;
+		private final BlockingQueue<List<VariantContext>> queue = new ArrayBlockingQueue<>(ASYNC_QUEUE_CAPACITY);
+		private final Thread thread;
+		private volatile Throwable error = null;
+		private Iterator<VariantContext> current = Collections.emptyIterator();
+		private boolean done = false;
+		/**
+		 * @param batchSize number of variants in a batch. The decoder holds at most (ASYNC_QUEUE_CAPACITY+2)*batchSize variants:
+		 * the batches in the queue, the batch being filled and the batch being read by the merge.
+		 */
+		AsyncDecoder(final String source,final CloseableIterator<VariantContext> delegate,final int batchSize) {
+			this.delegate = delegate;
+			this.thread = new Thread(()->{
+				try {
+					List<VariantContext> batch = new ArrayList<>(batchSize);
+					while(this.delegate.hasNext()) {
+						final VariantContext ctx = this.delegate.next();
+						/* the codec of the reader is not thread-safe: decode the genotypes in this thread, not in the merge */
+						if(ctx.getGenotypes() instanceof LazyGenotypesContext) {
+							LazyGenotypesContext.class.cast(ctx.getGenotypes()).decode();
+							}
+						batch.add(ctx);
+						if(batch.size()>=batchSize) {
+							this.queue.put(batch);
+							batch = new ArrayList<>(batchSize);
+							}
+						}
+					if(!batch.isEmpty()) this.queue.put(batch);
+					}
+				catch(final InterruptedException err) {
+					return;
+					}
+				catch(final Throwable err) {
+					this.error = err;
+					}
+				try {
+					this.queue.put(Collections.emptyList());
+					}
+				catch(final InterruptedException err) {
+					}
+				},"decoder:"+source);
+			this.thread.setDaemon(true);
+			this.thread.start();
+			}
+		@Override
+		protected VariantContext advance() {
+			while(!this.current.hasNext()) {
+				if(this.done) return null;
+				final List<VariantContext> batch;
+				try {
+					batch = this.queue.take();
+					}
+				catch(final InterruptedException err) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(err);
+					}
+				if(batch.isEmpty()) {
+					this.done = true;
+					if(this.error!=null) throw new RuntimeException(this.error);
+					return null;
+					}
+				this.current = batch.iterator();
+				}
+			return this.current.next();
+			}
+		@Override
+		public void close() {
+			this.thread.interrupt();
+			try {
+				this.thread.join();
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				}
+			CloserUtil.close(this.delegate);
+			}
+		}
 	
 	private class GVCFVariantIterator
 		implements Closeable
@@ -81,13 +197,42 @@ public class FastGenotypeGVCFs extends Launcher {
 		private final File gvcfFile;
 		private final VCFReader vcfFileReader;
 		private final CloseableIterator<VariantContext> iter;
+		private final boolean ownsReader;
 		private final List<VariantContext> buffer = new ArrayList<>();
 		private final List<String> samples;
-		GVCFVariantIterator(final File vcf) {
+		/** reads the whole file. If asyncBatchSize&gt;0, the file is decoded in a background thread, by batches of asyncBatchSize variants */
+		GVCFVariantIterator(final File vcf,final int asyncBatchSize) {
 			this.gvcfFile = vcf;
 			this.vcfFileReader = VCFReaderFactory.makeDefault().open(vcf.toPath(),false);
-			this.iter = this.vcfFileReader.iterator();
+			this.iter = asyncBatchSize > 0?
+					new AsyncDecoder(vcf.getName(),this.vcfFileReader.iterator(),asyncBatchSize):
+					this.vcfFileReader.iterator();
 			this.samples = this.vcfFileReader.getHeader().getSampleNamesInOrder();
+			this.ownsReader = true;
+			}
+		/** reads one region using an indexed reader owned by the caller */
+		GVCFVariantIterator(final File vcf,final VCFReader vcfFileReader,final Interval region) {
+			this.gvcfFile = vcf;
+			this.vcfFileReader = vcfFileReader;
+			final CloseableIterator<VariantContext> delegate = vcfFileReader.query(region);
+			/* the variants starting before the region belong to the previous region */
+			this.iter = new AbstractCloseableIterator<VariantContext>() {
+				@Override
+				protected VariantContext advance() {
+					while(delegate.hasNext()) {
+						final VariantContext ctx = delegate.next();
+						if(ctx.getStart() < region.getStart() && isVariant(ctx)) continue;
+						return ctx;
+						}
+					return null;
+					}
+				@Override
+				public void close() {
+					delegate.close();
+					}
+				};
+			this.samples = this.vcfFileReader.getHeader().getSampleNamesInOrder();
+			this.ownsReader = false;
 			}
 		
 		String getSource() {
@@ -97,18 +242,13 @@ public class FastGenotypeGVCFs extends Launcher {
 		@Override
 		public void close() {
 			CloserUtil.close(this.iter);
-			CloserUtil.close(this.vcfFileReader);
+			if(this.ownsReader) CloserUtil.close(this.vcfFileReader);
 			}
 		
 		private VariantContext cleanup(final VariantContext ctx) {
 			return ctx;
 			}
 		
-		private boolean isVariant(final VariantContext ctx) {
-			if(ctx.getNAlleles()==2 && ctx.getAlleles().get(1).equals(Allele.NON_REF_ALLELE)) return false;
-			return true;
-			}
-		
 		ContigPosRef lookup() {
 			for(int i=0;i< this.buffer.size();++i)
 				{
@@ -264,31 +404,195 @@ public class FastGenotypeGVCFs extends Launcher {
 
 		
 	
+	/** a source and its next variant, in the priority queue */
+	private static class SourceHead {
+		final GVCFVariantIterator source;
+		ContigPosRef next;
+		SourceHead(final GVCFVariantIterator source,final ContigPosRef next) {
+			this.source = source;
+			this.next = next;
+			}
+		}
+	
+	/** merge the gvcfs, send the genotyped variants to the consumer */
+	private void merge(
+			final List<GVCFVariantIterator> gvcfSources,
+			final VariantAttributesRecalculator attCalc,
+			final Consumer<VariantContext> consumer
+			) {
+		final PriorityQueue<SourceHead> queue = new PriorityQueue<>(
+				Math.max(1, gvcfSources.size()),
+				(A,B)->contigPosRefComparator.compare(A.next, B.next)
+				);
+		for(final GVCFVariantIterator it:gvcfSources)
+			{
+			final ContigPosRef cpr = it.lookup();
+			if(cpr!=null) queue.add(new SourceHead(it, cpr));
+			}
+		final List<SourceHead> current = new ArrayList<>();
+		while(!queue.isEmpty())
+			{
+			final ContigPosRef next = queue.peek().next;
+			/* the sources having this variant. The next variant of the other sources won't change */
+			current.clear();
+			while(!queue.isEmpty() && contigPosRefComparator.compare(queue.peek().next, next)==0)
+				{
+				current.add(queue.poll());
+				}
+			String id = null;
+			/* a few alleles: a list is faster than a set */
+			final List<Allele> alleles = new ArrayList<>();
+			final List<Genotype> genotypes = new ArrayList<>();
+			alleles.add(next.getReference());
+			for(final GVCFVariantIterator it:gvcfSources)
+				{
+				final VariantContext vc = it.next(next);
+				Objects.requireNonNull(vc, "vc is null");
+				if(vc.hasID()) id=vc.getID();
+				for(final Genotype gt: vc.getGenotypes())
+					{
+					for(final Allele a: gt.getAlleles())
+						{
+						if(a.isCalled() && !alleles.contains(a)) alleles.add(a);
+						}
+					genotypes.add(gt);
+					}
+				}
+			for(final SourceHead head: current)
+				{
+				head.next = head.source.lookup();
+				if(head.next!=null) queue.add(head);
+				}
+			if(alleles.size()<2) continue;
+			
+			final VariantContextBuilder vcb = new VariantContextBuilder(
+					null,
+					next.getContig(), 
+					next.getStart(),
+					next.getEnd(), 
+					alleles
+					);
+			if(id!=null) vcb.id(id);
+			vcb.genotypes(genotypes);
+			consumer.accept(attCalc.apply(vcb.make()));
+			}
+		}
+	
+	/** split the genome into regions aligned on the tabix linear index */
+	private List<Interval> splitGenome() {
+		final int size = (int)Math.min(Integer.MAX_VALUE - LINEAR_INDEX_WINDOW,
+				((Math.max(1, this.shardSize) + (long)LINEAR_INDEX_WINDOW - 1L)/LINEAR_INDEX_WINDOW)*LINEAR_INDEX_WINDOW);
+		final List<Interval> shards = new ArrayList<>();
+		for(final SAMSequenceRecord ssr: this.dictionary.getSequences()) {
+			for(int start1=1;start1<=ssr.getSequenceLength();start1+=size) {
+				shards.add(new Interval(ssr.getSequenceName(), start1, Math.min(ssr.getSequenceLength(), start1 + size - 1)));
+				}
+			}
+		return shards;
+		}
+	
+	/** merge each region in a pool of threads, each thread has its own set of readers. The regions are sent to the consumer in order */
+	private void mergeSharded(
+			final List<File> gvcfFiles,
+			final VariantAttributesRecalculator attCalc,
+			final Consumer<VariantContext> consumer
+			) throws IOException {
+		final List<Interval> shards = splitGenome();
+		LOG.info(String.valueOf(shards.size())+" region(s)");
+		final List<List<VCFReader>> allReaders = Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<List<VCFReader>> threadReaders = new ThreadLocal<>();
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		try {
+			/* don't keep too many regions in memory */
+			final int maxPending = this.nThreads * 2;
+			final Deque<Future<List<VariantContext>>> pending = new ArrayDeque<>(maxPending);
+			int shard_idx = 0;
+			while(shard_idx < shards.size() || !pending.isEmpty()) {
+				while(shard_idx < shards.size() && pending.size() < maxPending) {
+					final Interval shard = shards.get(shard_idx++);
+					pending.add(executorService.submit(()->{
+						List<VCFReader> readers = threadReaders.get();
+						if(readers==null) {
+							readers = new ArrayList<>(gvcfFiles.size());
+							allReaders.add(readers);
+							for(final File f: gvcfFiles) {
+								readers.add(VCFReaderFactory.makeDefault().open(f.toPath(), true));
+								}
+							threadReaders.set(readers);
+							}
+						final List<GVCFVariantIterator> sources = new ArrayList<>(gvcfFiles.size());
+						try {
+							for(int i=0;i< gvcfFiles.size();i++) {
+								sources.add(new GVCFVariantIterator(gvcfFiles.get(i), readers.get(i), shard));
+								}
+							final List<VariantContext> variants = new ArrayList<>();
+							merge(sources, attCalc, variants::add);
+							return variants;
+							}
+						finally {
+							for(final GVCFVariantIterator src:sources) src.close();
+							}
+						}));
+					}
+				for(final VariantContext ctx: pending.removeFirst().get()) {
+					consumer.accept(ctx);
+					}
+				}
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+			}
+		finally {
+			executorService.shutdownNow();
+			try {
+				executorService.awaitTermination(1L, TimeUnit.MINUTES);
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				}
+			synchronized(allReaders) {
+				for(final List<VCFReader> readers: allReaders) {
+					for(final VCFReader r: readers) CloserUtil.close(r);
+					}
+				}
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		VariantContextWriter w=null;
-		
+		final List<GVCFVariantIterator> gvcfSources = new ArrayList<>();
 		try {
-			final List<GVCFVariantIterator> gvcfSources =  
-					IOUtil.unrollFiles(args.stream().map(F->new File(F)).collect(Collectors.toSet()),".g.vcf",".g.vcf.gz" ).
-					stream().
-					map(F->new GVCFVariantIterator(F)).
-					collect(Collectors.toList())
-					;
-			if(args.isEmpty())
+			final List<File> gvcfFiles = new ArrayList<>(
+					IOUtil.unrollFiles(args.stream().map(F->new File(F)).collect(Collectors.toSet()),".g.vcf",".g.vcf.gz" )
+					);
+			if(gvcfFiles.isEmpty())
 				{
 				LOG.error("No gvcf file was given");
 				return -1;
 				}
-			this.dictionary  = gvcfSources.get(0).vcfFileReader.getHeader().getSequenceDictionary();
+			final List<VCFHeader> gvcfHeaders = new ArrayList<>(gvcfFiles.size());
+			for(final File f: gvcfFiles) {
+				try(VCFReader r = VCFReaderFactory.makeDefault().open(f.toPath(), this.nThreads > 1)) {
+					gvcfHeaders.add(r.getHeader());
+					}
+				}
+			this.dictionary  = gvcfHeaders.get(0).getSequenceDictionary();
 			if(this.dictionary==null)
 				{
-				LOG.error("Dict missing in "+gvcfSources.get(0).gvcfFile);
+				LOG.error("Dict missing in "+gvcfFiles.get(0));
 				return -1;
 				}
 			this.contigComparator = new ContigDictComparator(this.dictionary);
 			
-			gvcfSources.stream().map(S->S.vcfFileReader.getHeader().getSequenceDictionary()).forEach(D->{
+			gvcfHeaders.stream().map(H->H.getSequenceDictionary()).forEach(D->{
 				if(D==null || !SequenceUtil.areSequenceDictionariesEqual(D, dictionary))
 					{
 					throw new JvarkitException.UserError("dict missing or dict are not the same");
@@ -296,8 +600,8 @@ public class FastGenotypeGVCFs extends Launcher {
 				});
 			
 			
-			if(	gvcfSources.stream().
-					flatMap(S->S.samples.stream()).
+			if(	gvcfHeaders.stream().
+					flatMap(H->H.getSampleNamesInOrder().stream()).
 					collect(Collectors.groupingBy(Function.identity(),Collectors.counting())).
 					entrySet().stream().anyMatch(P->P.getValue()!=1L))
 				{
@@ -313,11 +617,11 @@ public class FastGenotypeGVCFs extends Launcher {
 					VCFConstants.GENOTYPE_QUALITY_KEY,
 					VCFConstants.GENOTYPE_PL_KEY
 					);
-			metaData.addAll(gvcfSources.stream().flatMap(S->S.vcfFileReader.getHeader().getFormatHeaderLines().stream()).collect(Collectors.toSet()));
+			metaData.addAll(gvcfHeaders.stream().flatMap(H->H.getFormatHeaderLines().stream()).collect(Collectors.toSet()));
 			
 			final VCFHeader header= new VCFHeader(
 					metaData, 
-					gvcfSources.stream().flatMap(S->S.samples.stream()).
+					gvcfHeaders.stream().flatMap(H->H.getSampleNamesInOrder().stream()).
 					sorted(new SmartComparator()).
 					collect(Collectors.toList())
 					);
@@ -326,55 +630,26 @@ public class FastGenotypeGVCFs extends Launcher {
 			
 			w= super.openVariantContextWriter(outputFile);
 			w.writeHeader(header);
+			final VariantContextWriter out = w;
 			
-			for(;;)
+			if(this.nThreads > 1)
 				{
-				String id = null;
-				ContigPosRef next = null;
-				for(GVCFVariantIterator it:gvcfSources)
-					{
-					ContigPosRef cpr = it.lookup();
-					if(cpr==null) continue;
-					if(next==null || contigPosRefComparator.compare(cpr, next)<0)
-						{
-						next = cpr;
-						}
-					}
-				if(next==null) break;
-				final Set<Allele> alleles = new HashSet<>();
-				final List<Genotype> genotypes = new ArrayList<>();
-				alleles.add(next.getReference());
-				for(final GVCFVariantIterator it:gvcfSources)
-					{
-					final VariantContext vc = it.next(next);
-					if(vc.hasID()) id=vc.getID();
-					Objects.requireNonNull(vc, "vc is null");
-					alleles.addAll(
-							vc.getGenotypes().
-								stream().
-								flatMap(G->G.getAlleles().stream()).
-								filter(A->A.isCalled()).
-								collect(Collectors.toSet())
-								);
-					genotypes.addAll(vc.getGenotypes());
+				mergeSharded(gvcfFiles, attCalc, V->out.add(V));
+				}
+			else
+				{
+				/* bound the memory used by the background decoders, whatever the number of gvcfs */
+				final int asyncBatchSize = this.asyncDecoding ?
+					Math.max(1, Math.min(ASYNC_MAX_BATCH_SIZE, ASYNC_MAX_BUFFERED_VARIANTS / (gvcfFiles.size() * (ASYNC_QUEUE_CAPACITY + 2)))) :
+					0;
+				for(final File f: gvcfFiles) {
+					gvcfSources.add(new GVCFVariantIterator(f, asyncBatchSize));
 					}
-				if(alleles.size()<2) continue;
-				
-				final VariantContextBuilder vcb = new VariantContextBuilder(
-						null,
-						next.getContig(), 
-						next.getStart(),
-						next.getEnd(), 
-						alleles
-						);
-				if(id!=null) vcb.id(id);
-				vcb.genotypes(genotypes);
-				w.add(attCalc.apply(vcb.make()));
+				merge(gvcfSources, attCalc, V->out.add(V));
 				}
 			
-			
-			
 			for(final GVCFVariantIterator src:gvcfSources) src.close();
+			gvcfSources.clear();
 			return 0;
 			}
 		catch(Exception err)
@@ -384,7 +659,7 @@ public class FastGenotypeGVCFs extends Launcher {
 			}	
 		finally
 			{
-			
+			for(final GVCFVariantIterator src:gvcfSources) src.close();
 			CloserUtil.close(w);
 			}
 		}
@@ -33,7 +33,10 @@ END_DOC
  */
 import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import htsjdk.samtools.liftover.LiftOver;
 import htsjdk.samtools.util.Interval;
@@ -49,6 +52,8 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SAMUtils;
 import htsjdk.samtools.util.CloserUtil;
 
+import com.github.lindenb.jvarkit.liftover.LiftOverIndex;
+import com.github.lindenb.jvarkit.liftover.LiftOverLoader;
 import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 
 
@@ -60,11 +65,14 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 
 @Program(name="bamliftover",
 	description="Lift-over a BAM file.",
-	keywords={"bam","liftover"}
+	keywords={"bam","liftover"},
+	modificationDate="20261018"
 		)
 public class BamLiftOver extends Launcher
 	{
 	private static final Logger LOG = Logger.build(BamLiftOver.class).make();
+	/** number of reads lifted over at once */
+	private static final int BATCH_SIZE = 10_000;
 
 
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
@@ -80,6 +88,9 @@ public class BamLiftOver extends Launcher
 	@Parameter(names={"-D","-R","--reference"},description="indexed REFerence file for the new sequence dictionary. Required")
 	private Path faidx = null;
 
+	@Parameter(names={"--threads"},description="Number of threads. The reads are lifted over by batches, each batch is split between the threads.")
+	private int nThreads = 1;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs =new WritingBamArgs();
 	
@@ -99,11 +110,11 @@ public class BamLiftOver extends Launcher
 		SAMRecordIterator iter=null;
 		SamReader sfr=null;
 		SAMFileWriter sfw=null;
+		final ExecutorService executorService = this.nThreads > 1 ? Executors.newFixedThreadPool(this.nThreads) : null;
 		try
 			{
 			LOG.info("Reading "+liftOverFile);
-			LiftOver liftOver=new LiftOver(liftOverFile);
-			liftOver.setLiftOverMinMatch(minMatch);
+			final LiftOverIndex liftOver=new LiftOverLoader().loadIndex(liftOverFile.toPath());
 
 			
 			final SAMSequenceDictionary newDict=SAMSequenceDictionaryExtractor.extractDictionary(faidx);
@@ -120,94 +131,123 @@ public class BamLiftOver extends Launcher
 			
 			
 			iter=sfr.iterator();
+			final List<SAMRecord> batch = new ArrayList<>(BATCH_SIZE);
+			/* intervals of the reads and of their mates */
+			final List<Interval> intervals = new ArrayList<>(BATCH_SIZE*2);
+			final int[] readIndex = new int[BATCH_SIZE];
+			final int[] mateIndex = new int[BATCH_SIZE];
 			while(iter.hasNext())
 				{
-				final SAMRecord rec=iter.next();
-				final SAMRecord copy=(SAMRecord)rec.clone();
-				copy.setHeader(headerOut);
-				final StringBuilder sb=new StringBuilder();
-				if(!rec.getReadUnmappedFlag())
+				batch.clear();
+				intervals.clear();
+				while(iter.hasNext() && batch.size() < BATCH_SIZE)
 					{
-					final String chrom=rec.getReferenceName();
-					int pos=rec.getAlignmentStart();
-					final Interval interval=liftOver.liftOver(new Interval(chrom, pos,pos,rec.getReadNegativeStrandFlag(),null));
-					if(interval!=null)
+					final SAMRecord rec=iter.next();
+					readIndex[batch.size()] = -1;
+					mateIndex[batch.size()] = -1;
+					if(!rec.getReadUnmappedFlag())
 						{
-						sb.append(chrom+":"+pos+":"+(rec.getReadNegativeStrandFlag()?"-":"+"));
-						final SAMSequenceRecord ssr=newDict.getSequence(interval.getContig());
-						if(ssr==null)
-							{
-							sfr.close();
-							sfr=null;
-							LOG.error("the chromosome "+interval.getContig()+" is undefined in the sequence dict.");
-							return -1;
-							}
-						copy.setReferenceName(ssr.getSequenceName());
-						copy.setReferenceIndex(ssr.getSequenceIndex());
-						copy.setAlignmentStart(interval.getStart());
-						copy.setReadNegativeStrandFlag(interval.isNegativeStrand());
-						if(rec.getReadNegativeStrandFlag()!=copy.getReadNegativeStrandFlag()) {
-							copy.setReadString(AcidNucleics.reverseComplement(rec.getReadString()));
-							
-							byte qual[]= rec.getBaseQualities();
-							byte quals2[]=  new byte[qual.length];
-							for(int i=0;i< qual.length;++i) {
-								quals2[i]=qual[(qual.length-1)-i];
-							}
-							copy.setBaseQualities(quals2);
-							}
+						readIndex[batch.size()] = intervals.size();
+						intervals.add(new Interval(rec.getReferenceName(), rec.getAlignmentStart(),rec.getAlignmentStart(),rec.getReadNegativeStrandFlag(),null));
 						}
-					else
+					if(rec.getReadPairedFlag() && !rec.getMateUnmappedFlag())
 						{
-						sb.append(".");
-						SAMUtils.makeReadUnmapped(copy);
+						mateIndex[batch.size()] = intervals.size();
+						intervals.add(new Interval(rec.getMateReferenceName(), rec.getMateAlignmentStart(),rec.getMateAlignmentStart(),rec.getMateNegativeStrandFlag(),null));
 						}
+					batch.add(rec);
 					}
+				final List<Interval> liftedIntervals = liftOver.liftOver(intervals, IDX->minMatch, executorService);
 				
-				
-				if(rec.getReadPairedFlag() && !rec.getMateUnmappedFlag())
+				for(int idx=0;idx< batch.size();++idx)
 					{
-					sb.append("/");
-					String chrom=rec.getMateReferenceName();
-					int pos=rec.getMateAlignmentStart();
-					final Interval interval=liftOver.liftOver(new Interval(chrom, pos,pos,rec.getMateNegativeStrandFlag(),null));
-					if(interval!=null)
+					final SAMRecord rec=batch.get(idx);
+					final SAMRecord copy=(SAMRecord)rec.clone();
+					copy.setHeader(headerOut);
+					final StringBuilder sb=new StringBuilder();
+					if(!rec.getReadUnmappedFlag())
 						{
-						sb.append(chrom+":"+pos+":"+(rec.getMateNegativeStrandFlag()?"-":"+"));
-						final SAMSequenceRecord ssr=newDict.getSequence(interval.getContig());
-						if(ssr==null)
+						final String chrom=rec.getReferenceName();
+						int pos=rec.getAlignmentStart();
+						final Interval interval=liftedIntervals.get(readIndex[idx]);
+						if(interval!=null)
 							{
-							sfr.close();
-							sfr=null;
-							LOG.error("the chromosome "+interval.getContig()+" is undefined in the sequence dict.");
-							return -1;
-							}
-						copy.setMateReferenceName(ssr.getSequenceName());
-						copy.setMateReferenceIndex(ssr.getSequenceIndex());
-						copy.setMateAlignmentStart(interval.getStart());
-						copy.setMateNegativeStrandFlag(interval.isNegativeStrand());
-						
-						if(!copy.getReadUnmappedFlag() &&
-							copy.getReferenceIndex()==copy.getMateReferenceIndex() 
-							// && copy.getReadNegativeStrandFlag()!=copy.getMateNegativeStrandFlag()
-							)
-							{
-							//don't change ?
+							sb.append(chrom+":"+pos+":"+(rec.getReadNegativeStrandFlag()?"-":"+"));
+							final SAMSequenceRecord ssr=newDict.getSequence(interval.getContig());
+							if(ssr==null)
+								{
+								sfr.close();
+								sfr=null;
+								LOG.error("the chromosome "+interval.getContig()+" is undefined in the sequence dict.");
+								return -1;
+								}
+							copy.setReferenceName(ssr.getSequenceName());
+							copy.setReferenceIndex(ssr.getSequenceIndex());
+							copy.setAlignmentStart(interval.getStart());
+							copy.setReadNegativeStrandFlag(interval.isNegativeStrand());
+							if(rec.getReadNegativeStrandFlag()!=copy.getReadNegativeStrandFlag()) {
+								copy.setReadString(AcidNucleics.reverseComplement(rec.getReadString()));
+								
+								byte qual[]= rec.getBaseQualities();
+								byte quals2[]=  new byte[qual.length];
+								for(int i=0;i< qual.length;++i) {
+									quals2[i]=qual[(qual.length-1)-i];
+								}
+								copy.setBaseQualities(quals2);
+								}
 							}
 						else
 							{
-							copy.setProperPairFlag(false);
-							copy.setInferredInsertSize(0);
+							sb.append(".");
+							SAMUtils.makeReadUnmapped(copy);
 							}
 						}
-					else
+					
+					
+					if(rec.getReadPairedFlag() && !rec.getMateUnmappedFlag())
 						{
-						sb.append(".");
-						SAMUtils.makeReadUnmapped(copy);
+						sb.append("/");
+						String chrom=rec.getMateReferenceName();
+						int pos=rec.getMateAlignmentStart();
+						final Interval interval=liftedIntervals.get(mateIndex[idx]);
+						if(interval!=null)
+							{
+							sb.append(chrom+":"+pos+":"+(rec.getMateNegativeStrandFlag()?"-":"+"));
+							final SAMSequenceRecord ssr=newDict.getSequence(interval.getContig());
+							if(ssr==null)
+								{
+								sfr.close();
+								sfr=null;
+								LOG.error("the chromosome "+interval.getContig()+" is undefined in the sequence dict.");
+								return -1;
+								}
+							copy.setMateReferenceName(ssr.getSequenceName());
+							copy.setMateReferenceIndex(ssr.getSequenceIndex());
+							copy.setMateAlignmentStart(interval.getStart());
+							copy.setMateNegativeStrandFlag(interval.isNegativeStrand());
+							
+							if(!copy.getReadUnmappedFlag() &&
+								copy.getReferenceIndex()==copy.getMateReferenceIndex() 
+								// && copy.getReadNegativeStrandFlag()!=copy.getMateNegativeStrandFlag()
+								)
+								{
+								//don't change ?
+								}
+							else
+								{
+								copy.setProperPairFlag(false);
+								copy.setInferredInsertSize(0);
+								}
+							}
+						else
+							{
+							sb.append(".");
+							SAMUtils.makeReadUnmapped(copy);
+							}
 						}
+					if(sb.length()>0) copy.setAttribute("LO", sb.toString());
+					sfw.addAlignment(copy);
 					}
-				if(sb.length()>0) copy.setAttribute("LO", sb.toString());
-				sfw.addAlignment(copy);
 				}
 			return RETURN_OK;
 			}
@@ -218,6 +258,7 @@ public class BamLiftOver extends Launcher
 			}
 		finally
 			{
+			if(executorService!=null) executorService.shutdownNow();
 			CloserUtil.close(iter);
 			CloserUtil.close(sfr);
 			CloserUtil.close(sfw);
@@ -29,9 +29,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.liftover.LiftOverIndex;
+import com.github.lindenb.jvarkit.liftover.LiftOverLoader;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
@@ -47,12 +52,14 @@ import htsjdk.samtools.util.CloserUtil;
 @Program(
 		name="bedliftover",
 		description="Lift-over a VCF file",
-		modificationDate="20190924",
+		modificationDate="20261018",
 		keywords={"bed","liftover"}
 		)
 public class BedLiftOver extends Launcher
 	{
 	private static final Logger LOG = Logger.build(BedLiftOver.class).make();
+	/** number of bed lines lifted over at once */
+	private static final int BATCH_SIZE = 10_000;
 
 	
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
@@ -68,39 +75,63 @@ public class BedLiftOver extends Launcher
 	private Path faidx = null;
 	@Parameter(names={"--chainvalid"},description="Ignore LiftOver chain validation")
 	private boolean ignoreLiftOverValidation=false;
+	@Parameter(names={"--threads"},description="Number of threads. The bed lines are lifted over by batches, each batch is split between the threads.")
+	private int nThreads = 1;
 	
-	private LiftOver liftOver=null;
+	private LiftOverIndex liftOver=null;
+	private ExecutorService executorService=null;
 
 	
 	private void scan(BufferedReader r,PrintWriter out,PrintWriter failed) throws IOException
 		{
 		String line;
 		final BedLineCodec bedCodec=new BedLineCodec();
-		while((line=r.readLine())!=null)
+		final List<BedLine> batch = new ArrayList<>(BATCH_SIZE);
+		final List<String> lines = new ArrayList<>(BATCH_SIZE);
+		final List<Interval> intervals = new ArrayList<>(BATCH_SIZE);
+		boolean eof = false;
+		while(!eof)
 			{
-			
-			if(line.startsWith("#") || line.trim().isEmpty()) continue;
-			final BedLine bedLine = bedCodec.decode(line);
-			if(bedLine==null) continue;
-			final Interval srcInterval = bedLine.toInterval();
-			Interval dest=this.liftOver.liftOver(srcInterval);
-			if(dest!=null)
+			batch.clear();
+			lines.clear();
+			intervals.clear();
+			while(batch.size() < BATCH_SIZE)
 				{
-				out.print(dest.getContig());
-				out.print('\t');
-				out.print(dest.getStart()-1);
-				out.print('\t');
-				out.print(dest.getEnd());
-				for(int i=3;i< bedLine.getColumnCount();++i) { 
-					out.print('\t');
-					out.print(bedLine.get(i));
+				line=r.readLine();
+				if(line==null) {
+					eof = true;
+					break;
 					}
-				out.println();
+				if(line.startsWith("#") || line.trim().isEmpty()) continue;
+				final BedLine bedLine = bedCodec.decode(line);
+				if(bedLine==null) continue;
+				batch.add(bedLine);
+				lines.add(line);
+				intervals.add(bedLine.toInterval());
 				}
-			else if(failed!=null)
+			final List<Interval> liftedIntervals = this.liftOver.liftOver(intervals, IDX->this.userMinMatch, this.executorService);
+			for(int idx=0;idx< batch.size();++idx)
 				{
-				failed.println(line);
-				}			
+				final BedLine bedLine = batch.get(idx);
+				final Interval dest=liftedIntervals.get(idx);
+				if(dest!=null)
+					{
+					out.print(dest.getContig());
+					out.print('\t');
+					out.print(dest.getStart()-1);
+					out.print('\t');
+					out.print(dest.getEnd());
+					for(int i=3;i< bedLine.getColumnCount();++i) { 
+						out.print('\t');
+						out.print(bedLine.get(i));
+						}
+					out.println();
+					}
+				else if(failed!=null)
+					{
+					failed.println(lines.get(idx));
+					}			
+				}
 			}
 		}
 	
@@ -112,8 +143,7 @@ public class BedLiftOver extends Launcher
 			LOG.error("LiftOver file is undefined.");
 			return -1;
 			}
-		this.liftOver=new LiftOver(liftOverFile);
-		this.liftOver.setLiftOverMinMatch(this.userMinMatch);
+		this.liftOver=new LiftOverLoader().loadIndex(liftOverFile.toPath());
 		
 		PrintWriter out=null;
 		PrintWriter failed=null;
@@ -123,6 +153,7 @@ public class BedLiftOver extends Launcher
 				this.liftOver.validateToSequences(SequenceDictionaryUtils.extractRequired(faidx));
 				}
 			
+			if(this.nThreads > 1) this.executorService = Executors.newFixedThreadPool(this.nThreads);
 			out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
 			
 			if(this.failedFile!=null)
@@ -161,6 +192,7 @@ public class BedLiftOver extends Launcher
 			}
 		finally
 			{
+			if(this.executorService!=null) this.executorService.shutdownNow();
 			CloserUtil.close(out);
 			CloserUtil.close(failed);
 			}
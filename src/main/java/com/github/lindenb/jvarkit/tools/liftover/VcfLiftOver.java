@@ -33,9 +33,12 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.liftover.LiftOver;
@@ -60,6 +63,8 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.jcommander.OnePassVcfLauncher;
+import com.github.lindenb.jvarkit.liftover.LiftOverIndex;
+import com.github.lindenb.jvarkit.liftover.LiftOverLoader;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -112,6 +117,10 @@ chrX	17729298	.	T	C	7515.25	.	LIFTOVER=chrX|17819377	GT:AD:DP:GQ:PL1/1:0,125:126
 ```
 
 
+## Threads
+
+With `--threads`, the variants are read by batches and the liftOver of each batch is split between the threads.
+
 ## See also
 
 picard LiftOverVcf (loads all the genome in memory...)
@@ -124,12 +133,14 @@ END_DOC
 		name="vcfliftover",
 		description="Lift-over a VCF file",
 		keywords={"vcf","liftover"},
-		modificationDate="20210603",
+		modificationDate="20261018",
 		creationDate="20131228",
 		deprecatedMsg="Use picard LiftOverVcf"
 		)
 public class VcfLiftOver extends OnePassVcfLauncher {
 	private static final Logger LOG = Logger.build(VcfLiftOver.class).make();
+	/** number of variants lifted over at once */
+	private static final int BATCH_SIZE = 10_000;
 	@Parameter(names={"-f","--chain"},description="LiftOver file.",required=true)
 	private File liftOverFile = null;
 	@Parameter(names={"-x","--failed"},description="(file.vcf) write variants failing the liftOver here. Optional.")
@@ -152,14 +163,35 @@ public class VcfLiftOver extends OnePassVcfLauncher {
 	private boolean ignoreIndels=false;
 	@Parameter(names={"--info"},description="remove attribute from INFO on the fly")
 	private Set<String> removeInfo=new HashSet<>();
+	@Parameter(names={"--threads"},description="Number of threads. The variants are lifted over by batches, each batch is split between the threads. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
 	
-	private LiftOver liftOver=null;
+	private LiftOverIndex liftOverIndex=null;
 	private ReferenceSequenceFile indexedFastaSequenceFile=null;
+	/** used by --check: the lifted variants are not sorted, keep a window of the reference for the last target contigs */
+	private static final int MAX_CONTIGS_IN_CACHE = 8;
+	@SuppressWarnings("serial")
+	private final Map<String,GenomicSequence> contigCache = new LinkedHashMap<String,GenomicSequence>(MAX_CONTIGS_IN_CACHE*2,0.75f,true) {
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String,GenomicSequence> eldest) {
+			return size() > MAX_CONTIGS_IN_CACHE;
+			}
+		};
+	
+	private GenomicSequence getGenomicSequence(final String contig) {
+		GenomicSequence seq = this.contigCache.get(contig);
+		if(seq==null) {
+			seq = new GenomicSequence(this.indexedFastaSequenceFile, contig);
+			this.contigCache.put(contig, seq);
+			}
+		return seq;
+		}
 	
 	@Override
 	protected int doVcfToVcf(String inputName, VCFIterator in, VariantContextWriter out) {
 		VariantContextWriter failed=null;
-		GenomicSequence genomicSequence = null;
+		final int nThreads = this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads;
+		final ExecutorService executorService = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
 		try {
 			final VCFHeader inputHeader= in.getHeader();
 			
@@ -191,134 +223,148 @@ public class VcfLiftOver extends OnePassVcfLauncher {
 			header3.addMetaDataLine(VCFStandardHeaderLines.getInfoLine(VCFConstants.END_KEY, true));
 			header3.addMetaDataLine(new VCFInfoHeaderLine(this.infoTag,1,VCFHeaderLineType.String,"Chromosome|Position before liftOver."));
 			out.writeHeader(header3);
+			final List<VariantContext> batch = new ArrayList<>(BATCH_SIZE);
+			final List<Interval> intervals = new ArrayList<>(BATCH_SIZE);
+			final double[] minMatches = new double[BATCH_SIZE];
 			while(in.hasNext())
 				{
-				VariantContext ctx= in.next();
-				if(!this.removeInfo.isEmpty())
-					{
-					VariantContextBuilder vcb= new VariantContextBuilder(ctx);
-					for(final String tag:this.removeInfo) vcb.rmAttribute(tag);
-					ctx = vcb.make();
-					}
-				
-				if(ctx.isIndel() && this.ignoreIndels)
-					{
-					if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "Indel").make());
-					continue;
-					}
-				
-				if(adaptivematch)
+				batch.clear();
+				intervals.clear();
+				while(in.hasNext() && batch.size() < BATCH_SIZE)
 					{
-					double minAlleleLength = Math.min(0,ctx.getAlleles().stream().mapToInt(A->A.length()).min().orElse(0));
-					double maxAlleleLength =Math.max(1,ctx.getAlleles().stream().mapToInt(A->A.length()).max().orElse(1));
-					this.liftOver.setLiftOverMinMatch(minAlleleLength /maxAlleleLength);
-					}
-				
-				
-				final Interval lifted=liftOver.liftOver(
-						new Interval(ctx.getContig(),ctx.getStart(),ctx.getEnd(),
+					VariantContext ctx= in.next();
+					if(!this.removeInfo.isEmpty())
+						{
+						VariantContextBuilder vcb= new VariantContextBuilder(ctx);
+						for(final String tag:this.removeInfo) vcb.rmAttribute(tag);
+						ctx = vcb.make();
+						}
+					if(adaptivematch)
+						{
+						double minAlleleLength = Math.min(0,ctx.getAlleles().stream().mapToInt(A->A.length()).min().orElse(0));
+						double maxAlleleLength =Math.max(1,ctx.getAlleles().stream().mapToInt(A->A.length()).max().orElse(1));
+						minMatches[batch.size()] = minAlleleLength /maxAlleleLength;
+						}
+					else
+						{
+						minMatches[batch.size()] = this.userMinMatch;
+						}
+					batch.add(ctx);
+					intervals.add(new Interval(ctx.getContig(),ctx.getStart(),ctx.getEnd(),
 						false,//negative strand
 						String.join("|",ctx.getContig(),String.valueOf(ctx.getStart()),ctx.getReference().toString()))
 						);
-				if(lifted==null )
-					{
-					if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "LiftOverFailed").make());
 					}
-				else if(this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(lifted.getContig())==null)
-					{
-					if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "ContigMissingDictionary|"+lifted.getContig()).make());
-					}
-				else
-					{
-					boolean alleleAreValidatedVsRef=true;
-					//part of the code was copied from picard/liftovervcf
-					final Map<Allele, Allele> reverseComplementAlleleMap = new HashMap<>();
-					final List<Allele> alleles = new ArrayList<Allele>();
-
-	                for (final Allele oldAllele : ctx.getAlleles()) {
-	                	final Allele fixedAllele;
-	                	if( oldAllele.isSymbolic() || oldAllele.isNoCall() || oldAllele.equals(Allele.SPAN_DEL))
-	                		{
-	                		alleles.add(oldAllele);
-	                		continue;
-	                		}
-	                	else if (lifted.isPositiveStrand()) {
-	                		fixedAllele = oldAllele;
-	                        alleles.add(oldAllele);
-	                    	}
-	                    else {
-	                        fixedAllele = Allele.create(SequenceUtil.reverseComplement(oldAllele.getBaseString()), oldAllele.isReference());
-	                        alleles.add(fixedAllele);
-	                        reverseComplementAlleleMap.put(oldAllele, fixedAllele);
-	                    	}
-	                    
-                        if(this.checkAlleleSequence) {
-                        	if(genomicSequence==null || !genomicSequence.getChrom().equals(lifted.getContig())) {
-                        		genomicSequence = new GenomicSequence(this.indexedFastaSequenceFile, lifted.getContig());
-                        		}
-                        	final String alleleStr = fixedAllele.getBaseString();
-                        	int x=0;
-                        	while(x<alleleStr.length() && lifted.getStart()-1+x < genomicSequence.length())
-                        		{
-                        		final char refChar= genomicSequence.charAt(lifted.getStart()-1+x);
-                        		if(Character.toLowerCase(refChar)!=Character.toLowerCase(alleleStr.charAt(x)))
-                        			{
-                        			alleleAreValidatedVsRef=false;
-                        			break;
-                        			}
-                        		++x;
-                        		}
-                        	if(x!=alleleStr.length())
-                        		{
-                        		alleleAreValidatedVsRef=false;
-                        		break;
-                        		}
-                        	}
-	                	}
-	                
-	                if(!alleleAreValidatedVsRef)
-	                	{
-	                	if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "AlleleMismatchRef").make());
-	                	continue;
-	                	}
-	                
-	                if( lifted.getEnd() - lifted.getStart() != ctx.getEnd() - ctx.getStart())
-	                	{
-	                	if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "AlleleBadLength|"+lifted.length()).make());
-	                	continue;
-	                	}
+				final List<Interval> liftedIntervals = this.liftOverIndex.liftOver(intervals, IDX->minMatches[IDX], executorService);
 				
-					final VariantContextBuilder vcb=new VariantContextBuilder(
-							ctx.getSource(),
-							lifted.getContig(),
-							lifted.getStart(),
-							lifted.getEnd(),
-							alleles
-							);
-					vcb.id(ctx.getID());
-					vcb.attributes(ctx.getAttributes());
-					vcb.attribute(this.infoTag,ctx.getContig()+"|"+ctx.getStart()+"|"+ctx.getReference().getDisplayString());
-					vcb.filters(ctx.getFilters());
-					vcb.log10PError(ctx.getLog10PError());
-					if(lifted.getStart()!=lifted.getEnd()) {
-						vcb.attribute(VCFConstants.END_KEY,lifted.getEnd());
-					}
-					  
-					final GenotypesContext genotypeContext = ctx.getGenotypes();
-					final GenotypesContext fixedGenotypes = GenotypesContext.create(genotypeContext.size());
-			        for ( final Genotype genotype : genotypeContext ) 
-			        	{
-			            final List<Allele> fixedAlleles = new ArrayList<Allele>();
-			            for ( final Allele allele : genotype.getAlleles() ) {
-			                final Allele fixedAllele = reverseComplementAlleleMap.containsKey(allele) ?
-			                		reverseComplementAlleleMap.get(allele) : 
-			                		allele;
-			                fixedAlleles.add(fixedAllele);
-			            	}
-			            fixedGenotypes.add(new GenotypeBuilder(genotype).alleles(fixedAlleles).make());
-			        	}
-			        vcb.genotypes(fixedGenotypes);
-				    out.add(vcb.make());
+				for(int idx=0;idx< batch.size();++idx)
+					{
+					final VariantContext ctx = batch.get(idx);
+					if(ctx.isIndel() && this.ignoreIndels)
+						{
+						if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "Indel").make());
+						continue;
+						}
+					
+					final Interval lifted=liftedIntervals.get(idx);
+					if(lifted==null )
+						{
+						if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "LiftOverFailed").make());
+						}
+					else if(this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(lifted.getContig())==null)
+						{
+						if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "ContigMissingDictionary|"+lifted.getContig()).make());
+						}
+					else
+						{
+						boolean alleleAreValidatedVsRef=true;
+						//part of the code was copied from picard/liftovervcf
+						final Map<Allele, Allele> reverseComplementAlleleMap = new HashMap<>();
+						final List<Allele> alleles = new ArrayList<Allele>();
+	
+		                for (final Allele oldAllele : ctx.getAlleles()) {
+		                	final Allele fixedAllele;
+		                	if( oldAllele.isSymbolic() || oldAllele.isNoCall() || oldAllele.equals(Allele.SPAN_DEL))
+		                		{
+		                		alleles.add(oldAllele);
+		                		continue;
+		                		}
+		                	else if (lifted.isPositiveStrand()) {
+		                		fixedAllele = oldAllele;
+		                        alleles.add(oldAllele);
+		                    	}
+		                    else {
+		                        fixedAllele = Allele.create(SequenceUtil.reverseComplement(oldAllele.getBaseString()), oldAllele.isReference());
+		                        alleles.add(fixedAllele);
+		                        reverseComplementAlleleMap.put(oldAllele, fixedAllele);
+		                    	}
+		                    
+	                        if(this.checkAlleleSequence) {
+	                        	final GenomicSequence genomicSequence = getGenomicSequence(lifted.getContig());
+	                        	final String alleleStr = fixedAllele.getBaseString();
+	                        	int x=0;
+	                        	while(x<alleleStr.length() && lifted.getStart()-1+x < genomicSequence.length())
+	                        		{
+	                        		final char refChar= genomicSequence.charAt(lifted.getStart()-1+x);
+	                        		if(Character.toLowerCase(refChar)!=Character.toLowerCase(alleleStr.charAt(x)))
+	                        			{
+	                        			alleleAreValidatedVsRef=false;
+	                        			break;
+	                        			}
+	                        		++x;
+	                        		}
+	                        	if(x!=alleleStr.length())
+	                        		{
+	                        		alleleAreValidatedVsRef=false;
+	                        		break;
+	                        		}
+	                        	}
+		                	}
+		                
+		                if(!alleleAreValidatedVsRef)
+		                	{
+		                	if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "AlleleMismatchRef").make());
+		                	continue;
+		                	}
+		                
+		                if( lifted.getEnd() - lifted.getStart() != ctx.getEnd() - ctx.getStart())
+		                	{
+		                	if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "AlleleBadLength|"+lifted.length()).make());
+		                	continue;
+		                	}
+					
+						final VariantContextBuilder vcb=new VariantContextBuilder(
+								ctx.getSource(),
+								lifted.getContig(),
+								lifted.getStart(),
+								lifted.getEnd(),
+								alleles
+								);
+						vcb.id(ctx.getID());
+						vcb.attributes(ctx.getAttributes());
+						vcb.attribute(this.infoTag,ctx.getContig()+"|"+ctx.getStart()+"|"+ctx.getReference().getDisplayString());
+						vcb.filters(ctx.getFilters());
+						vcb.log10PError(ctx.getLog10PError());
+						if(lifted.getStart()!=lifted.getEnd()) {
+							vcb.attribute(VCFConstants.END_KEY,lifted.getEnd());
+						}
+						  
+						final GenotypesContext genotypeContext = ctx.getGenotypes();
+						final GenotypesContext fixedGenotypes = GenotypesContext.create(genotypeContext.size());
+				        for ( final Genotype genotype : genotypeContext ) 
+				        	{
+				            final List<Allele> fixedAlleles = new ArrayList<Allele>();
+				            for ( final Allele allele : genotype.getAlleles() ) {
+				                final Allele fixedAllele = reverseComplementAlleleMap.containsKey(allele) ?
+				                		reverseComplementAlleleMap.get(allele) : 
+				                		allele;
+				                fixedAlleles.add(fixedAllele);
+				            	}
+				            fixedGenotypes.add(new GenotypeBuilder(genotype).alleles(fixedAlleles).make());
+				        	}
+				        vcb.genotypes(fixedGenotypes);
+					    out.add(vcb.make());
+						}
 					}
 				}
 			if(failed!=null)
@@ -334,6 +380,7 @@ public class VcfLiftOver extends OnePassVcfLauncher {
 			}
 		finally
 			{
+			if(executorService!=null) executorService.shutdownNow();
 			CloserUtil.close(failed);	
 			}
 		}
@@ -359,10 +406,9 @@ public class VcfLiftOver extends OnePassVcfLauncher {
 		
 		try {
 			this.indexedFastaSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faidx);
-			this.liftOver=new LiftOver(this.liftOverFile);
-			this.liftOver.setLiftOverMinMatch(this.userMinMatch);
+			this.liftOverIndex=new LiftOverLoader().loadIndex(this.liftOverFile.toPath());
 			if(!this.ignoreLiftOverValidation) {
-				this.liftOver.validateToSequences(this.indexedFastaSequenceFile.getSequenceDictionary());
+				this.liftOverIndex.validateToSequences(this.indexedFastaSequenceFile.getSequenceDictionary());
 				}
 			}
 		catch(final Throwable err) {
@@ -375,6 +421,7 @@ public class VcfLiftOver extends OnePassVcfLauncher {
 	@Override
 	protected void afterVcf() {
 		CloserUtil.close(this.indexedFastaSequenceFile);
+		this.contigCache.clear();
 		super.afterVcf();
 		}
 
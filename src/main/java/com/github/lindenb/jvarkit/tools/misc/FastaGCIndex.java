@@ -0,0 +1,95 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.util.bio.fasta.GCIndex;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+/**
+BEGIN_DOC
+
+# Motivation
+
+The tools computing the GC% of many windows (copynumber01, bamstats04, wescnvsvg, gcpercentanddepth...) count the bases of the reference
+for each window. This tool builds, once per reference, a file 'ref.fa.gcidx' next to the fasta file, storing the cumulative number of GC, AT and N bases every 'stride' bases.
+When this file exists, the GC% of a window is read from the index and only the bases that are not aligned on the stride are read from the fasta file.
+
+The index is ignored if the fasta file was modified after the creation of the index.
+
+# Example
+
+```
+$ java -jar dist/fastagcindex.jar -R src/test/resources/rotavirus_rf.fa
+$ ls src/test/resources/rotavirus_rf.fa.gcidx
+src/test/resources/rotavirus_rf.fa.gcidx
+```
+
+END_DOC
+ */
+@Program(
+	name="fastagcindex",
+	description="Build an index of the cumulative GC/AT/N counts of an indexed fasta file, used by the tools computing the GC% of some windows.",
+	keywords={"fasta","reference","gc%"},
+	creationDate="20261018",
+	modificationDate="20261018"
+	)
+public class FastaGCIndex extends Launcher
+	{
+	private static final Logger LOG=Logger.build(FastaGCIndex.class).make();
+	@Parameter(names={"-R","--reference"},description=INDEXED_FASTA_REFERENCE_DESCRIPTION,required=true)
+	private Path faidx = null;
+	@Parameter(names={"--stride"},description="Distance between two checkpoints of the index. A lower value means a bigger index (12 bytes per checkpoint) but fewer bases read in the fasta file.")
+	private int stride = GCIndex.DEFAULT_STRIDE;
+
+	@Override
+	public int doWork(final List<String> args) {
+		try {
+			if(!args.isEmpty()) {
+				LOG.error("Too many arguments");
+				return -1;
+				}
+			if(this.stride<1) {
+				LOG.error("bad stride "+this.stride);
+				return -1;
+				}
+			GCIndex.build(this.faidx, this.stride);
+			return 0;
+			}
+		catch(final Throwable err) {
+			LOG.error(err);
+			return -1;
+			}
+		}
+
+	public static void main(final String[] args) {
+		new FastaGCIndex().instanceMainWithExit(args);
+		}
+	}
@@ -65,6 +65,7 @@ import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.bed.BedLineReader;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
+import com.github.lindenb.jvarkit.util.bio.fasta.GCIndex;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -90,7 +91,7 @@ END_DOC
 @Program(name="gcpercentanddepth",
 description="Extracts GC% and depth for multiple bam using a sliding window",
 keywords={"gc%","depth","coverage"},
-modificationDate="20210818"
+modificationDate="20261018"
 )
 public class GcPercentAndDepth extends Launcher
 	{
@@ -419,12 +420,13 @@ public class GcPercentAndDepth extends Launcher
 			
 			
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.samSequenceDictionary).logger(LOG);
+			final GCIndex gcIndex = GCIndex.openIfExists(this.refFile);
 			GenomicSequence genomicSequence=null;
 			for(final RegionCaptured roi:regionsCaptured)
 				{
 				if(genomicSequence==null || !genomicSequence.getChrom().equals(roi.getContig()))
 					{
-					genomicSequence= new GenomicSequence(indexedFastaSequenceFile,roi.getContig());
+					genomicSequence= new GenomicSequence(indexedFastaSequenceFile,roi.getContig(),gcIndex);
 					}
 				Map<String,int[]> sample2depth=new HashMap<String,int[]>();
 				Map<String,Double> sample2meanDepth=new HashMap<String,Double>();
@@ -479,24 +481,9 @@ public class GcPercentAndDepth extends Launcher
 				
 				for(final RegionCaptured.SlidingWindow win: roi)
 					{
-					double total=0f;
-					int countN=0;
-					for(int pos1=win.getStart();pos1<=win.getEnd();++pos1)
-						{
-						switch(genomicSequence.charAt(pos1-1))
-							{
-							case 'c':case 'C':
-							case 'g':case 'G':		
-							case 's':case 'S':
-								{
-								total++;
-								break;
-								}
-							case 'n':case 'N':countN++;break;
-							default:break;
-							}
-						}
-					if(skip_if_contains_N && countN>0) continue;
+					final GenomicSequence.GCPercent gcPercent = genomicSequence.getGCPercent(win.getStart()-1, win.getEnd());
+					final double total=gcPercent.getGCCount();
+					if(skip_if_contains_N && gcPercent.getNCount()>0) continue;
  					double GCPercent=total/(double)win.length();
 					
 					int max_depth_for_win=0;
@@ -64,6 +64,7 @@ import com.github.lindenb.jvarkit.stream.HtsCollectors;
 import com.github.lindenb.jvarkit.util.bio.DistanceParser;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
+import com.github.lindenb.jvarkit.util.bio.fasta.GCIndex;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -140,7 +141,7 @@ END_DOC
 	description="experimental CNV detection.",
 	keywords= {"cnv","bam","sam"},
 	creationDate="20140201",
-	modificationDate="20210318"
+	modificationDate="20261018"
 	)
 public class CopyNumber01 extends Launcher
 	{
@@ -362,9 +363,10 @@ public class CopyNumber01 extends Launcher
 
 			//fill gc percent
 			LOG.info("fill gc% N=" + user_items.size());
+			final GCIndex gcIndex = GCIndex.openIfExists(this.refFile);
 			for(final String ctg: user_items.stream().map(T->T.getContig()).collect(Collectors.toSet())) {
 				
-				final GenomicSequence gseq = new GenomicSequence(indexedFastaSequenceFile, ctg);
+				final GenomicSequence gseq = new GenomicSequence(indexedFastaSequenceFile, ctg, gcIndex);
 				for(final GCAndDepth dataRow: user_items) {
 					if(!dataRow.getContig().equals(ctg)) continue;
  					final GCPercent gc=gseq.getGCPercent(dataRow.getStart(),dataRow.getEnd());
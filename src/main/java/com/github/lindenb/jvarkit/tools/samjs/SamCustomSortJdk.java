@@ -40,6 +40,7 @@ import com.github.lindenb.jvarkit.tools.misc.IlluminaReadName;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.BAMRecordCodec;
@@ -55,7 +56,6 @@ import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Iso8601Date;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 
 
@@ -130,6 +130,10 @@ sort on amount of reference sequence covered, using the cigar string
  java -jar dist/samcustomsortjdk.jar  --body -e 'private int score(final SAMRecord R) { if(R.getReadUnmappedFlag() || R.getCigar()==null) return 0; return R.getCigar().getReferenceLength();} @Override public int compare(SAMRecord a,SAMRecord b) { return Integer.compare(score(a),score(b));}' in.bam
  ```
 
+## Threads
+
+By default the reads are sorted by the main thread. With `--sort-threads N`, the chunks of reads are sorted by N background threads: the user's comparator is then called from several threads at the same time and must be thread-safe.
+
 ## History
 
  * 2019-01: migrating to openjkd: switched to in-memory compiling to external compiling
@@ -139,7 +143,8 @@ END_DOC
 @Program(name="samcustomsortjdk",
 	description="Sort a BAM file using a java expression compiled at runtime.",
 	keywords={"sam","bam","java","jdk","sort"},
-	biostars={305181}
+	biostars={305181},
+	modificationDate="20261018"
 	)
 public class SamCustomSortJdk
 	extends Launcher
@@ -229,7 +234,7 @@ public class SamCustomSortJdk
 		SAMRecordIterator iter=null;
 		SamReader samFileReader=null;
 		SAMFileWriter sw=null;
-		SortingCollection<SAMRecord> sorter=null;
+		ParallelSortingCollection<SAMRecord> sorter=null;
 		CloseableIterator<SAMRecord> iter2=null;
 		try
 			{
@@ -331,14 +336,11 @@ public class SamCustomSortJdk
 			final StableSort customComparator = new StableSort(( Comparator<SAMRecord>)ctor.newInstance(headerIn));
 			final BAMRecordCodec bamRecordCodec=new BAMRecordCodec(headerIn);
 			
-			sorter =SortingCollection.newInstance(
+			sorter = this.writingSortingCollection.newInstance(
 						SAMRecord.class,
 						bamRecordCodec,
-						customComparator,
-						this.writingSortingCollection.getMaxRecordsInRam(),
-						this.writingSortingCollection.getTmpPaths()
+						customComparator
 						);
-			sorter.setDestructiveIteration(true);
 			
 			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(headerIn).logger(LOG);
 			iter = samFileReader.iterator();
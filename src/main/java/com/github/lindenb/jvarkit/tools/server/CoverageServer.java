@@ -640,7 +640,10 @@ public  class CoverageServer extends Launcher {
 	private void printRaster(final BamInput bam,final SimpleInterval midRegion,final SimpleInterval region,final HttpServletRequest request,final HttpServletResponse response) throws IOException, ServletException {
 		final IntToDoubleFunction position2pixel = X->((X-region.getStart())/(double)region.getLengthOnReference())*(double)image_width;
 		final SamReaderFactory srf = SamReaderFactory.make().validationStringency(ValidationStringency.LENIENT).referenceSequence(this.faidxRef);
-		final Pileup<SAMRecord> pileup = new Pileup<>((L,R)->position2pixel.applyAsDouble(L.getUnclippedEnd()+1) +1  < position2pixel.applyAsDouble(R.getUnclippedStart()));
+		final Pileup<SAMRecord> pileup = new Pileup<>(
+			R->position2pixel.applyAsDouble(R.getUnclippedStart()),
+			L->position2pixel.applyAsDouble(L.getUnclippedEnd()+1) +1
+			);
 		try(SamReader sr=srf.open(bam.bamPath)) {
 			 try(CloseableIterator<SAMRecord> iter=sr.query(
 					 region.getContig(),
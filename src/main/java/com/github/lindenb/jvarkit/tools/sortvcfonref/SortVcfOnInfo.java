@@ -39,10 +39,10 @@ import com.github.lindenb.jvarkit.jcommander.OnePassVcfLauncher;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
@@ -76,7 +76,7 @@ END_DOC
 description="Sort a VCF a field in the INFO column",
 keywords={"vcf","sort","annotation"},
 creationDate="20140218",
-modificationDate="20201204",
+modificationDate="20261018",
 biostars = 9536939
 )
 public class SortVcfOnInfo extends OnePassVcfLauncher {
@@ -230,7 +230,7 @@ public class SortVcfOnInfo extends OnePassVcfLauncher {
     
     @Override
     protected int doVcfToVcf(String inputName, VCFIterator r, VariantContextWriter w) {
-    	SortingCollection<VariantContext> sorted=null;
+    	ParallelSortingCollection<VariantContext> sorted=null;
 		try {				
 			final Comparator<VariantContext> cmp2;
 			final VCFHeader header=r.getHeader();
@@ -258,14 +258,11 @@ public class SortVcfOnInfo extends OnePassVcfLauncher {
 			
 			JVarkitVersion.getInstance().addMetaData(getClass().getSimpleName(), header);
 			
-			sorted=SortingCollection.newInstance(
+			sorted=this.writingSortingCollection.newInstance(
 					VariantContext.class,
 					new VCFRecordCodec(header),
-					cmp,
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+					cmp
 					);
-			sorted.setDestructiveIteration(true);
 			while(r.hasNext())
 				{
 				sorted.add(r.next());
@@ -28,18 +28,32 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.sortvcfonref;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.jcommander.OnePassVcfLauncher;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.SortingCollection;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
@@ -65,6 +79,17 @@ cat input.vcf |\
    tabix -p vcf -f result.vcf.gz
 ```
 
+### Raw mode
+
+With option `--raw`, the records of a text VCF are not decoded: only the CHROM and POS columns are parsed
+and the original lines are written unchanged. The order is the same as in the default mode.
+The header is decoded, so it can be updated with `-R`. The options of the VCF writer are ignored.
+BCF files are not supported.
+
+```
+java -jar dist/sortvcfonref2.jar --raw -o sorted.vcf.gz input.vcf.gz
+```
+
 END_DOC
 */
 
@@ -72,7 +97,7 @@ END_DOC
 	description="Sort a VCF using the internal dictionary or an external reference order (Deprecated: use bcftools sort).",
 	deprecatedMsg="use picard sortvcf",
 	keywords={"vcf","sort"},
-	modificationDate="20200518"
+	modificationDate="20261018"
 	)
 public class SortVcfOnRef2 extends OnePassVcfLauncher
 	{
@@ -81,11 +106,197 @@ public class SortVcfOnRef2 extends OnePassVcfLauncher
 	private Path refdict = null;
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
+	@Parameter(names={"--raw"},description="Raw mode for text VCFs: only CHROM and POS are parsed, the lines are sorted as bytes and written unchanged. Much faster for VCFs with many samples. BCF is not supported. Output is a text VCF, compressed with bgzip if it ends with '.gz'.")
+	private boolean raw_mode = false;
+	
+	/** a VCF line and its sort key */
+	private static class RawLine {
+		int tid;
+		int pos;
+		byte[] line;
+		}
+	
+	private static class RawLineCodec extends AbstractDataCodec<RawLine> {
+		@Override
+		public RawLine decode(final DataInputStream dis) throws IOException {
+			final RawLine rec = new RawLine();
+			rec.tid = dis.readInt();
+			rec.pos = dis.readInt();
+			rec.line = new byte[dis.readInt()];
+			dis.readFully(rec.line);
+			return rec;
+			}
+		@Override
+		public void encode(final DataOutputStream dos, final RawLine rec) throws IOException {
+			dos.writeInt(rec.tid);
+			dos.writeInt(rec.pos);
+			dos.writeInt(rec.line.length);
+			dos.write(rec.line);
+			}
+		@Override
+		public RawLineCodec clone() {
+			return new RawLineCodec();
+			}
+		}
+	
+	/** reads the lines of a stream as arrays of bytes, without the end of line */
+	private static class ByteLineReader {
+		private final InputStream in;
+		private final byte[] buffer = new byte[65_536];
+		private int bufferLen = 0;
+		private int bufferPos = 0;
+		private byte[] line = new byte[1_000];
+		ByteLineReader(final InputStream in) {
+			this.in = in;
+			}
+		/** @return the next line or null at the end of the stream */
+		byte[] readLine() throws IOException {
+			int len = 0;
+			boolean eof = true;
+			for(;;) {
+				if(this.bufferPos >= this.bufferLen) {
+					this.bufferLen = this.in.read(this.buffer);
+					this.bufferPos = 0;
+					if(this.bufferLen <= 0) {
+						this.bufferLen = 0;
+						if(eof) return null;
+						break;
+						}
+					}
+				eof = false;
+				int i = this.bufferPos;
+				while(i < this.bufferLen && this.buffer[i]!='\n') i++;
+				final int n = i - this.bufferPos;
+				if(len + n > this.line.length) {
+					this.line = Arrays.copyOf(this.line, Math.max(len + n, this.line.length*2));
+					}
+				System.arraycopy(this.buffer, this.bufferPos, this.line, len, n);
+				len += n;
+				this.bufferPos = i;
+				if(i < this.bufferLen) {
+					this.bufferPos++;
+					break;
+					}
+				}
+			if(len>0 && this.line[len-1]=='\r') len--;
+			return Arrays.copyOf(this.line, len);
+			}
+		}
+	
+	/** @return true if the first 'len' bytes of 'line' are the bytes of 'contig' */
+	private static boolean startsWith(final byte[] line, final int len, final byte[] contig) {
+		if(len != contig.length) return false;
+		for(int i=0;i< len;i++) {
+			if(line[i]!=contig[i]) return false;
+			}
+		return true;
+		}
+	
+	@Override
+	public int doWork(final List<String> args) {
+		if(!this.raw_mode) return super.doWork(args);
+		final String input = super.oneFileOrNull(args);
+		if(input!=null && input.endsWith(".bcf")) {
+			LOG.error("BCF is not supported in raw mode.");
+			return -1;
+			}
+		if(input!=null && this.outputFile!=null && !IOUtil.isUrl(input) && Paths.get(input).equals(this.outputFile)) {
+			LOG.error("Input == output : "+ input);
+			return -1;
+			}
+		ParallelSortingCollection<RawLine> array=null;
+		try(InputStream in = (input==null?IOUtils.uncompress(stdin()):IOUtils.openURIForReading(input))) {
+			final ByteLineReader lr = new ByteLineReader(in);
+			final List<String> headerLines = new ArrayList<>();
+			byte[] line;
+			while((line=lr.readLine())!=null && line.length>0 && line[0]=='#') {
+				headerLines.add(new String(line, StandardCharsets.UTF_8));
+				}
+			final VCFHeader h2 = VCFUtils.parseHeader(headerLines).header;
+			final SAMSequenceDictionary dict;
+			if(this.refdict!=null) {
+				dict= SequenceDictionaryUtils.extractRequired(this.refdict);
+				h2.setSequenceDictionary(dict);
+				}
+			else
+				{
+				dict= SequenceDictionaryUtils.extractRequired(h2);
+				}
+			
+			array = this.writingSortingCollection.newInstance(
+					RawLine.class,
+					new RawLineCodec(),
+					(A,B)->{
+						final int i = Integer.compare(A.tid, B.tid);
+						if(i!=0) return i;
+						return Integer.compare(A.pos, B.pos);
+						}
+					);
+			/* most of the time, consecutive lines are on the same contig */
+			byte[] prevContig = new byte[0];
+			int prevTid = -1;
+			long nLines = 0L;
+			for(;line!=null;line=lr.readLine()) {
+				if(line.length==0) continue;
+				int t1 = 0;
+				while(t1 < line.length && line[t1]!='\t') t1++;
+				int t2 = t1 + 1;
+				int pos = 0;
+				while(t2 < line.length && line[t2]!='\t') {
+					final int c = line[t2] - '0';
+					if(c<0 || c>9) break;
+					pos = pos*10 + c;
+					t2++;
+					}
+				if(t2>=line.length || line[t2]!='\t' || t2==t1+1) {
+					throw new IOException("Cannot parse CHROM/POS in "+new String(line,0,Math.min(line.length, 100),StandardCharsets.UTF_8));
+					}
+				if(!startsWith(line, t1, prevContig)) {
+					final String contig = new String(line, 0, t1, StandardCharsets.UTF_8);
+					prevTid = dict.getSequenceIndex(contig);
+					if(prevTid<0) throw new IllegalArgumentException("contig "+contig+" is not in the dictionary");
+					prevContig = Arrays.copyOf(line, t1);
+					}
+				final RawLine rec = new RawLine();
+				rec.tid = prevTid;
+				rec.pos = pos;
+				rec.line = line;
+				array.add(rec);
+				nLines++;
+				}
+			array.doneAdding();
+			LOG.info("sorting "+nLines+" lines");
+			
+			try(OutputStream out = (this.outputFile==null?stdout():IOUtils.openPathForWriting(this.outputFile))) {
+				for(final String s: VCFUtils.convertVCFHeaderToList(h2)) {
+					out.write(s.getBytes(StandardCharsets.UTF_8));
+					out.write('\n');
+					}
+				try(CloseableIterator<RawLine> iter=array.iterator()) {
+					while(iter.hasNext()) {
+						out.write(iter.next().line);
+						out.write('\n');
+						}
+					}
+				out.flush();
+				}
+			return 0;
+			}
+		catch (final Throwable e)
+			{
+			LOG.error(e);
+			return -1;
+			}
+		finally
+			{
+			if(array!=null) array.cleanup();
+			}
+		}
 	
    @Override
    protected int doVcfToVcf(final String inputName, final VCFIterator iterin, final VariantContextWriter w) {
     	CloseableIterator<VariantContext> iter=null;
-    	SortingCollection<VariantContext> array=null;
+    	ParallelSortingCollection<VariantContext> array=null;
     	try {
     		final VCFHeader header = iterin.getHeader();
     		final VCFHeader h2=new  VCFHeader(header);
@@ -100,14 +311,11 @@ public class SortVcfOnRef2 extends OnePassVcfLauncher
 				dict= SequenceDictionaryUtils.extractRequired(header);
 		   		}
 
-    		array= SortingCollection.newInstance(
+    		array= this.writingSortingCollection.newInstance(
 					VariantContext.class,
                     new VCFRecordCodec(h2,true),
-                    h2.getVCFRecordComparator(),
-                    this.writingSortingCollection.getMaxRecordsInRam(),
-                    this.writingSortingCollection.getTmpPaths()
+                    h2.getVCFRecordComparator()
                     );
-			array.setDestructiveIteration(true);
 			while(iterin.hasNext())
 				{
 				final VariantContext cpl= iterin.next();
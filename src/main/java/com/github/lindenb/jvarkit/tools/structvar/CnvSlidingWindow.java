@@ -59,6 +59,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.samtools.ContigDictComparator;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
 
@@ -77,7 +78,6 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
@@ -101,7 +101,7 @@ END_DOC
 	description="detect CNV by sliding window.",
 	keywords={"vcf","cnv","bam"},
 	creationDate="20200127",
-	modificationDate="20200127",
+	modificationDate="20261018",
 	generate_doc=false
 	)
 public class CnvSlidingWindow extends Launcher {
@@ -433,12 +433,10 @@ public int doWork(final List<String> args) {
 			
 			System.gc();
 			final short array[] = new short[contig.getLengthOnReference()];
-			final SortingCollection<Gt> sorter = SortingCollection.newInstance(
+			final ParallelSortingCollection<Gt> sorter = this.sorting.newInstance(
 					Gt.class,
 					new GtCodec(),
-					(A,B)->A.compare1(B),
-					this.sorting.getMaxRecordsInRam(),
-					this.sorting.getTmpPaths()
+					(A,B)->A.compare1(B)
 					);
 			
 		
@@ -567,7 +565,7 @@ public int doWork(final List<String> args) {
 					}
 				}
 			}
-			sorter.setDestructiveIteration(true);
+			sorter.doneAdding();
 			
 			try(CloseableIterator<Gt> iter=sorter.iterator()) {
 				final EqualRangeIterator<Gt> eq=new EqualRangeIterator<>(iter, (A,B)->A.compare0(B));
@@ -44,9 +44,14 @@ import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.ArchiveFactory;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.lang.primitive.DoubleArray;
+import com.github.lindenb.jvarkit.lang.primitive.FloatArray;
+import com.github.lindenb.jvarkit.lang.primitive.IntArray;
 import com.github.lindenb.jvarkit.math.DiscreteMedian;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
+import com.github.lindenb.jvarkit.samtools.CoverageAccumulator;
 import com.github.lindenb.jvarkit.samtools.SAMRecordDefaultFilter;
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.tools.structvar.indexcov.IndexCovUtils;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.bio.DistanceParser;
@@ -60,11 +65,9 @@ import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
 
-import htsjdk.samtools.Cigar;
-import htsjdk.samtools.CigarElement;
-import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceDictionary;
@@ -75,7 +78,6 @@ import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.tribble.readers.TabixReader;
 import htsjdk.variant.variantcontext.Allele;
@@ -109,7 +111,7 @@ END_DOC
 	description="generate a VCF file from bam coverage",
 	keywords={"cnv","bam","depth","coverage"},
 	creationDate="20200618",
-	modificationDate="20200618",
+	modificationDate="20261018",
 	generate_doc=false
 	)
 public class CoverageMatrix extends Launcher {
@@ -253,8 +255,7 @@ public class CoverageMatrix extends Launcher {
 			
 			for(final SAMSequenceRecord ssr: dict.getSequences()) {
 				if(!StringUtils.isBlank(restrictContig) && !restrictContig.equals(ssr.getSequenceName())) continue;
-				final int depth[]= new int[ssr.getSequenceLength()];
-				final BitSet blackListedPositions = new BitSet(depth.length);
+				final BitSet blackListedPositions = new BitSet(ssr.getSequenceLength());
 								
 				// fill black listed regions
 				if(this.blackListedPath!=null) {
@@ -282,89 +283,76 @@ public class CoverageMatrix extends Launcher {
 						}
 					}
 				
-				final SortingCollection<CovItem> sorter = SortingCollection.newInstance(
+				final ParallelSortingCollection<CovItem> sorter = this.writingSortingCollection.newInstance(
 						CovItem.class, new CovItemCodec(),
-						(A,B)->A.compare0(B),
-						this.writingSortingCollection.getMaxRecordsInRam(),
-						this.writingSortingCollection.getTmpPaths()
+						(A,B)->A.compare0(B)
 						);
 				
 				
 				for(int bam_idx=0;bam_idx<inputBams.size();++bam_idx) {
 					final Path path = inputBams.get(bam_idx);
 					LOG.info(ssr.getContig()+":"+path+" "+bam_idx+"/"+inputBams.size());
+					final DiscreteMedian<Integer> discreteMedian = new DiscreteMedian<>();
+					final DiscreteMedian<Integer> localMedian = new DiscreteMedian<>();
+					/* bins are kept until we know the median depth of the contig */
+					final IntArray binStarts = new IntArray();
+					final DoubleArray binMedians = new DoubleArray();
+					final FloatArray binStdDevs = new FloatArray();
+					final int bin_start[] = new int[] {-1};
+					final CoverageAccumulator accumulator = new CoverageAccumulator(
+						new SimpleInterval(ssr.getSequenceName(),1,ssr.getSequenceLength()),
+						(POS1,DEPTH)->{
+						final int pos0 = POS1 - 1;
+						if(blackListedPositions.get(pos0)) {
+							/* discard current bin */
+							bin_start[0] = -1;
+							return;
+							}
+						if(DEPTH<=this.max_depth) {
+							discreteMedian.add(DEPTH);
+							}
+						if(bin_start[0]==-1) {
+							bin_start[0] = pos0;
+							localMedian.clear();
+							}
+						// consider this.max_depth here ?
+						localMedian.add(DEPTH);
+						if(1 + pos0 - bin_start[0] == this.bin_size) {
+							binStarts.add(bin_start[0]);
+							binMedians.add(localMedian.getMedian().orElse(0.0));
+							binStdDevs.add((float)localMedian.getStandardDeviation().orElse(-1.0));
+							bin_start[0] = -1;
+							}
+						});
 					try(SamReader sr = samReaderFactory.open(path)) {
 						final SAMFileHeader header= sr.getFileHeader();
 						
 						SequenceUtil.assertSequenceDictionariesEqual(dict,header.getSequenceDictionary());
-						Arrays.fill(depth, 0);
 						try(CloseableIterator<SAMRecord> siter = sr.queryOverlapping(ssr.getContig(), 1, ssr.getLengthOnReference())) {
 							while(siter.hasNext()) {
 								final SAMRecord rec= siter.next();
 								if(rec.getReadUnmappedFlag()) continue;
 								if(!SAMRecordDefaultFilter.accept(rec, this.min_mapq)) continue;
-								int ref=rec.getStart();
-								final Cigar cigar = rec.getCigar();
-								if(cigar==null) continue;
-								
-								for(CigarElement ce:cigar) {
-									final CigarOperator op = ce.getOperator();
-									final int len = ce.getLength();
-									if(op.consumesReferenceBases()) {
-										if(op.consumesReadBases()) {
-											for(int i=0;i< len;i++) {
-												final int pos = ref+i;
-												if(pos < 1) continue;
-												if(pos > ssr.getLengthOnReference()) break;
-												depth[pos-1]++;
-												}
-											}
-										ref+=len;
-										}
-									}// loop cigar
+								if(rec.getCigar()==null) continue;
+								accumulator.add(rec);
 								}// end samItere
 						} // try
+					}
+					accumulator.finish();
 		
-					final DiscreteMedian<Integer> discreteMedian = new DiscreteMedian<>();
-					int pos=0;
-					while(pos< depth.length) {
-						if(!blackListedPositions.get(pos) && depth[pos]<=this.max_depth) {
-							discreteMedian.add(depth[pos]);
-							}
-						++pos;
-						}
 					final double median = discreteMedian.getMedian().orElse(1.0);
 					LOG.info(idx2samples.get(bam_idx)+ " :"+ssr.getSequenceName()+" median depth:"+median);
 					
-					final DiscreteMedian<Integer> localMedian = new DiscreteMedian<>();
-					pos=0;
-					while(pos< depth.length) {
-						if(blackListedPositions.get(pos) /* non pas maxdepth */) {
-							++pos;
-							continue;
-							}
-						int pos2=pos;
-						localMedian.clear();
-						while(pos2 -pos < this.bin_size && pos2< depth.length && !blackListedPositions.get(pos2)) {
-							// consider this.max_depth here ?
-							localMedian.add(depth[pos2]);
-							++pos2;
-							}
-						if(pos2 -pos == this.bin_size) {
-							final double localMed = localMedian.getMedian().orElse(0.0);
-							final CovItem item = new CovItem();
-							item.pos = pos;
-							item.sample_idx = bam_idx;
-							item.depth = (float)(localMed/median);
-							item.stddev = (float)localMedian.getStandardDeviation().orElse(-1.0);
-							sorter.add(item);
-							}
-						pos = pos2;
+					for(int i=0;i< binStarts.size();i++) {
+						final CovItem item = new CovItem();
+						item.pos = binStarts.get(i);
+						item.sample_idx = bam_idx;
+						item.depth = (float)(binMedians.get(i)/median);
+						item.stddev = binStdDevs.get(i);
+						sorter.add(item);
 						}
-					}//end loop over samples
 				}//end loop over bams
 			sorter.doneAdding();
-			sorter.setDestructiveIteration(true);
 				
 			final CloseableIterator<CovItem> iter = sorter.iterator();
 			final EqualRangeIterator<CovItem> iter2 = new EqualRangeIterator<>(iter,(A,B)->Integer.compare(A.pos, B.pos));
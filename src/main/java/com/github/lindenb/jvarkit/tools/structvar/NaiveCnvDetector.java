@@ -734,7 +734,7 @@ public class NaiveCnvDetector extends Launcher
 					}
 				}
 			try {
-				if(this.bwIter.hasNext()) {
+				if(!this.bwIter.hasNext()) {
 					close();
 					return null;
 					}
@@ -58,6 +58,7 @@ import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
 
 import htsjdk.samtools.Cigar;
@@ -75,7 +76,6 @@ import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
@@ -137,7 +137,7 @@ END_DOC
 	description="Fins clipped position in one or more bam. ",
 	keywords= {"sam","bam","clip","vcf"},
 	creationDate="20140228",
-	modificationDate="20220329"
+	modificationDate="20261018"
 	)
 public class SamFindClippedRegions extends Launcher {
 	private static final Logger LOG=Logger.build(SamFindClippedRegions.class).make();
@@ -300,15 +300,12 @@ public class SamFindClippedRegions extends Launcher {
 					}
 				}
 			
-			SortingCollection<Base> sortingCollection =
-					SortingCollection.newInstance(
+			final ParallelSortingCollection<Base> sortingCollection =
+					writingSortingCollection.newInstance(
 							Base.class,
 							new BaseCodec(),
-							(A,B)->A.compare1(B),
-							writingSortingCollection.getMaxRecordsInRam(),
-							writingSortingCollection.getTmpPath()
+							(A,B)->A.compare1(B)
 							);
-			sortingCollection.setDestructiveIteration(true);
 			
 			final Predicate<Base> acceptBase = B->{
 				return B.clip()>0;
@@ -43,7 +43,6 @@ import java.util.Map;
 import java.util.OptionalInt;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
@@ -182,7 +181,7 @@ END_DOC
 @Program(name="vcfcombinetwosnvs",
 	description="Detect Mutations than are the consequences of two distinct variants. This kind of variant might be ignored/skipped from classical variant consequence predictor. Idea from @SolenaLS and then @AntoineRimbert",
 	keywords={"vcf","annotation","prediction","protein","mnv"},
-	modificationDate="20200425",
+	modificationDate="20261018",
 	creationDate="20160215"
 	)
 public class VCFCombineTwoSnvs extends Launcher
@@ -213,8 +212,7 @@ public class VCFCombineTwoSnvs extends Launcher
 	private GenomicSequence genomicSequence=null;
 	/** all variants */
 	private SortingCollection<Variant> variants= null;
-	/**  map transcript to their sequence */
-	private final WeakHashMap<String, RNASequence> kgId2transcriptCache = new WeakHashMap<>();
+	/**  creates and caches the sequences of the transcripts */
 	private final RNASequenceFactory rnaSequenceFactory = new RNASequenceFactory();
 	
 	/** mutated cdna */
@@ -630,6 +628,7 @@ static private class MutationComparatorTwo extends MutationComparatorOne
 			this.indexedFastaSequenceFile= ReferenceSequenceFileFactory.getReferenceSequenceFile(this.referencePath);
 	        final SAMSequenceDictionary dict=SequenceDictionaryUtils.extractRequired(this.indexedFastaSequenceFile);
 	        this.rnaSequenceFactory.setContigToGenomicSequence(C->getGenomicSequenceForContig(C));
+	        this.rnaSequenceFactory.setCacheSize(1_000);
 	        
 	        if(this.bamIn!=null)
 	        	{
@@ -1207,15 +1206,7 @@ static private class MutationComparatorTwo extends MutationComparatorOne
 		}
 	
 	private RNASequence getTranscript(final Transcript kg) {
-		RNASequence mrna= this.kgId2transcriptCache.get(kg.getId());
-		if(mrna!=null && mrna.getTranscript().getContig().equals(kg.getContig())) return mrna;
-		
-		
-
-		
-		mrna = this.rnaSequenceFactory.getCodingRNA(kg);
-		this.kgId2transcriptCache.put(kg.getId(), mrna);
-		return mrna;
+		return this.rnaSequenceFactory.getCodingRNA(kg);
 		}
 	
 	private void challenge(
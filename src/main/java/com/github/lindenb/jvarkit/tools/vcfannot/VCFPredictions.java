@@ -35,7 +35,6 @@ import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
@@ -139,7 +138,7 @@ END_DOC
 	description="Basic Variant Effect prediction using gtf",
 	keywords={"vcf","annotation","prediction","gtf"},
 	creationDate="20160318",
-	modificationDate="20200701"
+	modificationDate="20261018"
 	)
 public class VCFPredictions extends OnePassVcfLauncher
 	{
@@ -147,7 +146,6 @@ public class VCFPredictions extends OnePassVcfLauncher
 	private enum OutputSyntax {Native,Vep,SnpEff };
 	private IntervalTreeMap<List<Transcript>> transcriptTreeMap = null;
 	private ReferenceSequenceFile referenceGenome = null;
-	private final WeakHashMap<String, RNASequence> transcriptId2cdna = new WeakHashMap<>();
 	private GenomicSequence genomicSequence = null;
 
 	@Parameter(names={"-k","-g","--gtf"},description=GtfReader.OPT_DESC,required=true)
@@ -158,6 +156,8 @@ public class VCFPredictions extends OnePassVcfLauncher
 
 	@Parameter(names={"-R","--reference"},description= INDEXED_FASTA_REFERENCE_DESCRIPTION,required=true)
 	private Path faidxPath = null;
+	@Parameter(names={"--rna-cache"},description="Max number of spliced transcripts kept in memory. The transcripts are released when the sorted VCF moves past their end.")
+	private int rnaCacheSize = 1_000;
 	
 
 	/** a sequence with one or more altered base/amino-acid */
@@ -346,7 +346,6 @@ public class VCFPredictions extends OnePassVcfLauncher
 	private GenomicSequence getGenomicSequence(final String normalizedContig) {
 		if(this.genomicSequence==null || !this.genomicSequence.getChrom().equals(normalizedContig))
 			{
-			this.transcriptId2cdna.clear();
 			this.genomicSequence= new GenomicSequence(this.referenceGenome, normalizedContig);
 			}
 		return this.genomicSequence;
@@ -414,6 +413,7 @@ public class VCFPredictions extends OnePassVcfLauncher
 	
 			final RNASequenceFactory rnaSeqFactory = new RNASequenceFactory();
 			rnaSeqFactory.setContigToGenomicSequence(S->getGenomicSequence(S));
+			rnaSeqFactory.setCacheSize(this.rnaCacheSize);
 			
 			while(r.hasNext())
 				{
@@ -427,6 +427,7 @@ public class VCFPredictions extends OnePassVcfLauncher
 					w.add(ctx);
 					continue;
 					}
+				rnaSeqFactory.releaseBefore(normalizedContig, ctx.getStart());
 				
 				
 				final List<Transcript> transcripts =  this.transcriptTreeMap.getOverlapping(new SimpleInterval(normalizedContig,ctx.getStart(),ctx.getEnd() )).
@@ -602,11 +603,7 @@ public class VCFPredictions extends OnePassVcfLauncher
 								continue;
 							}
 							
-							RNASequence cDNA = this.transcriptId2cdna.get(transcript.getId());
-							if(cDNA==null) {
-								cDNA = rnaSeqFactory.getCodingRNA(transcript);
-								 this.transcriptId2cdna.put(transcript.getId(), cDNA);
-								}
+							final RNASequence cDNA = rnaSeqFactory.getCodingRNA(transcript);
 							final OptionalInt opt_pos_cdna0 = cDNA.convertGenomic0ToRnaIndex0(ctx.getStart()-1);
 							if(!opt_pos_cdna0.isPresent()) continue;
 							final int pos_cdna0 = opt_pos_cdna0.getAsInt();
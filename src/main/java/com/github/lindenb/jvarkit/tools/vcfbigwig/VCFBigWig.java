@@ -32,7 +32,6 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -41,19 +40,20 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.events.XMLEvent;
 
 import org.broad.igv.bbfile.BBFileReader;
-import org.broad.igv.bbfile.BigWigIterator;
 import org.broad.igv.bbfile.WigItem;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.bbfile.BufferedBBFileReader;
 import com.github.lindenb.jvarkit.jcommander.OnePassVcfLauncher;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
+import com.github.lindenb.jvarkit.util.bio.DistanceParser;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
+import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
-import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.Locatable;
@@ -101,27 +101,11 @@ END_DOC
 	description="Annotate a VCF with values from a bigwig file",
 	keywords={"vcf","wig","wiggle","bigwig"},
 	creationDate="20200506",
-	modificationDate="20220110"
+	modificationDate="20261018"
 	)
 public class VCFBigWig extends OnePassVcfLauncher {
 	private static final Logger LOG = Logger.build(VCFBigWig.class).make();
 
-	/** wraps a BigWigIterator */
-	private static class WigItemIterator
-		extends AbstractIterator<WigItem>
-		{
-		private final BigWigIterator delegate;
-		WigItemIterator(final BigWigIterator delegate ){
-			this.delegate  = delegate;
-			}
-		@Override
-		protected WigItem advance() {
-			if(this.delegate==null) return null;
-			if(!this.delegate.hasNext()) return null;
-			return this.delegate.next();
-			}
-		}
-	
 	/** describe a BigWig Resource */
 	private static class BigWigResource
 		implements Closeable
@@ -129,7 +113,7 @@ public class VCFBigWig extends OnePassVcfLauncher {
 		private String tag;
 		private String biwWigFile;
 		private String description;
-		private BBFileReader bbFileReader=null;
+		private BufferedBBFileReader bbFileReader=null;
 		private ContigNameConverter contigNameConverter = null;
 		private final Set<String> userContigsNotFound = new HashSet<>();
 		
@@ -157,33 +141,34 @@ public class VCFBigWig extends OnePassVcfLauncher {
 					;}
 		
 		
-		public BigWigResource open()
+		public BigWigResource open(final int bufferSize)
 			{
+			final BBFileReader reader;
 			try {
-				this.bbFileReader= new BBFileReader(this.biwWigFile);
+				reader = new BBFileReader(this.biwWigFile);
 				}
 			catch(final IOException err)
 				{
 				throw new RuntimeIOException("Cannot open "+this.biwWigFile,err);
 				}
-			if(!this.bbFileReader.isBigWigFile())
+			if(!reader.isBigWigFile())
 				{
-				this.bbFileReader=null;
+				reader.close();
 				throw new RuntimeIOException(this.biwWigFile+" is not a bigWIG file. ("+this.getToken()+")");
 				}
-			this.contigNameConverter = ContigNameConverter.fromContigSet(new HashSet<>(this.bbFileReader.getChromosomeNames()));
+			this.bbFileReader = new BufferedBBFileReader(reader, bufferSize);
+			this.contigNameConverter = ContigNameConverter.fromContigSet(new HashSet<>(reader.getChromosomeNames()));
 			return this;
 			}
 		
-		public Iterator<WigItem> iterator(final Locatable locatable,boolean contained)
+		public List<WigItem> query(final Locatable locatable,boolean contained)
 			{
-			return new WigItemIterator(this.bbFileReader.getBigWigIterator(
-					locatable.getContig(),
-					locatable.getStart()-1,
+			return this.bbFileReader.queryWig(
 					locatable.getContig(),
+					locatable.getStart(),
 					locatable.getEnd(),
 					contained
-					));
+					);
 			}
 		
 		@Override
@@ -219,6 +204,9 @@ public class VCFBigWig extends OnePassVcfLauncher {
 	@Parameter(names={"-t","--transform"},description="Deprecated",hidden=true)
 	private String _convertChrName = null;
 
+	@Parameter(names={"--bufferSize"},description=BufferedBBFileReader.OPT_BUFFER_DESC+" "+DistanceParser.OPT_DESCRIPTION,converter=DistanceParser.StringConverter.class,splitter=NoSplitter.class)
+	private int bufferSize = 10_000;
+
 
 		
 
@@ -308,7 +296,7 @@ public class VCFBigWig extends OnePassVcfLauncher {
 					}
 				
 				this.bigwigResources.stream().forEach(BB->{
-					BB.open();
+					BB.open(this.bufferSize);
 					});
 				return 0;
 				}
@@ -368,7 +356,6 @@ public class VCFBigWig extends OnePassVcfLauncher {
 		JVarkitVersion.getInstance().addMetaData(this, h2);
 		w.writeHeader(h2);
 		
-		long count=0L;
 		final List<Float> values = new ArrayList<>();
 		while(r.hasNext())
 			{
@@ -389,13 +376,11 @@ public class VCFBigWig extends OnePassVcfLauncher {
 					}
 				
 				
-				final Iterator<WigItem> iter=rsrc.iterator(
+				for(final WigItem item:rsrc.query(
 						new Interval(variantChrom,ctx.getStart(),ctx.getEnd()),
 						this.contained
-						);
-				while(iter!=null && iter.hasNext())
+						))
 					{
-					final WigItem item=iter.next();
 					final float v=item.getWigValue();
 					values.add(v);
 					if(this.aggregateMethod.equals(AggregateMethod.first)) break;
@@ -434,12 +419,6 @@ public class VCFBigWig extends OnePassVcfLauncher {
 				{
 				w.add(vcb.make());
 				}
-			
-			// JVM crash sometimes ? suspect there is a memory leak ?
-			if(++count%1000L==0)
-				{
-				System.gc();
-				}
 			}
 		w.close();
 		
@@ -40,17 +40,16 @@ import java.util.function.Function;
 
 import org.apache.commons.jexl2.JexlContext;
 import org.broad.igv.bbfile.BBFileReader;
-import org.broad.igv.bbfile.BedFeature;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.bbfile.BigBedFeatureAsList;
+import com.github.lindenb.jvarkit.bbfile.BufferedBBFileReader;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.jcommander.OnePassVcfLauncher;
 import com.github.lindenb.jvarkit.jcommander.converter.FractionConverter;
 import com.github.lindenb.jvarkit.jexl.JexlToString;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.StringUtils;
-import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.bio.DistanceParser;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
@@ -61,7 +60,6 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.CoordMath;
 import htsjdk.samtools.util.IOUtil;
-import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -95,7 +93,7 @@ END_DOC
 	description="Annotate a VCF with values from a bigbed file",
 	keywords={"vcf","wig","wiggle","bigbed","bed"},
 	creationDate="20220107",
-	modificationDate="20220107"
+	modificationDate="20261018"
 	)
 public class VcfBigBed extends OnePassVcfLauncher {
 	private static final Logger LOG = Logger.build(VcfBigBed.class).make();
@@ -107,10 +105,8 @@ public class VcfBigBed extends OnePassVcfLauncher {
 		{
 		private final String tag;
 		private final String biwWigFile;
-		private final BBFileReader bbFileReader;
+		private final BufferedBBFileReader bbFileReader;
 		private final ContigNameConverter contigNameConverter;
-		private Locatable lastInterval = null;
-		private final List<BigBedFeatureAsList> buffer = new ArrayList<>();
 
 		BigBedResource(final String biwWigFile) throws IOException {
 			this.biwWigFile = biwWigFile;
@@ -125,18 +121,18 @@ public class VcfBigBed extends OnePassVcfLauncher {
 				if(i>0)  tag= tag.substring(0,i);
 				//final SeekableStream seek = SeekableStreamFactory.getInstance().getStreamFor(this.biwWigFile);
 				//final SeekableStream buffered = SeekableStreamFactory.getInstance().getBufferedStream(seek,1_000_000);
-				this.bbFileReader = new BBFileReader(this.biwWigFile);
+				this.bbFileReader = new BufferedBBFileReader(new BBFileReader(this.biwWigFile), VcfBigBed.this.bigbedBufferSize);
 				}
 			else
 				{
 				final Path path = Paths.get(this.biwWigFile);
 				IOUtil.assertFileIsReadable(path);
 				tag = IOUtils.getFilenameWithoutCommonSuffixes(path);
-				this.bbFileReader = new BBFileReader(this.biwWigFile);
+				this.bbFileReader = new BufferedBBFileReader(new BBFileReader(this.biwWigFile), VcfBigBed.this.bigbedBufferSize);
 				}
 			this.tag = tag;
 			if(StringUtil.isBlank(this.tag)) throw new JvarkitException.UserError("Bad TAG for "+this.biwWigFile);
-			this.contigNameConverter = ContigNameConverter.fromContigSet(new HashSet<>(this.bbFileReader.getChromosomeNames()));
+			this.contigNameConverter = ContigNameConverter.fromContigSet(new HashSet<>(this.bbFileReader.getDelegate().getChromosomeNames()));
 			}
 		
 	
@@ -150,22 +146,8 @@ public class VcfBigBed extends OnePassVcfLauncher {
 			if(StringUtils.isBlank(variantChrom)) {
 				return Collections.emptyIterator();
 				}
-			if(this.lastInterval==null || !this.lastInterval.contains(ctx)) {
-				this.buffer.clear();
-				this.lastInterval = new SimpleInterval(variantChrom, ctx.getStart(), Math.max(ctx.getEnd(), ctx.getStart()+VcfBigBed.this.bigbedBufferSize));
-				final Iterator<BedFeature> iter = this.bbFileReader.getBigBedIterator(
-						variantChrom,
-						this.lastInterval.getStart()-1,
-						this.lastInterval.getContig(),
-						this.lastInterval.getEnd(),
-						false
-						);
-			
-				while(iter.hasNext()) {
-					this.buffer.add(new BigBedFeatureAsList(iter.next()));
-					}
-				}
-			return this.buffer.stream().
+			return this.bbFileReader.queryBed(variantChrom, ctx.getStart(), ctx.getEnd(), false).stream().
+					map(B->new BigBedFeatureAsList(B)).
 					filter(B->B.overlaps(ctx)).
 					filter(B->testFinerIntersection(ctx,B)).
 					iterator();
@@ -25,11 +25,18 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcflist;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
@@ -44,26 +51,88 @@ import htsjdk.variant.vcf.VCFCodec;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFReader;
 
-/** default implementation of a VcfList */
+/** default implementation of a VcfList. 
+ * The offsets index is memory-mapped, the last decoded variants are kept in a LRU cache.
+ * An instance is not thread-safe, use {@link #duplicate()} to get a view for another thread.
+ */
 class DefaultVcfFileList extends AbstractList<VariantContext>
 	implements VcfList
 	{
 	private static final Logger LOG=Logger.build(DefaultVcfFileList.class).make();
+	/** number of offsets in one mapped segment of the index */
+	private static final int SEGMENT_SHIFT = 27;
+	private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
 
 	private final File vcfFile;
 	private final VCFHeader header;
-	private RandomAccessFile indexio;
+	/** memory-mapped offsets, shared by the views. Use absolute get only. */
+	private final ByteBuffer offsets[];
 	private final BlockCompressedInputStream bgzfin;
-	private final RandomAccessFile vcfrandom;
+	private final BufferedRandomAccessFile vcfrandom;
 	private final VCFCodec codec = new VCFCodec();
 	private final int _size;
+	private final int cacheSize;
+	private final Map<Integer,VariantContext> cache;
 	private int last_list_index = -1;
 	
+	/** buffered line reader for an uncompressed VCF, RandomAccessFile.readLine reads one byte per system call */
+	private static class BufferedRandomAccessFile {
+		private final RandomAccessFile raf;
+		private final byte buffer[] = new byte[65_536];
+		/** file offset of buffer[0] */
+		private long bufferOffset = 0L;
+		private int bufferLength = 0;
+		private int pos = 0;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream(1_000);
+		BufferedRandomAccessFile(final File f) throws IOException {
+			this.raf = new RandomAccessFile(f, "r");
+			}
+		void seek(final long offset) throws IOException {
+			if(offset >= this.bufferOffset && offset < this.bufferOffset + this.bufferLength) {
+				this.pos = (int)(offset - this.bufferOffset);
+				}
+			else
+				{
+				this.raf.seek(offset);
+				this.bufferOffset = offset;
+				this.bufferLength = 0;
+				this.pos = 0;
+				}
+			}
+		private boolean fill() throws IOException {
+			this.bufferOffset += this.bufferLength;
+			this.pos = 0;
+			this.bufferLength = Math.max(0, this.raf.read(this.buffer));
+			return this.bufferLength > 0;
+			}
+		String readLine() throws IOException {
+			this.line.reset();
+			for(;;) {
+				if(this.pos >= this.bufferLength && !fill()) {
+					return this.line.size()==0 ? null : this.line.toString(StandardCharsets.ISO_8859_1.name());
+					}
+				final int start = this.pos;
+				while(this.pos < this.bufferLength && this.buffer[this.pos]!='\n') this.pos++;
+				int end = this.pos;
+				if(this.pos < this.bufferLength) {
+					this.pos++;/* skip '\n' */
+					if(end > start && this.buffer[end-1]=='\r') end--;
+					this.line.write(this.buffer, start, end - start);
+					return this.line.toString(StandardCharsets.ISO_8859_1.name());
+					}
+				this.line.write(this.buffer, start, end - start);
+				}
+			}
+		void close() throws IOException {
+			this.raf.close();
+			}
+		}
+	
 	DefaultVcfFileList(final File vcf) throws IOException {
-		this(vcf,VcfOffsetsIndexFactory.getDefaultIndexFile(vcf));
+		this(vcf,VcfOffsetsIndexFactory.getDefaultIndexFile(vcf),VcfList.DEFAULT_CACHE_SIZE);
 		}
 	
-	DefaultVcfFileList(final File vcf,final File indexFile) throws IOException {
+	DefaultVcfFileList(final File vcf,final File indexFile,final int cacheSize) throws IOException {
 		this.vcfFile = vcf;
 		IOUtil.assertFileIsReadable(indexFile);
 		IOUtil.assertFileIsReadable(this.vcfFile);
@@ -73,6 +142,34 @@ class DefaultVcfFileList extends AbstractList<VariantContext>
 		try (final VCFReader r= VCFReaderFactory.makeDefault().open(this.vcfFile, false)){
 			this.header = r.getHeader();
 			}
+		long fileLength = indexFile.length();
+		if(fileLength< VcfOffsetsIndexFactory.MAGIC.length) {
+			throw new IOException("index file doesn't contain magic header " + indexFile);
+			}
+		fileLength-= VcfOffsetsIndexFactory.MAGIC.length;
+		if(fileLength%Long.BYTES!=0) {
+			throw new IOException("bad index file  " + indexFile);
+			}
+		this._size=(int)(fileLength/Long.BYTES);
+		try(RandomAccessFile indexio = new RandomAccessFile(indexFile, "r")) {
+			final byte magic[]=new byte[VcfOffsetsIndexFactory.MAGIC.length];
+			indexio.readFully(magic);
+			if(!Arrays.equals(magic, VcfOffsetsIndexFactory.MAGIC)) {
+				throw new IOException("bad index file (magic)  " + indexFile);
+				}
+			final FileChannel channel = indexio.getChannel();
+			this.offsets = new ByteBuffer[(this._size + SEGMENT_MASK) >>> SEGMENT_SHIFT];
+			for(int i=0;i< this.offsets.length;i++) {
+				final long first = ((long)i) << SEGMENT_SHIFT;
+				final long count = Math.min(this._size - first, SEGMENT_MASK + 1L);
+				final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+						VcfOffsetsIndexFactory.MAGIC.length + first * Long.BYTES,
+						count * Long.BYTES);
+				this.offsets[i] = mapped;
+				}
+			}
+		this.cacheSize = Math.max(0, cacheSize);
+		this.cache = createCache(this.cacheSize);
 		this.codec.readHeader(VCFUtils.convertVCFHeaderToLineIterator(header));
 		if(vcf.getName().endsWith(".gz"))
 			{
@@ -81,72 +178,103 @@ class DefaultVcfFileList extends AbstractList<VariantContext>
 			}
 		else
 			{
-			this.vcfrandom = new RandomAccessFile(vcf, "r");
+			this.vcfrandom = new BufferedRandomAccessFile(vcf);
 			this.bgzfin = null;
 			}
-		long fileLength = indexFile.length();
-		if(fileLength< VcfOffsetsIndexFactory.MAGIC.length) {
-			close();
-			throw new IOException("index file doesn't contain magic header " + indexFile);
+		}
+	
+	/** creates a view of 'other': shares the header and the offsets, opens its own streams */
+	private DefaultVcfFileList(final DefaultVcfFileList other) throws IOException {
+		this.vcfFile = other.vcfFile;
+		this.header = other.header;
+		this.offsets = new ByteBuffer[other.offsets.length];
+		for(int i=0;i< this.offsets.length;i++) {
+			this.offsets[i] = other.offsets[i].duplicate();
 			}
-		fileLength-= VcfOffsetsIndexFactory.MAGIC.length;
-		if(fileLength%Long.BYTES!=0) {
-			close();
-			throw new IOException("bad index file  " + indexFile);
+		this._size = other._size;
+		this.cacheSize = other.cacheSize;
+		this.cache = createCache(this.cacheSize);
+		this.codec.readHeader(VCFUtils.convertVCFHeaderToLineIterator(header));
+		if(other.bgzfin!=null)
+			{
+			this.bgzfin = new  BlockCompressedInputStream(this.vcfFile);
+			this.vcfrandom = null;
 			}
-		this.indexio = new RandomAccessFile(indexFile, "r");
-		final byte magic[]=new byte[VcfOffsetsIndexFactory.MAGIC.length];
-		this.indexio.readFully(magic);
-		if(!Arrays.equals(magic, VcfOffsetsIndexFactory.MAGIC)) {
-			close();
-			throw new IOException("bad index file (magic)  " + indexFile);
+		else
+			{
+			this.vcfrandom = new BufferedRandomAccessFile(this.vcfFile);
+			this.bgzfin = null;
 			}
-		
-		this._size=(int)(fileLength/Long.BYTES);
 		}
+	
+	private static Map<Integer,VariantContext> createCache(final int cacheSize) {
+		return new LinkedHashMap<Integer,VariantContext>(Math.min(cacheSize,1_000)+1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Integer,VariantContext> eldest) {
+				return size() > cacheSize;
+				}
+			};
+		}
+	
 	@Override
 	public VCFHeader getHeader() {
 		return this.header;
 		}
 	
 	@Override
-	public VariantContext get(final int index) {
-		if(index<0 || index>=this.size()) throw new IndexOutOfBoundsException("0<"+index+"<"+size() +" in "+vcfFile);
-		try {
-			final String line;
-			if(this.last_list_index==-1 || this.last_list_index+1!=index)
-				{
-				this.indexio.seek((long)VcfOffsetsIndexFactory.MAGIC.length+ (long)index*(long)Long.BYTES);
-				final long offset = this.indexio.readLong();
-				
-				if(this.bgzfin!=null) {
-					this.bgzfin.seek(offset);
-					line = this.bgzfin.readLine();
-					}
-				else
-					{
-					this.vcfrandom.seek(offset);
-					line = this.vcfrandom.readLine();
-					}
+	public VcfList duplicate() throws IOException {
+		return new DefaultVcfFileList(this);
+		}
+	
+	/** get the offset of the index-th variant in the VCF */
+	private long getOffset(final int index) {
+		return this.offsets[index >>> SEGMENT_SHIFT].getLong((index & SEGMENT_MASK) * Long.BYTES);
+		}
+	
+	/** read and decode the index-th variant. Sequential reads don't need to seek */
+	private VariantContext read(final int index) throws IOException {
+		if(this.last_list_index==-1 || this.last_list_index+1!=index)
+			{
+			final long offset = getOffset(index);
+			if(this.bgzfin!=null) {
+				this.bgzfin.seek(offset);
 				}
 			else
 				{
-				if(this.bgzfin!=null) {
-					line = this.bgzfin.readLine();
-					}
-				else
-					{
-					line = this.vcfrandom.readLine();
-					}
+				this.vcfrandom.seek(offset);
 				}
-			this.last_list_index = index;
-			return this.codec.decode(line);
+			}
+		final String line = this.bgzfin!=null ? this.bgzfin.readLine() : this.vcfrandom.readLine();
+		this.last_list_index = index;
+		return this.codec.decode(line);
+		}
+	
+	@Override
+	public VariantContext get(final int index) {
+		if(index<0 || index>=this.size()) throw new IndexOutOfBoundsException("0<"+index+"<"+size() +" in "+vcfFile);
+		VariantContext ctx = this.cache.get(index);
+		if(ctx!=null) return ctx;
+		try {
+			ctx = read(index);
 			}
 		catch(final IOException err)
 			{
 			throw new RuntimeIOException(err);
 			}
+		if(this.cacheSize>0) this.cache.put(index, ctx);
+		return ctx;
+		}
+	
+	/** decode the variants in [fromIndex,toIndex) with one sequential read. At most 'cacheSize' variants are loaded */
+	@Override
+	public void prefetch(final int fromIndex,final int toIndex) {
+		final int end = Math.min(Math.min(toIndex, this.size()), Math.max(0, fromIndex) + this.cacheSize);
+		for(int i = Math.max(0, fromIndex); i < end; i++) {
+			get(i);
+			}
 		}
+	
 	@Override
 	public int size() {
 		return this._size;
@@ -154,8 +282,8 @@ class DefaultVcfFileList extends AbstractList<VariantContext>
 	@Override
 	public void close() throws IOException {
 		CloserUtil.close(this.bgzfin);
-		CloserUtil.close(this.vcfrandom);
-		CloserUtil.close(this.indexio);
+		if(this.vcfrandom!=null) this.vcfrandom.close();
+		this.cache.clear();
 		}
 	@Override
 	public String toString() {
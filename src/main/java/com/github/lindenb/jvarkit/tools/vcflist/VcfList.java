@@ -40,12 +40,27 @@ import htsjdk.variant.vcf.VCFHeader;
  *
  */
 public interface VcfList extends List<VariantContext>,Closeable {
+	/** default number of decoded variants kept in memory */
+	public static final int DEFAULT_CACHE_SIZE = 1_000;
 	public VCFHeader getHeader();
+	/** load the variants in [fromIndex,toIndex) in memory, if this list has a cache */
+	public default void prefetch(int fromIndex,int toIndex) {
+		}
+	/** @return a list of the same variants that can be used by another thread. Must be closed. */
+	public VcfList duplicate() throws IOException;
 	public static VcfList fromFile(final File vcfFile ) throws IOException {
 		return fromFile(vcfFile,VcfOffsetsIndexFactory.getDefaultIndexFile(vcfFile));
 		}
 	public static VcfList fromFile(final File vcfFile,final File indexFile) throws IOException {
-		return new DefaultVcfFileList(vcfFile,indexFile);
+		return fromFile(vcfFile,indexFile,DEFAULT_CACHE_SIZE);
+		}
+	/**
+	 * @param vcfFile the vcf file
+	 * @param indexFile the offsets index
+	 * @param cacheSize number of decoded variants kept in memory.
+	 */
+	public static VcfList fromFile(final File vcfFile,final File indexFile,int cacheSize) throws IOException {
+		return new DefaultVcfFileList(vcfFile,indexFile,cacheSize);
 		}
 	public static VcfList from(final VCFHeader header,final List<VariantContext> variants) throws IOException {
 		class Tmp extends AbstractList<VariantContext> implements VcfList
@@ -64,6 +79,8 @@ public interface VcfList extends List<VariantContext>,Closeable {
 			@Override
 			public int size() { return this.variants.size();}
 			@Override
+			public VcfList duplicate() { return this;}
+			@Override
 			public void close() throws IOException {}
 			}
 		return new Tmp(header,variants);
@@ -30,6 +30,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,6 +50,7 @@ import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.iterator.EqualRangeIterator;
+import com.github.lindenb.jvarkit.util.iterator.MergingIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -79,6 +81,9 @@ BEGIN_DOC
 The motivation for this is to merge a large number of VCF files without opening a bunch of temporary files.
 
 For a regular normal number of files you should use  GATK combineVariants or bcftools merge
+
+The VCFs must be sorted on chrom/pos: they're opened at the same time and merged on the fly (check the limit of open files on your system: `ulimit -n`).
+Use `--unsorted` for unsorted VCFs: the variants will be sorted using temporary files.
  
 ## Example
 
@@ -112,7 +117,7 @@ END_DOC
 	description="Merge a large number of VCF Files",
 	keywords={"vcf","sort","merge"},
 	creationDate="20130916",
-	modificationDate="20201209"
+	modificationDate="20261018"
 	)
 public class VCFMerge
 	extends Launcher
@@ -136,6 +141,8 @@ public class VCFMerge
 			VCFConstants.GENOTYPE_ALLELE_DEPTHS,
 			VCFConstants.GENOTYPE_PL_KEY
 			);;
+	@Parameter(names={"--unsorted"},description="The input VCFs are not sorted on chrom/pos: the variants are sorted using a SortingCollection (uses temporary files). Otherwise, the sorted VCFs are merged on the fly, keeping one variant per VCF in memory.")
+	private boolean unsorted_input = false;
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
 	@ParametersDelegate
@@ -150,6 +157,7 @@ public class VCFMerge
 		VariantContextWriter w=null;
 		SortingCollection<VariantContext> array = null;
 		CloseableIterator<VariantContext> iter=null;
+		final List<VCFReader> readers = new ArrayList<>();
 		try
 			{
 			userVcfFiles.addAll(IOUtils.unrollPaths(args));
@@ -262,157 +270,186 @@ public class VCFMerge
 			mergedHeader.setSequenceDictionary(dict);
 			JVarkitVersion.getInstance().addMetaData(this, mergedHeader);
 			
-			array= SortingCollection.newInstance(
-					VariantContext.class,
-					new VCFRecordCodec(mergedHeader),
-					compareChromPosRef,
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
-					);
-			array.setDestructiveIteration(true);
+			/* remove the INFO, the FILTERs and the uncalled genotypes */
+			final Function<VariantContext,VariantContext> simplify = ctx->new VariantContextBuilder(ctx).
+					unfiltered().
+					genotypes(ctx.getGenotypes().stream().filter(G->G.isCalled()).map(G->{
+						final GenotypeBuilder gb= new GenotypeBuilder(G);
+						gb.noAttributes();
+						return gb.make();
+						}).collect(Collectors.toList())).
+					rmAttributes(new ArrayList<>(ctx.getAttributes().keySet())).make();
 			
-			for(final Path vcfFile:userVcfFiles) {
-				try(VCFReader in= VCFReaderFactory.makeDefault().open(vcfFile,requireIndex)){
-					try(CloseableIterator<VariantContext> lit=(in.isQueryable() && rgn!=null ?in.query(rgn):in.iterator())) {
-						while(lit.hasNext())
-							{					
-							final VariantContext  ctx = lit.next();
-							if(!accept.test(ctx)) continue;
-							array.add(new VariantContextBuilder(ctx).
-									unfiltered().
-									genotypes(ctx.getGenotypes().stream().filter(G->G.isCalled()).map(G->{
-										final GenotypeBuilder gb= new GenotypeBuilder(G);
-										gb.noAttributes();
-										return gb.make();
-										}).collect(Collectors.toList())).
-									rmAttributes(new ArrayList<>(ctx.getAttributes().keySet())).make());
+			if(this.unsorted_input) {
+				array= SortingCollection.newInstance(
+						VariantContext.class,
+						new VCFRecordCodec(mergedHeader),
+						compareChromPosRef,
+						this.writingSortingCollection.getMaxRecordsInRam(),
+						this.writingSortingCollection.getTmpPaths()
+						);
+				array.setDestructiveIteration(true);
+				
+				for(final Path vcfFile:userVcfFiles) {
+					try(VCFReader in= VCFReaderFactory.makeDefault().open(vcfFile,requireIndex)){
+						try(CloseableIterator<VariantContext> lit=(in.isQueryable() && rgn!=null ?in.query(rgn):in.iterator())) {
+							while(lit.hasNext())
+								{					
+								final VariantContext  ctx = lit.next();
+								if(!accept.test(ctx)) continue;
+								array.add(simplify.apply(ctx));
+								}
 							}
 						}
-		
 					}
+				array.doneAdding();
+				iter= array.iterator();
+				}
+			else
+				{
+				/* k-way merge of the sorted VCFs */
+				final List<Iterator<VariantContext>> iterators = new ArrayList<>(userVcfFiles.size());
+				for(final Path vcfFile:userVcfFiles) {
+					final VCFReader in= VCFReaderFactory.makeDefault().open(vcfFile,requireIndex);
+					readers.add(in);
+					final CloseableIterator<VariantContext> lit=(in.isQueryable() && rgn!=null ?in.query(rgn):in.iterator());
+					iterators.add(lit.stream().filter(accept).map(simplify).iterator());
+					}
+				iter = new MergingIterator<>(compareChromPos, iterators);
 				}
-			array.doneAdding();
 			LOG.info("merging..."+userVcfFiles.size()+" vcfs");
 	
-			
-	
 			//create the context writer
 			w= this.writingVariantsDelegate.open(outputFile);
 			w.writeHeader(mergedHeader);
-			iter= array.iterator();
-			EqualRangeIterator<VariantContext> eqiter = new EqualRangeIterator<>(iter, compareChromPosRef);
+			final EqualRangeIterator<VariantContext> eqiter = new EqualRangeIterator<>(iter, compareChromPos);
 			while(eqiter.hasNext())
 				{
-				final List<VariantContext> row = eqiter.next();
-				final VariantContext first = row.get(0);
-				final List<Allele> alleles = new ArrayList<>();
-				alleles.add(first.getReference());
-				alleles.addAll(row.stream().flatMap(VC->VC.getAlternateAlleles().stream()).
-						filter(A->!A.isNoCall()).
-						collect(Collectors.toSet()));
-				final VariantContextBuilder vcb=new VariantContextBuilder(
-						null,
-						first.getContig(),
-						first.getStart(),
-						first.getEnd(),
-						alleles
-						);
-				final String id = row.stream().filter(V->V.hasID()).map(ST->ST.getID()).findFirst().orElse(null);
-				if(!StringUtils.isBlank(id)) {
-					vcb.id(id);
-				}
+				/* variants at the same chrom/pos, split them by REF */
+				final List<VariantContext> sameChromPos = new ArrayList<>(eqiter.next());
+				sameChromPos.sort((V1,V2)->V1.getReference().compareTo(V2.getReference()));
+				int row_start = 0;
+				while(row_start < sameChromPos.size())
+					{
+					int row_end = row_start + 1;
+					while(row_end < sameChromPos.size() && compareChromPosRef.compare(sameChromPos.get(row_start), sameChromPos.get(row_end))==0) {
+						row_end++;
+						}
+					final List<VariantContext> row = sameChromPos.subList(row_start, row_end);
+					row_start = row_end;
+					final VariantContext first = row.get(0);
+					final List<Allele> alleles = new ArrayList<>();
+					alleles.add(first.getReference());
+					alleles.addAll(row.stream().flatMap(VC->VC.getAlternateAlleles().stream()).
+							filter(A->!A.isNoCall()).
+							collect(Collectors.toSet()));
+					final VariantContextBuilder vcb=new VariantContextBuilder(
+							null,
+							first.getContig(),
+							first.getStart(),
+							first.getEnd(),
+							alleles
+							);
+					final String id = row.stream().filter(V->V.hasID()).map(ST->ST.getID()).findFirst().orElse(null);
+					if(!StringUtils.isBlank(id)) {
+						vcb.id(id);
+					}
 				
-				final Map<String,Genotype> sample2genotypes = new HashMap<>(genotypeSampleNames.size());
-				final Set<String> remainingSamples=new HashSet<String>(genotypeSampleNames);
-				int an=0;
-				int dp=-1;
-				final Counter<Allele> ac = new Counter<>();
+					final Map<String,Genotype> sample2genotypes = new HashMap<>(genotypeSampleNames.size());
+					final Set<String> remainingSamples=new HashSet<String>(genotypeSampleNames);
+					int an=0;
+					int dp=-1;
+					final Counter<Allele> ac = new Counter<>();
 				
-				for(final VariantContext ctx:row)
-					{
-					for(final Genotype gt:ctx.getGenotypes()) {
-						if(gt.isNoCall()) continue;
-						for(Allele a: gt.getAlleles()) {
-							ac.incr(a);
-							an++;
+					for(final VariantContext ctx:row)
+						{
+						for(final Genotype gt:ctx.getGenotypes()) {
+							if(gt.isNoCall()) continue;
+							for(Allele a: gt.getAlleles()) {
+								ac.incr(a);
+								an++;
+								}
+							final GenotypeBuilder gb=new GenotypeBuilder(gt.getSampleName(), gt.getAlleles());
+							if(with_dp && gt.hasDP()) {
+								if(dp<0) dp=0;
+								dp+= gt.getDP();
+								gb.DP(gt.getDP());
 							}
-						final GenotypeBuilder gb=new GenotypeBuilder(gt.getSampleName(), gt.getAlleles());
-						if(with_dp && gt.hasDP()) {
-							if(dp<0) dp=0;
-							dp+= gt.getDP();
-							gb.DP(gt.getDP());
-						}
-						if(with_gq && gt.hasGQ()) gb.GQ(gt.getGQ());
-						if(with_pl && gt.hasPL()) gb.PL(gt.getPL());
-						if(with_ad && gt.hasAD()) {
-							final int src_ad[]= gt.getAD();
-							final int dest_ad[]= new int[alleles.size()];
-							Arrays.fill(dest_ad, 0);
-							for(int i=0;i< src_ad.length && i< ctx.getAlleles().size();i++) {
-								final Allele a1 = ctx.getAlleles().get(i);
-								final int dest_idx = alleles.indexOf(a1);
-								if(dest_idx>=0 && dest_idx < dest_ad.length) {
-									dest_ad[dest_idx] = src_ad[i];
+							if(with_gq && gt.hasGQ()) gb.GQ(gt.getGQ());
+							if(with_pl && gt.hasPL()) gb.PL(gt.getPL());
+							if(with_ad && gt.hasAD()) {
+								final int src_ad[]= gt.getAD();
+								final int dest_ad[]= new int[alleles.size()];
+								Arrays.fill(dest_ad, 0);
+								for(int i=0;i< src_ad.length && i< ctx.getAlleles().size();i++) {
+									final Allele a1 = ctx.getAlleles().get(i);
+									final int dest_idx = alleles.indexOf(a1);
+									if(dest_idx>=0 && dest_idx < dest_ad.length) {
+										dest_ad[dest_idx] = src_ad[i];
+									}
+								gb.AD(dest_ad);
 								}
-							gb.AD(dest_ad);
 							}
-						}
-						sample2genotypes.put(gt.getSampleName(), gb.make());
-						}
+							sample2genotypes.put(gt.getSampleName(), gb.make());
+							}
 					
-					}
-				remainingSamples.removeAll(sample2genotypes.keySet());
-				for(String sampleName:remainingSamples)
-					{
-					final Genotype gt;
-					if(this.useHomRefForUnknown)
-						{
-						final List<Allele> list = new ArrayList<>(ploidy);
-						for(int i=0;i<ploidy;i++) list.add(first.getReference());
-						an+=ploidy;
-						gt= GenotypeBuilder.create(sampleName, list);
 						}
-					else
+					remainingSamples.removeAll(sample2genotypes.keySet());
+					for(String sampleName:remainingSamples)
 						{
-						gt = GenotypeBuilder.createMissing(sampleName,this.ploidy);
-						}	
+						final Genotype gt;
+						if(this.useHomRefForUnknown)
+							{
+							final List<Allele> list = new ArrayList<>(ploidy);
+							for(int i=0;i<ploidy;i++) list.add(first.getReference());
+							an+=ploidy;
+							gt= GenotypeBuilder.create(sampleName, list);
+							}
+						else
+							{
+							gt = GenotypeBuilder.createMissing(sampleName,this.ploidy);
+							}	
 					
-					sample2genotypes.put(sampleName,gt);
-					}
-				if(with_an) vcb.attribute(VCFConstants.ALLELE_NUMBER_KEY, an);
-				if(with_ac) vcb.attribute(VCFConstants.ALLELE_COUNT_KEY, 
-						alleles.subList(1, alleles.size()).stream().mapToInt(A->(int)ac.count(A)).toArray()
-						);
-
-				if(with_af && an>0) {
-					final double finalAn = an;
-					vcb.attribute(VCFConstants.ALLELE_FREQUENCY_KEY, 
-							alleles.subList(1, alleles.size()).stream().mapToDouble(A->ac.count(A)/finalAn).toArray()
+						sample2genotypes.put(sampleName,gt);
+						}
+					if(with_an) vcb.attribute(VCFConstants.ALLELE_NUMBER_KEY, an);
+					if(with_ac) vcb.attribute(VCFConstants.ALLELE_COUNT_KEY, 
+							alleles.subList(1, alleles.size()).stream().mapToInt(A->(int)ac.count(A)).toArray()
 							);
 
-					}
-				if(with_dp && dp>=0) {
-					vcb.attribute(VCFConstants.DEPTH_KEY,dp);
-					}
-				vcb.genotypes(sample2genotypes.values());
+					if(with_af && an>0) {
+						final double finalAn = an;
+						vcb.attribute(VCFConstants.ALLELE_FREQUENCY_KEY, 
+								alleles.subList(1, alleles.size()).stream().mapToDouble(A->ac.count(A)/finalAn).toArray()
+								);
+
+						}
+					if(with_dp && dp>=0) {
+						vcb.attribute(VCFConstants.DEPTH_KEY,dp);
+						}
+					vcb.genotypes(sample2genotypes.values());
 				
-				w.add(vcb.make());
+					w.add(vcb.make());
+					}
 				}
 			eqiter.close();
 			
 			CloserUtil.close(w);w=null;
-			array.cleanup();array=null;
+			if(array!=null) array.cleanup();
+			array=null;
 			CloserUtil.close(iter);iter=null;
 			return 0;
 			}
 		catch(Throwable err) {
 			LOG.error(err);
+			if(!this.unsorted_input) LOG.error("If the input VCFs are not sorted, use option --unsorted");
 			return -1;
 			}
 		finally
 			{
 			CloserUtil.close(w);
 			CloserUtil.close(iter);
+			CloserUtil.close(readers);
 			if(array!=null) array.cleanup();
 			}
 		}
@@ -24,7 +24,9 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfpolyx;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.function.Consumer;
 
 
 import htsjdk.samtools.reference.ReferenceSequenceFile;
@@ -32,7 +34,6 @@ import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFFilterHeaderLine;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLineType;
@@ -48,8 +49,7 @@ import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
-
-import htsjdk.variant.vcf.VCFIterator;
+import com.github.lindenb.jvarkit.variant.variantcontext.VariantPipeline;
 
 /*
 BEGIN_DOC
@@ -65,6 +65,10 @@ $ java  -jar dist/vcfpolyx.jar -R reference.fa input.vcf
 (...)
 ```
 
+## Multi-threading
+
+The variants can be annotated using several threads with `--threads`. The order of the variants is preserved.
+
 ## Cited in:
 
   * "Multiscale heterogeneity in gastric adenocarcinomaevolution is an obstacle to precision medicine" https://assets.researchsquare.com/files/rs-62554/v1/7883b5d6-a5e6-4d39-8554-e9fef719ac42.pdf
@@ -76,7 +80,7 @@ END_DOC
 	description="Number of repeated REF bases around POS.",
 	keywords={"vcf","repeat"},
 	creationDate="20200930",
-	modificationDate="20211102"
+	modificationDate="20261018"
 	)
 public class VCFPolyX extends OnePassVcfLauncher
 	{
@@ -90,6 +94,8 @@ public class VCFPolyX extends OnePassVcfLauncher
 	private Path faixPath = null;
 	@Parameter(names={"--skip-filtered"},description="Don't spend some time to calculate the tag if the variant is FILTERed")
 	private boolean skip_filtered=false;
+	@Parameter(names={"--threads"},description="Number of threads used to annotate the variants. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
 	
 	@Override
 	protected Logger getLogger() {
@@ -97,126 +103,141 @@ public class VCFPolyX extends OnePassVcfLauncher
 		}
 	
 	@Override
-	protected int doVcfToVcf(
-			final String inputName,
-			final VCFIterator r,
-			final VariantContextWriter w
-			) 
-		{
+	protected int getPipelineThreads() {
+		return this.nThreads;
+		}
+	
+	/** computes the POLYX of each variant. Each thread owns its own reference */
+	private class PolyXTransformer implements VariantPipeline.Transformer {
+		private final VCFInfoHeaderLine infoHeaderLine;
+		private final VCFFilterHeaderLine filterHeaderLine;
+		private final ReferenceSequenceFile referenceSequenceFile;
+		private final ContigNameConverter contigNameConverter;
+		private ChromosomeSequence genomicContig = null;
 		
-		if(StringUtil.isBlank(this.polyXtag)) {
-			LOG.error("Empty tag");
-			return -1;
+		PolyXTransformer(final VCFInfoHeaderLine infoHeaderLine,final VCFFilterHeaderLine filterHeaderLine) {
+			this.infoHeaderLine = infoHeaderLine;
+			this.filterHeaderLine = filterHeaderLine;
+			this.referenceSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(VCFPolyX.this.faixPath);
+			this.contigNameConverter = ContigNameConverter.fromOneDictionary(SequenceDictionaryUtils.extractRequired(this.referenceSequenceFile));
 			}
 		
-		try
-			{
-			try(ReferenceSequenceFile  referenceSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faixPath)) {
-				
-				final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(SequenceDictionaryUtils.extractRequired(referenceSequenceFile));
-	
-				
-				final VCFHeader h2 = new VCFHeader(r.getHeader());
-		
-				final VCFInfoHeaderLine infoHeaderLine = new VCFInfoHeaderLine(
-						this.polyXtag.trim(),
-						1,
-						VCFHeaderLineType.Integer,
-						"Number of repeated bases around REF")
-						;
-				h2.addMetaDataLine(infoHeaderLine);
-	
-				final VCFFilterHeaderLine filterHeaderLine = new VCFFilterHeaderLine(
-						infoHeaderLine.getID()+"_ge_"+this.filterTrehsold,
-						"Number of repeated bases around REF is greater or equal to " + this.filterTrehsold
-						);
-				
-				if( this.filterTrehsold>-1) {
-					h2.addMetaDataLine(filterHeaderLine);
+		@Override
+		public void apply(final VariantContext ctx,final Consumer<VariantContext> out) {
+			if(skip_filtered && ctx.isFiltered())
+				{
+				out.accept(ctx);
+				return;
+				}
+			
+			final String normalizedContig = this.contigNameConverter.apply(ctx.getContig());
+			if(StringUtils.isBlank(normalizedContig)) {
+				out.accept(ctx);
+				return;
+				}
+			
+			if(this.genomicContig==null || !this.genomicContig.hasName(normalizedContig))
+				{
+				this.genomicContig= new GenomicSequence(this.referenceSequenceFile, normalizedContig);
+				}
+			
+			final VariantContextBuilder b = new VariantContextBuilder(ctx);
+
+			// https://github.com/lindenb/jvarkit/issues/165
+			final boolean indel_flag = ctx.isIndel();
+			
+			int count=1;
+			int pos0 = ctx.getStart()-1;
+			// https://github.com/lindenb/jvarkit/issues/165
+			if(indel_flag) {
+				pos0++;
+				}
+			char c0 = Character.toUpperCase(this.genomicContig.charAt(pos0));
+			//go left
+			pos0--;
+			while(pos0>=0 && c0==Character.toUpperCase(this.genomicContig.charAt(pos0)))
+				{
+				++count;
+				pos0--;
+				}
+			//go right
+			pos0 = ctx.getEnd()-1;
+			// https://github.com/lindenb/jvarkit/issues/165
+			if(indel_flag) {
+				pos0++;
+				}
+			
+			c0 = Character.toUpperCase(this.genomicContig.charAt(pos0));
+			pos0++;
+			while(pos0< this.genomicContig.length()
+				&& c0==Character.toUpperCase(this.genomicContig.charAt(pos0)))
+				{
+				++count;
+				++pos0;
+				}
+			b.attribute(this.infoHeaderLine.getID(),count);
+			
+			/* filter */
+			if(filterTrehsold>-1 )
+				{
+				if(count>=filterTrehsold) {
+					b.filter(this.filterHeaderLine.getID());
 					}
-				ChromosomeSequence genomicContig=null;
-				JVarkitVersion.getInstance().addMetaData(this, h2);
-				w.writeHeader(h2);
-				while(r.hasNext())
-					{
-					final VariantContext ctx = r.next();
-					if(this.skip_filtered && ctx.isFiltered())
-						{
-						w.add(ctx);
-						continue;
-						}
-					
-					final String normalizedContig = contigNameConverter.apply(ctx.getContig());
-					if(StringUtils.isBlank(normalizedContig)) {
-						w.add(ctx);
-						continue;
-						}
-					
-					if(genomicContig==null || !genomicContig.hasName(normalizedContig))
-						{
-						genomicContig= new GenomicSequence(referenceSequenceFile, normalizedContig);
-						}
-					
-					final VariantContextBuilder b = new VariantContextBuilder(ctx);
-	
-					// https://github.com/lindenb/jvarkit/issues/165
-					final boolean indel_flag = ctx.isIndel();
-					
-					int count=1;
-					int pos0 = ctx.getStart()-1;
-					// https://github.com/lindenb/jvarkit/issues/165
-					if(indel_flag) {
-						pos0++;
-						}
-					char c0 = Character.toUpperCase(genomicContig.charAt(pos0));
-					//go left
-					pos0--;
-					while(pos0>=0 && c0==Character.toUpperCase(genomicContig.charAt(pos0)))
-						{
-						++count;
-						pos0--;
-						}
-					//go right
-					pos0 = ctx.getEnd()-1;
-					// https://github.com/lindenb/jvarkit/issues/165
-					if(indel_flag) {
-						pos0++;
-						}
-					
-					c0 = Character.toUpperCase(genomicContig.charAt(pos0));
-					pos0++;
-					while(pos0< genomicContig.length()
-						&& c0==Character.toUpperCase(genomicContig.charAt(pos0)))
-						{
-						++count;
-						++pos0;
-						}
-					b.attribute(infoHeaderLine.getID(),count);
-					
-					/* filter */
-					if(this.filterTrehsold>-1 )
-						{
-						if(count>=this.filterTrehsold) {
-							b.filter(filterHeaderLine.getID());
-							}
-						else if(!ctx.isFiltered()) {
-							b.passFilters();
-							}
-						}
-					
-					w.add(b.make());			
+				else if(!ctx.isFiltered()) {
+					b.passFilters();
 					}
-				w.close();
 				}
-			return 0;
+			
+			out.accept(b.make());
+			}
+		
+		@Override
+		public void close() throws IOException {
+			this.referenceSequenceFile.close();
 			}
-		catch(final Throwable err) {
-			LOG.error(err);
+		}
+	
+	@Override
+	protected int beforeVcf() {
+		if(StringUtil.isBlank(this.polyXtag)) {
+			LOG.error("Empty tag");
 			return -1;
 			}
-		finally
-			{
+		return 0;
+		}
+	
+	@Override
+	protected VariantPipeline createVariantPipeline(final VCFHeader header) {
+		final VCFHeader h2 = new VCFHeader(header);
+
+		final VCFInfoHeaderLine infoHeaderLine = new VCFInfoHeaderLine(
+				this.polyXtag.trim(),
+				1,
+				VCFHeaderLineType.Integer,
+				"Number of repeated bases around REF")
+				;
+		h2.addMetaDataLine(infoHeaderLine);
+
+		final VCFFilterHeaderLine filterHeaderLine = new VCFFilterHeaderLine(
+				infoHeaderLine.getID()+"_ge_"+this.filterTrehsold,
+				"Number of repeated bases around REF is greater or equal to " + this.filterTrehsold
+				);
+		
+		if( this.filterTrehsold>-1) {
+			h2.addMetaDataLine(filterHeaderLine);
 			}
+		JVarkitVersion.getInstance().addMetaData(this, h2);
+		
+		return new VariantPipeline() {
+			@Override
+			public VCFHeader getOutputHeader() {
+				return h2;
+				}
+			@Override
+			public Transformer createTransformer() {
+				return new PolyXTransformer(infoHeaderLine, filterHeaderLine);
+				}
+			};
 		}
 
 	public static void main(final String[] args)
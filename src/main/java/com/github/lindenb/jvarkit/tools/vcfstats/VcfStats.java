@@ -26,16 +26,21 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -47,14 +52,18 @@ import com.github.lindenb.jvarkit.lang.CharSplitter;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.Pair;
 import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.math.LongHistogram;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.variant.vcf.VCFReaderFactory;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
@@ -65,17 +74,23 @@ import htsjdk.variant.vcf.VCFConstants;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFIterator;
 import htsjdk.variant.vcf.VCFIteratorBuilder;
+import htsjdk.variant.vcf.VCFReader;
 /*
 BEGIN_DOC
 
 rewritten from scratch 2022
 
+## Threads
+
+With `--threads` greater than 1, the input must be an indexed VCF file. Each contig of the dictionary
+is processed in its own thread and the statistics of the contigs are merged at the end.
+
 END_DOC
  */
 @Program(name="vcfstats",
 	description="Produce VCF statitics",
 	keywords={"vcf","stats","R"},
-	modificationDate = "20220509",
+	modificationDate = "20261018",
 	creationDate = "20131212"
 	)
 public class VcfStats extends Launcher {
@@ -94,6 +109,8 @@ public class VcfStats extends Launcher {
 	private boolean list_modules = false;	
 	@Parameter(names={"--prefix"},description="file refix")
 	private String prefix = "";
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, the input must be an indexed VCF and the contigs are processed in parallel.")
+	private int nThreads = 1;
 	@DynamicParameter(names={"-D"},description="other parameters.")
 	private Map<String,String> __dynaParams = new HashMap<>();
 
@@ -108,6 +125,10 @@ public class VcfStats extends Launcher {
 		void init(VCFHeader h);
 		void visit(final VariantContext ctx);
 		void finish(PrintWriter pw);
+		/** merge the data of another analyzer of the same class */
+		void merge(Analyzer other);
+		/** @return a new empty analyzer of the same class, sharing the (read-only) state loaded by {@link #init(VCFHeader)} */
+		Analyzer newShard();
 		public String getName();
 		public String getDescription();
 		public boolean isEnabled();
@@ -118,6 +139,11 @@ public class VcfStats extends Launcher {
 		public boolean isEnabled() {
 			return enabled;
 			}
+		/** copy the state loaded by init() into 'other' */
+		protected <T extends AbstractAnalyzer> T shareState(final T other) {
+			other.enabled = this.enabled;
+			return other;
+			}
 		public String device() {
 			return device(-1);
 			}
@@ -138,15 +164,26 @@ public class VcfStats extends Launcher {
 			}	
 		}
 	
-	private abstract class AbstractBoxPlot<H extends Number> extends AbstractAnalyzer {
-		private final Map<String, List<H>> cat2values= new HashMap<>();
-		protected void add(final String cat,H value) {
-			List<H> l = cat2values.get(cat);
-			if(l==null) {
-				l=new ArrayList<>();
-				cat2values.put(cat, l);
+	private abstract class AbstractBoxPlot extends AbstractAnalyzer {
+		private final Map<String, LongHistogram> cat2values= new HashMap<>();
+		protected void add(final String cat,long value) {
+			LongHistogram h = cat2values.get(cat);
+			if(h==null) {
+				h=new LongHistogram();
+				cat2values.put(cat, h);
 				}	
-			l.add(value);
+			h.add(value);
+			}
+		@Override
+		public void merge(final Analyzer other) {
+			for(Map.Entry<String, LongHistogram> kv: AbstractBoxPlot.class.cast(other).cat2values.entrySet()) {
+				LongHistogram h = cat2values.get(kv.getKey());
+				if(h==null) {
+					h=new LongHistogram();
+					cat2values.put(kv.getKey(), h);
+					}
+				h.add(kv.getValue());
+				}
 			}
 		public String getTitle() { return getName();}
 		public String getSubTitle() { return getDescription();}
@@ -154,16 +191,17 @@ public class VcfStats extends Launcher {
 
 		@Override
 		public void finish(PrintWriter w) {
+			if(cat2values.isEmpty()) return;
 			w.println(device());
 			final List<String> phenotypes = new ArrayList<>(cat2values.keySet());
 			for(int i=0;i< phenotypes.size();i++) {
-				final String phenotype = phenotypes.get(i);
-				w.println("p"+i+" <- c("+
-					cat2values.get(phenotype).
-						stream().
-						map(X->String.valueOf(X)).
-						collect(Collectors.joining(",")) +
-					")");
+				final LongHistogram h = cat2values.get(phenotypes.get(i));
+				final long[] values = h.getValues();
+				w.println("p"+i+" <- rep(c("+
+					Arrays.stream(values).mapToObj(X->String.valueOf(X)).collect(Collectors.joining(",")) +
+					"),c("+
+					Arrays.stream(values).mapToObj(X->String.valueOf(h.count(X))).collect(Collectors.joining(",")) +
+					"))");
 				}
 			w.println("boxplot("+
 				IntStream.range(0, phenotypes.size()).mapToObj(X->"p"+X).collect(Collectors.joining(","))+","+
@@ -188,6 +226,11 @@ public class VcfStats extends Launcher {
 		protected void add(final H value) {
 			counter.incr(value);
 			}
+		@SuppressWarnings("unchecked")
+		@Override
+		public void merge(final Analyzer other) {
+			this.counter.putAll(((AbstractSimpleBarPlot<H>)other).counter);
+			}
 		
 		@Override
 		public void finish(PrintWriter w) {
@@ -222,6 +265,21 @@ public class VcfStats extends Launcher {
 			t.incr(v);
 			distinct_vertical.add(v);
 			}
+		/** the keys of 'other' are inserted after ours, so the order is the same as a sequential run when the shards are merged in the order of the input */
+		@SuppressWarnings("unchecked")
+		@Override
+		public void merge(final Analyzer other) {
+			final AbstractMultipleBarPlot<H,V> o = (AbstractMultipleBarPlot<H,V>)other;
+			for(final Map.Entry<H,Counter<V>> kv: o.horiz2counts.entrySet()) {
+				Counter<V> t = horiz2counts.get(kv.getKey());
+				if(t==null) {
+					t=new Counter<>();
+					horiz2counts.put(kv.getKey(), t);
+					}
+				t.putAll(kv.getValue());
+				}
+			distinct_vertical.addAll(o.distinct_vertical);
+			}
 		protected boolean isBeside() {
 			return false;
 			}
@@ -272,6 +330,10 @@ public class VcfStats extends Launcher {
 			this.enabled = h.hasGenotypingData();
 			}
 		@Override
+		public Analyzer newShard() {
+			return shareState(new Singleton());
+			}
+		@Override
 		public void visit(VariantContext ctx) {
 			Genotype single = null;
 			for(Genotype g:ctx.getGenotypes()) {
@@ -301,6 +363,10 @@ public class VcfStats extends Launcher {
 			this.enabled = h.getInfoHeaderLine(VCFConstants.SVTYPE)!=null;
 			}
 		@Override
+		public Analyzer newShard() {
+			return shareState(new SVTypeContig());
+			}
+		@Override
 		public void visit(VariantContext ctx) {
 			final String svType = ctx.getAttributeAsString(VCFConstants.SVTYPE, null);
 			if(StringUtils.isBlank(svType)) return;
@@ -325,6 +391,10 @@ public class VcfStats extends Launcher {
 			this.enabled = h.hasGenotypingData();
 			}
 		@Override
+		public Analyzer newShard() {
+			return shareState(new Sample2GTType());
+			}
+		@Override
 		public void visit(VariantContext ctx) {
 			for(final Genotype gt: ctx.getGenotypes()) {
 				super.add(gt.getSampleName(), gt.getType());	
@@ -342,12 +412,16 @@ public class VcfStats extends Launcher {
 			}
 		}
 	/*********************************************************************/
-	private class SVLen extends AbstractBoxPlot<Integer> {
+	private class SVLen extends AbstractBoxPlot {
 		@Override
 		public void init(VCFHeader h) {
 			this.enabled = h.getInfoHeaderLine(VCFConstants.SVTYPE)!=null;
 			}
 		@Override
+		public Analyzer newShard() {
+			return shareState(new SVLen());
+			}
+		@Override
 		public String getName() {
 			return "SVLEN";
 			}
@@ -360,7 +434,7 @@ public class VcfStats extends Launcher {
 		}
 	/*********************************************************************/
 	private class SVOverlap1 extends AbstractMultipleBarPlot<String,Integer> {
-		private final IntervalTreeMap<Locatable> gnomadTreeMap = new IntervalTreeMap<>();
+		private IntervalTreeMap<Locatable> gnomadTreeMap = new IntervalTreeMap<>();
 		private String gnomadSource;
 		@Override
 		public void init(VCFHeader h) {
@@ -383,8 +457,14 @@ public class VcfStats extends Launcher {
 				LOG.error(err);
 				this.enabled=false;
 				}
-			
-			
+			}
+		@Override
+		public Analyzer newShard() {
+			final SVOverlap1 other = shareState(new SVOverlap1());
+			/* the external database is loaded once and shared by the shards */
+			other.gnomadSource = this.gnomadSource;
+			other.gnomadTreeMap = this.gnomadTreeMap;
+			return other;
 			}
 		@Override
 		public String getName() {
@@ -441,21 +521,86 @@ public class VcfStats extends Launcher {
 	}
 	
 	
-	@Override
-	public int doWork(final List<String> args) {
+	private List<Analyzer> createModules() {
 		final List<Analyzer> modules =new ArrayList<>();
 		modules.add(new Singleton());
 		modules.add(new Sample2GTType());
 		modules.add(new SVTypeContig());
 		modules.add(new SVLen());
-		final String input = oneFileOrNull(args);
-		
 		// remove modules
 		modules.removeIf(M->Arrays.stream(this.moduleExcludeStr.split("[,; \t:]")).anyMatch(S->S.equalsIgnoreCase(M.getName())));
+		return modules;
+		}
+	
+	private List<Analyzer> initModules(final VCFHeader header) {
+		final List<Analyzer> modules = createModules();
+		for(Analyzer analyzer:modules) {
+			analyzer.init(header);
+			}
+		modules.removeIf(M->!M.isEnabled());
+		return modules;
+		}
+	
+	/** process each contig of an indexed VCF in a separate thread, merge the analyzers in the order of the dictionary */
+	private List<Analyzer> runSharded(final Path vcfPath) throws Exception {
+		final VCFHeader header;
+		final List<SAMSequenceRecord> contigs = new ArrayList<>();
+		try(VCFReader reader = VCFReaderFactory.makeDefault().open(vcfPath, true)) {
+			header = reader.getHeader();
+			final SAMSequenceDictionary dict = SequenceDictionaryUtils.extractRequired(header);
+			// skip the contigs without variant in the index
+			for(final SAMSequenceRecord ssr: dict.getSequences()) {
+				try(CloseableIterator<VariantContext> iter = reader.query(ssr)) {
+					if(iter.hasNext()) contigs.add(ssr);
+					}
+				}
+			}
+		// modules are initialized once, the shards only get their own counters
+		final List<Analyzer> modules = initModules(header);
+		final ExecutorService executor = Executors.newFixedThreadPool(this.nThreads);
+		try {
+			final List<Future<Map<Analyzer,Analyzer>>> shards = new ArrayList<>(contigs.size());
+			for(final SAMSequenceRecord ssr: contigs) {
+				final Map<Analyzer,Analyzer> module2shard = new IdentityHashMap<>(modules.size());
+				for(Analyzer analyzer:modules) {
+					module2shard.put(analyzer, analyzer.newShard());
+					}
+				shards.add(executor.submit(()->{
+					try(VCFReader reader = VCFReaderFactory.makeDefault().open(vcfPath, true)) {
+						try(CloseableIterator<VariantContext> iter = reader.query(ssr)) {
+							while(iter.hasNext()) {
+								final VariantContext ctx = iter.next();
+								for(Analyzer analyzer:module2shard.values()) {
+									analyzer.visit(ctx);
+									}
+								}
+							}
+						}
+					return module2shard;
+					}));
+				}
+			for(final Future<Map<Analyzer,Analyzer>> shard: shards) {
+				final Map<Analyzer,Analyzer> module2shard = shard.get();
+				for(Analyzer analyzer:modules) {
+					analyzer.merge(module2shard.get(analyzer));
+					}
+				}
+			return modules;
+			}
+		finally
+			{
+			executor.shutdownNow();
+			}
+		}
+	
+	@Override
+	public int doWork(final List<String> args) {
+		final String input = oneFileOrNull(args);
+		
 		try {
 			if(this.list_modules) {
 				try(PrintWriter w = super.openPathOrStdoutAsPrintWriter(this.outputFile)) {
-					for(Analyzer analyzer:modules) {
+					for(Analyzer analyzer:createModules()) {
 						w.print(analyzer.getName());
 						w.print("\t");
 						w.println(analyzer.getDescription());
@@ -465,17 +610,24 @@ public class VcfStats extends Launcher {
 				return 0;
 				}
 		
-		
-		try(VCFIterator iter= super.openVCFIterator(oneFileOrNull(args))) {	
-			final VCFHeader header=iter.getHeader();
-			for(Analyzer analyzer:modules) {
-				analyzer.init(header);
+			final List<Analyzer> modules;
+			if(this.nThreads>1) {
+				if(input==null) {
+					LOG.error("an indexed VCF file is required when using more than one thread.");
+					return -1;
+					}
+				modules = runSharded(Paths.get(input));
 				}
-			modules.removeIf(M->!M.isEnabled());
-			while(iter.hasNext()) {
-				final VariantContext ctx = iter.next();
-				for(Analyzer analyzer:modules) {
-					analyzer.visit(ctx);
+			else
+				{
+				try(VCFIterator iter= super.openVCFIterator(input)) {	
+					modules = initModules(iter.getHeader());
+					while(iter.hasNext()) {
+						final VariantContext ctx = iter.next();
+						for(Analyzer analyzer:modules) {
+							analyzer.visit(ctx);
+							}
+						}
 					}
 				}
 			try(PrintWriter pw = super.openPathOrStdoutAsPrintWriter(outputFile)) {
@@ -484,15 +636,10 @@ public class VcfStats extends Launcher {
 					}
 				pw.flush();
 				}
-			}
 			return 0;
 		} catch (final Throwable e) {
 			LOG.error(e);
 			return -1;
-			}
-		finally
-			{
-			
 			}
 		}
 	
@@ -79,7 +79,7 @@ END_DOC
 		description="Peek the AF from another VCF",
 		keywords={"vcf","annotation","af"},
 		creationDate="20200624",
-		modificationDate="20200904"
+		modificationDate="20261018"
 		)
 public class VcfPeekAf extends OnePassVcfLauncher
 	{
@@ -662,7 +662,7 @@ public class VcfPeekAf extends OnePassVcfLauncher
 				}
 						
 			final VCFReader reader0 = VCFReaderFactory.makeDefault().open(this.resourceVcfFile,true);
-			this.indexedVcfFileReader = new BufferedVCFReader(reader0,this.buffer_size);
+			this.indexedVcfFileReader = new BufferedVCFReader(reader0,this.buffer_size).setPrefetch(true);
 			this.peeker.initialize(this.indexedVcfFileReader.getHeader());
 			this.indexedVcfFileReader.setSimplifier(peeker::sanitize);
 			return 0;
@@ -435,7 +435,10 @@ public class SwingBamCov extends Launcher
 			try {
 				final Hershey hershey = new Hershey();
 				final IntToDoubleFunction position2pixel = X->((X-region.getStart())/(double)region.getLengthOnReference())*rect.getWidth() + rect.getX();
-				final Pileup<SAMRecord> pileup = new Pileup<>((L,R)->position2pixel.applyAsDouble(L.getUnclippedEnd()+1) +1  < position2pixel.applyAsDouble(R.getUnclippedStart()));
+				final Pileup<SAMRecord> pileup = new Pileup<>(
+					R->position2pixel.applyAsDouble(R.getUnclippedStart()),
+					L->position2pixel.applyAsDouble(L.getUnclippedEnd()+1) +1
+					);
 				try(SamReader sr=srf.open(bam.bamPath)) {
 					 try(CloseableIterator<SAMRecord> iter=sr.query(
 							 region.getContig(),
@@ -0,0 +1,326 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+
+/**
+ * Sidecar of an indexed fasta file, saved as 'ref.fa.gcidx', storing the cumulative counts of GC, AT and N
+ * bases every 'stride' bases of each contig. The file is memory-mapped and the GC% of an interval is
+ * the difference of two checkpoints. The bases of the interval that are not aligned on a checkpoint are
+ * read from the sequence, so the counts are always the same as counting the bases one by one.
+ * The index is valid as long as the size and the modification time of the fasta file are unchanged.
+ */
+public class GCIndex {
+	private static final Logger LOG = Logger.build(GCIndex.class).make();
+	public static final String SUFFIX = ".gcidx";
+	public static final int DEFAULT_STRIDE = 100;
+	private static final long MAGIC = 0x4A564B4743494458L;/* JVKGCIDX */
+	private static final int VERSION = 1;
+	/** gc,at,n as 3 int */
+	private static final int CHECKPOINT_SIZE = 12;
+	private final Path indexPath;
+	private final int stride;
+	private final Map<String,ContigEntry> contigs;
+	private final Map<String,ContigIndex> mapped = new HashMap<>();
+
+	private static class ContigEntry {
+		final String name;
+		final int length;
+		final long offset;
+		ContigEntry(final String name,final int length,final long offset) {
+			this.name = name;
+			this.length = length;
+			this.offset = offset;
+			}
+		int getCheckpointCount(final int stride) {
+			return (int)((this.length + (long)stride - 1L)/stride) + 1;
+			}
+		}
+
+	/** checkpoints of one contig */
+	public class ContigIndex {
+		private final ContigEntry entry;
+		private final ByteBuffer buffer;
+		private ContigIndex(final ContigEntry entry,final ByteBuffer buffer) {
+			this.entry = entry;
+			this.buffer = buffer;
+			}
+		public String getContig() {
+			return this.entry.name;
+			}
+		public int length() {
+			return this.entry.length;
+			}
+		/** add the counts of the bases in [0,pos0) to 'counts' times 'sign' */
+		private void prefix(final CharSequence sequence,final int pos0,final int[] counts,final int sign) {
+			final int k;
+			final int from;
+			if(pos0>=this.entry.length) {
+				k = this.entry.getCheckpointCount(stride) - 1;
+				from = this.entry.length;
+				}
+			else
+				{
+				k = pos0/stride;
+				from = k*stride;
+				}
+			final int index = k*CHECKPOINT_SIZE;
+			counts[0] += sign * this.buffer.getInt(index);
+			counts[1] += sign * this.buffer.getInt(index+4);
+			counts[2] += sign * this.buffer.getInt(index+8);
+			for(int i=from;i< pos0;i++) {
+				final int t = classify(sequence.charAt(i));
+				if(t>=0) counts[t] += sign;
+				}
+			}
+		/**
+		 * fill counts with the number of GC (counts[0]), AT (counts[1]) and N (counts[2]) bases
+		 * @param sequence the sequence of the contig, only used for the bases between two checkpoints
+		 * @param start0 0-based start, inclusive
+		 * @param end0 0-based end, exclusive
+		 * @param counts array of 3 int
+		 */
+		public void count(final CharSequence sequence,final int start0,final int end0,final int[] counts) {
+			counts[0] = 0;
+			counts[1] = 0;
+			counts[2] = 0;
+			final int end = Math.min(end0, this.entry.length);
+			if(start0>=end) return;
+			if(end - start0 < stride) {
+				for(int i=start0;i< end;i++) {
+					final int t = classify(sequence.charAt(i));
+					if(t>=0) counts[t]++;
+					}
+				return;
+				}
+			prefix(sequence, end, counts, 1);
+			prefix(sequence, start0, counts, -1);
+			}
+		@Override
+		public String toString() {
+			return "GCIndex("+getContig()+")";
+			}
+		}
+
+	private GCIndex(final Path indexPath,final int stride,final Map<String,ContigEntry> contigs) {
+		this.indexPath = indexPath;
+		this.stride = stride;
+		this.contigs = contigs;
+		}
+
+	/** @return the 0:GC 1:AT 2:N category of the base, or -1 */
+	private static int classify(final char c) {
+		switch(c) {
+			case 'c': case 'C':
+			case 'g': case 'G':
+			case 's': case 'S': return 0;
+			case 'a': case 'A':
+			case 't': case 'T':
+			case 'w': case 'W': return 1;
+			case 'n': case 'N': return 2;
+			default: return -1;
+			}
+		}
+
+	/** @return the path of the index for this fasta */
+	public static Path getIndexPath(final Path fasta) {
+		return fasta.resolveSibling(fasta.getFileName().toString() + SUFFIX);
+		}
+
+	public int getStride() {
+		return this.stride;
+		}
+
+	/** @return the index for this contig or null if the contig is not indexed or if its length is not 'length' */
+	public synchronized ContigIndex getContigIndex(final String contig,final int length) {
+		final ContigEntry entry = this.contigs.get(contig);
+		if(entry==null || entry.length!=length) return null;
+		ContigIndex ci = this.mapped.get(contig);
+		if(ci==null) {
+			try(FileChannel channel = FileChannel.open(this.indexPath, StandardOpenOption.READ)) {
+				final long size = (long)entry.getCheckpointCount(this.stride)*CHECKPOINT_SIZE;
+				ci = new ContigIndex(entry, channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, size));
+				}
+			catch(final IOException|IllegalArgumentException err) {
+				LOG.warn("cannot map "+contig+" in "+this.indexPath+" : "+err.getMessage());
+				return null;
+				}
+			this.mapped.put(contig, ci);
+			}
+		return ci;
+		}
+
+	/** @return the GC index of the fasta file, or null if there is no valid index */
+	public static GCIndex openIfExists(final Path fasta) {
+		if(fasta==null) return null;
+		final Path indexPath = getIndexPath(fasta);
+		try {
+			if(!Files.isRegularFile(indexPath) || !Files.isReadable(indexPath)) return null;
+			try(FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+				final ByteBuffer buf = ByteBuffer.allocate((int)Math.min(channel.size(), 32L));
+				while(buf.hasRemaining() && channel.read(buf)>=0) {
+					}
+				buf.flip();
+				if(buf.remaining() < 32 || buf.getLong()!=MAGIC || buf.getInt()!=VERSION) return null;
+				if(buf.getLong()!=Files.size(fasta) || buf.getLong()!=Files.getLastModifiedTime(fasta).toMillis()) {
+					LOG.info("ignoring obsolete index "+indexPath);
+					return null;
+					}
+				final int headerSize = buf.getInt();
+				final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 32L, headerSize);
+				final int stride = header.getInt();
+				if(stride<1) throw new IllegalArgumentException("bad stride "+stride);
+				final int n = header.getInt();
+				final Map<String,ContigEntry> contigs = new LinkedHashMap<>(n);
+				for(int i=0;i< n;i++) {
+					final byte[] name = new byte[header.getInt()];
+					header.get(name);
+					final ContigEntry entry = new ContigEntry(new String(name,StandardCharsets.UTF_8), header.getInt(), header.getLong());
+					contigs.put(entry.name, entry);
+					}
+				return new GCIndex(indexPath, stride, contigs);
+				}
+			}
+		catch(final IOException|BufferUnderflowException|IllegalArgumentException err) {
+			LOG.warn("cannot read "+indexPath+" : "+err.getMessage());
+			return null;
+			}
+		}
+
+	/**
+	 * build the index 'ref.fa.gcidx' of an indexed fasta file
+	 * @param fasta the indexed fasta file
+	 * @param stride distance between two checkpoints
+	 * @return the path of the index
+	 */
+	public static Path build(final Path fasta,final int stride) throws IOException {
+		if(stride<1) throw new IllegalArgumentException("stride<1 :"+stride);
+		final Path indexPath = getIndexPath(fasta);
+		Path tmp = null;
+		try(ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(fasta)) {
+			final SAMSequenceDictionary dict = SequenceDictionaryUtils.extractRequired(ref);
+			/* the offsets of the contigs depend on the size of the header */
+			int headerSize = 8;
+			for(final SAMSequenceRecord ssr: dict.getSequences()) {
+				headerSize += 4 + ssr.getSequenceName().getBytes(StandardCharsets.UTF_8).length + 4 + 8;
+				}
+			final Path dir = indexPath.toAbsolutePath().getParent();
+			tmp = dir.resolve(indexPath.getFileName().toString()+".tmp."+Long.toHexString(System.nanoTime()));
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)))) {
+				out.writeLong(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(Files.size(fasta));
+				out.writeLong(Files.getLastModifiedTime(fasta).toMillis());
+				out.writeInt(headerSize);
+				out.writeInt(stride);
+				out.writeInt(dict.size());
+				long offset = 32L + headerSize;
+				for(final SAMSequenceRecord ssr: dict.getSequences()) {
+					final byte[] name = ssr.getSequenceName().getBytes(StandardCharsets.UTF_8);
+					final ContigEntry entry = new ContigEntry(ssr.getSequenceName(), ssr.getSequenceLength(), offset);
+					out.writeInt(name.length);
+					out.write(name);
+					out.writeInt(entry.length);
+					out.writeLong(entry.offset);
+					offset += (long)entry.getCheckpointCount(stride)*CHECKPOINT_SIZE;
+					}
+				/* read the sequence by chunks aligned on the stride */
+				final int chunkSize = Math.max(1, 1_000_000/stride)*stride;
+				final int[] counts = new int[3];
+				for(final SAMSequenceRecord ssr: dict.getSequences()) {
+					LOG.info("indexing "+ssr.getSequenceName());
+					final int len = ssr.getSequenceLength();
+					counts[0] = 0;
+					counts[1] = 0;
+					counts[2] = 0;
+					long n_checkpoints = 0L;
+					for(int chunkStart=0;chunkStart< len;chunkStart+=chunkSize) {
+						final int chunkEnd = Math.min(len, chunkStart+chunkSize);
+						final byte[] bases = ref.getSubsequenceAt(ssr.getSequenceName(), chunkStart+1, chunkEnd).getBases();
+						for(int i=0;i< bases.length;i++) {
+							if((chunkStart+i)%stride==0) {
+								out.writeInt(counts[0]);
+								out.writeInt(counts[1]);
+								out.writeInt(counts[2]);
+								n_checkpoints++;
+								}
+							final int t = classify((char)bases[i]);
+							if(t>=0) counts[t]++;
+							}
+						}
+					/* last checkpoint at the end of the contig */
+					out.writeInt(counts[0]);
+					out.writeInt(counts[1]);
+					out.writeInt(counts[2]);
+					n_checkpoints++;
+					if(n_checkpoints!=(len + (long)stride - 1L)/stride + 1L) {
+						throw new IllegalStateException("bad number of checkpoints for "+ssr.getSequenceName());
+						}
+					}
+				}
+			try {
+				Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+			catch(final AtomicMoveNotSupportedException err) {
+				Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING);
+				}
+			tmp = null;
+			LOG.info("saved "+indexPath);
+			return indexPath;
+			}
+		finally
+			{
+			if(tmp!=null) try { Files.deleteIfExists(tmp); } catch(final IOException err) {}
+			}
+		}
+
+	@Override
+	public String toString() {
+		return "GCIndex("+this.indexPath+" stride:"+this.stride+")";
+		}
+	}
@@ -30,6 +30,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
 
@@ -48,7 +50,6 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
-import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.CloserUtil;
@@ -56,6 +57,11 @@ import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
 
+/**
+ * Opens a {@link ReferenceGenome}.
+ * A ReferenceGenome and its {@link ReferenceContig}s are NOT thread-safe: each call to 'charAt' or 'getContig'
+ * may reorder the LRU of windows and of contigs. Each thread must open its own ReferenceGenome.
+ */
 @Deprecated
 public class ReferenceGenomeFactory
 implements IStringConverter<ReferenceGenome>  {
@@ -84,6 +90,8 @@ public ReferenceGenome convert(final String opt) {
 
 private final int DEFAULT_HALF_BUFFER_CAPACITY = 1_000_000;
 private int half_buffer_capacity=DEFAULT_HALF_BUFFER_CAPACITY;
+private int max_windows_per_contig = 2;
+private int max_contigs_in_memory = 1;
 private boolean return_N_on_indexOutOfRange = false;
 private boolean debug = false;
 private boolean throwOnContigNotFound = false;
@@ -119,6 +127,26 @@ public int getBufferSize() {
 	return this.half_buffer_capacity;
 	}
 
+/** max number of sequence windows (of size 2*buffer-size) kept in memory for each contig */
+public ReferenceGenomeFactory setMaxWindowsPerContig(int n) {
+	this.max_windows_per_contig = Math.max(1,n);
+	return this;
+	}
+
+public int getMaxWindowsPerContig() {
+	return this.max_windows_per_contig;
+	}
+
+/** max number of contigs kept in memory by the ReferenceGenome. Least recently used contigs are discarded */
+public ReferenceGenomeFactory setMaxContigsInMemory(int n) {
+	this.max_contigs_in_memory = Math.max(1,n);
+	return this;
+	}
+
+public int getMaxContigsInMemory() {
+	return this.max_contigs_in_memory;
+	}
+
 public ReferenceGenomeFactory setReturnBaseNOnIndexOutOfRange(boolean b) {
 	this.return_N_on_indexOutOfRange = b;
 	return this;
@@ -214,6 +242,14 @@ private abstract class AbstractReferenceGenome
 	{
 	protected SAMSequenceDictionary dictionary =null ;
 	private ReferenceContig last_contig = null;
+	/** LRU cache of contigs, the memory of each contig is bounded by its windows */
+	private final Map<String,ReferenceContig> name2contig = new LinkedHashMap<String,ReferenceContig>(16,0.75f,true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String,ReferenceContig> eldest) {
+			return size() > ReferenceGenomeFactory.this.getMaxContigsInMemory();
+			}
+		};
 
 	protected abstract ReferenceContig create(final SAMSequenceRecord ssr);
 	
@@ -234,7 +270,12 @@ private abstract class AbstractReferenceGenome
 				}
 			return null;
 		}
-		this.last_contig= create(ssr);
+		ReferenceContig contig = this.name2contig.get(ssr.getSequenceName());
+		if(contig==null) {
+			contig = create(ssr);
+			this.name2contig.put(ssr.getSequenceName(), contig);
+			}
+		this.last_contig= contig;
 		return this.last_contig;
 		}
 
@@ -332,14 +373,29 @@ private static class GCPercentImpl implements ReferenceContig.GCPercent
 }
 
 
+/** a window of bases loaded in memory */
+private static class Window
+	{
+	final int buffer_pos;
+	final byte buffer[];
+	Window(final int buffer_pos,final byte buffer[]) {
+		this.buffer_pos = buffer_pos;
+		this.buffer = buffer;
+		}
+	boolean contains(final int index0) {
+		return index0>=this.buffer_pos && index0-this.buffer_pos < this.buffer.length;
+		}
+	}
+
 private abstract class AbstractReferenceContigImpl
 	extends AbstractCharSequence
 	implements ReferenceContig
 	{
 	private final ReferenceGenome owner;
 	private final SAMSequenceRecord samSequenceRecord;
-	private byte buffer[]=null;
-	private int buffer_pos=-1;
+	/** windows in memory, most recently used first. Modified by charAt: this class is single-threaded */
+	private final Window windows[];
+	private int n_windows = 0;
 	private final int half_buffer_capacity=ReferenceGenomeFactory.this.getBufferSize();
 	
 	protected abstract  byte[] refill(int start0,int end0);
@@ -347,6 +403,7 @@ private abstract class AbstractReferenceContigImpl
 	protected AbstractReferenceContigImpl(final ReferenceGenome owner,final SAMSequenceRecord ssr) {
 		this.owner=owner;
 		this.samSequenceRecord = ssr;
+		this.windows = new Window[ReferenceGenomeFactory.this.getMaxWindowsPerContig()];
 	}
 	
 	@Override
@@ -373,18 +430,27 @@ private abstract class AbstractReferenceContigImpl
 				}
 			throw new IndexOutOfBoundsException("index:"+index0);
 			}
-		if(buffer!=null && index0>=buffer_pos && index0-buffer_pos < buffer.length)
-			{
-			return (char)buffer[index0-buffer_pos];
+		for(int i=0;i< this.n_windows;i++) {
+			final Window w = this.windows[i];
+			if(!w.contains(index0)) continue;
+			if(i>0) {
+				/* move to front */
+				System.arraycopy(this.windows, 0, this.windows, 1, i);
+				this.windows[0] = w;
+				}
+			return (char)w.buffer[index0-w.buffer_pos];
 			}
 		final int minStart=Math.max(0, index0-half_buffer_capacity);
 		final int maxEnd=Math.min(minStart+2*half_buffer_capacity,this.length());
 		if(isDebug()) {
 			LOG.debug("Refill "+minStart+" to "+maxEnd);
 			}
-		this.buffer=refill(minStart,maxEnd);
-		this.buffer_pos=minStart;
-		return (char)buffer[index0-minStart];
+		final Window w = new Window(minStart,refill(minStart,maxEnd));
+		/* discard the least recently used window if needed */
+		if(this.n_windows < this.windows.length) this.n_windows++;
+		System.arraycopy(this.windows, 0, this.windows, 1, this.n_windows-1);
+		this.windows[0] = w;
+		return (char)w.buffer[index0-minStart];
 		}
 	
 	@Override
@@ -416,12 +482,29 @@ private  class ReferenceGenomeImpl
 	private  class ReferenceContigImpl
 		extends AbstractReferenceContigImpl
 		{
-		final ReferenceSequence referenceSequence;
-
+		/** precomputed GC counts, may be null */
+		private final GCIndex.ContigIndex gcContigIndex;
 		ReferenceContigImpl(final SAMSequenceRecord ssr) {
 			super(ReferenceGenomeImpl.this,ssr);
-			this.referenceSequence  = ReferenceGenomeImpl.this.indexedFastaSequenceFile.getSequence(ssr.getSequenceName());
-			if(this.referenceSequence==null) throw new IllegalStateException();
+			this.gcContigIndex = (ReferenceGenomeImpl.this.gcIndex==null?null:
+				ReferenceGenomeImpl.this.gcIndex.getContigIndex(ssr.getSequenceName(), ssr.getSequenceLength()));
+			}
+		
+		@Override
+		public GCPercent getGCPercent(final int start,final int end) {
+			if(this.gcContigIndex==null || start<0) return super.getGCPercent(start, end);
+			final int L=this.length();
+			final GCPercentImpl gcp = new GCPercentImpl(
+					this.getContig(),
+					start+1,
+					Math.min(end, L)
+					);
+			final int[] counts = new int[3];
+			this.gcContigIndex.count(this, start, end, counts);
+			gcp.count = Math.max(0, Math.min(end, L) - start);
+			gcp.count_gc = counts[0];
+			gcp.count_at = counts[1];
+			return gcp;
 			}
 
 		@Override
@@ -437,11 +520,14 @@ private  class ReferenceGenomeImpl
 	
 	private final File fastaFile;
 	private ReferenceSequenceFile indexedFastaSequenceFile;
+	/** GC index 'ref.fa.gcidx' or null if there is no such file */
+	private final GCIndex gcIndex;
 	ReferenceGenomeImpl(final File fastaFile) throws IOException
 		{
 		this.fastaFile = fastaFile;
 		IOUtil.assertFileIsReadable(fastaFile);
 		this.indexedFastaSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(fastaFile);
+		this.gcIndex = GCIndex.openIfExists(fastaFile.toPath());
 		super.dictionary = this.indexedFastaSequenceFile.getSequenceDictionary();
 		if(super.dictionary==null) {
 			throw new JvarkitException.FastaDictionaryMissing(fastaFile);
@@ -0,0 +1,328 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.structure;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.util.bio.structure.AbstractGxxReader.GeneImpl;
+import com.github.lindenb.jvarkit.util.bio.structure.AbstractGxxReader.TranscriptImpl;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+/**
+ * Binary sidecar of the genes parsed by {@link GtfReader}, saved next to the GTF file as 'file.gtf.gz.jvkgenes'.
+ * The genes are saved before the conversion of the contig names. All the strings are stored once in a table.
+ * The cache is valid as long as the size and the modification time of the GTF file are unchanged.
+ */
+class GeneModelCache {
+	private static final Logger LOG = Logger.build(GeneModelCache.class).make();
+	static final String SUFFIX = ".jvkgenes";
+	private static final long MAGIC = 0x4A564B47454E4553L;/* JVKGENES */
+	private static final int VERSION = 1;
+	private final Path source;
+	private final Path cachePath;
+
+	GeneModelCache(final Path source) {
+		this.source = source;
+		this.cachePath = source.resolveSibling(source.getFileName().toString() + SUFFIX);
+		}
+
+	Path getCachePath() {
+		return this.cachePath;
+		}
+
+	/** @return the genes from the cache or null if there is no valid cache */
+	List<Gene> load(final Function<String,String> contigNameConverter) {
+		try {
+			if(!Files.isRegularFile(this.cachePath) || !Files.isReadable(this.cachePath)) return null;
+			try(FileChannel channel = FileChannel.open(this.cachePath, StandardOpenOption.READ)) {
+				if(channel.size() > Integer.MAX_VALUE) return null;
+				final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+				if(buf.remaining() < 28 || buf.getLong()!=MAGIC || buf.getInt()!=VERSION) return null;
+				if(buf.getLong()!=Files.size(this.source) || buf.getLong()!=Files.getLastModifiedTime(this.source).toMillis()) {
+					LOG.info("ignoring obsolete cache "+this.cachePath);
+					return null;
+					}
+				final List<Gene> genes = new Decoder(buf).decode();
+				return applyContigNameConverter(genes, contigNameConverter);
+				}
+			}
+		catch(final IOException|BufferUnderflowException|IllegalArgumentException err) {
+			LOG.warn("cannot read "+this.cachePath+" : "+err.getMessage());
+			return null;
+			}
+		}
+
+	/** save the genes whose contig names were not converted. Errors are only logged. */
+	void save(final List<Gene> genes) {
+		Path tmp = null;
+		try {
+			final Path dir = this.cachePath.toAbsolutePath().getParent();
+			if(dir==null || !Files.isWritable(dir)) {
+				LOG.warn("cannot write gene cache in "+dir);
+				return;
+				}
+			/* not Files.createTempFile: the cache should be readable by the other users of the GTF */
+			tmp = dir.resolve(this.cachePath.getFileName().toString()+".tmp."+Long.toHexString(System.nanoTime()));
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)))) {
+				out.writeLong(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(Files.size(this.source));
+				out.writeLong(Files.getLastModifiedTime(this.source).toMillis());
+				new Encoder(out).encode(genes);
+				}
+			try {
+				Files.move(tmp, this.cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+			catch(final AtomicMoveNotSupportedException err) {
+				Files.move(tmp, this.cachePath, StandardCopyOption.REPLACE_EXISTING);
+				}
+			tmp = null;
+			LOG.info("saved "+genes.size()+" genes in "+this.cachePath);
+			}
+		catch(final IOException err) {
+			LOG.warn("cannot write "+this.cachePath+" : "+err.getMessage());
+			}
+		finally
+			{
+			if(tmp!=null) try { Files.deleteIfExists(tmp); } catch(final IOException err) {}
+			}
+		}
+
+	/** rename the contigs in place, remove the genes without converted contig */
+	static List<Gene> applyContigNameConverter(final List<Gene> genes, final Function<String,String> contigNameConverter) {
+		final List<Gene> L = new ArrayList<>(genes.size());
+		for(final Gene g:genes) {
+			final GeneImpl gene = GeneImpl.class.cast(g);
+			if(gene.contig!=null) {
+				gene.contig = contigNameConverter.apply(gene.contig);
+				if(StringUtils.isBlank(gene.contig)) continue;
+				}
+			L.add(gene);
+			}
+		return L;
+		}
+
+	private static class Encoder {
+		private final DataOutputStream out;
+		private final Map<String,Integer> string2index = new HashMap<>();
+		private final List<String> strings = new ArrayList<>();
+		Encoder(final DataOutputStream out) {
+			this.out = out;
+			}
+		private void intern(final String s) {
+			if(s==null || this.string2index.containsKey(s)) return;
+			this.string2index.put(s, this.strings.size());
+			this.strings.add(s);
+			}
+		private void intern(final Map<String,String> properties) {
+			for(final Map.Entry<String,String> kv: properties.entrySet()) {
+				intern(kv.getKey());
+				intern(kv.getValue());
+				}
+			}
+		private void writeUInt(int v) throws IOException {
+			while((v & ~0x7F)!=0) {
+				this.out.writeByte((v & 0x7F) | 0x80);
+				v >>>= 7;
+				}
+			this.out.writeByte(v);
+			}
+		/** zig-zag encoded, for the values that can be negative */
+		private void writeInt(final int v) throws IOException {
+			writeUInt((v << 1) ^ (v >> 31));
+			}
+		/** 0 is used for null */
+		private void writeString(final String s) throws IOException {
+			writeUInt(s==null?0:this.string2index.get(s)+1);
+			}
+		private void writeProperties(final Map<String,String> properties) throws IOException {
+			writeUInt(properties.size());
+			for(final Map.Entry<String,String> kv: properties.entrySet()) {
+				writeString(kv.getKey());
+				writeString(kv.getValue());
+				}
+			}
+		private void writeCodon(final TranscriptImpl.AbstractCodonImpl codon) throws IOException {
+			this.out.writeBoolean(codon!=null);
+			if(codon==null) return;
+			for(int i=0;i< codon.pos.length;i++) writeInt(codon.pos[i]);
+			}
+		void encode(final List<Gene> genes) throws IOException {
+			for(final Gene g: genes) {
+				final GeneImpl gene = GeneImpl.class.cast(g);
+				intern(gene.gene_id);
+				intern(gene.contig);
+				intern(gene.properties);
+				for(final Transcript t:gene.transcripts) {
+					final TranscriptImpl tr = TranscriptImpl.class.cast(t);
+					intern(tr.transcript_id);
+					intern(tr.properties);
+					}
+				}
+			writeUInt(this.strings.size());
+			for(final String s:this.strings) {
+				final byte[] array = s.getBytes(StandardCharsets.UTF_8);
+				writeUInt(array.length);
+				this.out.write(array);
+				}
+			writeUInt(genes.size());
+			for(final Gene g: genes) {
+				final GeneImpl gene = GeneImpl.class.cast(g);
+				writeString(gene.gene_id);
+				writeString(gene.contig);
+				writeInt(gene.start);
+				writeInt(gene.end);
+				this.out.writeChar(gene.strand);
+				writeProperties(gene.properties);
+				writeUInt(gene.transcripts.size());
+				for(final Transcript t:gene.transcripts) {
+					final TranscriptImpl tr = TranscriptImpl.class.cast(t);
+					writeString(tr.transcript_id);
+					writeInt(tr.txStart);
+					writeInt(tr.txEnd);
+					this.out.writeChar(tr.strand);
+					this.out.writeBoolean(tr.coding);
+					this.out.writeBoolean(tr.saw_cds_flag);
+					writeCodon(tr.codon_start);
+					writeCodon(tr.codon_end);
+					writeInt(tr.exonStarts==null?-1:tr.exonStarts.length);
+					if(tr.exonStarts!=null) {
+						for(int i=0;i< tr.exonStarts.length;i++) {
+							writeInt(tr.exonStarts[i]);
+							writeInt(tr.exonEnds[i] - tr.exonStarts[i]);
+							}
+						}
+					writeProperties(tr.properties);
+					}
+				}
+			}
+		}
+
+	private static class Decoder {
+		private final ByteBuffer buf;
+		private String[] strings;
+		Decoder(final ByteBuffer buf) {
+			this.buf = buf;
+			}
+		private int readUInt() {
+			int v = 0;
+			int shift = 0;
+			for(;;) {
+				final byte b = this.buf.get();
+				v |= (b & 0x7F) << shift;
+				if((b & 0x80)==0) return v;
+				shift += 7;
+				if(shift > 28) throw new IllegalArgumentException("bad varint");
+				}
+			}
+		private int readInt() {
+			final int v = readUInt();
+			return (v >>> 1) ^ -(v & 1);
+			}
+		private String readString() {
+			final int i = readUInt();
+			return i==0?null:this.strings[i-1];
+			}
+		private void readProperties(final Map<String,String> properties) {
+			final int n = readUInt();
+			for(int i=0;i< n;i++) {
+				final String key = readString();
+				properties.put(key, readString());
+				}
+			}
+		private void readCodon(final TranscriptImpl.AbstractCodonImpl codon) {
+			for(int i=0;i< codon.pos.length;i++) codon.pos[i] = readInt();
+			}
+		List<Gene> decode() {
+			this.strings = new String[readUInt()];
+			for(int i=0;i< this.strings.length;i++) {
+				final byte[] array = new byte[readUInt()];
+				this.buf.get(array);
+				this.strings[i] = new String(array, StandardCharsets.UTF_8);
+				}
+			final int nGenes = readUInt();
+			final List<Gene> genes = new ArrayList<>(nGenes);
+			for(int g=0;g< nGenes;g++) {
+				final GeneImpl gene = new GeneImpl();
+				gene.gene_id = readString();
+				gene.contig = readString();
+				gene.start = readInt();
+				gene.end = readInt();
+				gene.strand = this.buf.getChar();
+				readProperties(gene.properties);
+				final int nTranscripts = readUInt();
+				for(int t=0;t< nTranscripts;t++) {
+					final TranscriptImpl tr = new TranscriptImpl();
+					tr.gene = gene;
+					tr.transcript_id = readString();
+					tr.txStart = readInt();
+					tr.txEnd = readInt();
+					tr.strand = this.buf.getChar();
+					tr.coding = this.buf.get()!=0;
+					tr.saw_cds_flag = this.buf.get()!=0;
+					if(this.buf.get()!=0) {
+						tr.codon_start = tr.new StartCodonImpl();
+						readCodon(tr.codon_start);
+						}
+					if(this.buf.get()!=0) {
+						tr.codon_end = tr.new StopCodonImpl();
+						readCodon(tr.codon_end);
+						}
+					final int nExons = readInt();
+					if(nExons>=0) {
+						tr.exonStarts = new int[nExons];
+						tr.exonEnds = new int[nExons];
+						for(int i=0;i< nExons;i++) {
+							tr.exonStarts[i] = readInt();
+							tr.exonEnds[i] = tr.exonStarts[i] + readInt();
+							}
+						}
+					readProperties(tr.properties);
+					gene.transcripts.add(tr);
+					}
+				genes.add(gene);
+				}
+			if(this.buf.hasRemaining()) throw new IllegalArgumentException("unexpected bytes at the end of the cache");
+			return genes;
+			}
+		}
+	}
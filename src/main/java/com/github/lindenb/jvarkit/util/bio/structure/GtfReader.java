@@ -56,7 +56,8 @@ import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.tribble.readers.TabixReader;
 
 /**
- * A GTF/KnownGene Reader
+ * A GTF/KnownGene Reader.
+ * When reading a file, the genes can be loaded from a binary cache 'file.gtf.gz.jvkgenes', see {@link #setGeneCacheEnabled(boolean)}
  */
 public class GtfReader extends AbstractGxxReader {
 	private static final Logger LOG = Logger.build(GtfReader.class).make();
@@ -72,6 +73,8 @@ public class GtfReader extends AbstractGxxReader {
 	private Function<String,String> contigNameConverter  = S->S;
 	private TabixReader tabixReader = null;
 	private static final boolean SUPPORTS_GFF = false;
+	/** create/refresh the binary cache of the genes next to the GTF file. An existing and valid cache is always used. */
+	private static boolean createGeneCache = Boolean.getBoolean("jvarkit.gtf.cache");
 	
 	public GtfReader(final InputStream in) {
 		this.resource = new InputStreamGtfResource(in);
@@ -436,7 +439,36 @@ public class GtfReader extends AbstractGxxReader {
 		return s;
 		}
 	
+	/** enable the creation of a binary cache 'file.gtf.jvkgenes' next to the GTF files, default is the system property 'jvarkit.gtf.cache' */
+	public static void setGeneCacheEnabled(final boolean b) {
+		createGeneCache = b;
+		}
+	
+	public static boolean isGeneCacheEnabled() {
+		return createGeneCache;
+		}
+	
 	public List<Gene> getAllGenes() {
+		if(this.resource instanceof PathGtfResource) {
+			final GeneModelCache cache = new GeneModelCache(PathGtfResource.class.cast(this.resource).path);
+			final List<Gene> genes = cache.load(this.contigNameConverter);
+			if(genes!=null) return genes;
+			if(isGeneCacheEnabled()) {
+				/* the cache contains the original contig names */
+				final Function<String,String> converter = this.contigNameConverter;
+				final List<Gene> rawGenes;
+				try {
+					this.contigNameConverter = S->S;
+					rawGenes = fetchGenes(null);
+					}
+				finally
+					{
+					this.contigNameConverter = converter;
+					}
+				cache.save(rawGenes);
+				return GeneModelCache.applyContigNameConverter(rawGenes, converter);
+				}
+			}
 		return fetchGenes(null);
 		}
 	
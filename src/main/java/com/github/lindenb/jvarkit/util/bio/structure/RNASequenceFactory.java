@@ -24,10 +24,11 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.bio.structure;
 
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalInt;
+import java.util.PriorityQueue;
 import java.util.function.Function;
 
 import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
@@ -35,6 +36,11 @@ import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 
 import htsjdk.samtools.util.Locatable;
 
+/**
+ * Creates the spliced sequences of the transcripts.
+ * The sequences can be kept in a bounded cache (see {@link #setCacheSize(int)}). When the variants are sorted,
+ * {@link #releaseBefore(String, int)} removes the transcripts ending before the current variant.
+ */
 public class RNASequenceFactory {
 	
 	@FunctionalInterface
@@ -44,20 +50,91 @@ public class RNASequenceFactory {
 	
 	private Function<String,CharSequence> contig2genomicSequence = S->{throw new IllegalArgumentException();};
 	private BaseConverter baseConverter = B->Character.toUpperCase(B);
+	/** max number of sequences in the cache. 0 : no cache */
+	private int cacheSize = 0;
+	private final Map<Transcript,BasicRNASequence> mrnaCache = new IdentityHashMap<>();
+	private final Map<Transcript,BasicRNASequence> cdsCache = new IdentityHashMap<>();
+	/** cached sequences sorted on transcript end */
+	private final PriorityQueue<BasicRNASequence> cacheQueue = new PriorityQueue<>((A,B)->Integer.compare(A.getEnd(), B.getEnd()));
+	/** contig of the cached sequences */
+	private String cacheContig = null;
 	
 	public RNASequenceFactory() {		
 	}
 	
 	public RNASequenceFactory setContigToGenomicSequence(final Function<String, CharSequence> contig2genomicSequence) {
 		this.contig2genomicSequence = contig2genomicSequence;
+		clearCache();
 		return this;
 		}
 	
 	public RNASequenceFactory setBaseConverter(final BaseConverter baseConverter) {
 		this.baseConverter = baseConverter;
+		clearCache();
 		return this;
 		}
 	
+	/** set the max number of spliced sequences kept in memory. 0 disables the cache */
+	public RNASequenceFactory setCacheSize(final int cacheSize) {
+		if(cacheSize<0) throw new IllegalArgumentException("negative cache size: "+cacheSize);
+		this.cacheSize = cacheSize;
+		while(this.cacheQueue.size() > this.cacheSize) {
+			removeFirstInCache();
+			}
+		return this;
+		}
+	
+	public int getCacheSize() {
+		return this.cacheSize;
+		}
+	
+	/** remove all the sequences from the cache */
+	public void clearCache() {
+		this.mrnaCache.clear();
+		this.cdsCache.clear();
+		this.cacheQueue.clear();
+		this.cacheContig = null;
+		}
+	
+	/** remove from the cache the sequences on another contig or ending before 'pos', to be called when the variants are sorted */
+	public void releaseBefore(final String contig,final int pos) {
+		if(this.cacheContig==null) return;
+		if(!this.cacheContig.equals(contig)) {
+			clearCache();
+			return;
+			}
+		while(!this.cacheQueue.isEmpty() && this.cacheQueue.peek().getEnd() < pos) {
+			removeFirstInCache();
+			}
+		}
+	
+	private void removeFirstInCache() {
+		final BasicRNASequence seq = this.cacheQueue.poll();
+		(seq.coding?this.cdsCache:this.mrnaCache).remove(seq.transcript);
+		}
+	
+	private BasicRNASequence getSequence(final Transcript tr,final boolean coding) {
+		if(this.cacheSize<=0) return create(tr,coding);
+		final Map<Transcript,BasicRNASequence> cache = coding?this.cdsCache:this.mrnaCache;
+		BasicRNASequence seq = cache.get(tr);
+		if(seq!=null) return seq;
+		seq = create(tr,coding);
+		if(this.cacheContig!=null && !this.cacheContig.equals(tr.getContig())) {
+			clearCache();
+			}
+		while(this.cacheQueue.size() >= this.cacheSize) {
+			removeFirstInCache();
+			}
+		this.cacheContig = tr.getContig();
+		cache.put(tr, seq);
+		this.cacheQueue.add(seq);
+		return seq;
+		}
+	
+	private BasicRNASequence create(final Transcript tr,final boolean coding) {
+		return new BasicRNASequence(tr, getRequiredGenomicSequence(tr), coding?tr.getAllCds():tr.getExons(), coding);
+		}
+	
 	private CharSequence getRequiredGenomicSequence(final Transcript tr) {
 		final CharSequence chrom = this.contig2genomicSequence.apply(tr.getContig());
 		if(chrom==null) throw new IllegalArgumentException("no contig available for "+tr.getContig());
@@ -65,34 +142,54 @@ public class RNASequenceFactory {
 	}
 	
 	public RNASequence getMessengerRNA(final Transcript tr) {
-		return new BasicRNASequence(tr, getRequiredGenomicSequence(tr),tr.getExons());
+		return getSequence(tr, false);
 	}
 	
 	public RNASequence getCodingRNA(final Transcript tr) {
-		return new BasicRNASequence(tr, getRequiredGenomicSequence(tr),tr.getAllCds());
+		return getSequence(tr, true);
 	}
 	
 	private class BasicRNASequence extends AbstractCharSequence implements RNASequence {
 		final Transcript transcript;
+		final boolean coding;
 		final int length;
 		final int rna02genomic0[];
 		final byte bases[];
-		final Map<Integer, Integer> genomic0torna0;
+		/** 0-based starts and ends of the intervals */
+		final int starts0[];
+		final int ends0[];
+		/** rna index of the first base of each interval, in the transcript orientation */
+		final int rnaOffsets[];
+		/** true if the intervals are sorted and don't overlap, for the binary search */
+		final boolean sorted;
 		protected BasicRNASequence(final Transcript transcript,final CharSequence contigSeq,
-				final List<? extends Locatable> intervals) {
-			this.transcript = transcript;			
-			this.length = intervals.stream().mapToInt(R->R.getLengthOnReference()).sum();
+				final List<? extends Locatable> intervals,final boolean coding) {
+			this.transcript = transcript;
+			this.coding = coding;
+			final int n = intervals.size();
+			this.starts0 = new int[n];
+			this.ends0 = new int[n];
+			this.rnaOffsets = new int[n];
+			int len = 0;
+			boolean is_sorted = true;
+			for(int k=0;k< n;k++) {
+				final Locatable r = intervals.get(k);
+				this.starts0[k] = r.getStart()-1;
+				this.ends0[k] = r.getEnd()-1;
+				if(k>0 && this.starts0[k] <= this.ends0[k-1]) is_sorted = false;
+				len += r.getLengthOnReference();
+				}
+			this.length = len;
+			this.sorted = is_sorted;
 			this.rna02genomic0 = new int[this.length];
 			this.bases = new byte[this.length];
-			this.genomic0torna0 = new HashMap<>(this.length);
 			
+			int x=0;
 			if(transcript.isPositiveStrand()) {
-				int x=0;
-				for(Locatable r:intervals) {
-					for(int i=r.getStart();i<=r.getEnd();++i) {
-						final int g0 = i-1;
+				for(int k=0;k< n;k++) {
+					this.rnaOffsets[k] = x;
+					for(int g0=this.starts0[k];g0<=this.ends0[k];++g0) {
 						this.rna02genomic0[x] = g0;
-						this.genomic0torna0.put(g0,x);
 						this.bases[x]  = (byte)baseConverter.transform(contigSeq.charAt(g0));
 						++x;
 						}
@@ -100,13 +197,10 @@ public class RNASequenceFactory {
 				}
 			else
 				{
-				int x=0;
-				for(int r1 = intervals.size()-1;r1>=0;r1--) {
-					final Locatable r = intervals.get(r1);
-					for(int i=r.getEnd();i>=r.getStart();--i) {
-						final int g0 = i-1;
+				for(int k=n-1;k>=0;k--) {
+					this.rnaOffsets[k] = x;
+					for(int g0=this.ends0[k];g0>=this.starts0[k];--g0) {
 						this.rna02genomic0[x] = g0;
-						this.genomic0torna0.put(g0,x);
 						this.bases[x]  = (byte)AcidNucleics.complement(baseConverter.transform(contigSeq.charAt(g0)));
 						++x;
 						}
@@ -121,8 +215,35 @@ public class RNASequenceFactory {
 		
 		@Override
 		public OptionalInt convertGenomic0ToRnaIndex0(final int g0) {
-			final Integer p0 = this.genomic0torna0.get(g0);
-			return p0==null?OptionalInt.empty():OptionalInt.of(p0.intValue());
+			if(!this.sorted) {
+				/* linear search */
+				for(int k=this.starts0.length-1;k>=0;k--) {
+					if(g0 >= this.starts0[k] && g0 <= this.ends0[k]) return OptionalInt.of(toRnaIndex0(k, g0));
+					}
+				return OptionalInt.empty();
+				}
+			int lo = 0;
+			int hi = this.starts0.length - 1;
+			while(lo <= hi) {
+				final int mid = (lo + hi) >>> 1;
+				if(g0 < this.starts0[mid]) {
+					hi = mid - 1;
+					}
+				else if(g0 > this.ends0[mid]) {
+					lo = mid + 1;
+					}
+				else
+					{
+					return OptionalInt.of(toRnaIndex0(mid, g0));
+					}
+				}
+			return OptionalInt.empty();
+			}
+		
+		private int toRnaIndex0(final int k,final int g0) {
+			return this.transcript.isPositiveStrand()?
+				this.rnaOffsets[k] + (g0 - this.starts0[k]):
+				this.rnaOffsets[k] + (this.ends0[k] - g0);
 			}
 		
 		@Override
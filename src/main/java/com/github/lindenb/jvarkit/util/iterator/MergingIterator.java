@@ -24,74 +24,87 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.iterator;
 
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.PriorityQueue;
 
 import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.PeekableIterator;
 
+/**
+ * Merges some sorted iterators. The iterators are kept in a priority queue,
+ * so getting the next item costs O(log(number of iterators)).
+ * When two items are equal, the item of the first iterator is returned first.
+ */
 public class MergingIterator<T> 
 	extends AbstractIterator<T>
 	implements CloseableIterator<T>
 	{
-	private final List<PeekableIterator<T>> buffer;
+	/** an iterator and its index in the list of delegates */
+	private static class Source<T> {
+		final PeekableIterator<T> delegate;
+		final int index;
+		Source(final PeekableIterator<T> delegate,final int index) {
+			this.delegate = delegate;
+			this.index = index;
+			}
+		}
+	private final PriorityQueue<Source<T>> queue;
 	private final Comparator<T> comparator;
 	private T lastForChecking=null;
 	
 	public MergingIterator( final Comparator<T> comparator,final List<? extends Iterator<T>> delegates)
 		{
 		this.comparator = Objects.requireNonNull(comparator, "comparator is null");
-		this.buffer = new ArrayList<>(delegates.stream().map(I->new PeekableIterator<>(I)).collect(Collectors.toList()));
+		this.queue = new PriorityQueue<>(Math.max(1, delegates.size()),(A,B)->{
+			final int i = this.comparator.compare(A.delegate.peek(), B.delegate.peek());
+			if(i!=0) return i;
+			return Integer.compare(A.index, B.index);
+			});
+		for(int i=0;i< delegates.size();i++) {
+			final PeekableIterator<T> delegate = new PeekableIterator<>(delegates.get(i));
+			if(delegate.hasNext()) {
+				this.queue.add(new Source<>(delegate,i));
+				}
+			else
+				{
+				CloserUtil.close(delegate);
+				}
+			}
 		}	
 	
 	@Override
 	protected T advance() {
-		T smallest= null;
-		int smallest_index=-1;
-		int i=0;
-		while(i< this.buffer.size())
+		final Source<T> source = this.queue.poll();
+		if(source==null) return null;
+		final T smallest = source.delegate.next();//consumme
+		if(source.delegate.hasNext()) {
+			this.queue.add(source);
+			}
+		else
 			{
-			final PeekableIterator<T> delegate = this.buffer.get(i);
-			if(!delegate.hasNext())
-				{
-				CloserUtil.close(delegate);
-				this.buffer.remove(i);
-				}
-			else
-				{
-				final T item = delegate.peek();
-				if(smallest==null || this.comparator.compare(item, smallest)<0)
-					{
-					smallest = item;
-					smallest_index = i;
-					}
-				i++;
-				}
+			CloserUtil.close(source.delegate);
 			}
-		if(smallest_index!=-1)
+		if(this.lastForChecking!=null &&  this.comparator.compare(smallest, lastForChecking)<0)
 			{
-			this.buffer.get(smallest_index).next();//consumme
-			if(this.lastForChecking!=null &&  this.comparator.compare(smallest, lastForChecking)<0)
-				{
-				throw new IllegalStateException("Data are not ordered... got "+ 
-						smallest+" after "+lastForChecking +" comparator(curr,previous) returns: "+
-						this.comparator.compare(smallest, lastForChecking)
-						);
-				}
-			lastForChecking = smallest;	
-			return smallest;
+			throw new IllegalStateException("Data are not ordered... got "+ 
+					smallest+" after "+lastForChecking +" comparator(curr,previous) returns: "+
+					this.comparator.compare(smallest, lastForChecking)
+					);
 			}
-		return null;
+		lastForChecking = smallest;	
+		return smallest;
 		}
 	
 	@Override
 	public void close() {
-		CloserUtil.close(this.buffer);
+		for(final Source<T> source: this.queue) {
+			CloserUtil.close(source.delegate);
+			}
+		this.queue.clear();
 		}
 	}
@@ -36,6 +36,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -62,6 +63,7 @@ import com.github.lindenb.jvarkit.tests.TestRunnerImpl;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamRecordFilterFactory;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.ParallelSortingCollection;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
 
@@ -74,6 +76,7 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.ProgressLoggerInterface;
+import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -179,6 +182,12 @@ public class WritingSortingCollection
 	@Parameter(names={"--tmpDir"},description= "tmp working directory. Default: java.io.tmpDir")
 	private List<File> tmpDirs=new ArrayList<>();
 	
+	@Parameter(names={"--sort-threads"},description= "When sorting, number of background threads sorting and writing the chunks of records while the records are being read. 0: use the main thread. The number of records in memory can go up to (threads+1)*maxRecordsInRam and the comparator is called from several threads.")
+	private int sortThreads = 0;
+
+	@Parameter(names={"--sort-compression"},description= "When sorting, compression level (0-9) of the temporary files. 0: no compression.")
+	private int sortCompressionLevel = Deflater.BEST_SPEED;
+	
 	
 	public WritingSortingCollection maxRecordsInRam(final int n)
 		{
@@ -204,6 +213,27 @@ public class WritingSortingCollection
 	public Path getTmpPath() {
 		return getTmpPaths()[0];
 		}
+	public int getSortThreads() {
+		return this.sortThreads;
+		}
+	public int getSortCompressionLevel() {
+		return this.sortCompressionLevel;
+		}
+	/** creates a new {@link ParallelSortingCollection} using the parameters of this object */
+	public <T> ParallelSortingCollection<T> newInstance(
+			final Class<T> componentType,
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator) {
+		return new ParallelSortingCollection<>(
+				componentType,
+				codec,
+				comparator,
+				getMaxRecordsInRam(),
+				getSortThreads(),
+				getSortCompressionLevel(),
+				getTmpPaths()
+				);
+		}
 	}	
 
 public static enum WritingSamReaderType
@@ -39,6 +39,7 @@ import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.ChromosomeSequence;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
+import com.github.lindenb.jvarkit.util.bio.fasta.GCIndex;
 
 /**
  * 
@@ -52,6 +53,8 @@ public class GenomicSequence
 	{
 	private final ReferenceSequenceFile indexedFastaSequenceFile;
 	private final SAMSequenceRecord samSequenceRecord;
+	/** precomputed GC counts, may be null */
+	private final GCIndex.ContigIndex gcIndex;
 	private byte buffer[]=null;
 	private int buffer_pos=-1;
 	private int half_buffer_capacity = 1_000_000;
@@ -61,6 +64,7 @@ public class GenomicSequence
 		public int getAllCount();
 		public int getGCCount();
 		public int getATCount();
+		public int getNCount();
 		/** return true if getAllCount==0 */
 		public boolean isEmpty();
 		/** return GC% as double between 0 and 1 . return -1 if interval isEmpty */
@@ -86,6 +90,7 @@ public class GenomicSequence
 		int count=0;
 		int count_gc=0;
 		int count_at=0;
+		int count_n=0;
 
 		GCPercentImpl(String contig,int s1,int e1) {
 			this.contig = contig;
@@ -95,6 +100,7 @@ public class GenomicSequence
 		@Override public int getAllCount() { return this.count;}
 		@Override public int getGCCount() { return this.count_gc;}
 		@Override public int getATCount(){ return this.count_at;}
+		@Override public int getNCount(){ return this.count_n;}
 		@Override
 		public boolean isEmpty() { return this.count == 0; }
 		@Override
@@ -146,12 +152,21 @@ public class GenomicSequence
 		}
 	
 	public GenomicSequence(final ReferenceSequenceFile indexedFastaSequenceFile ,final String chrom)
+		{	
+		this(indexedFastaSequenceFile,chrom,null);
+		}
+	
+	/**
+	 * @param gcIndex the GC index of the reference, see {@link GCIndex#openIfExists(java.nio.file.Path)}. May be null.
+	 */
+	public GenomicSequence(final ReferenceSequenceFile indexedFastaSequenceFile ,final String chrom,final GCIndex gcIndex)
 		{	
 		this.indexedFastaSequenceFile=indexedFastaSequenceFile;
 		if(this.indexedFastaSequenceFile==null) throw new NullPointerException("IndexedFastaSequenceFile is null");
 		final SAMSequenceDictionary dict= SequenceDictionaryUtils.extractRequired(indexedFastaSequenceFile);
 		this.samSequenceRecord= dict.getSequence(chrom);
 		if(this.samSequenceRecord==null) throw new JvarkitException.ContigNotFoundInDictionary(chrom,dict);
+		this.gcIndex = (gcIndex==null?null:gcIndex.getContigIndex(this.samSequenceRecord.getSequenceName(), this.samSequenceRecord.getSequenceLength()));
 		}
 	
 	public SAMSequenceRecord getSAMSequenceRecord()
@@ -199,7 +214,7 @@ public class GenomicSequence
 		return (char)buffer[index0-minStart];
 		}
 	
-	/** return GC% between start (inclusive, 0 based) and end (exclusive)) */
+	/** return GC% between start (inclusive, 0 based) and end (exclusive)). Uses the GC index if it was provided */
 	public GCPercent getGCPercent(int start,int end) {
 		final int L=this.length();
 		final GCPercentImpl gcp = new GCPercentImpl(
@@ -207,6 +222,15 @@ public class GenomicSequence
 				start+1,
 				Math.min(end, L)
 				);
+		if(this.gcIndex!=null && start>=0) {
+			final int[] counts = new int[3];
+			this.gcIndex.count(this, start, end, counts);
+			gcp.count = Math.max(0, Math.min(end, L) - start);
+			gcp.count_gc = counts[0];
+			gcp.count_at = counts[1];
+			gcp.count_n = counts[2];
+			return gcp;
+			}
 		for(int i=start;i< end && i< L;++i) {
 			gcp.count++;
 			switch(this.charAt(i)) {
@@ -216,6 +240,7 @@ public class GenomicSequence
 				case 'a': case 'A':
 				case 't': case 'T':
 				case 'w': case 'W':gcp.count_at++; break;
+				case 'n': case 'N':gcp.count_n++; break;
 				}
 			}
 		return gcp;
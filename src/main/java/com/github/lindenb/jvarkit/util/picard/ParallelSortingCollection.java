@@ -0,0 +1,461 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * A replacement for htsjdk {@link SortingCollection}:
+ * <ul>
+ *   <li>full chunks of records are sorted and written to disk by background threads while the producer keeps adding records</li>
+ *   <li>the temporary files are compressed (Deflater)</li>
+ *   <li>the temporary files are merged using a loser tree</li>
+ * </ul>
+ * The order of the records is the same as with SortingCollection: records comparing equal
+ * are returned in the order they were added.
+ * With N threads, up to (N+1)*maxRecordsInRam records are held in memory.
+ * The iteration is destructive: {@link #iterator()} can only be called once.
+ * When threads are used, the comparator and the codec clones are called from the background threads:
+ * they must not modify a state shared with the producer.
+ */
+public class ParallelSortingCollection<T> implements Iterable<T> {
+	private static final Logger LOG = Logger.build(ParallelSortingCollection.class).make();
+	/** merge the temporary files by groups if there are more than this number of files */
+	private static final int MAX_OPEN_FILES = 500;
+	private static final int IO_BUFFER_SIZE = 65_536;
+	private final Class<T> componentType;
+	private final SortingCollection.Codec<T> codec;
+	private final Comparator<T> comparator;
+	private final int maxRecordsInRam;
+	private final Path tmpDirs[];
+	private final int compressionLevel;
+	/** limits the number of chunks in memory */
+	private final Semaphore permits;
+	private final ExecutorService executor;
+	private T buffer[];
+	private int bufferSize = 0;
+	/** sorted runs written on disk, in the order of creation */
+	private final List<Future<Path>> runs = new ArrayList<>();
+	private final List<Path> tmpFiles = new ArrayList<>();
+	private boolean doneAdding = false;
+	private boolean iterated = false;
+	private boolean cleanedUp = false;
+
+	/**
+	 * @param componentType class of the records
+	 * @param codec codec used to write/read the temporary files. Cloned for each file.
+	 * @param comparator records comparator
+	 * @param maxRecordsInRam number of records in one chunk
+	 * @param nThreads number of background threads sorting and writing the chunks. 0: use the calling thread.
+	 * @param compressionLevel compression level of the temporary files. 0: no compression
+	 * @param tmpDirs temporary directories, used in turn
+	 */
+	public ParallelSortingCollection(
+			final Class<T> componentType,
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator,
+			final int maxRecordsInRam,
+			final int nThreads,
+			final int compressionLevel,
+			final Path... tmpDirs) {
+		if(maxRecordsInRam<=0) throw new IllegalArgumentException("maxRecordsInRam must be > 0");
+		if(tmpDirs==null || tmpDirs.length==0) throw new IllegalArgumentException("At least one temp directory must be provided.");
+		if(compressionLevel<0 || compressionLevel>9) throw new IllegalArgumentException("bad compression level "+compressionLevel);
+		this.componentType = componentType;
+		this.codec = codec;
+		this.comparator = comparator;
+		this.maxRecordsInRam = maxRecordsInRam;
+		this.tmpDirs = tmpDirs;
+		this.compressionLevel = compressionLevel;
+		this.buffer = newArray();
+		if(nThreads<=0) {
+			this.executor = null;
+			this.permits = null;
+			}
+		else
+			{
+			this.executor = Executors.newFixedThreadPool(nThreads, R->{
+				final Thread t = new Thread(R, "sorting-collection");
+				t.setDaemon(true);
+				return t;
+				});
+			this.permits = new Semaphore(nThreads);
+			}
+		}
+
+	@SuppressWarnings("unchecked")
+	private T[] newArray() {
+		return (T[])Array.newInstance(this.componentType, this.maxRecordsInRam);
+		}
+
+	public void add(final T record) {
+		if(this.doneAdding) throw new IllegalStateException("Cannot add after calling doneAdding()");
+		this.buffer[this.bufferSize++] = record;
+		if(this.bufferSize==this.maxRecordsInRam) {
+			spill();
+			}
+		}
+
+	/** sort the current chunk and write it in a temporary file */
+	private void spill() {
+		final T chunk[] = this.buffer;
+		final int n = this.bufferSize;
+		final Path tmpFile = createTmpFile();
+		this.buffer = newArray();
+		this.bufferSize = 0;
+		if(this.executor==null) {
+			writeRun(chunk, n, tmpFile);
+			this.runs.add(CompletableFuture.completedFuture(tmpFile));
+			return;
+			}
+		checkErrors();
+		try {
+			this.permits.acquire();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeIOException(err);
+			}
+		this.runs.add(this.executor.submit(()->{
+			try {
+				return writeRun(chunk, n, tmpFile);
+				}
+			finally
+				{
+				this.permits.release();
+				}
+			}));
+		}
+
+	private Path createTmpFile() {
+		try {
+			final Path dir = this.tmpDirs[this.tmpFiles.size() % this.tmpDirs.length];
+			final Path tmpFile = Files.createTempFile(dir, "sortingcollection.", ".tmp");
+			tmpFile.toFile().deleteOnExit();
+			this.tmpFiles.add(tmpFile);
+			return tmpFile;
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	/** rethrow the error of a background thread, if any */
+	private void checkErrors() {
+		for(final Future<Path> f: this.runs) {
+			if(f.isDone()) getRun(f);
+			}
+		}
+
+	private static Path getRun(final Future<Path> f) {
+		try {
+			return f.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeIOException(err);
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+			throw new RuntimeIOException(err.getCause());
+			}
+		}
+
+	private OutputStream openOutput(final Path path) throws IOException {
+		final OutputStream os = Files.newOutputStream(path);
+		if(this.compressionLevel==0) return new BufferedOutputStream(os, IO_BUFFER_SIZE);
+		return new BufferedOutputStream(new DeflaterOutputStream(os, new Deflater(this.compressionLevel), IO_BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+					}
+				finally
+					{
+					/* the Deflater was not created by DeflaterOutputStream: release the native memory */
+					this.def.end();
+					}
+				}
+			}, IO_BUFFER_SIZE);
+		}
+
+	private InputStream openInput(final Path path) throws IOException {
+		final InputStream is = Files.newInputStream(path);
+		if(this.compressionLevel==0) return new BufferedInputStream(is, IO_BUFFER_SIZE);
+		return new BufferedInputStream(new InflaterInputStream(is, new Inflater(), IO_BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+					}
+				finally
+					{
+					this.inf.end();
+					}
+				}
+			}, IO_BUFFER_SIZE);
+		}
+
+	private Path writeRun(final T chunk[], final int n, final Path tmpFile) {
+		Arrays.sort(chunk, 0, n, this.comparator);
+		return writeRun(Arrays.asList(chunk).subList(0, n).iterator(), tmpFile);
+		}
+
+	private Path writeRun(final Iterator<T> iter, final Path tmpFile) {
+		final SortingCollection.Codec<T> c = this.codec.clone();
+		try(OutputStream os = openOutput(tmpFile)) {
+			c.setOutputStream(os);
+			while(iter.hasNext()) {
+				c.encode(iter.next());
+				}
+			os.flush();
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		return tmpFile;
+		}
+
+	/** no more records will be added */
+	public void doneAdding() {
+		if(this.doneAdding) return;
+		this.doneAdding = true;
+		/* the last chunk is kept in memory */
+		Arrays.sort(this.buffer, 0, this.bufferSize, this.comparator);
+		for(final Future<Path> f: this.runs) {
+			getRun(f);
+			}
+		if(this.executor!=null) this.executor.shutdown();
+		}
+
+	/** a sorted run, with its current record */
+	private abstract class Run implements Closeable {
+		T head = null;
+		/** load the next record in head. head is null at the end */
+		abstract void advance();
+		@Override
+		public void close() {
+			}
+		}
+
+	private class FileRun extends Run {
+		private final InputStream in;
+		private final SortingCollection.Codec<T> c;
+		FileRun(final Path path) {
+			try {
+				this.in = openInput(path);
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			this.c = codec.clone();
+			this.c.setInputStream(this.in);
+			advance();
+			}
+		@Override
+		void advance() {
+			this.head = this.c.decode();
+			if(this.head==null) close();
+			}
+		@Override
+		public void close() {
+			CloserUtil.close(this.in);
+			}
+		}
+
+	private class MemoryRun extends Run {
+		private final T array[];
+		private final int n;
+		private int i = 0;
+		MemoryRun(final T array[], final int n) {
+			this.array = array;
+			this.n = n;
+			advance();
+			}
+		@Override
+		void advance() {
+			if(this.i < this.n) {
+				this.head = this.array[this.i];
+				this.array[this.i] = null;
+				this.i++;
+				}
+			else
+				{
+				this.head = null;
+				}
+			}
+		}
+
+	/** merges sorted runs with a loser tree. Equal records are returned in the order of the runs. */
+	private class LoserTree implements CloseableIterator<T> {
+		private final List<Run> sources;
+		/** tree[0] is the winner, tree[1..k-1] the losers of each match */
+		private final int tree[];
+		LoserTree(final List<Run> sources) {
+			this.sources = sources;
+			final int k = sources.size();
+			this.tree = new int[Math.max(1, k)];
+			if(k==0) return;
+			final int winners[] = new int[2*k];
+			for(int i=0;i< k;i++) winners[k+i] = i;
+			for(int n=k-1;n>=1;n--) {
+				final int a = winners[2*n];
+				final int b = winners[2*n+1];
+				if(beats(a, b)) {
+					winners[n] = a;
+					this.tree[n] = b;
+					}
+				else
+					{
+					winners[n] = b;
+					this.tree[n] = a;
+					}
+				}
+			this.tree[0] = (k==1 ? 0 : winners[1]);
+			}
+		/** @return true if the head of run 'a' comes before the head of run 'b' */
+		private boolean beats(final int a, final int b) {
+			final T ta = this.sources.get(a).head;
+			final T tb = this.sources.get(b).head;
+			if(ta==null) return tb==null && a < b;
+			if(tb==null) return true;
+			final int i = comparator.compare(ta, tb);
+			if(i!=0) return i < 0;
+			return a < b;
+			}
+		@Override
+		public boolean hasNext() {
+			return !this.sources.isEmpty() && this.sources.get(this.tree[0]).head!=null;
+			}
+		@Override
+		public T next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			int w = this.tree[0];
+			final Run run = this.sources.get(w);
+			final T rec = run.head;
+			run.advance();
+			/* replay the matches from the leaf of the winner to the root */
+			final int k = this.sources.size();
+			for(int n=(w+k)/2; n>=1; n/=2) {
+				if(beats(this.tree[n], w)) {
+					final int tmp = this.tree[n];
+					this.tree[n] = w;
+					w = tmp;
+					}
+				}
+			this.tree[0] = w;
+			return rec;
+			}
+		@Override
+		public void close() {
+			for(final Run r:this.sources) r.close();
+			}
+		}
+
+	/** @return the records, sorted. Can only be called once. */
+	@Override
+	public CloseableIterator<T> iterator() {
+		if(this.cleanedUp) throw new IllegalStateException("Cannot call iterator() after cleanup() was called.");
+		if(this.iterated) throw new IllegalStateException("iterator() can only be called once.");
+		doneAdding();
+		this.iterated = true;
+		final List<Path> files = new ArrayList<>(this.runs.size());
+		for(final Future<Path> f: this.runs) files.add(getRun(f));
+		this.runs.clear();
+		/* limit the number of open files */
+		while(files.size() + 1 > MAX_OPEN_FILES) {
+			final List<Path> group = new ArrayList<>(files.subList(0, MAX_OPEN_FILES));
+			LOG.debug("merging "+group.size()+" temporary files");
+			final List<Run> sources = new ArrayList<>(group.size());
+			for(final Path p: group) sources.add(new FileRun(p));
+			final Path merged = createTmpFile();
+			try(LoserTree tree = new LoserTree(sources)) {
+				writeRun(tree, merged);
+				}
+			for(final Path p: group) deleteTmpFile(p);
+			files.subList(0, MAX_OPEN_FILES).clear();
+			files.add(0, merged);
+			}
+		final List<Run> sources = new ArrayList<>(files.size() + 1);
+		for(final Path p: files) sources.add(new FileRun(p));
+		sources.add(new MemoryRun(this.buffer, this.bufferSize));
+		this.buffer = null;
+		this.bufferSize = 0;
+		return new LoserTree(sources);
+		}
+
+	private void deleteTmpFile(final Path p) {
+		try {
+			Files.deleteIfExists(p);
+			}
+		catch(final IOException err) {
+			LOG.warn("cannot delete "+p);
+			}
+		this.tmpFiles.remove(p);
+		}
+
+	/** delete the temporary files */
+	public void cleanup() {
+		this.cleanedUp = true;
+		this.buffer = null;
+		if(this.executor!=null) {
+			this.executor.shutdownNow();
+			}
+		for(final Path p: new ArrayList<>(this.tmpFiles)) {
+			deleteTmpFile(p);
+			}
+		}
+	}
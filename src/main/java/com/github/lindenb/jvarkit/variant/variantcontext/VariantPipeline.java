@@ -0,0 +1,55 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.variant.variantcontext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * A per-record transformation of a VCF, that can be run by a {@link VariantPipelineExecutor}
+ * using several threads.
+ */
+public interface VariantPipeline {
+	/** transforms the variants. A Transformer is only used by one thread.
+	 * The variants given to {@link #apply(VariantContext, Consumer)} are fully decoded, but other transformers
+	 * may run at the same time in other threads: a Transformer must not share a mutable state with the others
+	 * and the variants sent to 'out' are written by another thread. */
+	public static interface Transformer extends Closeable {
+		/** transforms one variant. Sends zero, one or more variants to 'out' */
+		public void apply(VariantContext ctx,Consumer<VariantContext> out) throws IOException;
+		/** release the resources of this transformer */
+		@Override
+		public default void close() throws IOException {
+			}
+		}
+	/** @return the header of the output VCF */
+	public VCFHeader getOutputHeader();
+	/** create a new transformer. Called once per thread: it can hold resources that are not thread-safe */
+	public Transformer createTransformer() throws IOException;
+	}
@@ -0,0 +1,192 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.variant.variantcontext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Runs a {@link VariantPipeline} using three stages:
+ * <ul>
+ *   <li>a decoder thread reading batches of variants</li>
+ *   <li>N worker threads, each one owning a Transformer</li>
+ *   <li>the calling thread, writing the batches in the original order</li>
+ * </ul>
+ * The output is the same as the output of a single thread.
+ * The codec of a VCF reader is not thread-safe: with more than one thread, the decoder thread
+ * decodes the lazy genotypes of the variants before they are sent to the workers and to the writer.
+ */
+public class VariantPipelineExecutor {
+	/** marks the end of the batches */
+	private static final Future<List<VariantContext>> END_OF_BATCHES = CompletableFuture.completedFuture(null);
+	private int nThreads = 1;
+	private int batchSize = 1_000;
+
+	/** set the number of worker threads. A value lower than 1 means use all procs available */
+	public VariantPipelineExecutor setThreads(final int nThreads) {
+		this.nThreads = nThreads < 1 ? Runtime.getRuntime().availableProcessors() : nThreads;
+		return this;
+		}
+
+	public int getThreads() {
+		return nThreads;
+		}
+
+	/** set the number of variants sent to a worker */
+	public VariantPipelineExecutor setBatchSize(final int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+		return this;
+		}
+
+	public int getBatchSize() {
+		return batchSize;
+		}
+
+	/** transforms the variants of 'iter' and sends the result to 'out', in order */
+	public void execute(
+			final Iterator<VariantContext> iter,
+			final VariantPipeline pipeline,
+			final Consumer<VariantContext> out
+			) throws IOException {
+		if(this.nThreads<=1) {
+			try(VariantPipeline.Transformer transformer = pipeline.createTransformer()) {
+				while(iter.hasNext()) {
+					transformer.apply(iter.next(), out);
+					}
+				}
+			return;
+			}
+
+		/* one transformer per thread, closed at the end */
+		final List<VariantPipeline.Transformer> transformers = Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<VariantPipeline.Transformer> threadTransformer = new ThreadLocal<>();
+		final ExecutorService workers = Executors.newFixedThreadPool(this.nThreads);
+		/* FIFO of the batches being transformed: the order of the input is preserved and the memory is bounded */
+		final BlockingQueue<Future<List<VariantContext>>> pending = new ArrayBlockingQueue<>(this.nThreads * 2);
+
+		final Thread decoder = new Thread(()->{
+			try {
+				while(iter.hasNext() && !Thread.currentThread().isInterrupted()) {
+					final List<VariantContext> batch = new ArrayList<>(this.batchSize);
+					while(iter.hasNext() && batch.size() < this.batchSize) {
+						final VariantContext ctx = iter.next();
+						/* the genotypes would be decoded later by the workers using the codec of the reader, still used by this thread */
+						if(ctx.getGenotypes() instanceof LazyGenotypesContext) {
+							LazyGenotypesContext.class.cast(ctx.getGenotypes()).decode();
+							}
+						batch.add(ctx);
+						}
+					pending.put(workers.submit(()->{
+						VariantPipeline.Transformer transformer = threadTransformer.get();
+						if(transformer==null) {
+							transformer = pipeline.createTransformer();
+							transformers.add(transformer);
+							threadTransformer.set(transformer);
+							}
+						final List<VariantContext> result = new ArrayList<>(batch.size());
+						for(final VariantContext ctx : batch) {
+							transformer.apply(ctx, result::add);
+							}
+						return result;
+						}));
+					}
+				pending.put(END_OF_BATCHES);
+				}
+			catch(final InterruptedException err) {
+				/* writer has stopped */
+				}
+			catch(final Throwable err) {
+				final CompletableFuture<List<VariantContext>> failed = new CompletableFuture<>();
+				failed.completeExceptionally(err);
+				try {
+					pending.put(failed);
+					}
+				catch(final InterruptedException err2) {
+					/* writer has stopped */
+					}
+				}
+			},"variant-decoder");
+		decoder.setDaemon(true);
+		decoder.start();
+
+		try {
+			for(;;) {
+				final List<VariantContext> result = pending.take().get();
+				if(result==null) break;
+				for(final VariantContext ctx: result) {
+					out.accept(ctx);
+					}
+				}
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+			}
+		finally {
+			decoder.interrupt();
+			workers.shutdownNow();
+			try {
+				decoder.join(TimeUnit.MINUTES.toMillis(1L));
+				workers.awaitTermination(1L, TimeUnit.MINUTES);
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				}
+			synchronized(transformers) {
+				for(final VariantPipeline.Transformer transformer: transformers) {
+					CloserUtil.close(transformer);
+					}
+				}
+			}
+		}
+
+	@Override
+	public String toString() {
+		return "VariantPipelineExecutor(threads:"+getThreads()+",batch-size:"+getBatchSize()+")";
+		}
+	}
@@ -24,11 +24,14 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.variant.variantcontext.writer;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.IOUtils;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
 import htsjdk.variant.vcf.VCFHeader;
@@ -60,7 +63,17 @@ public VariantContextWriter open(final Path pathOrNull) {
 	if(this.dict!=null) vcwb.setReferenceDictionary(this.dict);
 	vcwb.clearOptions();
 	
-	if(pathOrNull!=null) {
+	if(pathOrNull!=null && !this.generate_md5 && IOUtils.getBgzfThreads()>1 && pathOrNull.getFileName().toString().endsWith(".vcf.gz")) {
+		/* bgzip the VCF using several threads */
+		vcwb.setCreateMD5(false);
+		try {
+			vcwb.setOutputVCFStream(IOUtils.openPathForWriting(pathOrNull));
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+	else if(pathOrNull!=null) {
 		vcwb.setCreateMD5(this.generate_md5);
 		// output type : Determines file type implicitly from the filename.
 		vcwb.setOutputPath(pathOrNull);
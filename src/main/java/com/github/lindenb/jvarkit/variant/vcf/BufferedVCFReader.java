@@ -26,7 +26,13 @@ package com.github.lindenb.jvarkit.variant.vcf;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 import java.util.function.UnaryOperator;
 
 import com.github.lindenb.jvarkit.iterator.AbstractCloseableIterator;
@@ -34,25 +40,78 @@ import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Locatable;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFReader;
 
 /**
- * A buffered VCFReader that stores the last query in memory
+ * A buffered VCFReader that stores the last queried window in memory.
+ * When the queries move forward on a chromosome, the window slides: the
+ * variants still overlapping the new window are kept and only the new bases
+ * are read from the delegate. Optionally, the next window can be prefetched
+ * in a background thread.
  *
  */
 public class BufferedVCFReader implements VCFReader {
 	public static final String OPT_BUFFER_DESC = "When we're looking for variant in a lare VCF file, load the variants in an interval of 'N' bases instead of doing a random access for each variant.";
 	private final VCFReader delegate;
 	private final int buffSizeInBp;
-	private final List<VariantContext> buffer = new ArrayList<>();
+	/** variants overlapping lastInterval, sorted on start. Never modified, replaced when the window changes */
+	private List<VariantContext> buffer = Collections.emptyList();
+	/** max(end-start) in buffer, used to find the variants starting before a query */
+	private int maxVariantLength = 0;
 	private Locatable lastInterval = null;
 	private UnaryOperator<VariantContext> simplifier = V->V;
-	private class MyIter extends AbstractCloseableIterator<VariantContext> {
-		int i=0;
+	private boolean prefetch = false;
+	private ExecutorService executor = null;
+	private Prefetch nextWindow = null;
+
+	/** variants of the window following lastInterval, loaded in the background */
+	private class Prefetch {
+		final Locatable interval;
+		volatile boolean discarded = false;
+		final Future<List<VariantContext>> future;
+		Prefetch(final Locatable interval) {
+			this.interval = interval;
+			this.future = executor.submit(()->{
+				return fetch(this.interval, this.interval.getStart()-1, ()->this.discarded);
+				});
+			}
+		/** wait for the background thread and get the variants */
+		List<VariantContext> get() {
+			try {
+				return this.future.get();
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeIOException(err);
+				}
+			catch(final ExecutionException err) {
+				if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+				throw new RuntimeIOException(err.getCause());
+				}
+			}
+		/** stop the background thread: the delegate can then be used by the caller */
+		void discard() {
+			this.discarded = true;
+			try {
+				get();
+				}
+			catch(final RuntimeException err) {
+				/* ignore, the variants are not used */
+				}
+			}
+		}
+
+	private static class MyIter extends AbstractCloseableIterator<VariantContext> {
+		final List<VariantContext> buffer;
+		int i;
 		final Locatable query;
-		MyIter(Locatable query) {
+		MyIter(final List<VariantContext> buffer,int i,final Locatable query) {
+			this.buffer = buffer;
+			this.i = i;
 			this.query = query;
 			}
 		@Override
@@ -80,6 +139,13 @@ public class BufferedVCFReader implements VCFReader {
 		return this;
 		}
 	
+	/** if true, the next window is loaded in a background thread while the current one is used.
+	 * Useful when the queries are sorted. The delegate is never used by two threads at the same time. */
+	public BufferedVCFReader setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+		return this;
+		}
+	
 	/** 
 	 * @param delegate the delegate {@link VCFReader}
 	 * @param buffSizeInBp buffer size in bp
@@ -97,8 +163,14 @@ public class BufferedVCFReader implements VCFReader {
 	/** close this and the delegate */
 	@Override
 	public void close() throws IOException {
+		discardPrefetch();
+		if(this.executor!=null) {
+			this.executor.shutdown();
+			this.executor = null;
+			}
 		this.getDelegate().close();
-		this.buffer.clear();
+		this.buffer = Collections.emptyList();
+		this.lastInterval = null;
 	}
 
 	/* (non-Javadoc)
@@ -114,6 +186,42 @@ public class BufferedVCFReader implements VCFReader {
 		return simplifier==null?ctx:simplifier.apply(ctx);
 	}
 	
+	/** load the simplified variants overlapping 'interval' and starting after 'minStart'.
+	 * With prefetch, the genotypes are decoded here: they are decoded by the codec of the delegate, which is not thread-safe
+	 * and may be parsing the next window in the background when the caller reads the genotypes */
+	private List<VariantContext> fetch(final Locatable interval,final int minStart,final BooleanSupplier stop) {
+		final List<VariantContext> L = new ArrayList<>();
+		try(CloseableIterator<VariantContext> iter = this.getDelegate().query(interval)) {
+			while(iter.hasNext() && !stop.getAsBoolean()) {
+				final VariantContext ctx0 = iter.next();
+				if(ctx0.getStart()<=minStart) continue;
+				final VariantContext ctx=simplify(ctx0);
+				if(ctx==null) continue;
+				if(this.prefetch && ctx.getGenotypes() instanceof LazyGenotypesContext) {
+					LazyGenotypesContext.class.cast(ctx.getGenotypes()).decode();
+					}
+				L.add(ctx);
+				}
+			}
+		return L;
+		}
+	
+	private void discardPrefetch() {
+		if(this.nextWindow==null) return;
+		final Prefetch p = this.nextWindow;
+		this.nextWindow = null;
+		p.discard();
+		}
+	
+	/** append the variants to the buffer, the window is extended to 'newEnd' */
+	private void append(final List<VariantContext> L, final int newEnd) {
+		for(final VariantContext ctx:L) {
+			this.maxVariantLength = Math.max(this.maxVariantLength, ctx.getEnd()-ctx.getStart());
+			}
+		this.buffer.addAll(L);
+		this.lastInterval = new SimpleInterval(this.lastInterval.getContig(), this.lastInterval.getStart(), newEnd);
+		}
+
 	/* (non-Javadoc)
 	 * @see htsjdk.variant.vcf.VCFReader#query(java.lang.String, int, int)
 	 */
@@ -121,17 +229,67 @@ public class BufferedVCFReader implements VCFReader {
 	public CloseableIterator<VariantContext> query(final String chrom, int start, int end) {
 		final Locatable query = new SimpleInterval(chrom,start,end);
 		if(this.lastInterval==null || !this.lastInterval.contains(query)) {
-			this.buffer.clear();
-			this.lastInterval = new SimpleInterval(chrom, start, Math.max(end, start+this.buffSizeInBp));
-			try(CloseableIterator<VariantContext> iter = this.getDelegate().query(this.lastInterval)) {
-				while(iter.hasNext()) {
-					final VariantContext ctx=simplify(iter.next());
-					if(ctx==null) continue;
-					this.buffer.add(ctx);
+			final int newEnd = Math.max(end, start+this.buffSizeInBp);
+			if(this.lastInterval!=null &&
+				this.lastInterval.contigsMatch(query) &&
+				start >= this.lastInterval.getStart() &&
+				start <= (this.nextWindow==null?this.lastInterval.getEnd():this.nextWindow.interval.getEnd()) + 1) {
+				/* slide the window: keep the variants overlapping the new window */
+				final List<VariantContext> L = new ArrayList<>(this.buffer.size());
+				for(final VariantContext ctx:this.buffer) {
+					if(ctx.getEnd()>=start) L.add(ctx);
+					}
+				this.buffer = L;
+				this.lastInterval = new SimpleInterval(chrom, start, this.lastInterval.getEnd());
+				if(this.nextWindow!=null) {
+					final Prefetch p = this.nextWindow;
+					this.nextWindow = null;
+					append(p.get(), p.interval.getEnd());
+					}
+				if(this.lastInterval.getEnd() < newEnd) {
+					final int prevEnd = this.lastInterval.getEnd();
+					append(fetch(new SimpleInterval(chrom, prevEnd+1, newEnd), prevEnd, ()->false), newEnd);
 					}
 				}
+			else
+				{
+				discardPrefetch();
+				this.lastInterval = new SimpleInterval(chrom, start, newEnd);
+				this.buffer = fetch(this.lastInterval, 0, ()->false);
+				this.maxVariantLength = 0;
+				for(final VariantContext ctx:this.buffer) {
+					this.maxVariantLength = Math.max(this.maxVariantLength, ctx.getEnd()-ctx.getStart());
+					}
+				}
+			if(this.prefetch) {
+				if(this.executor==null) {
+					this.executor = Executors.newSingleThreadExecutor(R->{
+						final Thread t = new Thread(R, "vcf-prefetch");
+						t.setDaemon(true);
+						return t;
+						});
+					}
+				this.nextWindow = new Prefetch(new SimpleInterval(chrom, this.lastInterval.getEnd()+1, this.lastInterval.getEnd()+this.buffSizeInBp));
+				}
+			}
+		return new MyIter(this.buffer, lowerBound(start - this.maxVariantLength), query);
+		}
+
+	/** @return the index of the first variant in the buffer with start >= pos */
+	private int lowerBound(final int pos) {
+		int lo = 0;
+		int hi = this.buffer.size();
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(this.buffer.get(mid).getStart() < pos) {
+				lo = mid + 1;
+				}
+			else
+				{
+				hi = mid;
+				}
 			}
-		return new MyIter(query);
+		return lo;
 		}
 
 	/* (non-Javadoc)
@@ -147,6 +305,7 @@ public class BufferedVCFReader implements VCFReader {
 	 */
 	@Override
 	public CloseableIterator<VariantContext> iterator() {
+		discardPrefetch();
 		return this.getDelegate().iterator();
 	}
 
@@ -96,6 +96,7 @@ public class BBFileReader {
     private static Logger log = LogManager.getLogger(BBFileReader.class);
 
     private SeekableStream fis;      // BBFile input stream handle
+    private DataBlockCacheStream blockCache; // decompressed data blocks, same stream as fis
     private long fileOffset;           // file offset for next item to be read
 
     private BBFileHeader fileHeader; // Big Binary file header
@@ -143,6 +144,8 @@ public class BBFileReader {
         		{
         		fis = seekable;
         		}
+        blockCache = new DataBlockCacheStream(fis);
+        fis = blockCache;
         // read in file header
         fileOffset = BBFILE_HEADER_OFFSET;
         fileHeader = new BBFileHeader(path, fis, fileOffset);
@@ -211,6 +214,14 @@ public class BBFileReader {
 
 
 
+    /**
+     * Sets the number of decompressed data blocks kept in memory. 0 (default) disables the cache.
+     * Useful when the queries are sorted: neighbouring queries often use the same data block.
+     */
+    public void setDataBlockCacheSize(int nBlocks) {
+        blockCache.setCapacity(nBlocks);
+    }
+
     public void close() {
         try {
             fis.close();
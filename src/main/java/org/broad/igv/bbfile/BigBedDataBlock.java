@@ -27,7 +27,6 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.broad.igv.logging.*;
-import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.LittleEndianInputStream;
 
 import java.io.ByteArrayOutputStream;
@@ -91,21 +90,13 @@ public class BigBedDataBlock {
         this.isLowToHigh = isLowToHigh;
 
         dataBlockSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) dataBlockSize];
-
         fileOffset = this.leafHitItem.getDataOffset();
 
         // read Bed data block into a buffer
         try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
-
             // decompress if necessary - the buffer size is 0 for uncompressed data
             // Note:  BBFile Table C specifies a decompression buffer size
-            if (uncompressBufSize > 0)
-                bedBuffer = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
-            else
-                bedBuffer = buffer;    // use uncompressed read buffer directly
+            bedBuffer = DataBlockCacheStream.readDataBlock(fis, fileOffset, (int) dataBlockSize, uncompressBufSize);
 
         } catch (IOException ex) {
             String error = String.format("Error reading Bed data for leaf item %d \n");
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.util.CompressionUtils;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SeekableStream used by BBFileReader. Keeps the most recently used data blocks
+ * (BigWig, BigBed and zoom levels) decompressed in memory, so neighbouring queries
+ * don't read and inflate the same block again.
+ * The cache is disabled if its capacity is 0 (default).
+ */
+class DataBlockCacheStream extends SeekableStream {
+
+    private final SeekableStream delegate;
+    private int capacity = 0;
+    // key is the file offset of the data block
+    private final Map<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    DataBlockCacheStream(SeekableStream delegate) {
+        this.delegate = delegate;
+    }
+
+    /** set the max number of decompressed blocks kept in memory. 0 disables the cache */
+    synchronized void setCapacity(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("negative capacity " + capacity);
+        this.capacity = capacity;
+        if (capacity == 0) this.blocks.clear();
+    }
+
+    /**
+     * Returns the decompressed data block. The returned array must not be modified.
+     * <p/>
+     * Parameters:
+     * fileOffset - file offset of the data block
+     * dataSize - byte size of the compressed data block
+     * uncompressBufSize - byte size for decompression buffer; else 0 for uncompressed
+     */
+    synchronized byte[] getDataBlock(long fileOffset, int dataSize, int uncompressBufSize) throws IOException {
+        byte[] block = this.blocks.get(fileOffset);
+        if (block != null) return block;
+        byte[] buffer = new byte[dataSize];
+        this.delegate.seek(fileOffset);
+        this.delegate.readFully(buffer);
+        if (uncompressBufSize > 0)
+            block = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
+        else
+            block = buffer;
+        if (this.capacity > 0) this.blocks.put(fileOffset, block);
+        return block;
+    }
+
+    /**
+     * Returns the decompressed data block, using the cache if the stream is a DataBlockCacheStream
+     */
+    static byte[] readDataBlock(SeekableStream fis, long fileOffset, int dataSize, int uncompressBufSize) throws IOException {
+        if (fis instanceof DataBlockCacheStream) {
+            return ((DataBlockCacheStream) fis).getDataBlock(fileOffset, dataSize, uncompressBufSize);
+        }
+        byte[] buffer = new byte[dataSize];
+        fis.seek(fileOffset);
+        fis.readFully(buffer);
+        if (uncompressBufSize > 0)
+            return (new CompressionUtils()).decompress(buffer, uncompressBufSize);
+        return buffer;
+    }
+
+    @Override
+    public long length() {
+        return this.delegate.length();
+    }
+
+    @Override
+    public long position() throws IOException {
+        return this.delegate.position();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        this.delegate.seek(position);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return this.delegate.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        return this.delegate.read(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            this.blocks.clear();
+        }
+        this.delegate.close();
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return this.delegate.eof();
+    }
+
+    @Override
+    public String getSource() {
+        return this.delegate.getSource();
+    }
+}
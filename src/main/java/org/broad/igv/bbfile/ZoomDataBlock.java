@@ -27,7 +27,6 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.broad.igv.logging.*;
-import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.LittleEndianInputStream;
 
 import java.io.ByteArrayInputStream;
@@ -94,19 +93,12 @@ public class ZoomDataBlock {
 
         fileOffset = this.leafHitItem.getDataOffset();
         dataBlockSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) dataBlockSize];
 
         // read Bed data block into a buffer
         try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
-
             // decompress if necessary - the buffer size is 0 for uncomressed data
             // Note:  BBFile Table C specifies a decompression buffer size
-            if (uncompressBufSize > 0)
-                zoomBuffer = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
-            else
-                zoomBuffer = buffer;    // use uncompressed read buffer directly
+            zoomBuffer = DataBlockCacheStream.readDataBlock(fis, fileOffset, (int) dataBlockSize, uncompressBufSize);
 
         } catch (IOException ex) {
             log.error("Error reading Zoom level " + this.zoomLevel + " data for leaf item ",  ex);
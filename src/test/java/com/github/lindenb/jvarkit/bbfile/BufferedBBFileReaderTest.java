@@ -0,0 +1,115 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.bbfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.broad.igv.bbfile.BBFileReader;
+import org.broad.igv.bbfile.BigWigIterator;
+import org.broad.igv.bbfile.WigItem;
+import org.broad.igv.bbfile.ZoomDataRecord;
+import org.broad.igv.bbfile.ZoomLevelIterator;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+public class BufferedBBFileReaderTest {
+	private final TestSupport support =new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{1,false},{1,true},
+			{100,false},{100,true},
+			{10_000,false},{10_000,true}
+			};
+		}
+
+	private static String toString(final WigItem item) {
+		return item.getChromosome()+":"+item.getStartBase()+"-"+item.getEndBase()+"="+item.getWigValue();
+		}
+
+	@Test(dataProvider="src1")
+	public void testSameAsDelegate(final int bufferSize,final boolean contained) throws IOException {
+		final String bigwig = support.resource("Uniqueness35bp.bigWig");
+		final BBFileReader direct = new BBFileReader(bigwig);
+		try(BufferedBBFileReader buffered = new BufferedBBFileReader(new BBFileReader(bigwig), bufferSize)) {
+			final Random random = new Random(bufferSize);
+			int pos = 1_000_000;
+			while(pos < 1_040_000) {
+				final int end = pos + random.nextInt(random.nextBoolean()?10:2_000);
+				final List<String> expect = new ArrayList<>();
+				final BigWigIterator iter = direct.getBigWigIterator("chr1", pos-1, "chr1", end, contained);
+				while(iter.hasNext()) {
+					final WigItem item = iter.next();
+					if(item!=null) expect.add(toString(item));
+					}
+				final List<String> found = new ArrayList<>();
+				for(final WigItem item: buffered.queryWig("chr1", pos, end, contained)) {
+					found.add(toString(item));
+					}
+				Assert.assertEquals(found, expect, "chr1:"+pos+"-"+end);
+				/* sometimes go back or jump */
+				switch(random.nextInt(20)) {
+					case 0: pos = Math.max(1_000_000, pos - random.nextInt(5_000)); break;
+					case 1: pos += random.nextInt(20_000); break;
+					default: pos += 1 + random.nextInt(200); break;
+					}
+				}
+			}
+		finally {
+			direct.close();
+			}
+		}
+
+	@Test
+	public void testZoom() throws IOException {
+		final String bigwig = support.resource("Uniqueness35bp.bigWig");
+		final BBFileReader direct = new BBFileReader(bigwig);
+		try(BufferedBBFileReader buffered = new BufferedBBFileReader(new BBFileReader(bigwig), 1_000)) {
+			Assert.assertEquals(buffered.getZoomLevelCount(), direct.getZoomLevels().getZoomHeaderCount());
+			Assert.assertEquals(buffered.getBestZoomLevel(1), 0);
+			final int level = buffered.getBestZoomLevel(1_000);
+			Assert.assertTrue(level > 0);
+			Assert.assertTrue(direct.getZoomLevels().getZoomLevelHeader(level).getReductionLevel() <= 1_000);
+			int n = 0;
+			final ZoomLevelIterator iter = direct.getZoomLevelIterator(level, "chr1", 1_000_000, "chr1", 1_030_000, false);
+			while(iter.hasNext()) {
+				if(iter.next()!=null) n++;
+				}
+			final List<ZoomDataRecord> L = buffered.queryZoom(level, "chr1", 1_000_001, 1_030_000, false);
+			Assert.assertTrue(n > 0);
+			Assert.assertEquals(L.size(), n);
+			}
+		finally {
+			direct.close();
+			}
+		}
+	}
@@ -0,0 +1,151 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.hic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * rotavirus_rf.hic is a small version 8 file: intra-chromosomal matrices for RF01, RF02, RF03,
+ * resolutions BP 50 and BP 100, blocks of 8 bins and VC normalization vectors.
+ */
+public class HicReaderImplTest {
+	private final TestSupport support =new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{Normalization.NONE,50},
+			{Normalization.NONE,100},
+			{Normalization.VC,50},
+			{Normalization.VC,100}
+			};
+		}
+
+	private HicReaderImpl open() throws IOException {
+		return (HicReaderImpl)new HicReaderFactory().open(support.resource("rotavirus_rf.hic"));
+		}
+
+	/** run the query, return the contacts as strings */
+	private static List<String> query(final HicReader reader,final Locatable loc1,final Locatable loc2,final Normalization norm,final int binsize) {
+		final List<String> contacts = new ArrayList<>();
+		reader.query(loc1, loc2, norm, binsize, Unit.BP, new HicReader.QueryCallBack() {
+			@Override
+			public void reportContact(String contig1, int start1, int end1, String contig2, int start2, int end2,
+					Normalization norm, Unit unit, int binsize, float value) {
+				contacts.add(contig1+":"+start1+"-"+end1+" "+contig2+":"+start2+"-"+end2+" "+value);
+				}
+			@Override
+			public void warning(final Object o) {
+				Assert.fail(String.valueOf(o));
+				}
+			@Override
+			public void error(final Object o) {
+				Assert.fail(String.valueOf(o));
+				}
+			});
+		return contacts;
+		}
+
+	@Test
+	public void testHeader() throws IOException {
+		try(HicReaderImpl reader = open()) {
+			Assert.assertEquals(reader.getVersion(), 8);
+			Assert.assertEquals(reader.getBuild(), "rotavirus");
+			Assert.assertEquals(reader.getDictionary().size(), 3);
+			Assert.assertEquals(reader.getDictionary().getSequence("RF02").getSequenceLength(), 2687);
+			Assert.assertTrue(reader.getBasePairResolutions().contains(50));
+			Assert.assertTrue(reader.getBasePairResolutions().contains(100));
+			}
+		}
+
+	/** repeated queries give the same contacts with the caches enabled, with the caches disabled and with a new reader for each query */
+	@Test(dataProvider="src1")
+	public void testCaches(final Normalization norm,final int binsize) throws IOException {
+		final List<Locatable[]> queries = new ArrayList<>();
+		try(HicReaderImpl reader = open()) {
+			final Random random = new Random(binsize);
+			for(int i=0;i< 50;i++) {
+				final SAMSequenceRecord ssr = reader.getDictionary().getSequence(random.nextInt(reader.getDictionary().size()));
+				final int start1 = 1 + random.nextInt(ssr.getSequenceLength());
+				final int end1 = Math.min(ssr.getSequenceLength(), start1 + random.nextInt(1_000));
+				final int start2 = Math.max(1, start1 - random.nextInt(500));
+				final int end2 = Math.min(ssr.getSequenceLength(), start2 + random.nextInt(1_000));
+				queries.add(new Locatable[] {
+					new Interval(ssr.getSequenceName(), start1, end1),
+					new Interval(ssr.getSequenceName(), start2, end2)
+					});
+				}
+			}
+		/* a new reader for each query: nothing is cached, the footer and the zoom data are read each time */
+		final List<List<String>> expect = new ArrayList<>(queries.size());
+		for(Locatable[] q: queries) {
+			try(HicReaderImpl reader = open()) {
+				reader.setBlockCacheSize(0);
+				reader.setNormalizationVectorCacheSize(0);
+				expect.add(query(reader, q[0], q[1], norm, binsize));
+				}
+			}
+		Assert.assertTrue(expect.stream().anyMatch(L->!L.isEmpty()));
+
+		try(HicReaderImpl cached = open()) {
+			try(HicReaderImpl uncached = open()) {
+				uncached.setBlockCacheSize(0);
+				uncached.setNormalizationVectorCacheSize(0);
+				for(int n=0;n< 2;n++) {
+					for(int i=0;i< queries.size();i++) {
+						final Locatable[] q = queries.get(i);
+						Assert.assertEquals(query(cached, q[0], q[1], norm, binsize), expect.get(i));
+						Assert.assertEquals(query(uncached, q[0], q[1], norm, binsize), expect.get(i));
+						}
+					}
+				Assert.assertTrue(cached.getBlockCacheHits() > 0L);
+				Assert.assertEquals(uncached.getBlockCacheHits(), 0L);
+				Assert.assertEquals(uncached.getBlockCacheMisses(), cached.getBlockCacheHits() + cached.getBlockCacheMisses());
+				if(norm.equals(Normalization.NONE)) {
+					Assert.assertEquals(cached.getNormalizationVectorCacheHits() + cached.getNormalizationVectorCacheMisses(), 0L);
+					}
+				else
+					{
+					Assert.assertTrue(cached.getNormalizationVectorCacheHits() > 0L);
+					Assert.assertEquals(cached.getNormalizationVectorCacheMisses(), 3L);
+					Assert.assertEquals(uncached.getNormalizationVectorCacheHits(), 0L);
+					}
+				}
+			}
+		}
+	}
@@ -1,21 +1,79 @@
 package com.github.lindenb.jvarkit.io;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.seekablestream.SeekableStreamFactory;
 
 public class CustomSeekableStreamFactoryTest  {
 	private final TestSupport support = new TestSupport();
+	/** local http server for the test resources */
+	private Server server = null;
+	/** number of range requests received by the server */
+	private final AtomicInteger countRangeRequests = new AtomicInteger(0);
 
 	private CustomSeekableStreamFactory getFactory() {
 		return new CustomSeekableStreamFactory(SeekableStreamFactory.getInstance());
 	}
 	
+	@BeforeClass
+	public void startServer() throws Exception {
+		final ResourceHandler resourceHandler = new ResourceHandler();
+		resourceHandler.setResourceBase(Paths.get(support.resource("S5.bam")).toAbsolutePath().getParent().toString());
+		resourceHandler.setEtags(true);
+		resourceHandler.setDirectoriesListed(false);
+		final HandlerWrapper counter = new HandlerWrapper() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+				if(request.getHeader("Range")!=null) countRangeRequests.incrementAndGet();
+				super.handle(target, baseRequest, request, response);
+				}
+			};
+		counter.setHandler(resourceHandler);
+		this.server = new Server(0);
+		this.server.setHandler(counter);
+		this.server.start();
+		}
+	
+	@AfterClass
+	public void stopServer() throws Exception {
+		if(this.server!=null) this.server.stop();
+		this.server = null;
+		}
+	
+	private String getLocalUrl(final String fname) {
+		return "http://localhost:"+((ServerConnector)this.server.getConnectors()[0]).getLocalPort()+"/"+fname;
+		}
+	
 	private void consumme(final SeekableStream st)throws IOException
 		{
 		st.seek(10);
@@ -36,4 +94,92 @@ public class CustomSeekableStreamFactoryTest  {
 		st.close();
 		}
 	
+	/** compare random reads with the local file */
+	private void compareRandomReads(final SeekableStream st,final byte[] expect,final long seed) throws IOException {
+		Assert.assertEquals(st.length(), expect.length);
+		final Random rand = new Random(seed);
+		for(int i=0;i< 100;i++) {
+			final int pos = rand.nextInt(expect.length);
+			final byte[] array = new byte[Math.min(expect.length - pos, 1 + rand.nextInt(5_000))];
+			st.seek(pos);
+			st.readFully(array);
+			for(int j=0;j< array.length;j++) {
+				Assert.assertEquals(array[j], expect[pos+j]);
+				}
+			Assert.assertEquals(st.position(), pos + array.length);
+			}
+		/* sequential read */
+		st.seek(0L);
+		for(int i=0;i< expect.length;i++) {
+			Assert.assertEquals(st.read(), expect[i] & 0xFF);
+			}
+		Assert.assertTrue(st.eof());
+		Assert.assertEquals(st.read(), -1);
+		}
+	
+	@Test
+	public void testBlockCache() throws IOException {
+		final String fname = "S5.bam";
+		final byte[] expect = Files.readAllBytes(Paths.get(support.resource(fname)));
+		final Path cacheDir = Files.createTempDirectory("tmp.");
+		try {
+			final CustomSeekableStreamFactory factory = getFactory().
+					setUsingBlockCache(true).
+					setCacheBlockSize(1_000).
+					setCacheMemoryBlocks(10).
+					setCachePrefetchBlocks(2).
+					setCacheDirectory(cacheDir);
+			try(SeekableStream st = factory.getStreamFor(getLocalUrl(fname))) {
+				Assert.assertTrue(st instanceof CachingSeekableHTTPStream);
+				compareRandomReads(st, expect, 0L);
+				}
+			Assert.assertTrue(this.countRangeRequests.get() > 0);
+			/* all the blocks are now in the directory */
+			final int countRequests = this.countRangeRequests.get();
+			try(SeekableStream st = factory.getStreamFor(getLocalUrl(fname))) {
+				compareRandomReads(st, expect, 1L);
+				}
+			Assert.assertEquals(this.countRangeRequests.get(), countRequests);
+			
+			/* no disk cache */
+			factory.setCacheDirectory(null).setCachePrefetchBlocks(0);
+			try(SeekableStream st = factory.getStreamFor(getLocalUrl(fname))) {
+				compareRandomReads(st, expect, 2L);
+				}
+			Assert.assertTrue(this.countRangeRequests.get() > countRequests);
+			}
+		finally
+			{
+			try(Stream<Path> st = Files.walk(cacheDir)) {
+				for(final Path p: st.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(p);
+					}
+				}
+			}
+		}
+	
+	private List<String> query(final SamReader sr,final String contig) {
+		try(SAMRecordIterator iter = sr.queryOverlapping(contig, 100, 500)) {
+			return iter.stream().map(R->R.getSAMString()).collect(Collectors.toList());
+			}
+		}
+	
+	@Test
+	public void testBlockCacheQueryBam() throws IOException {
+		final String fname = "S5.bam";
+		final CustomSeekableStreamFactory factory = getFactory().
+				setUsingBlockCache(true).
+				setCacheBlockSize(4_096).
+				setCacheDirectory(null);
+		final SamReaderFactory srf = SamReaderFactory.makeDefault();
+		try(SamReader local = srf.open(Paths.get(support.resource(fname)));
+			SamReader remote = srf.open(SamInputResource.
+					of(factory.getStreamFor(getLocalUrl(fname))).
+					index(Paths.get(support.resource(fname+".bai"))))) {
+			for(final String contig: new String[] {"RF01","RF05","RF11"}) {
+				Assert.assertEquals(query(local, contig), query(remote, contig));
+				}
+			}
+		}
+	
 }
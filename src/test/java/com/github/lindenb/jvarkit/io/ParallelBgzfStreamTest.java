@@ -0,0 +1,103 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+public class ParallelBgzfStreamTest {
+
+	@DataProvider(name = "src1")
+	public Object[][] testData() {
+		return new Object[][] {
+			{0, false, 1},
+			{10, false, 2},
+			{1_000_000, false, 1},
+			{1_000_000, false, 4},
+			{1_000_000, true, 3}
+			};
+		}
+
+	/** text-like data or random bytes that cannot be compressed */
+	private byte[] createData(final int size, final boolean random_bytes) {
+		final Random random = new Random(size);
+		final byte[] data = new byte[size];
+		for(int i=0;i< size;i++) {
+			data[i] = random_bytes ? (byte)random.nextInt() : (byte)("ACGT\t\n".charAt(random.nextInt(6)));
+			}
+		return data;
+		}
+
+	private void write(final OutputStream os, final byte[] data) throws IOException {
+		int i = 0;
+		/* mix of write(int) and write(byte[]) */
+		while(i < data.length) {
+			if(i%3==0) {
+				os.write(data[i]);
+				i++;
+				}
+			else
+				{
+				final int n = Math.min(data.length - i, 1 + i % 10_000);
+				os.write(data, i, n);
+				i += n;
+				}
+			}
+		os.close();
+		}
+
+	private byte[] readAll(final InputStream is) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1_000];
+		int n;
+		while((n=is.read(buffer))!=-1) {
+			baos.write(buffer, 0, n);
+			}
+		is.close();
+		return baos.toByteArray();
+		}
+
+	@Test(dataProvider="src1")
+	public void testStreams(final int size, final boolean random_bytes, final int nThreads) throws IOException {
+		final byte[] data = createData(size, random_bytes);
+
+		final ByteArrayOutputStream expect = new ByteArrayOutputStream();
+		write(new BlockCompressedOutputStream(expect, (File)null, 5), data);
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		write(new ParallelBgzfOutputStream(baos, 5, nThreads), data);
+		/* same blocks as htsjdk */
+		Assert.assertEquals(baos.toByteArray(), expect.toByteArray());
+
+		Assert.assertEquals(readAll(new BlockCompressedInputStream(new ByteArrayInputStream(baos.toByteArray()))), data);
+		Assert.assertEquals(readAll(new ParallelBgzfInputStream(new ByteArrayInputStream(baos.toByteArray()), nThreads)), data);
+		}
+
+	@Test
+	public void testFlush() throws IOException {
+		final byte[] data = createData(100_000, false);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try(OutputStream os = new ParallelBgzfOutputStream(baos, 1, 2)) {
+			for(int i=0;i< data.length;i+=1_000) {
+				os.write(data, i, 1_000);
+				os.flush();
+				}
+			}
+		Assert.assertEquals(readAll(new ParallelBgzfInputStream(new ByteArrayInputStream(baos.toByteArray()), 2)), data);
+		}
+
+	@Test(expectedExceptions=IOException.class)
+	public void testNotBgzf() throws IOException {
+		readAll(new ParallelBgzfInputStream(new ByteArrayInputStream(createData(1_000, false)), 2));
+		}
+	}
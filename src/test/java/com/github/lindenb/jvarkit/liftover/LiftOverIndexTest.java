@@ -0,0 +1,151 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.liftover;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.liftover.LiftOver;
+import htsjdk.samtools.util.Interval;
+
+public class LiftOverIndexTest {
+	private final TestSupport support =new TestSupport();
+	private static final int CONTIG_LENGTH = 100_000;
+
+	/** create a chain file with random, overlapping chains, on both strands */
+	private Path createChain() throws IOException {
+		final Path chain = support.createTmpPath(".chain");
+		int id = 0;
+		try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(chain))) {
+			pw.println("#random chains");
+			for(int c=1;c<=3;c++) {
+				for(int n=0;n< 20;n++) {
+					final int fromStart = support.random.nextInt(CONTIG_LENGTH/2);
+					final int toStart = support.random.nextInt(CONTIG_LENGTH/2);
+					final StringBuilder blocks = new StringBuilder();
+					int fromEnd = fromStart;
+					int toEnd = toStart;
+					final int nBlocks = 1 + support.random.nextInt(50);
+					for(int b=0;b< nBlocks;b++) {
+						final int length = 1 + support.random.nextInt(100);
+						fromEnd += length;
+						toEnd += length;
+						blocks.append(length);
+						if(b+1< nBlocks) {
+							final int dt = support.random.nextInt(20);
+							final int dq = support.random.nextInt(20);
+							fromEnd += dt;
+							toEnd += dq;
+							blocks.append("\t").append(dt).append("\t").append(dq);
+							}
+						blocks.append("\n");
+						}
+					final String toContig = "tgt"+(1+support.random.nextInt(3));
+					pw.println(String.join(" ","chain","1000","src"+c,String.valueOf(CONTIG_LENGTH),"+",String.valueOf(fromStart),String.valueOf(fromEnd),
+						toContig,String.valueOf(CONTIG_LENGTH),support.random.nextBoolean()?"+":"-",String.valueOf(toStart),String.valueOf(toEnd),String.valueOf(++id)));
+					pw.println(blocks);
+					}
+				}
+			pw.flush();
+			}
+		return chain;
+		}
+
+	private List<Interval> createIntervals(final int n) {
+		final List<Interval> intervals = new ArrayList<>(n);
+		for(int i=0;i< n;i++) {
+			final int start = 1 + support.random.nextInt(CONTIG_LENGTH);
+			final int length = i%3==0 ? 1 : 1 + support.random.nextInt(i%3==1 ? 10 : 1000);
+			intervals.add(new Interval("src"+(1+support.random.nextInt(4)), start, Math.min(CONTIG_LENGTH, start+length-1), support.random.nextBoolean(), "n"+i));
+			}
+		return intervals;
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {{0.0},{0.1},{LiftOver.DEFAULT_LIFTOVER_MINMATCH},{1.0}};
+	}
+
+	@Test(dataProvider="src1")
+	public void testSameAsHtsjdk(final double minMatch) throws IOException {
+		try {
+			final Path chain = createChain();
+			final LiftOver liftOver = new LiftOver(chain.toFile());
+			liftOver.setShouldLogFailedIntervalsBelowThreshold(false);
+			final LiftOverIndex index = new LiftOverLoader().loadIndex(chain);
+			Assert.assertEquals(index.getChainCount(), 60);
+			int countLifted = 0;
+			for(final Interval interval: createIntervals(10_000)) {
+				final Interval expect = liftOver.liftOver(interval, minMatch);
+				final Interval lifted = index.liftOver(interval, minMatch);
+				if(expect==null) {
+					Assert.assertNull(lifted, interval.toString());
+					continue;
+					}
+				countLifted++;
+				Assert.assertNotNull(lifted, interval.toString());
+				Assert.assertEquals(lifted, expect);
+				Assert.assertEquals(lifted.getStrand(), expect.getStrand());
+				Assert.assertEquals(lifted.getName(), expect.getName());
+				}
+			Assert.assertTrue(countLifted > 0);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+
+	@Test
+	public void testBatch() throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			final LiftOverIndex index = new LiftOverLoader().loadIndex(createChain());
+			final List<Interval> intervals = createIntervals(LiftOverIndex.DEFAULT_SHARD_SIZE*5+7);
+			final List<Interval> serial = index.liftOver(intervals, LiftOver.DEFAULT_LIFTOVER_MINMATCH);
+			final List<Interval> parallel = index.liftOver(intervals, IDX->LiftOver.DEFAULT_LIFTOVER_MINMATCH, executor);
+			Assert.assertEquals(serial.size(), intervals.size());
+			Assert.assertEquals(parallel, serial);
+			for(int i=0;i< intervals.size();i++) {
+				Assert.assertEquals(serial.get(i), index.liftOver(intervals.get(i), LiftOver.DEFAULT_LIFTOVER_MINMATCH));
+				}
+			}
+		finally {
+			executor.shutdownNow();
+			support.removeTmpFiles();
+			}
+		}
+	}
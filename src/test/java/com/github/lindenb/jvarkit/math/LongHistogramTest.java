@@ -0,0 +1,52 @@
+package com.github.lindenb.jvarkit.math;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LongHistogramTest {
+
+@Test
+public void testCount() {
+	final LongHistogram h = new LongHistogram();
+	Assert.assertTrue(h.isEmpty());
+	final long[] expect = new long[1000];
+	final Random rand = new Random(0L);
+	for(int i=0;i< 100_000;i++) {
+		final int v = rand.nextInt(expect.length);
+		expect[v]++;
+		h.add(v - 500);
+		}
+	Assert.assertEquals(h.getTotal(), 100_000L);
+	Assert.assertEquals(h.getCountDistinct(), (int)Arrays.stream(expect).filter(N->N>0L).count());
+	for(int i=0;i< expect.length;i++) {
+		Assert.assertEquals(h.count(i - 500), expect[i]);
+		}
+	Assert.assertEquals(h.count(Long.MAX_VALUE), 0L);
+	final long[] values = h.getValues();
+	Assert.assertEquals(values.length, h.getCountDistinct());
+	for(int i=1;i< values.length;i++) {
+		Assert.assertTrue(values[i-1] < values[i]);
+		}
+	}
+
+@Test
+public void testMerge() {
+	final LongHistogram h1 = new LongHistogram();
+	final LongHistogram h2 = new LongHistogram();
+	final LongHistogram all = new LongHistogram();
+	for(long i=0;i< 10_000;i++) {
+		final long v = (i * 31L) % 777L;
+		(i%3==0?h1:h2).add(v);
+		all.add(v);
+		}
+	h1.add(h2);
+	Assert.assertEquals(h1.getTotal(), all.getTotal());
+	Assert.assertEquals(h1.getValues(), all.getValues());
+	for(final long v: all.getValues()) {
+		Assert.assertEquals(h1.count(v), all.count(v));
+		}
+	}
+}
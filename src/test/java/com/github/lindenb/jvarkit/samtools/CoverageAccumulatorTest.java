@@ -0,0 +1,102 @@
+package com.github.lindenb.jvarkit.samtools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.Interval;
+
+public class CoverageAccumulatorTest {
+	private final TestSupport support = new TestSupport();
+
+@Test
+public void testRandomIntervals() {
+	final Random random = new Random(0L);
+	for(int n=0;n<50;n++) {
+		final int regionStart = 1 + random.nextInt(100);
+		final int regionEnd = regionStart + random.nextInt(5000);
+		final int expect[] = new int[regionEnd+1];
+		final int observed[] = new int[regionEnd+1];
+		final List<int[]> runs = new ArrayList<>();
+		final CoverageAccumulator acc = new CoverageAccumulator(new Interval("chr1",regionStart,regionEnd),(S,E,D)->{
+			runs.add(new int[] {S,E,D});
+			});
+		int start = 1;
+		final int nIntervals = random.nextInt(1000);
+		for(int i=0;i<nIntervals;i++) {
+			start += random.nextInt(20);
+			final int end = start + random.nextInt(random.nextInt(10)==0?3000:100);
+			for(int p=Math.max(start, regionStart);p<=Math.min(end, regionEnd);p++) expect[p]++;
+			acc.flush(start);
+			acc.add(start, end);
+			}
+		acc.finish();
+
+		Assert.assertFalse(runs.isEmpty());
+		Assert.assertEquals(runs.get(0)[0], regionStart);
+		Assert.assertEquals(runs.get(runs.size()-1)[1], regionEnd);
+		for(int i=0;i< runs.size();i++) {
+			final int r[] = runs.get(i);
+			Assert.assertTrue(r[0]<=r[1]);
+			if(i>0) {
+				final int prev[] = runs.get(i-1);
+				Assert.assertEquals(prev[1]+1, r[0]);
+				Assert.assertNotEquals(prev[2], r[2]);
+				}
+			for(int p=r[0];p<=r[1];p++) observed[p]=r[2];
+			}
+		Assert.assertTrue(Arrays.equals(expect, observed));
+		}
+	}
+
+@Test(expectedExceptions=IllegalArgumentException.class)
+public void testUnsorted() {
+	final CoverageAccumulator acc = new CoverageAccumulator(new Interval("chr1",1,1000),(P,D)->{});
+	acc.flush(100);
+	acc.add(50, 60);
+	}
+
+@Test
+public void testBam() throws Exception {
+	final File bam = new File(support.resource("S1.bam"));
+	try(SamReader sr= SamReaderFactory.makeDefault().open(bam)) {
+		final SAMSequenceRecord ssr = sr.getFileHeader().getSequenceDictionary().getSequence(0);
+		final int expect[] = new int[ssr.getSequenceLength()+1];
+		final int observed[] = new int[ssr.getSequenceLength()+1];
+		final CoverageAccumulator acc = new CoverageAccumulator(new Interval(ssr.getSequenceName(),1,ssr.getSequenceLength()),(P,D)->{
+			observed[P]=D;
+			});
+		try(SAMRecordIterator iter= sr.query(ssr.getSequenceName(), 0, 0, false)) {
+			while(iter.hasNext()) {
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				for(AlignmentBlock b:rec.getAlignmentBlocks()) {
+					for(int i=0;i< b.getLength();i++) {
+						final int p = b.getReferenceStart()+i;
+						if(p<expect.length) expect[p]++;
+						}
+					}
+				acc.add(rec);
+				}
+			}
+		acc.finish();
+		Assert.assertTrue(Arrays.equals(expect, observed));
+		}
+	finally {
+		support.removeTmpFiles();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.github.lindenb.jvarkit.samtools;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
+
+public class SamLocusSweeperTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name="src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{1,1_000,SamLocusSweeper.DEFAULT_JUMP_DISTANCE},
+			{3,7,SamLocusSweeper.DEFAULT_JUMP_DISTANCE},
+			{2,1,0},
+			{1,13,50}
+			};
+		}
+
+	private static List<String> toStrings(final List<SAMRecord> L) {
+		final List<String> S = new ArrayList<>(L.size());
+		for(final SAMRecord rec:L) S.add(rec.getSAMString());
+		return S;
+		}
+
+	@Test(dataProvider="src1")
+	public void testSweep(final int nThreads,final int batchSize,final int jumpDistance) throws IOException {
+		final SAMSequenceDictionary dict = SAMSequenceDictionaryExtractor.extractDictionary(Paths.get(support.resource("rotavirus_rf.dict")));
+		Assert.assertNotNull(dict);
+		final List<Interval> loci = support.randomIntervalsFromDict(Paths.get(support.resource("rotavirus_rf.dict")), 200, 100);
+		loci.sort(Comparator.comparingInt((Interval L)->dict.getSequenceIndex(L.getContig())).thenComparingInt(L->L.getStart()));
+		final List<SamReader> readers = new ArrayList<>();
+		/* readers for the expected reads, the readers of the sweeper cannot be queried during the sweep */
+		final List<SamReader> controls = new ArrayList<>();
+		try {
+			for(final String fname: Arrays.asList("S1.bam","S2.bam","S3.bam","S4.bam","S5.bam")) {
+				readers.add(SamReaderFactory.makeDefault().open(Paths.get(support.resource(fname))));
+				controls.add(SamReaderFactory.makeDefault().open(Paths.get(support.resource(fname))));
+				}
+			final List<Interval> seen = new ArrayList<>();
+			new SamLocusSweeper(readers).
+				setThreads(nThreads).
+				setBatchSize(batchSize).
+				setJumpDistance(jumpDistance).
+				sweep(loci.iterator(), (locus,reads)->{
+					seen.add(locus);
+					Assert.assertEquals(reads.size(), readers.size());
+					for(int i=0;i< readers.size();i++) {
+						final List<SAMRecord> expect = new ArrayList<>();
+						try(SAMRecordIterator iter = controls.get(i).queryOverlapping(locus.getContig(), locus.getStart(), locus.getEnd())) {
+							while(iter.hasNext()) {
+								final SAMRecord rec = iter.next();
+								if(rec.getReadUnmappedFlag()) continue;
+								expect.add(rec);
+								}
+							}
+						Assert.assertEquals(toStrings(reads.get(i)), toStrings(expect));
+						}
+					});
+			Assert.assertEquals(seen, loci);
+			}
+		finally
+			{
+			readers.forEach(CloserUtil::close);
+			controls.forEach(CloserUtil::close);
+			}
+		}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void testUnsorted() throws IOException {
+		try(SamReader sr = SamReaderFactory.makeDefault().open(Paths.get(support.resource("S1.bam")))) {
+			new SamLocusSweeper(Arrays.asList(sr)).sweep(
+				Arrays.asList(new Interval("RF01",100,100),new Interval("RF02",100,100),new Interval("RF01",200,200)).iterator(),
+				(locus,reads)->{}
+				);
+			}
+		}
+	}
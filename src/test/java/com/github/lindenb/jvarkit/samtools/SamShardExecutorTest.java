@@ -0,0 +1,70 @@
+package com.github.lindenb.jvarkit.samtools;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+public class SamShardExecutorTest {
+	private final TestSupport support = new TestSupport();
+
+	private List<String> run(final Path bam,final int nThreads,final int shardSize) throws IOException {
+		final SamShardExecutor executor = new SamShardExecutor(SamReaderFactory.makeDefault()).
+				setThreads(nThreads).
+				setShardSize(shardSize);
+		final SAMSequenceDictionary dict;
+		try(SamReader sr=SamReaderFactory.makeDefault().open(bam)) {
+			dict = sr.getFileHeader().getSequenceDictionary();
+			}
+		final List<SamShardExecutor.Shard> shards = executor.split(dict, SSR->true);
+		for(int i=0;i< shards.size();i++) Assert.assertEquals(shards.get(i).getIndex(), i);
+		final List<String> L = new ArrayList<>();
+		executor.execute(bam, shards, (SR,SHARD)->{
+			int n=0;
+			try(SAMRecordIterator iter=SR.queryAlignmentStart(SHARD.getContig(), SHARD.getStart())) {
+				while(iter.hasNext()) {
+					final SAMRecord rec = iter.next();
+					if(!rec.getContig().equals(SHARD.getContig()) || rec.getAlignmentStart()>SHARD.getEnd()) break;
+					n++;
+					}
+				}
+			return SHARD.getContig()+":"+n;
+			},
+			S->L.add(S));
+		return L;
+		}
+
+@Test
+public void testOrder() throws IOException {
+	try {
+		final Path bam = Paths.get(support.resource("S1.bam"));
+		final List<String> expect = run(bam,1,-1);
+		Assert.assertFalse(expect.isEmpty());
+		Assert.assertEquals(run(bam,4,-1), expect);
+		Assert.assertEquals(run(bam,0,-1), expect);
+		}
+	finally {
+		support.removeTmpFiles();
+		}
+	}
+
+@Test
+public void testShardSize() {
+	final SamShardExecutor executor = new SamShardExecutor(SamReaderFactory.makeDefault());
+	Assert.assertEquals(executor.setShardSize(1).getShardSize(), SamShardExecutor.LINEAR_INDEX_WINDOW);
+	Assert.assertEquals(executor.setShardSize(SamShardExecutor.LINEAR_INDEX_WINDOW+1).getShardSize(), 2*SamShardExecutor.LINEAR_INDEX_WINDOW);
+	Assert.assertEquals(executor.setShardSize(0).getShardSize(), -1);
+	}
+}
@@ -1,12 +1,16 @@
 package com.github.lindenb.jvarkit.samtools.reference;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 
+import com.github.lindenb.jvarkit.util.bio.ChromosomeSequence;
+
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.reference.ReferenceSequence;
 
 public class TwoBitSequenceFileTest {
@@ -35,4 +39,33 @@ public void test01() throws IOException {
 		if(ref!=null) ref.close();
 		}
 	}
+
+@Test
+public void testMemoryMapped() throws IOException {
+	final String ref2bit =  support.resource("rotavirus_rf.2bit");
+	try(TwoBitSequenceFile ref1 = new TwoBitSequenceFile(Paths.get(ref2bit),true,false);
+		TwoBitSequenceFile ref2 = new TwoBitSequenceFile(Paths.get(ref2bit),true,true)) {
+		Assert.assertFalse(ref1.isMemoryMapped());
+		Assert.assertTrue(ref2.isMemoryMapped());
+		Assert.assertEquals(ref1.getSequenceDictionary().size(), ref2.getSequenceDictionary().size());
+		Assert.assertNull(ref2.getContigSequence("xx"));
+		for(SAMSequenceRecord ssr: ref1.getSequenceDictionary().getSequences()) {
+			final String s1 = ref1.getSequence(ssr.getSequenceName()).getBaseString();
+			Assert.assertEquals(ref2.getSequence(ssr.getSequenceName()).getBaseString(),s1);
+			final ChromosomeSequence view = ref2.getContigSequence(ssr.getSequenceName());
+			Assert.assertEquals(view.length(),s1.length());
+			for(int i=0;i< s1.length();i++) {
+				Assert.assertEquals(view.charAt(i),s1.charAt(i));
+				}
+			for(int i=0;i< 100;i++) {
+				final int start = 1 + support.random.nextInt(ssr.getSequenceLength());
+				final int end = Math.min(ssr.getSequenceLength(),start + support.random.nextInt(50));
+				Assert.assertEquals(
+					ref2.getSubsequenceAt(ssr.getSequenceName(), start, end).getBaseString(),
+					ref1.getSubsequenceAt(ssr.getSequenceName(), start, end).getBaseString()
+					);
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,63 @@
+package com.github.lindenb.jvarkit.samtools.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PileupTest {
+	/** simulate the reads of an amplicon: most reads share the same start/end */
+	private List<SimpleInterval> amplicon(final Random random,final int depth) {
+		final List<SimpleInterval> L = new ArrayList<>(depth);
+		for(int i=0;i< depth;i++) {
+			final int start = 1000 + (random.nextInt(10)==0?random.nextInt(300):random.nextInt(3));
+			final int len = 50 + random.nextInt(100);
+			L.add(new SimpleInterval("chr1",start,start+len));
+			}
+		L.sort(Comparator.comparingInt(SimpleInterval::getStart));
+		return L;
+		}
+
+	private void assertSameRows(final Pileup<SimpleInterval> p1,final Pileup<SimpleInterval> p2) {
+		Assert.assertEquals(p1.getRowCount(), p2.getRowCount());
+		for(int y=0;y< p1.getRowCount();y++) {
+			Assert.assertEquals(p1.getRow(y), p2.getRow(y));
+			}
+		}
+
+@Test
+public void testSameAsBiPredicate() {
+	final Random random = new Random(0L);
+	for(int depth : new int[] {0,1,10,1_000,10_000}) {
+		final Pileup<SimpleInterval> indexed = new Pileup<>();
+		final Pileup<SimpleInterval> scan = new Pileup<>((L,R)->L.getEnd()+1 < R.getStart());
+		for(final SimpleInterval r: amplicon(random,depth)) {
+			indexed.add(r);
+			scan.add(r);
+			}
+		assertSameRows(indexed,scan);
+		}
+	}
+
+@Test
+public void testPixels() {
+	final Random random = new Random(0L);
+	final Pileup<SimpleInterval> indexed = new Pileup<>(R->R.getStart()/3.0,L->L.getEnd()/3.0 + 2);
+	final Pileup<SimpleInterval> scan = new Pileup<>((L,R)->L.getEnd()/3.0 + 2 < R.getStart()/3.0);
+	for(final SimpleInterval r: amplicon(random,5_000)) {
+		indexed.add(r);
+		scan.add(r);
+		}
+	assertSameRows(indexed,scan);
+	indexed.clear();
+	Assert.assertTrue(indexed.isEmpty());
+	indexed.add(new SimpleInterval("chr2",1,10));
+	indexed.add(new SimpleInterval("chr2",5,20));
+	indexed.add(new SimpleInterval("chr2",30,40));
+	Assert.assertEquals(indexed.getRowCount(),2);
+	Assert.assertEquals(indexed.getRow(0).size(),2);
+	}
+}
@@ -0,0 +1,130 @@
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+public class ReadNameIndexTest {
+	private final TestSupport support = new TestSupport();
+
+	/** sorted 'name tid pos' of the reads in S1.bam */
+	private List<String> records() throws IOException {
+		final List<String> L = new ArrayList<>();
+		try(SamReader sr=SamReaderFactory.makeDefault().open(Paths.get(support.resource("S1.bam")))) {
+			try(SAMRecordIterator iter=sr.iterator()) {
+				while(iter.hasNext()) {
+					final SAMRecord rec = iter.next();
+					L.add(rec.getReadName()+" "+rec.getReferenceIndex()+" "+rec.getAlignmentStart());
+					}
+				}
+			}
+		L.sort((A,B)->{
+			final String[] a=A.split(" ");
+			final String[] b=B.split(" ");
+			int i = a[0].compareTo(b[0]);
+			if(i!=0) return i;
+			i = Integer.parseInt(a[1]) - Integer.parseInt(b[1]);
+			if(i!=0) return i;
+			return Integer.parseInt(a[2]) - Integer.parseInt(b[2]);
+			});
+		return L;
+		}
+
+	private List<String> query(final ReadNameIndex index,final String name,final boolean sorted) throws IOException {
+		final List<String> L = new ArrayList<>();
+		index.query(name, sorted, N->L.add(N.name+" "+N.tid+" "+N.pos));
+		return L;
+		}
+
+	private void assertIndex(final Path path,final List<String> records) throws IOException {
+		final List<String> names = new ArrayList<>();
+		for(final String s:records) {
+			final String name = s.split(" ")[0];
+			if(names.isEmpty() || !names.get(names.size()-1).equals(name)) names.add(name);
+			}
+		try(ReadNameIndex index = ReadNameIndex.open(path)) {
+			Assert.assertEquals(index.size(), records.size());
+			final List<String> all = new ArrayList<>();
+			for(final String name:names) {
+				final List<String> hits = query(index,name,true);
+				Assert.assertFalse(hits.isEmpty());
+				all.addAll(hits);
+				}
+			Assert.assertEquals(all, records);
+			Assert.assertTrue(query(index,"",false).isEmpty());
+			Assert.assertTrue(query(index,"~~~~",false).isEmpty());
+			final String last = names.get(names.size()-1);
+			Assert.assertFalse(query(index,last,false).isEmpty());
+			Assert.assertTrue(query(index,last+"0",false).isEmpty());
+			/* unsorted queries return the same records, in any order */
+			for(final String name:names) {
+				final List<String> expect = new ArrayList<>();
+				for(final String s:records) {
+					if(s.split(" ")[0].equals(name)) expect.add(s);
+					}
+				final List<String> hits = query(index,name,false);
+				Collections.sort(expect);
+				Collections.sort(hits);
+				Assert.assertEquals(hits, expect, name);
+				}
+			}
+		}
+
+@Test
+public void testCompact() throws IOException {
+	try {
+		final List<String> records = records();
+		for(int blockSize : new int[] {1,3,ReadNameIndex.DEFAULT_BLOCK_SIZE,100_000}) {
+			final Path path = support.createTmpPath(BaseBamIndexReadNames.NAME_IDX_EXTENSION);
+			try(ReadNameIndex.Writer w=new ReadNameIndex.Writer(path, blockSize)) {
+				for(final String s:records) {
+					final String[] tokens = s.split(" ");
+					w.add(tokens[0], Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+					}
+				}
+			assertIndex(path,records);
+			}
+		}
+	finally {
+		support.removeTmpFiles();
+		}
+	}
+
+@Test
+public void testLegacy() throws IOException {
+	try {
+		final List<String> records = records();
+		final int maxNameLength = records.stream().mapToInt(S->S.split(" ")[0].length()+1).max().getAsInt();
+		final Path path = support.createTmpPath(BaseBamIndexReadNames.NAME_IDX_EXTENSION);
+		try(DataOutputStream out=new DataOutputStream(Files.newOutputStream(path))) {
+			out.writeLong(records.size());
+			out.writeInt(maxNameLength);
+			for(final String s:records) {
+				final String[] tokens = s.split(" ");
+				for(int i=0;i< maxNameLength;i++) out.write(i< tokens[0].length()?tokens[0].charAt(i):0);
+				out.writeInt(Integer.parseInt(tokens[1]));
+				out.writeInt(Integer.parseInt(tokens[2]));
+				}
+			}
+		assertIndex(path,records);
+		}
+	finally {
+		support.removeTmpFiles();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.github.lindenb.jvarkit.tools.burden;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+import htsjdk.samtools.util.IOUtil;
+
+@AlsoTest(LauncherTest.class)
+public class VcfDerby01Test {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{1},
+			{7},
+			{10_000}
+			};
+		}
+
+	private List<String> inputs() {
+		return Arrays.asList(
+			support.resource("rotavirus_rf.vcf.gz"),
+			support.resource("S1.vcf.gz"),
+			support.resource("S2.vcf.gz"),
+			support.resource("S3.vcf.gz")
+			);
+		}
+
+	/** run an action on the database, return the lines of the output */
+	private List<String> run(final Path db, final String action, final List<String> others) throws IOException {
+		final Path output = support.createTmpPath(".txt");
+		final List<String> args = new ArrayList<>();
+		args.add("-d");
+		args.add(db.toString());
+		args.add("-a");
+		args.add(action);
+		args.add("-o");
+		args.add(output.toString());
+		args.addAll(others);
+		Assert.assertEquals(new VcfDerby01().instanceMain(args), 0);
+		return Files.readAllLines(output);
+		}
+
+	@Test(dataProvider="src1")
+	public void testBulk(final int batchSize) throws IOException {
+		Path tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("tmp.");
+			final Path db1 = tmpDir.resolve("db1");
+			final Path db2 = tmpDir.resolve("db2");
+
+			final List<String> read1 = run(db1, "read", inputs());
+			final List<String> args2 = new ArrayList<>();
+			args2.add("--bulk");
+			args2.add("--batch-size");
+			args2.add(String.valueOf(batchSize));
+			args2.addAll(inputs());
+			final List<String> read2 = run(db2, "read", args2);
+			Assert.assertEquals(read2, read1);
+
+			final List<String> list1 = run(db1, "list", new ArrayList<>());
+			Assert.assertEquals(list1.size(), 1 + inputs().size());
+			Assert.assertEquals(run(db2, "list", new ArrayList<>()), list1);
+
+			final List<String> dump1 = run(db1, "dumpall", new ArrayList<>());
+			Assert.assertFalse(dump1.isEmpty());
+			Assert.assertEquals(run(db2, "dumpall", new ArrayList<>()), dump1);
+			}
+		finally {
+			if(tmpDir!=null) IOUtil.deleteDirectoryTree(tmpDir.toFile());
+			support.removeTmpFiles();
+			}
+		}
+	
+	/** a bulk load creating a new database fails: the constraints must have been created anyway */
+	@Test
+	public void testFailingBulkLoad() throws IOException, SQLException {
+		Path tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("tmp.");
+			final Path db = tmpDir.resolve("db");
+			/* a VCF with a truncated line after a few variants */
+			final Path badVcf = support.createTmpPath(".vcf");
+			try(BufferedReader br = IOUtils.openURIForBufferedReading(support.resource("rotavirus_rf.vcf.gz"))) {
+				try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(badVcf))) {
+					String line;
+					int nVariants = 0;
+					while((line=br.readLine())!=null && nVariants < 10) {
+						pw.println(line);
+						if(!line.startsWith("#")) nVariants++;
+						}
+					pw.println("RF03\t1\t.\tA\tC\t.\t.\t.");
+					}
+				}
+			final List<String> args = new ArrayList<>();
+			args.add("-d");
+			args.add(db.toString());
+			args.add("-a");
+			args.add("read");
+			args.add("--bulk");
+			args.add("--batch-size");
+			args.add("3");
+			args.add(badVcf.toString());
+			Assert.assertNotEquals(new VcfDerby01().instanceMain(args), 0);
+
+			final Set<String> constraints = new HashSet<>();
+			try(Connection conn = DriverManager.getConnection("jdbc:derby:"+db)) {
+				try(Statement stmt = conn.createStatement()) {
+					try(ResultSet row = stmt.executeQuery("SELECT CONSTRAINTNAME FROM SYS.SYSCONSTRAINTS")) {
+						while(row.next()) {
+							constraints.add(row.getString(1).toUpperCase());
+							}
+						}
+					}
+				}
+			Assert.assertTrue(constraints.contains("ROWCONTENTMD5"), constraints.toString());
+			Assert.assertTrue(constraints.contains("ROW2VCF"), constraints.toString());
+			Assert.assertTrue(constraints.contains("ROW2CONTENT"), constraints.toString());
+			}
+		finally {
+			if(tmpDir!=null) IOUtil.deleteDirectoryTree(tmpDir.toFile());
+			support.removeTmpFiles();
+			}
+		}
+	}
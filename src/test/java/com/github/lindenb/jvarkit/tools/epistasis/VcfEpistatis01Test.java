@@ -0,0 +1,115 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.epistasis;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+public class VcfEpistatis01Test {
+	private final TestSupport support = new TestSupport();
+
+	/** cases: S1,S2,S3 , controls: S4,S5,S6 */
+	private Path createPedigree() throws IOException {
+		final Path ped = support.createTmpPath(".ped");
+		try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(ped))) {
+			pw.println("F1\tS1\t0\t0\t1\t2");
+			pw.println("F1\tS2\t0\t0\t2\t2");
+			pw.println("F1\tS3\tS1\tS2\t1\t2");
+			pw.println("F2\tS4\t0\t0\t1\t1");
+			pw.println("F2\tS5\t0\t0\t2\t1");
+			pw.println("F2\tS6\tS4\tS5\t2\t1");
+			pw.flush();
+			}
+		return ped;
+		}
+
+	/** expected results were produced by the previous version of the tool, scanning all the pairs */
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{0,"80.0\t1:909238:G*/C[11] | 1:912049:T*/C[12] | 80.0"},
+			{12,"80.0\t1:912049:T*/C[12] | 1:913889:G*/A[13] | 80.0"},
+			{13,"80.0\t1:913889:G*/A[13] | 1:914333:C*/G[14] | 80.0"},
+			{30,"80.0\t1:964389:C*/T[56] | 1:985266:C*/T[63] | 80.0"},
+			{60,"70.0\t1:974791:T*/TGG[60] | 1:985266:C*/T[63] | 70.0"},
+			{90,"40.0\t1:1018704:A*/G[90] | 1:1019180:T*/C[91] | 40.0"},
+			{93,"10.0\t1:1033999:C*/T[93] | 1:1053385:C*/T[94] | 10.0"},
+			{94,""}
+			};
+		}
+
+	@Test(dataProvider = "src1")
+	public void testBestPair(final int start,final String expect) throws IOException {
+		try {
+			final Path ped = createPedigree();
+			for(final boolean inMemory: new boolean[] {false,true}) {
+				final Path out = support.createTmpPath(".txt");
+				final List<String> args = new ArrayList<>(Arrays.asList(
+					"-o",out.toString(),
+					"-p",ped.toString(),
+					"--score",
+					"--start",String.valueOf(start)
+					));
+				if(inMemory) args.add("--memory");
+				args.add(support.resource("test_vcf01.vcf"));
+				Assert.assertEquals(new VcfEpistatis01().instanceMain(args.toArray(new String[args.size()])),0);
+				Assert.assertEquals(Files.lines(out).collect(Collectors.joining("\n")), expect);
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+
+	@Test
+	public void testVcfOutput() throws IOException {
+		try {
+			final Path out = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VcfEpistatis01().instanceMain(new String[] {
+				"-o",out.toString(),
+				"-p",createPedigree().toString(),
+				support.resource("test_vcf01.vcf")
+				}),0);
+			support.assertIsVcf(out);
+			Assert.assertEquals(support.variantStream(out).map(V->V.getStart()).collect(Collectors.toList()),
+				Arrays.asList(909238,912049));
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
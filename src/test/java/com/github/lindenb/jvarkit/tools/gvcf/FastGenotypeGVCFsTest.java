@@ -0,0 +1,77 @@
+package com.github.lindenb.jvarkit.tools.gvcf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * G1, G2 and G3 have reference blocks and deletions overlapping the 16kb boundaries
+ * of the regions used by --threads (e.g. chrA:16380 CGATGAAT>C, chrA:32760, chrB:16383)
+ */
+@AlsoTest(LauncherTest.class)
+public class FastGenotypeGVCFsTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{Arrays.asList("--async")},
+			{Arrays.asList("--threads","2","--shard-size","1")},
+			{Arrays.asList("--threads","3","--shard-size","16384")},
+			{Arrays.asList("--threads","2","--shard-size","20000")},
+			{Arrays.asList("--threads","4","--shard-size","1000000")}
+			};
+		}
+
+	private List<String> gvcfs() {
+		return Arrays.asList(
+			support.resource("G1.g.vcf.gz"),
+			support.resource("G2.g.vcf.gz"),
+			support.resource("G3.g.vcf.gz")
+			);
+		}
+
+	/** run the tool and return the VCF lines, without the meta-data */
+	private List<String> run(final List<String> options) throws IOException {
+		final Path output = support.createTmpPath(".vcf");
+		final List<String> args = new ArrayList<>();
+		args.add("-o");
+		args.add(output.toString());
+		args.addAll(options);
+		args.addAll(gvcfs());
+		Assert.assertEquals(new FastGenotypeGVCFs().instanceMain(args), 0);
+		support.assertIsVcf(output);
+		try(Stream<VariantContext> st = support.variantStream(output)) {
+			return st.
+				map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()+":"+V.getID()+":"+V.getGenotypes().stream().map(G->G.toString()).collect(Collectors.joining(";"))).
+				collect(Collectors.toList());
+			}
+		}
+
+	@Test(dataProvider="src1")
+	public void testSameAsSequential(final List<String> options) throws IOException {
+		try {
+			final List<String> expect = run(Arrays.asList());
+			Assert.assertFalse(expect.isEmpty());
+			Assert.assertTrue(expect.stream().anyMatch(S->S.startsWith("chrA:16380:[CGATGAAT*, C]")));
+			Assert.assertEquals(run(options), expect);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
@@ -0,0 +1,58 @@
+package com.github.lindenb.jvarkit.tools.sortvcfonref;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class SortVcfOnRef2Test {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] testData() {
+		return new Object[][] {
+			{"ExAC.r1.sites.vep.vcf.gz"},
+			{"rotavirus_rf.vcf.gz"}
+			};
+		}
+
+	private List<String> keys(final Path vcf) {
+		return support.variantStream(vcf).
+				map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()).
+				collect(Collectors.toList());
+		}
+
+	@Test(dataProvider="src1")
+	public void testRaw(final String vcf) throws IOException {
+		try {
+			final Path out1 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new SortVcfOnRef2().instanceMain(new String[] {
+				"--maxRecordsInRam","10",
+				"-o",out1.toString(),
+				support.resource(vcf)
+				}),0);
+			support.assertIsVcf(out1);
+			final Path out2 = support.createTmpPath(".vcf.gz");
+			Assert.assertEquals(new SortVcfOnRef2().instanceMain(new String[] {
+				"--raw",
+				"--maxRecordsInRam","10",
+				"-o",out2.toString(),
+				support.resource(vcf)
+				}),0);
+			support.assertIsVcf(out2);
+			Assert.assertEquals(keys(out2), keys(out1));
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
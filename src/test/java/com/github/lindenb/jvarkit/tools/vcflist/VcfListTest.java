@@ -0,0 +1,98 @@
+package com.github.lindenb.jvarkit.tools.vcflist;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.variant.vcf.VCFReaderFactory;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFReader;
+
+public class VcfListTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] testData() {
+		return new Object[][] {
+			{"test_vcf01.vcf"},
+			{"S1.vcf.gz"}
+			};
+		}
+
+	private static String toString(final VariantContext ctx) {
+		return ctx.getContig()+":"+ctx.getStart()+":"+ctx.getAlleles()+":"+ctx.getGenotypes();
+		}
+
+	private List<String> expect(final File vcf) throws IOException {
+		final List<String> L = new ArrayList<>();
+		try(VCFReader r=VCFReaderFactory.makeDefault().open(vcf.toPath(), false)) {
+			try(CloseableIterator<VariantContext> iter=r.iterator()) {
+				while(iter.hasNext()) L.add(toString(iter.next()));
+				}
+			}
+		return L;
+		}
+
+@Test(dataProvider="src1")
+public void testList(final String fname) throws Exception {
+	try {
+		final File vcf = Paths.get(support.resource(fname)).toFile();
+		final File index = support.createTmpPath(VcfOffsetsIndexFactory.INDEX_EXTENSION).toFile();
+		new VcfOffsetsIndexFactory().indexVcfFile(vcf, index);
+		final List<String> expect = expect(vcf);
+		Assert.assertFalse(expect.isEmpty());
+		for(int cacheSize : new int[] {0, 10, VcfList.DEFAULT_CACHE_SIZE}) {
+			try(VcfList list = VcfList.fromFile(vcf, index, cacheSize)) {
+				Assert.assertEquals(list.size(), expect.size());
+				final Random random = new Random(0L);
+				for(int n=0;n< 1_000;n++) {
+					final int i = random.nextInt(list.size());
+					Assert.assertEquals(toString(list.get(i)), expect.get(i));
+					}
+				list.prefetch(3, 30);
+				for(int i=list.size()-1;i>=0;--i) {
+					Assert.assertEquals(toString(list.get(i)), expect.get(i));
+					}
+				/* one view per thread */
+				final ExecutorService executor = Executors.newFixedThreadPool(4);
+				try {
+					final List<Future<Boolean>> futures = new ArrayList<>();
+					for(int t=0;t< 4;t++) {
+						final long seed = t;
+						futures.add(executor.submit(()->{
+							try(VcfList view = list.duplicate()) {
+								final Random r = new Random(seed);
+								for(int n=0;n< 1_000;n++) {
+									final int i = r.nextInt(view.size());
+									if(!toString(view.get(i)).equals(expect.get(i))) return false;
+									}
+								}
+							return true;
+							}));
+						}
+					for(final Future<Boolean> f:futures) Assert.assertTrue(f.get());
+					}
+				finally {
+					executor.shutdown();
+					}
+				}
+			}
+		}
+	finally {
+		support.removeTmpFiles();
+		}
+	}
+}
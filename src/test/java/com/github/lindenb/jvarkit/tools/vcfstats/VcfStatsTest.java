@@ -1,7 +1,9 @@
 package com.github.lindenb.jvarkit.tools.vcfstats;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -50,4 +52,21 @@ public class VcfStatsTest  {
 			support.removeTmpFiles();
 		}
 		}
+	
+	@Test
+	public void testThreads() 
+		throws IOException
+		{
+		try {
+			final String inputFile = support.resource("rotavirus_rf.vcf.gz");
+			final Path output1 = support.createTmpPath(".R");
+			Assert.assertEquals(0,new VcfStats().instanceMain(Arrays.asList("-o",output1.toString(),inputFile)));
+			final Path output2 = support.createTmpPath(".R");
+			Assert.assertEquals(0,new VcfStats().instanceMain(Arrays.asList("-o",output2.toString(),"--threads","3",inputFile)));
+			Assert.assertEquals(Files.readAllLines(output2), Files.readAllLines(output1));
+			Assert.assertFalse(Files.readAllLines(output1).isEmpty());
+		} finally {
+			support.removeTmpFiles();
+		}
+		}
 	}
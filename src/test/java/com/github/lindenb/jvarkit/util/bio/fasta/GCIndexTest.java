@@ -0,0 +1,102 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+
+public class GCIndexTest {
+	private final TestSupport support =new TestSupport();
+
+	/** copy the fasta in a tmp directory, so the index is not created in the resources */
+	private Path copyFasta(final String name) throws IOException {
+		final Path dir = Files.createTempDirectory("tmp.");
+		final Path fasta = dir.resolve(name+".fa");
+		for(final String suffix: new String[] {".fa",".fa.fai",".dict"}) {
+			final Path dest = dir.resolve(name+suffix);
+			Files.copy(Paths.get(support.resource(name+suffix)), dest);
+			support.deleteOnExit(dest);
+			}
+		support.deleteOnExit(GCIndex.getIndexPath(fasta));
+		/* the directory must be deleted after its files */
+		support.deleteOnExit(dir);
+		return fasta;
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {{1},{7},{GCIndex.DEFAULT_STRIDE},{5_000}};
+	}
+
+	@Test(dataProvider="src1")
+	public void testSameCounts(final int stride) throws IOException {
+		try {
+			final Path fasta = copyFasta("rotavirus_rf");
+			Assert.assertNull(GCIndex.openIfExists(fasta));
+			GCIndex.build(fasta, stride);
+			final GCIndex gcIndex = GCIndex.openIfExists(fasta);
+			Assert.assertNotNull(gcIndex);
+			Assert.assertEquals(gcIndex.getStride(), stride);
+			try(ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(fasta)) {
+				for(final SAMSequenceRecord ssr: ref.getSequenceDictionary().getSequences()) {
+					final GenomicSequence seq1 = new GenomicSequence(ref, ssr.getSequenceName());
+					final GenomicSequence seq2 = new GenomicSequence(ref, ssr.getSequenceName(), gcIndex);
+					final int len = ssr.getSequenceLength();
+					for(int i=0;i< 1000;i++) {
+						final int start = support.random.nextInt(len);
+						final int end = start + support.random.nextInt(i%2==0?100:len);
+						final GenomicSequence.GCPercent gc1 = seq1.getGCPercent(start, end);
+						final GenomicSequence.GCPercent gc2 = seq2.getGCPercent(start, end);
+						Assert.assertEquals(gc2.getAllCount(), gc1.getAllCount());
+						Assert.assertEquals(gc2.getGCCount(), gc1.getGCCount());
+						Assert.assertEquals(gc2.getATCount(), gc1.getATCount());
+						Assert.assertEquals(gc2.getNCount(), gc1.getNCount());
+						}
+					Assert.assertEquals(seq2.getGCPercent(0, len), seq1.getGCPercent(0, len));
+					}
+				}
+			/* index is obsolete if the fasta was modified */
+			Files.setLastModifiedTime(fasta, FileTime.fromMillis(Files.getLastModifiedTime(fasta).toMillis()+10_000L));
+			Assert.assertNull(GCIndex.openIfExists(fasta));
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
@@ -0,0 +1,87 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2022 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+
+@SuppressWarnings("deprecation")
+public class ReferenceGenomeFactoryTest {
+	private final TestSupport support =new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{1,1,1},
+			{7,2,1},
+			{50,3,2},
+			{1_000,2,20}
+			};
+	}
+
+	@Test(dataProvider="src1")
+	public void testSameBases(final int bufferSize,final int maxWindows,final int maxContigs) throws IOException {
+		final String fasta = support.resource("rotavirus_rf.fa");
+		try(ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(Paths.get(fasta));
+			ReferenceGenome genome = new ReferenceGenomeFactory().
+				setBufferSize(bufferSize).
+				setMaxWindowsPerContig(maxWindows).
+				setMaxContigsInMemory(maxContigs).
+				openFastaFile(new File(fasta))) {
+			for(final SAMSequenceRecord ssr: ref.getSequenceDictionary().getSequences()) {
+				final String bases = ref.getSequence(ssr.getSequenceName()).getBaseString();
+				final ReferenceContig contig = genome.getContig(ssr.getSequenceName());
+				Assert.assertNotNull(contig);
+				Assert.assertEquals(contig.length(), bases.length());
+				/* forward, crossing every window boundary */
+				for(int i=0;i< bases.length();i++) {
+					Assert.assertEquals(contig.charAt(i), bases.charAt(i));
+					}
+				/* backward */
+				for(int i=bases.length()-1;i>=0;i--) {
+					Assert.assertEquals(contig.charAt(i), bases.charAt(i));
+					}
+				/* random jumps, switching between the windows and the contigs */
+				for(int i=0;i< 1_000;i++) {
+					final SAMSequenceRecord ssr2 = ref.getSequenceDictionary().getSequence(support.random.nextInt(ref.getSequenceDictionary().size()));
+					final ReferenceContig contig2 = genome.getContig(ssr2.getSequenceName());
+					final int pos = support.random.nextInt(ssr2.getSequenceLength());
+					Assert.assertEquals(contig2.charAt(pos), (char)ref.getSubsequenceAt(ssr2.getSequenceName(), pos+1, pos+1).getBases()[0]);
+					}
+				}
+			}
+		}
+	}
@@ -1,9 +1,18 @@
 package com.github.lindenb.jvarkit.util.bio.structure;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tests.AlsoTest;
@@ -43,4 +52,69 @@ void test01() throws IOException {
 		
 		}
 	}
+
+private static String signature(final Gene g) {
+	return g.getId()+" "+g.getContig()+":"+g.getStart()+"-"+g.getEnd()+" "+g.getStrand()+" "+new TreeMap<>(g.getProperties())+" "+
+		g.getTranscripts().stream().map(T->T.getId()+" "+T.getGene().getId()+" "+T.getContig()+":"+T.getTxStart()+"-"+T.getTxEnd()+
+			" "+T.getStrand()+" "+T.isCoding()+" "+new TreeMap<>(T.getProperties())+" "+
+			T.getExons().stream().map(E->E.getStart()+"-"+E.getEnd()).collect(Collectors.joining(","))+" "+
+			(T.hasCodonStartDefined()?T.getCodonStart().get().getStart():-1)+" "+
+			(T.hasCodonStopDefined()?T.getCodonStop().get().getStart():-1)
+			).collect(Collectors.joining(";"));
+	}
+
+private static List<String> signatures(final Path path,final Function<String,String> converter) {
+	try(GtfReader gf = new GtfReader(path)) {
+		gf.setContigNameConverter(converter);
+		return gf.getAllGenes().stream().map(GtfReaderTest::signature).collect(Collectors.toList());
+		}
+	}
+
+@DataProvider(name="src2")
+public Object[][] testCacheData() {
+	return new Object[][] {
+		{"Homo_sapiens.GRCh37.87.gtf.gz",".gtf.gz"},
+		{"test_vcf01.knownGenes.txt.gz",".txt.gz"}
+		};
+	}
+
+@Test(dataProvider="src2")
+public void testGeneCache(final String resource,final String suffix) throws IOException {
+	final boolean enabled = GtfReader.isGeneCacheEnabled();
+	try {
+		final Path path = support.createTmpPath(suffix);
+		Files.copy(Paths.get(support.resource(resource)), path, StandardCopyOption.REPLACE_EXISTING);
+		final Path cachePath = support.deleteOnExit(new GeneModelCache(path).getCachePath());
+		final Function<String,String> converter = S->S.equals("1") || S.equals("chr1")?"one":null;
+
+		GtfReader.setGeneCacheEnabled(false);
+		final List<String> expect = signatures(path, S->S);
+		final List<String> expectConverted = signatures(path, converter);
+		Assert.assertFalse(Files.exists(cachePath));
+		Assert.assertFalse(expect.isEmpty());
+
+		GtfReader.setGeneCacheEnabled(true);
+		Assert.assertEquals(signatures(path, converter), expectConverted);
+		Assert.assertTrue(Files.exists(cachePath));
+		
+		GtfReader.setGeneCacheEnabled(false);
+		Assert.assertEquals(signatures(path, S->S), expect);
+		Assert.assertEquals(signatures(path, converter), expectConverted);
+		
+		Assert.assertNotNull(new GeneModelCache(path).load(S->S));
+		/* obsolete cache is ignored */
+		Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() - 60_000L));
+		Assert.assertNull(new GeneModelCache(path).load(S->S));
+		Assert.assertEquals(signatures(path, S->S), expect);
+		/* invalid cache is ignored */
+		Files.write(cachePath, new byte[] {1,2,3});
+		Assert.assertNull(new GeneModelCache(path).load(S->S));
+		Assert.assertEquals(signatures(path, S->S), expect);
+		}
+	finally
+		{
+		GtfReader.setGeneCacheEnabled(enabled);
+		support.removeTmpFiles();
+		}
+	}
 }
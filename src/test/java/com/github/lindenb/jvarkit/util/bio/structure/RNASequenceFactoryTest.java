@@ -0,0 +1,72 @@
+package com.github.lindenb.jvarkit.util.bio.structure;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
+
+public class RNASequenceFactoryTest {
+private final TestSupport support =new TestSupport();
+
+/** a random genomic sequence */
+private static class FakeContig extends AbstractCharSequence {
+	private final long seed;
+	FakeContig(final long seed) {
+		this.seed = seed;
+		}
+	@Override
+	public char charAt(int index) {
+		return "acgt".charAt(new Random(this.seed + index).nextInt(4));
+		}
+	@Override
+	public int length() {
+		return Integer.MAX_VALUE;
+		}
+	}
+
+@Test
+public void testSequences() throws IOException {
+	final List<Gene> genes;
+	try(GtfReader gf = new GtfReader(support.resource("Homo_sapiens.GRCh37.87.gtf.gz"))) {
+		genes = gf.getAllGenes();
+		}
+	final CharSequence contig = new FakeContig(0L);
+	final RNASequenceFactory factory = new RNASequenceFactory().
+			setContigToGenomicSequence(C->contig).
+			setCacheSize(2);
+	for(final Gene gene:genes) {
+		for(final Transcript tr:gene.getTranscripts()) {
+			final RNASequence mrna = factory.getMessengerRNA(tr);
+			Assert.assertEquals(mrna.length(), tr.getTranscriptLength());
+			for(int i=0;i< mrna.length();i++) {
+				final int g0 = mrna.convertRnaIndex0ToGenomic0(i);
+				final char c = Character.toUpperCase(contig.charAt(g0));
+				Assert.assertEquals(mrna.charAt(i), tr.isPositiveStrand()?c:AcidNucleics.complement(c));
+				final OptionalInt rna0 = mrna.convertGenomic0ToRnaIndex0(g0);
+				Assert.assertTrue(rna0.isPresent());
+				Assert.assertEquals(rna0.getAsInt(), i);
+				}
+			for(final Intron intron : tr.getIntrons()) {
+				Assert.assertFalse(mrna.convertGenomic0ToRnaIndex0(intron.getStart()-1).isPresent());
+				}
+			Assert.assertFalse(mrna.convertGenomic0ToRnaIndex0(tr.getStart()-2).isPresent());
+			Assert.assertFalse(mrna.convertGenomic0ToRnaIndex0(tr.getEnd()).isPresent());
+			Assert.assertSame(factory.getMessengerRNA(tr), mrna);
+			if(tr.isCoding() && tr.hasCDS()) {
+				final RNASequence cds = factory.getCodingRNA(tr);
+				Assert.assertEquals(cds.length(), tr.getCodingDNALength());
+				Assert.assertNotSame(cds, mrna);
+				}
+			factory.releaseBefore(tr.getContig(), tr.getEnd()+1);
+			Assert.assertNotSame(factory.getMessengerRNA(tr), mrna);
+			}
+		}
+	}
+}
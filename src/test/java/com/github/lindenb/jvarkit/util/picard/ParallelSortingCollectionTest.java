@@ -0,0 +1,98 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.util.CloseableIterator;
+
+public class ParallelSortingCollectionTest {
+	private final TestSupport support = new TestSupport();
+
+	/** key is sorted, the index checks that equal keys keep the insertion order */
+	private static class Item {
+		final int key;
+		final int index;
+		Item(final int key,final int index) {
+			this.key = key;
+			this.index = index;
+			}
+		@Override
+		public String toString() {
+			return key+":"+index;
+			}
+		}
+
+	private static class ItemCodec extends AbstractDataCodec<Item> {
+		@Override
+		public Item decode(final DataInputStream dis) throws IOException {
+			final int key = dis.readInt();
+			return new Item(key, dis.readInt());
+			}
+		@Override
+		public void encode(final DataOutputStream dos, final Item item) throws IOException {
+			dos.writeInt(item.key);
+			dos.writeInt(item.index);
+			}
+		@Override
+		public ItemCodec clone() {
+			return new ItemCodec();
+			}
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] testData() {
+		return new Object[][] {
+			{0, 0, 1, 9},
+			{0, 0, 10, 9},
+			{1_000, 0, 1, 0},
+			{1_000, 1, 10, 0},
+			{10_000, 0, 100, 1},
+			{10_000, 2, 100, 1},
+			{10_000, 3, 7, 9},
+			{10_000, 1, 20_000, 1}
+			};
+		}
+
+@Test(dataProvider="src1")
+public void testSort(final int n, final int nThreads, final int maxRecordsInRam, final int compression) throws IOException {
+	try {
+		final Path tmpDir = support.deleteOnExit(Files.createTempDirectory("tmp."));
+		final Random random = new Random(n);
+		final Comparator<Item> cmp = (A,B)->Integer.compare(A.key, B.key);
+		final List<Item> expect = new ArrayList<>(n);
+		final ParallelSortingCollection<Item> sorter = new ParallelSortingCollection<>(
+				Item.class, new ItemCodec(), cmp, maxRecordsInRam, nThreads, compression, tmpDir);
+		for(int i=0;i< n;i++) {
+			final Item item = new Item(random.nextInt(n/10+1), i);
+			expect.add(item);
+			sorter.add(item);
+			}
+		expect.sort(cmp);
+		final List<String> L = new ArrayList<>(n);
+		try(CloseableIterator<Item> iter = sorter.iterator()) {
+			while(iter.hasNext()) L.add(iter.next().toString());
+			}
+		sorter.cleanup();
+		Assert.assertEquals(L.size(), n);
+		for(int i=0;i< n;i++) {
+			Assert.assertEquals(L.get(i), expect.get(i).toString());
+			}
+		}
+	finally {
+		support.removeTmpFiles();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.github.lindenb.jvarkit.variant.variantcontext;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.variant.vcf.VCFReaderFactory;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFReader;
+
+public class VariantPipelineExecutorTest {
+	private final TestSupport support = new TestSupport();
+	private final List<Allele> alleles = Arrays.asList(Allele.create("A", true),Allele.create("C", false));
+
+	/** drops the variants at a position multiple of 7, duplicates those at a multiple of 5 */
+	private final VariantPipeline pipeline = new VariantPipeline() {
+		@Override
+		public VCFHeader getOutputHeader() {
+			return new VCFHeader();
+			}
+		@Override
+		public Transformer createTransformer() {
+			return (V,OUT)->{
+				if(V.getStart()%7==0) return;
+				OUT.accept(new VariantContextBuilder(V).attribute("X", V.getStart()).make());
+				if(V.getStart()%5==0) OUT.accept(V);
+				};
+			}
+		};
+
+	private List<VariantContext> variants(final int n) {
+		final List<VariantContext> L = new ArrayList<>(n);
+		for(int i=1;i<=n;i++) {
+			L.add(new VariantContextBuilder(null, "chr1", i, i, this.alleles).make());
+			}
+		return L;
+		}
+
+	private List<String> run(final List<VariantContext> input,final int nThreads,final int batchSize) throws IOException {
+		final List<VariantContext> L = new ArrayList<>();
+		new VariantPipelineExecutor().
+			setThreads(nThreads).
+			setBatchSize(batchSize).
+			execute(input.iterator(), this.pipeline, L::add);
+		return L.stream().map(V->V.getStart()+":"+V.hasAttribute("X")).collect(Collectors.toList());
+		}
+
+@Test
+public void testOrder() throws IOException {
+	for(int n : new int[] {0,1,10,10_000}) {
+		final List<VariantContext> input = variants(n);
+		final List<String> expect = run(input,1,1000);
+		for(int nThreads : new int[] {2,4,0}) {
+			for(int batchSize : new int[] {1,3,100}) {
+				Assert.assertEquals(run(input,nThreads,batchSize), expect);
+				}
+			}
+		}
+	}
+
+@Test(expectedExceptions=IllegalStateException.class)
+public void testError() throws IOException {
+	new VariantPipelineExecutor().
+		setThreads(4).
+		setBatchSize(10).
+		execute(variants(1_000).iterator(), new VariantPipeline() {
+			@Override
+			public VCFHeader getOutputHeader() {
+				return new VCFHeader();
+				}
+			@Override
+			public Transformer createTransformer() {
+				return (V,OUT)->{
+					if(V.getStart()==500) throw new IllegalStateException("boum");
+					OUT.accept(V);
+					};
+				}
+			}, V->{});
+	}
+
+/** the genotypes of a VCF are decoded lazily by a codec that is not thread-safe */
+@Test
+public void testGenotypes() throws IOException {
+	/* the samples of this VCF are sorted, so htsjdk decodes the genotypes lazily */
+	final String inputFile = support.resource("rotavirus_rf.unifiedgenotyper.vcf.gz");
+	final VariantPipeline gtPipeline = new VariantPipeline() {
+		@Override
+		public VCFHeader getOutputHeader() {
+			return new VCFHeader();
+			}
+		@Override
+		public Transformer createTransformer() {
+			return (V,OUT)->{
+				final GenotypesContext gc = V.getGenotypes();
+				if(gc instanceof LazyGenotypesContext && LazyGenotypesContext.class.cast(gc).getUnparsedGenotypeData()!=null) {
+					throw new IllegalStateException("genotypes were not decoded");
+					}
+				OUT.accept(new VariantContextBuilder(V).attribute("HET", gc.stream().filter(Genotype::isHet).count()).make());
+				};
+			}
+		};
+	final List<List<String>> results = new ArrayList<>();
+	for(int nThreads : new int[] {2,4}) {
+		for(int batchSize : new int[] {1,7,100}) {
+			final List<String> L = new ArrayList<>();
+			try(VCFReader r = VCFReaderFactory.makeDefault().open(Paths.get(inputFile), false)) {
+				Assert.assertTrue(r.getHeader().getNGenotypeSamples()>1);
+				try(CloseableIterator<VariantContext> iter = r.iterator()) {
+					new VariantPipelineExecutor().
+						setThreads(nThreads).
+						setBatchSize(batchSize).
+						execute(iter, gtPipeline, V->L.add(V.getStart()+":"+V.getAttribute("HET")+":"+
+							V.getGenotypes().stream().map(Genotype::toString).collect(Collectors.joining(";"))));
+					}
+				}
+			results.add(L);
+			}
+		}
+	/* reference: no thread, genotypes decoded by the caller */
+	final List<String> expect = new ArrayList<>();
+	try(VCFReader r = VCFReaderFactory.makeDefault().open(Paths.get(inputFile), false)) {
+		try(CloseableIterator<VariantContext> iter = r.iterator()) {
+			while(iter.hasNext()) {
+				final VariantContext V = iter.next();
+				expect.add(V.getStart()+":"+V.getGenotypes().stream().filter(Genotype::isHet).count()+":"+
+					V.getGenotypes().stream().map(Genotype::toString).collect(Collectors.joining(";")));
+				}
+			}
+		}
+	Assert.assertFalse(expect.isEmpty());
+	for(final List<String> L: results) {
+		Assert.assertEquals(L, expect);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.github.lindenb.jvarkit.variant.vcf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFReader;
+
+public class BufferedVCFReaderTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] testData() {
+		return new Object[][] {
+			{"rotavirus_rf.vcf.gz"},
+			{"gnomad_v2_sv.sites.vcf.gz"}
+			};
+		}
+
+	private List<String> query(final VCFReader r,final SimpleInterval q) {
+		final List<String> L = new ArrayList<>();
+		try(CloseableIterator<VariantContext> iter=r.query(q)) {
+			while(iter.hasNext()) {
+				final VariantContext ctx = iter.next();
+				L.add(ctx.getContig()+":"+ctx.getStart()+"-"+ctx.getEnd()+":"+ctx.getReference().getDisplayString());
+				}
+			}
+		return L;
+		}
+
+	/** one query per variant, plus random intervals */
+	private List<SimpleInterval> queries(final VCFReader r,final Random random) {
+		final List<SimpleInterval> L = new ArrayList<>();
+		try(CloseableIterator<VariantContext> iter=r.iterator()) {
+			while(iter.hasNext()) {
+				final VariantContext ctx = iter.next();
+				L.add(new SimpleInterval(ctx));
+				final int start = Math.max(1, ctx.getStart() - random.nextInt(1_000));
+				L.add(new SimpleInterval(ctx.getContig(), start, start + random.nextInt(1_000)));
+				}
+			}
+		return L;
+		}
+
+@Test(dataProvider="src1")
+public void testSameAsDelegate(final String fname) throws IOException {
+	final Path path = Paths.get(support.resource(fname));
+	final Random random = new Random(0L);
+	try(VCFReader r = VCFReaderFactory.makeDefault().open(path, true)) {
+		final List<SimpleInterval> sorted = queries(r, random);
+		final List<SimpleInterval> shuffled = new ArrayList<>(sorted);
+		Collections.shuffle(shuffled, random);
+		for(final List<SimpleInterval> queries : Arrays.asList(sorted, shuffled)) {
+			for(int buffSize : new int[] {1, 100, 10_000}) {
+				for(boolean prefetch : new boolean[] {false, true}) {
+					try(BufferedVCFReader b = new BufferedVCFReader(VCFReaderFactory.makeDefault().open(path, true), buffSize).setPrefetch(prefetch)) {
+						for(final SimpleInterval q : queries) {
+							Assert.assertEquals(query(b, q), query(r, q), q.toString());
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+/** with prefetch, the genotypes must be decoded by the thread reading the delegate. The samples of this VCF are sorted, so htsjdk decodes the genotypes lazily */
+@Test
+public void testGenotypesWithPrefetch() throws IOException {
+	final Path path = Paths.get(support.resource("rotavirus_rf.unifiedgenotyper.vcf.gz"));
+	final Random random = new Random(0L);
+	try(VCFReader r = VCFReaderFactory.makeDefault().open(path, true)) {
+		final List<SimpleInterval> queries = queries(r, random);
+		Assert.assertTrue(r.getHeader().getNGenotypeSamples()>1);
+		for(int buffSize : new int[] {1, 10, 100, 10_000}) {
+			try(BufferedVCFReader b = new BufferedVCFReader(VCFReaderFactory.makeDefault().open(path, true), buffSize).setPrefetch(true)) {
+				for(final SimpleInterval q : queries) {
+					final List<String> L = new ArrayList<>();
+					try(CloseableIterator<VariantContext> iter=b.query(q)) {
+						while(iter.hasNext()) {
+							final VariantContext ctx = iter.next();
+							final GenotypesContext gc = ctx.getGenotypes();
+							Assert.assertTrue(!(gc instanceof LazyGenotypesContext) || LazyGenotypesContext.class.cast(gc).getUnparsedGenotypeData()==null, ctx.toString());
+							for(final Genotype g: gc) {
+								L.add(g.toString());
+								}
+							}
+						}
+					final List<String> expect = new ArrayList<>();
+					try(CloseableIterator<VariantContext> iter=r.query(q)) {
+						while(iter.hasNext()) {
+							for(final Genotype g: iter.next().getGenotypes()) {
+								expect.add(g.toString());
+								}
+							}
+						}
+					Assert.assertEquals(L, expect, q.toString());
+					}
+				}
+			}
+		}
+	}
+}